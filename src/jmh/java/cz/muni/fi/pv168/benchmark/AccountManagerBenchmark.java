@@ -0,0 +1,73 @@
+package cz.muni.fi.pv168.benchmark;
+
+import cz.muni.fi.pv168.transactionmanager.Account;
+import cz.muni.fi.pv168.transactionmanager.AccountManagerImpl;
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of operations of AccountManagerImpl over table with given
+ * count of accounts.
+ *
+ * @author Miroslav Kubus
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AccountManagerBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int rows;
+
+    private BenchmarkDatabase database;
+    private AccountManagerImpl manager;
+    private final AtomicLong created = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        database = new BenchmarkDatabase("account-benchmark-" + rows);
+        database.fillAccounts(rows);
+        manager = new AccountManagerImpl(database.getDataSource());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.drop();
+    }
+
+    @Benchmark
+    public Account createAccount() {
+        Account account = new Account("new" + created.incrementAndGet(), "holder", BigDecimal.TEN);
+        manager.createAccount(account);
+        return account;
+    }
+
+    @Benchmark
+    public Account getAccountById() {
+        return manager.getAccountById(1L + ThreadLocalRandom.current().nextInt(rows));
+    }
+
+    @Benchmark
+    public Account getAccountByNumber() {
+        return manager.getAccountByNumber("acc" + ThreadLocalRandom.current().nextInt(rows));
+    }
+}
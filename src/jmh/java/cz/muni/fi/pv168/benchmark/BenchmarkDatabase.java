@@ -0,0 +1,180 @@
+package cz.muni.fi.pv168.benchmark;
+
+import cz.muni.fi.pv168.utils.DBUtils;
+import cz.muni.fi.pv168.utils.PooledDataSource;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * In memory or persistent Derby database filled with accounts and payments
+ * for benchmarks. Rows are inserted by JDBC batches, so even million of rows
+ * is prepared in reasonable time. Persistent database is created in directory
+ * target/benchmark-db, so benchmarks of commits include forcing of log to disk.
+ *
+ * @author Miroslav Kubus
+ */
+public class BenchmarkDatabase {
+
+    /**
+     * Balance of every account, high enough for any benchmark
+     */
+    public static final long BALANCE = 10000000L;
+
+    /**
+     * Managers log every call on level INFO, benchmarks measure them without
+     * writing of these messages
+     */
+    private static final Logger APPLICATION_LOGGER = Logger.getLogger("cz.muni.fi.pv168");
+
+    static {
+        APPLICATION_LOGGER.setLevel(Level.WARNING);
+    }
+
+    private static final String DIRECTORY = "target/benchmark-db/";
+
+    private final String url;
+    private final boolean persistent;
+    private final PooledDataSource dataSource;
+
+    public BenchmarkDatabase(String name) throws SQLException {
+        this(name, false);
+    }
+
+    /**
+     * Creates database, persistent database left by previous run is deleted
+     * @param name name of database
+     * @param persistent true for database on disk, false for in memory database
+     * @throws SQLException in case of error of database
+     */
+    public BenchmarkDatabase(String name, boolean persistent) throws SQLException {
+        this.persistent = persistent;
+        this.url = persistent ? "jdbc:derby:" + DIRECTORY + name : "jdbc:derby:memory:" + name;
+
+        if (persistent) {
+            deleteDirectory(Paths.get(DIRECTORY, name));
+        }
+
+        Properties properties = DBUtils.loadProperties(DBUtils.DATASOURCE_PROPERTIES);
+        properties.setProperty("pool.trackLeaks", "false");
+        dataSource = DBUtils.createDataSource(url + ";create=true", properties);
+        DBUtils.migrate(dataSource);
+    }
+
+    public PooledDataSource getDataSource() {
+        return dataSource;
+    }
+
+    /**
+     * Inserts accounts with numbers acc0, acc1, ... Ids of accounts are 1 to count.
+     * @param count count of accounts
+     * @throws SQLException in case of error of database
+     */
+    public void fillAccounts(int count) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement st = connection.prepareStatement(
+                     "INSERT INTO account (number, holder, balance) VALUES (?,?,?)")) {
+            connection.setAutoCommit(false);
+
+            for (int i = 0; i < count; i++) {
+                st.setString(1, "acc" + i);
+                st.setString(2, "holder" + i);
+                st.setLong(3, BALANCE);
+                st.addBatch();
+
+                if (i % 10000 == 9999) {
+                    st.executeBatch();
+                    connection.commit();
+                }
+            }
+
+            st.executeBatch();
+            connection.commit();
+            connection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Inserts payments between random accounts with dates from next year,
+     * so they can be updated.
+     * @param accounts count of accounts created by fillAccounts
+     * @param count count of payments
+     * @throws SQLException in case of error of database
+     */
+    public void fillPayments(int accounts, int count) throws SQLException {
+        Random random = new Random(42);
+        LocalDate today = LocalDate.now();
+
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement st = connection.prepareStatement(
+                     "INSERT INTO payment (fromAccount, toAccount, amount, date) VALUES (?,?,?,?)")) {
+            connection.setAutoCommit(false);
+
+            for (int i = 0; i < count; i++) {
+                int from = 1 + random.nextInt(accounts);
+                st.setLong(1, from);
+                st.setLong(2, 1 + (from + random.nextInt(accounts - 1)) % accounts);
+                st.setLong(3, 1 + random.nextInt(1000));
+                st.setDate(4, Date.valueOf(today.plusDays(random.nextInt(365))));
+                st.addBatch();
+
+                if (i % 10000 == 9999) {
+                    st.executeBatch();
+                    connection.commit();
+                }
+            }
+
+            st.executeBatch();
+            connection.commit();
+            connection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Closes pool and drops in memory database or shuts down and deletes
+     * persistent database
+     */
+    public void drop() {
+        try {
+            dataSource.close();
+        } catch (SQLException ex) {
+            // pool is closed anyway
+        }
+
+        try {
+            DriverManager.getConnection(url + (persistent ? ";shutdown=true" : ";drop=true")).close();
+        } catch (SQLException ex) {
+            // Derby reports successful drop and shutdown by exception
+        }
+
+        if (persistent) {
+            deleteDirectory(Paths.get(url.substring("jdbc:derby:".length())));
+        }
+    }
+
+    private static void deleteDirectory(Path directory) {
+        if (!Files.exists(directory)) {
+            return;
+        }
+
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Directory " + directory + " can not be deleted", ex);
+        }
+    }
+}
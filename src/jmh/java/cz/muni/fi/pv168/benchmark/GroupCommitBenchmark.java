@@ -0,0 +1,120 @@
+package cz.muni.fi.pv168.benchmark;
+
+import cz.muni.fi.pv168.transactionmanager.Account;
+import cz.muni.fi.pv168.transactionmanager.AccountManagerImpl;
+import cz.muni.fi.pv168.transactionmanager.GroupCommitPaymentWriter;
+import cz.muni.fi.pv168.transactionmanager.Payment;
+import cz.muni.fi.pv168.transactionmanager.PaymentManagerImpl;
+import cz.muni.fi.pv168.utils.ServiceFailureException;
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Throughput of creating of payments in persistent database, where every
+ * commit forces log to disk. Payments are created either directly by
+ * PaymentManagerImpl, one commit per payment, or by GroupCommitPaymentWriter,
+ * which shares commits of payments submitted by concurrent threads, so it
+ * should be run with many threads (-t 64). Calls aborted by deadlock of Derby
+ * are consumed as failed.
+ *
+ * @author Miroslav Kubus
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GroupCommitBenchmark {
+
+    @Param({"direct", "groupCommit"})
+    public String writer;
+
+    @Param({"100"})
+    public int maxBatchSize;
+
+    @Param({"2"})
+    public long lingerMillis;
+
+    private BenchmarkDatabase database;
+    private PaymentManagerImpl manager;
+    private GroupCommitPaymentWriter groupCommit;
+    private List<Account> accounts;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        database = new BenchmarkDatabase("group-commit-benchmark", true);
+        database.fillAccounts(1000);
+        manager = new PaymentManagerImpl(database.getDataSource());
+        manager.setChunkSize(Math.max(PaymentManagerImpl.DEFAULT_CHUNK_SIZE, maxBatchSize));
+        accounts = new ArrayList<>(new AccountManagerImpl(database.getDataSource()).getAllAccounts());
+
+        if ("groupCommit".equals(writer)) {
+            groupCommit = new GroupCommitPaymentWriter(manager, maxBatchSize, lingerMillis, 100000);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        if (groupCommit != null) {
+            groupCommit.close();
+            System.out.println("Batch sizes: mean " + groupCommit.getBatchSizes().getMeanNanos()
+                    + ", max " + groupCommit.getBatchSizes().getMaxNanos()
+                    + ", wait p99 " + groupCommit.getWaitTimes().getValueAtQuantile(0.99) / 1000 + "us");
+        }
+
+        database.drop();
+    }
+
+    private Account randomAccount() {
+        return accounts.get(ThreadLocalRandom.current().nextInt(accounts.size()));
+    }
+
+    @Benchmark
+    public void createPayment(Blackhole blackhole) throws InterruptedException {
+        Account from = randomAccount();
+        Account to = randomAccount();
+
+        if (from.getId().equals(to.getId())) {
+            return;
+        }
+
+        Payment payment = new Payment();
+        payment.setFrom(from);
+        payment.setTo(to);
+        payment.setAmount(BigDecimal.ONE);
+        payment.setDate(LocalDate.now());
+
+        try {
+            if (groupCommit == null) {
+                manager.createPayment(payment);
+            } else {
+                groupCommit.submit(payment).get();
+            }
+
+            blackhole.consume(payment.getId());
+        } catch (ServiceFailureException | ExecutionException ex) {
+            blackhole.consume(ex);
+        }
+    }
+}
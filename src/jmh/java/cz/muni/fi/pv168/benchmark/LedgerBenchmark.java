@@ -0,0 +1,129 @@
+package cz.muni.fi.pv168.benchmark;
+
+import cz.muni.fi.pv168.transactionmanager.Account;
+import cz.muni.fi.pv168.transactionmanager.AccountManager;
+import cz.muni.fi.pv168.transactionmanager.AccountManagerImpl;
+import cz.muni.fi.pv168.transactionmanager.Ledger;
+import cz.muni.fi.pv168.transactionmanager.LedgerAccountManager;
+import cz.muni.fi.pv168.transactionmanager.LedgerPaymentManager;
+import cz.muni.fi.pv168.transactionmanager.MemoryAccountManager;
+import cz.muni.fi.pv168.transactionmanager.MemoryPaymentManager;
+import cz.muni.fi.pv168.transactionmanager.MemoryStore;
+import cz.muni.fi.pv168.transactionmanager.Payment;
+import cz.muni.fi.pv168.transactionmanager.PaymentManager;
+import cz.muni.fi.pv168.transactionmanager.PaymentManagerImpl;
+import cz.muni.fi.pv168.utils.ServiceFailureException;
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares PaymentManagerImpl with ledger backend. Accounts are created by
+ * manager of given backend, so ledger knows them from its own events. Few
+ * accounts with many threads (-t 4) show contention on rows of accounts,
+ * which PaymentManagerImpl locks in database, while ledger only appends
+ * events. Calls aborted by deadlock of Derby are consumed as failed.
+ * Memory backend keeps everything in MemoryStore and shows cost of
+ * database itself.
+ *
+ * @author Miroslav Kubus
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LedgerBenchmark {
+
+    @Param({"jdbc", "ledger", "memory"})
+    public String backend;
+
+    @Param({"2", "1000"})
+    public int accountCount;
+
+    private BenchmarkDatabase database;
+    private PaymentManager manager;
+    private List<Account> accounts;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        database = new BenchmarkDatabase("ledger-benchmark-" + backend + "-" + accountCount);
+        AccountManager accountManager;
+
+        if ("ledger".equals(backend)) {
+            Ledger ledger = new Ledger(database.getDataSource());
+            accountManager = new LedgerAccountManager(ledger);
+            manager = new LedgerPaymentManager(ledger);
+        } else if ("memory".equals(backend)) {
+            MemoryStore store = new MemoryStore();
+            accountManager = new MemoryAccountManager(store);
+            manager = new MemoryPaymentManager(store);
+        } else {
+            accountManager = new AccountManagerImpl(database.getDataSource());
+            manager = new PaymentManagerImpl(database.getDataSource());
+        }
+
+        for (int i = 0; i < accountCount; i++) {
+            accountManager.createAccount(new Account("acc" + i, "holder" + i,
+                    BigDecimal.valueOf(BenchmarkDatabase.BALANCE)));
+        }
+
+        accounts = new ArrayList<>(accountManager.getAllAccounts());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.drop();
+    }
+
+    private Account randomAccount() {
+        return accounts.get(ThreadLocalRandom.current().nextInt(accounts.size()));
+    }
+
+    @Benchmark
+    public void createPayment(Blackhole blackhole) {
+        Account from = randomAccount();
+        Account to = randomAccount();
+
+        if (from.getId().equals(to.getId())) {
+            return;
+        }
+
+        Payment payment = new Payment();
+        payment.setFrom(from);
+        payment.setTo(to);
+        payment.setAmount(BigDecimal.ONE);
+        payment.setDate(LocalDate.now());
+
+        try {
+            manager.createPayment(payment);
+            blackhole.consume(payment.getId());
+        } catch (ServiceFailureException ex) {
+            blackhole.consume(ex);
+        }
+    }
+
+    @Benchmark
+    public List<Payment> getPaymentsFromAccount() {
+        return manager.getPaymentsFromAccount(randomAccount());
+    }
+}
@@ -0,0 +1,166 @@
+package cz.muni.fi.pv168.benchmark;
+
+import cz.muni.fi.pv168.transactionmanager.Account;
+import cz.muni.fi.pv168.transactionmanager.AccountManagerImpl;
+import cz.muni.fi.pv168.transactionmanager.MappedPaymentManager;
+import cz.muni.fi.pv168.transactionmanager.Payment;
+import cz.muni.fi.pv168.transactionmanager.PaymentLog;
+import cz.muni.fi.pv168.transactionmanager.PaymentManager;
+import cz.muni.fi.pv168.transactionmanager.PaymentManagerImpl;
+import cz.muni.fi.pv168.utils.ServiceFailureException;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares PaymentManagerImpl with payments stored in memory-mapped log.
+ * Both backends keep balances in the same Derby database, so difference is
+ * cost of payment table, its indexes and statistics against record of log.
+ * Database is filled with payments before measurement, reading benchmarks
+ * look up payments by id and by from account.
+ *
+ * @author Miroslav Kubus
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MappedPaymentBenchmark {
+
+    private static final String LOG_DIRECTORY = "target/benchmark-log/";
+    private static final int ACCOUNT_COUNT = 100;
+
+    @Param({"jdbc", "mapped"})
+    public String backend;
+
+    @Param({"10000"})
+    public int paymentCount;
+
+    private BenchmarkDatabase database;
+    private PaymentLog log;
+    private Path logDirectory;
+    private PaymentManager manager;
+    private List<Account> accounts;
+    private List<Long> paymentIds;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException, IOException {
+        database = new BenchmarkDatabase("mapped-benchmark-" + backend + "-" + paymentCount);
+        AccountManagerImpl accountManager = new AccountManagerImpl(database.getDataSource());
+
+        if ("mapped".equals(backend)) {
+            logDirectory = Paths.get(LOG_DIRECTORY + paymentCount);
+            deleteLog();
+            log = new PaymentLog(logDirectory);
+            manager = new MappedPaymentManager(database.getDataSource(), log);
+        } else {
+            manager = new PaymentManagerImpl(database.getDataSource());
+        }
+
+        for (int i = 0; i < ACCOUNT_COUNT; i++) {
+            accountManager.createAccount(new Account("acc" + i, "holder" + i,
+                    BigDecimal.valueOf(BenchmarkDatabase.BALANCE)));
+        }
+
+        accounts = new ArrayList<>(accountManager.getAllAccounts());
+
+        Random random = new Random(42);
+        List<Payment> payments = new ArrayList<>();
+
+        for (int i = 0; i < paymentCount; i++) {
+            int from = random.nextInt(accounts.size());
+            int to = (from + 1 + random.nextInt(accounts.size() - 1)) % accounts.size();
+            payments.add(newPayment(accounts.get(from), accounts.get(to)));
+        }
+
+        paymentIds = manager.createPayments(payments).getIds();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (log != null) {
+            log.close();
+            deleteLog();
+        }
+
+        database.drop();
+    }
+
+    private void deleteLog() throws IOException {
+        if (Files.exists(logDirectory)) {
+            try (Stream<Path> files = Files.walk(logDirectory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private Account randomAccount() {
+        return accounts.get(ThreadLocalRandom.current().nextInt(accounts.size()));
+    }
+
+    private static Payment newPayment(Account from, Account to) {
+        Payment payment = new Payment();
+        payment.setFrom(from);
+        payment.setTo(to);
+        payment.setAmount(BigDecimal.ONE);
+        payment.setDate(LocalDate.now());
+
+        return payment;
+    }
+
+    @Benchmark
+    public void createPayment(Blackhole blackhole) {
+        Account from = randomAccount();
+        Account to = randomAccount();
+
+        if (from.getId().equals(to.getId())) {
+            return;
+        }
+
+        Payment payment = newPayment(from, to);
+
+        try {
+            manager.createPayment(payment);
+            blackhole.consume(payment.getId());
+        } catch (ServiceFailureException ex) {
+            blackhole.consume(ex);
+        }
+    }
+
+    @Benchmark
+    public Payment getPaymentByID() {
+        return manager.getPaymentByID(paymentIds.get(ThreadLocalRandom.current().nextInt(paymentIds.size())));
+    }
+
+    @Benchmark
+    public List<Payment> getPaymentsFromAccount() {
+        return manager.getPaymentsFromAccount(randomAccount());
+    }
+}
@@ -0,0 +1,108 @@
+package cz.muni.fi.pv168.benchmark;
+
+import cz.muni.fi.pv168.utils.Money;
+import java.math.BigDecimal;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares BigDecimal with Money on arithmetic of one payment: validation of
+ * amount, check of funds and change of balances and statistics of both
+ * accounts, like MemoryStore does it. Balances have scale 4 like balances read
+ * from database, amounts have scale 2 like amounts entered by user, so
+ * BigDecimal rescales them. Run with -prof gc to see allocation per payment.
+ *
+ * @author Miroslav Kubus
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MoneyBenchmark {
+
+    private static final int ACCOUNT_COUNT = 1000;
+    private static final int AMOUNT_COUNT = 1024;
+
+    private BigDecimal[] decimalBalances;
+    private BigDecimal[] decimalTotals;
+    private BigDecimal[] decimalAmounts;
+    private Money[] moneyBalances;
+    private Money[] moneyTotals;
+    private Money[] moneyAmounts;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        Random random = new Random(42);
+        decimalBalances = new BigDecimal[ACCOUNT_COUNT];
+        decimalTotals = new BigDecimal[ACCOUNT_COUNT];
+        moneyBalances = new Money[ACCOUNT_COUNT];
+        moneyTotals = new Money[ACCOUNT_COUNT];
+
+        for (int i = 0; i < ACCOUNT_COUNT; i++) {
+            decimalBalances[i] = BigDecimal.valueOf(BenchmarkDatabase.BALANCE).setScale(Money.SCALE);
+            decimalTotals[i] = BigDecimal.ZERO.setScale(Money.SCALE);
+            moneyBalances[i] = Money.of(decimalBalances[i]);
+            moneyTotals[i] = Money.ZERO;
+        }
+
+        decimalAmounts = new BigDecimal[AMOUNT_COUNT];
+        moneyAmounts = new Money[AMOUNT_COUNT];
+
+        for (int i = 0; i < AMOUNT_COUNT; i++) {
+            decimalAmounts[i] = BigDecimal.valueOf(1 + random.nextInt(10000), 2);
+            moneyAmounts[i] = Money.of(decimalAmounts[i]);
+        }
+    }
+
+    @Benchmark
+    public boolean bigDecimal() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int from = random.nextInt(ACCOUNT_COUNT);
+        int to = random.nextInt(ACCOUNT_COUNT);
+        BigDecimal amount = decimalAmounts[random.nextInt(AMOUNT_COUNT)];
+
+        if (amount.compareTo(BigDecimal.ZERO) <= 0 || decimalBalances[from].compareTo(amount) < 0) {
+            return false;
+        }
+
+        decimalBalances[from] = decimalBalances[from].subtract(amount);
+        decimalBalances[to] = decimalBalances[to].add(amount);
+        decimalTotals[from] = decimalTotals[from].add(amount);
+        decimalTotals[to] = decimalTotals[to].add(amount);
+
+        return true;
+    }
+
+    @Benchmark
+    public boolean money() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int from = random.nextInt(ACCOUNT_COUNT);
+        int to = random.nextInt(ACCOUNT_COUNT);
+        Money amount = moneyAmounts[random.nextInt(AMOUNT_COUNT)];
+
+        if (amount.signum() <= 0 || moneyBalances[from].isLessThan(amount)) {
+            return false;
+        }
+
+        moneyBalances[from] = moneyBalances[from].subtract(amount);
+        moneyBalances[to] = moneyBalances[to].add(amount);
+        moneyTotals[from] = moneyTotals[from].add(amount);
+        moneyTotals[to] = moneyTotals[to].add(amount);
+
+        return true;
+    }
+}
@@ -0,0 +1,130 @@
+package cz.muni.fi.pv168.benchmark;
+
+import cz.muni.fi.pv168.transactionmanager.Account;
+import cz.muni.fi.pv168.transactionmanager.AccountManagerImpl;
+import cz.muni.fi.pv168.transactionmanager.Payment;
+import cz.muni.fi.pv168.transactionmanager.PaymentManagerImpl;
+import cz.muni.fi.pv168.utils.OptimisticLockException;
+import cz.muni.fi.pv168.utils.ServiceFailureException;
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Throughput of operations of PaymentManagerImpl over table with given count
+ * of payments between rows / 10 accounts. Writing benchmarks run with more
+ * threads can be aborted by deadlock of Derby, such calls are consumed as
+ * failed instead of stopping the benchmark. Benchmark getAllPayments reads
+ * whole table in every call, so it is reported in milliseconds per call by
+ * running it with -bm avgt -tu ms.
+ *
+ * @author Miroslav Kubus
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PaymentManagerBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int rows;
+
+    private BenchmarkDatabase database;
+    private PaymentManagerImpl manager;
+    private List<Account> accounts;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        int accountCount = Math.max(10, rows / 10);
+
+        database = new BenchmarkDatabase("payment-benchmark-" + rows);
+        database.fillAccounts(accountCount);
+        database.fillPayments(accountCount, rows);
+        manager = new PaymentManagerImpl(database.getDataSource());
+        accounts = new ArrayList<>(new AccountManagerImpl(database.getDataSource()).getAllAccounts());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.drop();
+    }
+
+    private Account randomAccount() {
+        return accounts.get(ThreadLocalRandom.current().nextInt(accounts.size()));
+    }
+
+    @Benchmark
+    public void createPayment(Blackhole blackhole) {
+        Account from = randomAccount();
+        Account to = randomAccount();
+
+        if (from.getId().equals(to.getId())) {
+            return;
+        }
+
+        Payment payment = new Payment();
+        payment.setFrom(from);
+        payment.setTo(to);
+        payment.setAmount(BigDecimal.ONE);
+        payment.setDate(LocalDate.now());
+
+        try {
+            manager.createPayment(payment);
+            blackhole.consume(payment.getId());
+        } catch (ServiceFailureException ex) {
+            blackhole.consume(ex);
+        }
+    }
+
+    /**
+     * Loads random payment and changes its amount, so it measures
+     * getPaymentByID together with updatePayment
+     */
+    @Benchmark
+    public void updatePayment(Blackhole blackhole) {
+        Payment payment = manager.getPaymentByID(1L + ThreadLocalRandom.current().nextInt(rows));
+        payment.setAmount(payment.getAmount().add(BigDecimal.ONE));
+
+        try {
+            manager.updatePayment(payment);
+            blackhole.consume(payment.getVersion());
+        } catch (OptimisticLockException | ServiceFailureException ex) {
+            blackhole.consume(ex);
+        }
+    }
+
+    @Benchmark
+    public Payment getPaymentByID() {
+        return manager.getPaymentByID(1L + ThreadLocalRandom.current().nextInt(rows));
+    }
+
+    @Benchmark
+    public List<Payment> getPaymentsFromAccount() {
+        return manager.getPaymentsFromAccount(randomAccount());
+    }
+
+    @Benchmark
+    public List<Payment> getAllPayments() {
+        return manager.getAllPayments();
+    }
+}
@@ -14,6 +14,7 @@ public class Account {
     private String number;
     private String holder;
     private BigDecimal balance;
+    private long version;
 
     public Account() {
         this.id = null;
@@ -61,6 +62,19 @@ public class Account {
         this.balance = balance;
     }
 
+    /**
+     * Returns version of account which was read from database. Version is 
+     * not part of equality of accounts.
+     * @return version of account
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
     @Override
     public String toString() {
         return "Account{" + "id=" + id + ", number=" + number + ", holder=" + holder + ", balance=" + balance + '}';
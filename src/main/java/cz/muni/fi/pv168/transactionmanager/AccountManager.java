@@ -22,6 +22,8 @@ public interface AccountManager {
      * Updates account in database.
      * @param account updated account to be stored into database
      * @throws IllegalArgumentException when account is null or account has null id.
+     * @throws cz.muni.fi.pv168.utils.OptimisticLockException when account was 
+     * changed in the database since it was read, for example by payment.
      */
     void updateAccount(Account account);
     
@@ -2,6 +2,9 @@ package cz.muni.fi.pv168.transactionmanager;
 
 import cz.muni.fi.pv168.utils.AccountHelper;
 import cz.muni.fi.pv168.utils.EntityNotFoundException;
+import cz.muni.fi.pv168.utils.MetricsRegistry;
+import cz.muni.fi.pv168.utils.OperationMetrics;
+import cz.muni.fi.pv168.utils.OptimisticLockException;
 import cz.muni.fi.pv168.utils.ServiceFailureException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -23,6 +26,15 @@ import org.apache.derby.shared.common.error.DerbySQLIntegrityConstraintViolation
 public class AccountManagerImpl implements AccountManager {
     
     private static final Logger logger = Logger.getLogger(AccountManagerImpl.class.getName());
+    
+    private static final MetricsRegistry METRICS = MetricsRegistry.getDefault();
+    private static final OperationMetrics SQL_INSERT = METRICS.operation("sql.account.insert");
+    private static final OperationMetrics SQL_UPDATE = METRICS.operation("sql.account.update");
+    private static final OperationMetrics SQL_DELETE = METRICS.operation("sql.account.delete");
+    private static final OperationMetrics SQL_SELECT_BY_ID = METRICS.operation("sql.account.selectById");
+    private static final OperationMetrics SQL_SELECT_ALL = METRICS.operation("sql.account.selectAll");
+    private static final OperationMetrics SQL_SELECT_BY_NUMBER = METRICS.operation("sql.account.selectByNumber");
+    
     private final DataSource dataSource;
     private final AccountHelper accountHelper;
     
@@ -49,7 +61,7 @@ public class AccountManagerImpl implements AccountManager {
             st.setString(2,account.getHolder());
             st.setBigDecimal(3,account.getBalance());
             
-            int addedRows = st.executeUpdate();
+            int addedRows = SQL_INSERT.executeUpdate(st);
             
             if(addedRows != 1) {
                  throw new ServiceFailureException("Internal Error: More rows ("
@@ -58,6 +70,7 @@ public class AccountManagerImpl implements AccountManager {
             
             ResultSet keyRS = st.getGeneratedKeys();
             account.setId(getKey(keyRS,account));
+            account.setVersion(0);
                          
         } catch(DerbySQLIntegrityConstraintViolationException ex) {
             logger.log(Level.SEVERE, "Error when creating new account. Account number " 
@@ -96,7 +109,8 @@ public class AccountManagerImpl implements AccountManager {
     }
 
     @Override
-    public void updateAccount(Account account) throws ServiceFailureException, EntityNotFoundException {
+    public void updateAccount(Account account) throws ServiceFailureException, EntityNotFoundException, 
+                                                      OptimisticLockException {
         logger.log(Level.INFO, "Updating account {0}", account);
         accountHelper.validate(account);
         
@@ -106,17 +120,27 @@ public class AccountManagerImpl implements AccountManager {
         
         try( Connection connection = dataSource.getConnection();
              PreparedStatement st = connection.prepareStatement(
-                "UPDATE account SET number = ?, holder = ?, balance = ? WHERE id = ?")) {
+                "UPDATE account SET number = ?, holder = ?, balance = ?, version = version + 1 "
+                + "WHERE id = ? AND version = ?")) {
             
             st.setString(1, account.getNumber());
             st.setString(2, account.getHolder());
             st.setBigDecimal(3, account.getBalance());
             st.setLong(4, account.getId());
+            st.setLong(5, account.getVersion());
             
-            int updated = st.executeUpdate();
+            int updated = SQL_UPDATE.executeUpdate(st);
             
             if(updated == 0) {
-                throw new EntityNotFoundException("Account " + account + "were not find in database");
+                Account current = getAccountById(account.getId());
+                
+                if(current == null) {
+                    throw new EntityNotFoundException("Account " + account + "were not find in database");
+                }
+                
+                logger.log(Level.WARNING, "Account {0} was changed since it was read", account);
+                throw new OptimisticLockException("Account " + account + " was changed since it was read, "
+                        + "current state is " + current, current);
             }
             
             if(updated != 1) {
@@ -124,6 +148,8 @@ public class AccountManagerImpl implements AccountManager {
                                                  + "(one row should be updated): " + updated);
             }
             
+            account.setVersion(account.getVersion() + 1);
+            
         } catch (SQLException ex) {
             logger.log(Level.SEVERE, "Error while updating account " + account, ex);
             throw new ServiceFailureException("Error while updating of account " + account, ex);
@@ -147,7 +173,7 @@ public class AccountManagerImpl implements AccountManager {
              "DELETE FROM account WHERE id = ?")) {
             
             st.setLong(1, account.getId());
-            int removed = st.executeUpdate();
+            int removed = SQL_DELETE.executeUpdate(st);
             
             if(removed == 0) {
                 throw new EntityNotFoundException(account + "was not find in database");
@@ -175,10 +201,10 @@ public class AccountManagerImpl implements AccountManager {
         
         try( Connection connection = dataSource.getConnection();
              PreparedStatement st = connection.prepareStatement(
-                "SELECT id,number,holder,balance FROM account WHERE id = ?")) {
+                "SELECT id,number,holder,balance,version FROM account WHERE id = ?")) {
             
             st.setLong(1, id);
-            ResultSet rs = st.executeQuery();
+            ResultSet rs = SQL_SELECT_BY_ID.executeQuery(st);
             
             if(rs.next()) {
                 Account account = accountHelper.resultSetToAccount(rs);
@@ -208,7 +234,7 @@ public class AccountManagerImpl implements AccountManager {
         try( Connection connection = dataSource.getConnection();
              PreparedStatement st = connection.prepareStatement("SELECT * FROM account")) {
             
-            ResultSet rs = st.executeQuery();
+            ResultSet rs = SQL_SELECT_ALL.executeQuery(st);
             
             while(rs.next()) {
                 accounts.add(accountHelper.resultSetToAccount(rs));
@@ -232,10 +258,10 @@ public class AccountManagerImpl implements AccountManager {
         
         try( Connection connection = dataSource.getConnection();
              PreparedStatement st = connection.prepareStatement(
-                "SELECT id,number,holder,balance FROM account WHERE number = ?")) {
+                "SELECT id,number,holder,balance,version FROM account WHERE number = ?")) {
             
             st.setString(1, number);
-            ResultSet rs = st.executeQuery();
+            ResultSet rs = SQL_SELECT_BY_NUMBER.executeQuery(st);
             
             if(rs.next()) {
                 Account account = accountHelper.resultSetToAccount(rs);
@@ -0,0 +1,87 @@
+package cz.muni.fi.pv168.transactionmanager;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Objects;
+
+/**
+ * This class represents turnover of account - totals and counts of incoming
+ * and outgoing payments and date of the latest payment of account.
+ *
+ * @author Miroslav Kubus
+ */
+public class AccountStatistics {
+    private final Long accountId;
+    private final BigDecimal totalIn;
+    private final BigDecimal totalOut;
+    private final long countIn;
+    private final long countOut;
+    private final LocalDate lastPaymentDate;
+
+    public AccountStatistics(Long accountId, BigDecimal totalIn, BigDecimal totalOut,
+            long countIn, long countOut, LocalDate lastPaymentDate) {
+        this.accountId = accountId;
+        this.totalIn = totalIn;
+        this.totalOut = totalOut;
+        this.countIn = countIn;
+        this.countOut = countOut;
+        this.lastPaymentDate = lastPaymentDate;
+    }
+
+    public Long getAccountId() {
+        return accountId;
+    }
+
+    public BigDecimal getTotalIn() {
+        return totalIn;
+    }
+
+    public BigDecimal getTotalOut() {
+        return totalOut;
+    }
+
+    public long getCountIn() {
+        return countIn;
+    }
+
+    public long getCountOut() {
+        return countOut;
+    }
+
+    /**
+     * @return date of the latest payment from or to account, null when
+     * account has no payment
+     */
+    public LocalDate getLastPaymentDate() {
+        return lastPaymentDate;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        final AccountStatistics other = (AccountStatistics) obj;
+        return Objects.equals(this.accountId, other.accountId)
+                && this.totalIn.compareTo(other.totalIn) == 0
+                && this.totalOut.compareTo(other.totalOut) == 0
+                && this.countIn == other.countIn
+                && this.countOut == other.countOut
+                && Objects.equals(this.lastPaymentDate, other.lastPaymentDate);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(accountId, countIn, countOut, lastPaymentDate);
+    }
+
+    @Override
+    public String toString() {
+        return "AccountStatistics{" + "accountId=" + accountId + ", totalIn=" + totalIn
+                + ", totalOut=" + totalOut + ", countIn=" + countIn + ", countOut=" + countOut
+                + ", lastPaymentDate=" + lastPaymentDate + '}';
+    }
+}
@@ -0,0 +1,108 @@
+package cz.muni.fi.pv168.transactionmanager;
+
+import cz.muni.fi.pv168.utils.EntityNotFoundException;
+import cz.muni.fi.pv168.utils.ManagerExecutors;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Asynchronous facade of AccountManager. Every operation runs on given
+ * executor and its result or exception is returned in CompletableFuture.
+ *
+ * @author Miroslav Kubus
+ */
+public class AsyncAccountManager {
+
+    private final AccountManager accountManager;
+    private final Executor executor;
+
+    public AsyncAccountManager(AccountManager accountManager, Executor executor) {
+        if(accountManager == null || executor == null) {
+            throw new IllegalArgumentException("Account manager and executor must not be null");
+        }
+
+        this.accountManager = accountManager;
+        this.executor = executor;
+    }
+
+    /**
+     * Stores new account into database.
+     * @param account account to be created
+     * @return future with created account with generated id
+     */
+    public CompletableFuture<Account> createAccount(Account account) {
+        return ManagerExecutors.supply(() -> {
+            accountManager.createAccount(account);
+            return account;
+        }, executor);
+    }
+
+    /**
+     * Updates account in database.
+     * @param account updated account to be stored into database
+     * @return future completed when account is updated
+     */
+    public CompletableFuture<Void> updateAccount(Account account) {
+        return ManagerExecutors.supply(() -> {
+            accountManager.updateAccount(account);
+            return null;
+        }, executor);
+    }
+
+    /**
+     * Deletes account from database.
+     * @param account account to be deleted from database
+     * @return future completed when account is deleted
+     */
+    public CompletableFuture<Void> deleteAccount(Account account) {
+        return ManagerExecutors.supply(() -> {
+            accountManager.deleteAccount(account);
+            return null;
+        }, executor);
+    }
+
+    /**
+     * Returns account with given id.
+     * @param id primary key of requested account
+     * @return future with account or null if such account does not exist
+     */
+    public CompletableFuture<Account> getAccountById(Long id) {
+        return ManagerExecutors.supply(() -> accountManager.getAccountById(id), executor);
+    }
+
+    /**
+     * Returns list of all accounts in the database.
+     * @return future with list of all accounts
+     */
+    public CompletableFuture<List<Account>> getAllAccounts() {
+        return ManagerExecutors.supply(accountManager::getAllAccounts, executor);
+    }
+
+    /**
+     * Returns account with given number.
+     * @param number number of requested account
+     * @return future with account or null if such account does not exist
+     */
+    public CompletableFuture<Account> getAccountByNumber(String number) {
+        return ManagerExecutors.supply(() -> accountManager.getAccountByNumber(number), executor);
+    }
+
+    /**
+     * Returns account with given number. Future completes exceptionally with
+     * EntityNotFoundException when such account does not exist.
+     * @param number number of requested account
+     * @return future with existing account
+     */
+    public CompletableFuture<Account> getExistingAccountByNumber(String number) {
+        return ManagerExecutors.supply(() -> {
+            Account account = accountManager.getAccountByNumber(number);
+
+            if(account == null) {
+                throw new EntityNotFoundException("Account with number " + number + " does not exist");
+            }
+
+            return account;
+        }, executor);
+    }
+}
@@ -0,0 +1,157 @@
+package cz.muni.fi.pv168.transactionmanager;
+
+import cz.muni.fi.pv168.utils.ManagerExecutors;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Asynchronous facade of PaymentManager. Every operation runs on given
+ * executor and its result or exception is returned in CompletableFuture.
+ *
+ * @author Miroslav Kubus
+ */
+public class AsyncPaymentManager {
+
+    private final PaymentManager paymentManager;
+    private final AsyncAccountManager accountManager;
+    private final Executor executor;
+
+    public AsyncPaymentManager(PaymentManager paymentManager, AsyncAccountManager accountManager, 
+                               Executor executor) {
+        if(paymentManager == null || accountManager == null || executor == null) {
+            throw new IllegalArgumentException("Managers and executor must not be null");
+        }
+
+        this.paymentManager = paymentManager;
+        this.accountManager = accountManager;
+        this.executor = executor;
+    }
+
+    /**
+     * Creates new payment and changes balance of both accounts.
+     * @param payment payment to be created
+     * @return future with created payment with generated id
+     */
+    public CompletableFuture<Payment> createPayment(Payment payment) {
+        return ManagerExecutors.supply(() -> {
+            paymentManager.createPayment(payment);
+            return payment;
+        }, executor);
+    }
+
+    /**
+     * Resolves both accounts by their numbers in parallel and then creates
+     * payment between them. Future completes exceptionally with
+     * EntityNotFoundException when some of accounts does not exist.
+     * @param fromNumber number of account from which money are sent
+     * @param toNumber number of account to which money are sent
+     * @param amount amount of payment
+     * @param date date of payment
+     * @return future with created payment
+     */
+    public CompletableFuture<Payment> createPayment(String fromNumber, String toNumber,
+                                                    BigDecimal amount, LocalDate date) {
+        CompletableFuture<Account> from = accountManager.getExistingAccountByNumber(fromNumber);
+        CompletableFuture<Account> to = accountManager.getExistingAccountByNumber(toNumber);
+
+        return from.thenCombine(to, (fromAccount, toAccount) -> {
+            Payment payment = new Payment();
+            payment.setFrom(fromAccount);
+            payment.setTo(toAccount);
+            payment.setAmount(amount);
+            payment.setDate(date);
+            return payment;
+        }).thenCompose(this::createPayment);
+    }
+
+    /**
+     * Creates all given payments.
+     * @param payments payments to be created
+     * @return future with result of batch
+     */
+    public CompletableFuture<PaymentBatchResult> createPayments(Collection<Payment> payments) {
+        return ManagerExecutors.supply(() -> paymentManager.createPayments(payments), executor);
+    }
+
+    /**
+     * Updates payment in database.
+     * @param payment updated payment
+     * @return future completed when payment is updated
+     */
+    public CompletableFuture<Void> updatePayment(Payment payment) {
+        return ManagerExecutors.supply(() -> {
+            paymentManager.updatePayment(payment);
+            return null;
+        }, executor);
+    }
+
+    /**
+     * Deletes payment from database.
+     * @param payment payment to be deleted
+     * @return future completed when payment is deleted
+     */
+    public CompletableFuture<Void> deletePayment(Payment payment) {
+        return ManagerExecutors.supply(() -> {
+            paymentManager.deletePayment(payment);
+            return null;
+        }, executor);
+    }
+
+    /**
+     * Returns payment with given id.
+     * @param id primary key of requested payment
+     * @return future with payment or null if such payment does not exist
+     */
+    public CompletableFuture<Payment> getPaymentByID(Long id) {
+        return ManagerExecutors.supply(() -> paymentManager.getPaymentByID(id), executor);
+    }
+
+    /**
+     * Returns list of all payments in the database.
+     * @return future with list of all payments
+     */
+    public CompletableFuture<List<Payment>> getAllPayments() {
+        return ManagerExecutors.supply(paymentManager::getAllPayments, executor);
+    }
+
+    /**
+     * Returns at most limit payments with id greater than afterId.
+     * @param afterId id of last payment of previous page or null for first page
+     * @param limit maximal number of returned payments
+     * @return future with page of payments
+     */
+    public CompletableFuture<List<Payment>> getPaymentsAfter(Long afterId, int limit) {
+        return ManagerExecutors.supply(() -> paymentManager.getPaymentsAfter(afterId, limit), executor);
+    }
+
+    /**
+     * Returns payments matching all criteria of query.
+     * @param query criteria of searched payments
+     * @return future with list of matching payments
+     */
+    public CompletableFuture<List<Payment>> findPayments(PaymentQuery query) {
+        return ManagerExecutors.supply(() -> paymentManager.findPayments(query), executor);
+    }
+
+    /**
+     * Returns list of payments sent from given account.
+     * @param account account from which payments were sent
+     * @return future with list of payments
+     */
+    public CompletableFuture<List<Payment>> getPaymentsFromAccount(Account account) {
+        return ManagerExecutors.supply(() -> paymentManager.getPaymentsFromAccount(account), executor);
+    }
+
+    /**
+     * Returns list of payments sent to given account.
+     * @param account account to which payments were sent
+     * @return future with list of payments
+     */
+    public CompletableFuture<List<Payment>> getPaymentsToAccount(Account account) {
+        return ManagerExecutors.supply(() -> paymentManager.getPaymentsToAcoount(account), executor);
+    }
+}
@@ -0,0 +1,16 @@
+package cz.muni.fi.pv168.transactionmanager;
+
+/**
+ * Listener which is notified when payment changed balance of account 
+ * in the database.
+ * 
+ * @author Miroslav Kubus
+ */
+public interface BalanceChangeListener {
+    
+    /**
+     * Called after transaction which changed balance of account was committed.
+     * @param accountId id of account with changed balance
+     */
+    void balanceChanged(Long accountId);
+}
@@ -0,0 +1,39 @@
+package cz.muni.fi.pv168.transactionmanager;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Listeners of balance changes of payment manager. Managers notify them 
+ * after transaction of payment is committed and outside of it, so failing 
+ * listener can not roll back or repeat committed payment.
+ * @author Miroslav Kubus
+ */
+class BalanceChangeSupport {
+    
+    private final List<BalanceChangeListener> listeners = new CopyOnWriteArrayList<>();
+    
+    /**
+     * @throws IllegalArgumentException when listener is null
+     */
+    void add(BalanceChangeListener listener) {
+        if(listener == null) {
+            throw new IllegalArgumentException("Null balance change listener");
+        }
+        
+        listeners.add(listener);
+    }
+    
+    void remove(BalanceChangeListener listener) {
+        listeners.remove(listener);
+    }
+    
+    void fire(Collection<Long> accountIds) {
+        for(BalanceChangeListener listener : listeners) {
+            for(Long accountId : accountIds) {
+                listener.balanceChanged(accountId);
+            }
+        }
+    }
+}
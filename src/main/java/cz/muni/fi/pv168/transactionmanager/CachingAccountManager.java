@@ -0,0 +1,216 @@
+package cz.muni.fi.pv168.transactionmanager;
+
+import cz.muni.fi.pv168.utils.CacheStatistics;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * AccountManager which keeps recently used accounts in memory, so repeated 
+ * lookups by id or by number do not go to the database. Cache is bounded and 
+ * evicts least recently used account. Account is removed from cache when it is 
+ * updated or deleted through this manager and when payment changes its balance, 
+ * so this manager has to be registered as BalanceChangeListener of payment 
+ * manager which works with the same database.
+ * 
+ * @author Miroslav Kubus
+ */
+public class CachingAccountManager implements AccountManager, BalanceChangeListener {
+    
+    private static final Logger logger = Logger.getLogger(CachingAccountManager.class.getName());
+    public static final int DEFAULT_MAX_SIZE = 1000;
+    
+    private final AccountManager accountManager;
+    private final int maxSize;
+    private final LinkedHashMap<Long, Account> byId;
+    private final Map<String, Long> idByNumber = new HashMap<>();
+    
+    /**
+     * Incremented by every invalidation, account loaded from database is 
+     * stored only when no invalidation happened during its loading
+     */
+    private long generation;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+    
+    public CachingAccountManager(AccountManager accountManager) {
+        this(accountManager, DEFAULT_MAX_SIZE);
+    }
+    
+    /**
+     * Creates caching manager
+     * @param accountManager represents manager which loads accounts from database
+     * @param maxSize represents maximal count of cached accounts
+     */
+    public CachingAccountManager(AccountManager accountManager, int maxSize) {
+        if(accountManager == null) {
+            throw new IllegalArgumentException("Null account manager");
+        }
+        
+        if(maxSize < 1) {
+            throw new IllegalArgumentException("Size of cache must be positive: " + maxSize);
+        }
+        
+        this.accountManager = accountManager;
+        this.maxSize = maxSize;
+        byId = new LinkedHashMap<Long, Account>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Account> eldest) {
+                if(size() > CachingAccountManager.this.maxSize) {
+                    idByNumber.remove(eldest.getValue().getNumber());
+                    evictions++;
+                    return true;
+                }
+                
+                return false;
+            }
+        };
+    }
+
+    @Override
+    public void createAccount(Account account) {
+        accountManager.createAccount(account);
+    }
+
+    @Override
+    public void updateAccount(Account account) {
+        try {
+            accountManager.updateAccount(account);
+        } finally {
+            if(account != null) {
+                invalidate(account.getId());
+            }
+        }
+    }
+
+    @Override
+    public void deleteAccount(Account account) {
+        try {
+            accountManager.deleteAccount(account);
+        } finally {
+            if(account != null) {
+                invalidate(account.getId());
+            }
+        }
+    }
+
+    @Override
+    public Account getAccountById(Long id) {
+        if(id == null) {
+            throw new IllegalArgumentException("Null id of account in getAccountByID");
+        }
+        
+        long loadedGeneration;
+        
+        synchronized(this) {
+            Account cached = byId.get(id);
+            
+            if(cached != null) {
+                hits++;
+                return copy(cached);
+            }
+            
+            misses++;
+            loadedGeneration = generation;
+        }
+        
+        return store(accountManager.getAccountById(id), loadedGeneration);
+    }
+
+    @Override
+    public Account getAccountByNumber(String number) {
+        if(number == null) {
+            throw new IllegalArgumentException("Null number of account in getAccountByNumber");
+        }
+        
+        long loadedGeneration;
+        
+        synchronized(this) {
+            Long id = idByNumber.get(number);
+            Account cached = id == null ? null : byId.get(id);
+            
+            if(cached != null) {
+                hits++;
+                return copy(cached);
+            }
+            
+            misses++;
+            loadedGeneration = generation;
+        }
+        
+        return store(accountManager.getAccountByNumber(number), loadedGeneration);
+    }
+
+    @Override
+    public List<Account> getAllAccounts() {
+        return accountManager.getAllAccounts();
+    }
+    
+    @Override
+    public void balanceChanged(Long accountId) {
+        invalidate(accountId);
+    }
+    
+    /**
+     * Removes account with given id from cache
+     * @param accountId id of account
+     */
+    public synchronized void invalidate(Long accountId) {
+        generation++;
+        
+        if(accountId == null) {
+            return;
+        }
+        
+        Account removed = byId.remove(accountId);
+        
+        if(removed != null) {
+            idByNumber.remove(removed.getNumber());
+            invalidations++;
+            logger.log(Level.FINE, "Account {0} removed from cache", accountId);
+        }
+    }
+    
+    /**
+     * Removes all accounts from cache
+     */
+    public synchronized void invalidateAll() {
+        generation++;
+        invalidations += byId.size();
+        byId.clear();
+        idByNumber.clear();
+    }
+    
+    public synchronized CacheStatistics getStatistics() {
+        return new CacheStatistics(hits, misses, evictions, invalidations, byId.size(), maxSize);
+    }
+    
+    private synchronized Account store(Account account, long loadedGeneration) {
+        if(account != null && loadedGeneration == generation) {
+            Account previous = byId.put(account.getId(), copy(account));
+            
+            if(previous != null) {
+                idByNumber.remove(previous.getNumber());
+            }
+            
+            idByNumber.put(account.getNumber(), account.getId());
+        }
+        
+        return account;
+    }
+    
+    /**
+     * Accounts are mutable, so cache never shares its instances with callers
+     */
+    private static Account copy(Account account) {
+        Account copy = new Account(account.getNumber(), account.getHolder(), account.getBalance());
+        copy.setId(account.getId());
+        copy.setVersion(account.getVersion());
+        return copy;
+    }
+}
@@ -0,0 +1,802 @@
+package cz.muni.fi.pv168.transactionmanager;
+
+import cz.muni.fi.pv168.utils.AccountHelper;
+import cz.muni.fi.pv168.utils.CsvFormat;
+import cz.muni.fi.pv168.utils.DBUtils;
+import cz.muni.fi.pv168.utils.ManagerExecutors;
+import cz.muni.fi.pv168.utils.MetricsRegistry;
+import cz.muni.fi.pv168.utils.Money;
+import cz.muni.fi.pv168.utils.OperationMetrics;
+import cz.muni.fi.pv168.utils.PaymentHelper;
+import cz.muni.fi.pv168.utils.PooledDataSource;
+import cz.muni.fi.pv168.utils.ServiceFailureException;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransactionRollbackException;
+import java.sql.Savepoint;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+/**
+ * Bulk import of accounts and payments from CSV files. Files are read record
+ * by record, so memory does not depend on their size. Record with quoted end
+ * of line spans several lines and is numbered by its first line. First
+ * record of file is header and it is skipped. Columns of accounts are number, holder and
+ * balance, columns of payments are number of from account, number of to
+ * account, amount and date in ISO format.
+ * <p>
+ * Rows are validated by the same rules as in managers, invalid rows and rows
+ * refused by database are written to rejects file. Valid rows are grouped
+ * into chunks of batchSize consecutive rows, which are loaded by several
+ * loader threads, every chunk in one transaction by JDBC batches. Payments
+ * change balances and statistics of their accounts like createPayment does,
+ * changes of one chunk are summed per account and applied in order of ids of
+ * accounts, so concurrent loaders do not deadlock each other.
+ * <p>
+ * Every loaded chunk is recorded in table import_chunk in its transaction,
+ * its rejected rows are written to rejects file before the transaction
+ * commits. Import interrupted at any point is resumed by running it again
+ * with the same name and batch size, already loaded chunks are skipped. Import
+ * bypasses managers, so caches of accounts should be cleared after it.
+ *
+ * @author Miroslav Kubus
+ */
+public class CsvImporter {
+
+    private static final Logger logger = Logger.getLogger(CsvImporter.class.getName());
+
+    /**
+     * Phase of import, accounts must be imported before payments which use them
+     */
+    public enum Phase {
+        ACCOUNTS, PAYMENTS
+    }
+
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    public static final int DEFAULT_LOADERS = 4;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long DISPATCH_POLL_MILLIS = 100;
+
+    private static final String INSERT_ACCOUNT =
+            "INSERT INTO account (number, holder, balance) VALUES (?,?,?)";
+    private static final String INSERT_PAYMENT =
+            "INSERT INTO payment (fromAccount,toAccount,amount,date) VALUES (?,?,?,?)";
+    private static final String CHANGE_BALANCE =
+            "UPDATE account SET balance = balance + ?, version = version + 1 WHERE id = ?";
+    private static final String ADD_TO_STATS =
+            "UPDATE account_stats SET totalIn = totalIn + ?, countIn = countIn + ?, "
+            + "totalOut = totalOut + ?, countOut = countOut + ?, "
+            + "lastPaymentDate = CASE WHEN lastPaymentDate IS NULL OR lastPaymentDate < CAST(? AS DATE) "
+            + "THEN CAST(? AS DATE) ELSE lastPaymentDate END WHERE accountId = ?";
+    private static final String SELECT_ACCOUNT_NUMBERS = "SELECT id, number FROM account";
+    private static final String SELECT_CHUNKS =
+            "SELECT chunk, batchSize FROM import_chunk WHERE importName = ? AND phase = ?";
+    private static final String INSERT_CHUNK =
+            "INSERT INTO import_chunk (importName, phase, chunk, batchSize, imported, rejected) "
+            + "VALUES (?,?,?,?,?,?)";
+
+    private static final MetricsRegistry METRICS = MetricsRegistry.getDefault();
+    private static final OperationMetrics CHUNK_OF_ACCOUNTS = METRICS.operation("import.accountChunk");
+    private static final OperationMetrics CHUNK_OF_PAYMENTS = METRICS.operation("import.paymentChunk");
+
+    private final DataSource dataSource;
+    private final AccountHelper accountHelper = new AccountHelper();
+    private final PaymentHelper paymentHelper = new PaymentHelper();
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int loaders = DEFAULT_LOADERS;
+    private Path rejectsFile;
+    private Consumer<? super ImportProgress> progressListener = progress -> { };
+
+    public CsvImporter(DataSource dataSource) {
+        if(dataSource == null) {
+            throw new IllegalArgumentException("Null data source");
+        }
+
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * Sets count of rows in one chunk. Resumed import must use the same
+     * batch size as its first run.
+     * @param batchSize count of rows loaded in one transaction
+     */
+    public void setBatchSize(int batchSize) {
+        if(batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @param loaders count of threads which load chunks into database
+     */
+    public void setLoaders(int loaders) {
+        if(loaders < 1) {
+            throw new IllegalArgumentException("Count of loaders must be positive: " + loaders);
+        }
+
+        this.loaders = loaders;
+    }
+
+    /**
+     * Sets file to which rejected rows are appended as CSV lines with name
+     * of source file, number of line, reason and original line. Without
+     * rejects file rejected rows are only counted.
+     * @param rejectsFile path of rejects file or null
+     */
+    public void setRejectsFile(Path rejectsFile) {
+        this.rejectsFile = rejectsFile;
+    }
+
+    /**
+     * Sets listener which is notified after every loaded chunk. Listener is
+     * called from loader threads.
+     * @param progressListener listener of progress
+     */
+    public void setProgressListener(Consumer<? super ImportProgress> progressListener) {
+        if(progressListener == null) {
+            throw new IllegalArgumentException("Null progress listener");
+        }
+
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Imports accounts and then payments
+     * @param importName name of import used for resuming
+     * @param accounts CSV file with accounts
+     * @param payments CSV file with payments
+     * @return progress of both phases
+     */
+    public List<ImportProgress> importAll(String importName, Path accounts, Path payments) {
+        List<ImportProgress> result = new ArrayList<>();
+        result.add(importAccounts(importName, accounts));
+        result.add(importPayments(importName, payments));
+
+        return result;
+    }
+
+    /**
+     * Imports accounts. Accounts with number which already exists in
+     * database or earlier in file are rejected.
+     * @param importName name of import used for resuming
+     * @param file CSV file with accounts
+     * @return final progress of import
+     */
+    public ImportProgress importAccounts(String importName, Path file) {
+        logger.log(Level.INFO, "Importing accounts of {0} from {1}", new Object[]{importName, file});
+        Set<String> numbers = new HashSet<>(loadAccounts().keySet());
+
+        return run(Phase.ACCOUNTS, importName, file, fields -> {
+            checkFieldCount(fields, 3);
+            Account account = new Account(fields.get(0), fields.get(1), new BigDecimal(fields.get(2)));
+            accountHelper.validate(account);
+
+            if(!numbers.add(account.getNumber())) {
+                throw new IllegalArgumentException("Account with number " + account.getNumber() + " already exists");
+            }
+
+            return account;
+        }, this::insertAccounts, CHUNK_OF_ACCOUNTS);
+    }
+
+    /**
+     * Imports payments. Numbers of accounts are resolved by map of all
+     * accounts loaded before import, payments with unknown account are
+     * rejected.
+     * @param importName name of import used for resuming
+     * @param file CSV file with payments
+     * @return final progress of import
+     */
+    public ImportProgress importPayments(String importName, Path file) {
+        logger.log(Level.INFO, "Importing payments of {0} from {1}", new Object[]{importName, file});
+        Map<String, Account> accounts = loadAccounts();
+
+        return run(Phase.PAYMENTS, importName, file, fields -> {
+            checkFieldCount(fields, 4);
+            Payment payment = new Payment();
+            payment.setFrom(existingAccount(accounts, fields.get(0)));
+            payment.setTo(existingAccount(accounts, fields.get(1)));
+            payment.setAmount(new BigDecimal(fields.get(2)));
+            payment.setDate(LocalDate.parse(fields.get(3)));
+            paymentHelper.validate(payment);
+
+            return payment;
+        }, this::insertPayments, CHUNK_OF_PAYMENTS);
+    }
+
+    private static void checkFieldCount(List<String> fields, int expected) {
+        if(fields.size() != expected) {
+            throw new IllegalArgumentException("Expected " + expected + " fields but found " + fields.size());
+        }
+    }
+
+    private static Account existingAccount(Map<String, Account> accounts, String number) {
+        Account account = accounts.get(number);
+
+        if(account == null) {
+            throw new IllegalArgumentException("No account with number " + number);
+        }
+
+        return account;
+    }
+
+    /**
+     * Loads ids and numbers of all accounts, balances of loaded accounts
+     * are not set
+     */
+    private Map<String, Account> loadAccounts() {
+        Map<String, Account> accounts = new HashMap<>();
+
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement st = connection.prepareStatement(SELECT_ACCOUNT_NUMBERS);
+             ResultSet rs = st.executeQuery()) {
+            while(rs.next()) {
+                Account account = new Account();
+                account.setId(rs.getLong(1));
+                account.setNumber(rs.getString(2));
+                accounts.put(account.getNumber(), account);
+            }
+        } catch (SQLException ex) {
+            logger.log(Level.SEVERE, "Error while loading numbers of accounts", ex);
+            throw new ServiceFailureException("Error when loading numbers of accounts", ex);
+        }
+
+        return accounts;
+    }
+
+    private Set<Long> loadCompletedChunks(String importName, Phase phase) {
+        Set<Long> completed = new HashSet<>();
+
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement st = connection.prepareStatement(SELECT_CHUNKS)) {
+            st.setString(1, importName);
+            st.setString(2, phase.name());
+
+            try (ResultSet rs = st.executeQuery()) {
+                while(rs.next()) {
+                    if(rs.getInt(2) != batchSize) {
+                        throw new IllegalArgumentException("Import " + importName
+                                + " was started with batch size " + rs.getInt(2));
+                    }
+
+                    completed.add(rs.getLong(1));
+                }
+            }
+        } catch (SQLException ex) {
+            logger.log(Level.SEVERE, "Error while loading chunks of import", ex);
+            throw new ServiceFailureException("Error when loading chunks of import " + importName, ex);
+        }
+
+        return completed;
+    }
+
+    /**
+     * Reads file in calling thread and passes chunks to loader threads by
+     * bounded queue. Loader which fails stops the import, other loaders
+     * only drain the queue.
+     */
+    private <T> ImportProgress run(Phase phase, String importName, Path file, RowParser<T> parser,
+                                   ChunkWriter<T> writer, OperationMetrics metrics) {
+        if(importName == null || file == null) {
+            throw new IllegalArgumentException("Null name of import or file");
+        }
+
+        Set<Long> completed = loadCompletedChunks(importName, phase);
+        Progress progress = new Progress(phase);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        BlockingQueue<Chunk<T>> queue = new ArrayBlockingQueue<>(2 * loaders);
+        Chunk<T> end = new Chunk<>(-1);
+        ExecutorService executor = ManagerExecutors.create("csv-import", loaders, loaders);
+
+        try (Rejects rejects = new Rejects(rejectsFile, file.getFileName().toString())) {
+            for(int i = 0; i < loaders; i++) {
+                executor.execute(() -> load(queue, end, failure, importName, writer, metrics, rejects, progress));
+            }
+
+            try {
+                readChunks(file, parser, completed, progress, chunk -> dispatch(queue, chunk, failure));
+            } finally {
+                for(int i = 0; i < loaders; i++) {
+                    dispatch(queue, end, null);
+                }
+
+                executor.shutdown();
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            }
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, "Error while reading " + file, ex);
+            throw new ServiceFailureException("Error when reading file " + file, ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ServiceFailureException("Import " + importName + " interrupted", ex);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if(failure.get() != null) {
+            throw new ServiceFailureException("Import " + importName + " of " + file
+                    + " failed, it can be resumed", failure.get());
+        }
+
+        ImportProgress result = progress.snapshot();
+        logger.log(Level.INFO, "Import finished: {0}", result);
+
+        return result;
+    }
+
+    private <T> void readChunks(Path file, RowParser<T> parser, Set<Long> completed, Progress progress,
+                                ChunkConsumer<T> consumer) throws IOException, InterruptedException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line = CsvFormat.readRecord(reader);
+            long nextLineNumber = line == null ? 1 : 1 + linesOf(line);
+            long row = 0;
+            long currentIndex = -1;
+            Chunk<T> chunk = null;
+
+            while((line = CsvFormat.readRecord(reader)) != null) {
+                long lineNumber = nextLineNumber;
+                nextLineNumber += linesOf(line);
+                long index = row++ / batchSize;
+
+                if(index != currentIndex) {
+                    if(chunk != null && !consumer.accept(chunk)) {
+                        return;
+                    }
+
+                    currentIndex = index;
+                    chunk = completed.contains(index) ? null : new Chunk<>(index);
+
+                    if(chunk == null) {
+                        progress.skippedChunks.incrementAndGet();
+                    }
+                }
+
+                if(chunk == null) {
+                    continue;
+                }
+
+                progress.read.incrementAndGet();
+
+                try {
+                    chunk.rows.add(new Row<>(lineNumber, line, parser.parse(CsvFormat.parseLine(line))));
+                } catch (IllegalArgumentException | DateTimeParseException ex) {
+                    chunk.rejects.add(new Reject(lineNumber, line, ex.getMessage()));
+                }
+            }
+
+            if(chunk != null) {
+                consumer.accept(chunk);
+            }
+        }
+    }
+
+    private static long linesOf(String record) {
+        long lines = 1;
+
+        for(int i = 0; i < record.length(); i++) {
+            if(record.charAt(i) == '\n') {
+                lines++;
+            }
+        }
+
+        return lines;
+    }
+
+    /**
+     * Waits for free place in queue
+     * @return false when some loader failed and chunk was not queued
+     */
+    private <T> boolean dispatch(BlockingQueue<Chunk<T>> queue, Chunk<T> chunk,
+                                 AtomicReference<Exception> failure) throws InterruptedException {
+        while(!queue.offer(chunk, DISPATCH_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            if(failure != null && failure.get() != null) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private <T> void load(BlockingQueue<Chunk<T>> queue, Chunk<T> end, AtomicReference<Exception> failure,
+                          String importName, ChunkWriter<T> writer, OperationMetrics metrics,
+                          Rejects rejects, Progress progress) {
+        while(true) {
+            Chunk<T> chunk;
+
+            try {
+                chunk = queue.take();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                failure.compareAndSet(null, ex);
+                return;
+            }
+
+            if(chunk == end) {
+                return;
+            }
+
+            if(failure.get() != null) {
+                continue;
+            }
+
+            try {
+                loadChunk(chunk, importName, progress.phase, writer, metrics, rejects);
+                progress.imported.addAndGet(chunk.rows.size() - chunk.rowsRejectedByDatabase);
+                progress.rejected.addAndGet(chunk.rejects.size());
+
+                ImportProgress snapshot = progress.snapshot();
+                logger.log(Level.INFO, "Chunk {0} loaded: {1}", new Object[]{chunk.index, snapshot});
+                progressListener.accept(snapshot);
+            } catch (SQLException | RuntimeException ex) {
+                logger.log(Level.SEVERE, "Error while loading chunk " + chunk.index, ex);
+                failure.compareAndSet(null, ex);
+            }
+        }
+    }
+
+    /**
+     * Loads chunk in one transaction. When chunk is refused by database,
+     * its rows are loaded one by one within savepoints, so only refused rows
+     * are rejected. Rejected rows are written and flushed before the chunk
+     * is committed, so crash after commit does not lose them, rejects of
+     * chunk whose commit failed are written again when it is loaded again.
+     * Transactions rolled back by deadlock or timeout of lock are repeated.
+     */
+    private <T> void loadChunk(Chunk<T> chunk, String importName, Phase phase, ChunkWriter<T> writer,
+                               OperationMetrics metrics, Rejects rejects) throws SQLException {
+        int parsedRejects = chunk.rejects.size();
+
+        for(int attempt = 1; ; attempt++) {
+            long start = System.nanoTime();
+            chunk.rejects.subList(parsedRejects, chunk.rejects.size()).clear();
+            chunk.rowsRejectedByDatabase = 0;
+
+            try (Connection connection = dataSource.getConnection()) {
+                connection.setAutoCommit(false);
+
+                try {
+                    List<T> values = new ArrayList<>(chunk.rows.size());
+
+                    for(Row<T> row : chunk.rows) {
+                        values.add(row.value);
+                    }
+
+                    try {
+                        if(!values.isEmpty()) {
+                            writer.write(connection, values);
+                        }
+                    } catch (SQLTransactionRollbackException ex) {
+                        throw ex;
+                    } catch (SQLException ex) {
+                        logger.log(Level.WARNING, "Chunk " + chunk.index + " refused, loading rows one by one", ex);
+                        connection.rollback();
+                        loadRowsOneByOne(connection, chunk, writer);
+                    }
+
+                    insertChunk(connection, importName, phase, chunk);
+                    rejects.write(chunk.rejects);
+                    connection.commit();
+                    metrics.record(start);
+                    return;
+                } catch (SQLException | RuntimeException ex) {
+                    metrics.recordError(start);
+                    connection.rollback();
+                    throw ex;
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+            } catch (SQLTransactionRollbackException ex) {
+                if(attempt >= MAX_ATTEMPTS) {
+                    throw ex;
+                }
+
+                logger.log(Level.WARNING, "Chunk " + chunk.index + " rolled back, repeating it", ex);
+            }
+        }
+    }
+
+    private <T> void loadRowsOneByOne(Connection connection, Chunk<T> chunk, ChunkWriter<T> writer) throws SQLException {
+        for(Row<T> row : chunk.rows) {
+            Savepoint savepoint = connection.setSavepoint();
+
+            try {
+                writer.write(connection, Collections.singletonList(row.value));
+                connection.releaseSavepoint(savepoint);
+            } catch (SQLTransactionRollbackException ex) {
+                throw ex;
+            } catch (SQLException ex) {
+                connection.rollback(savepoint);
+                chunk.rejects.add(new Reject(row.line, row.raw, ex.getMessage()));
+                chunk.rowsRejectedByDatabase++;
+            }
+        }
+    }
+
+    private void insertChunk(Connection connection, String importName, Phase phase, Chunk<?> chunk) throws SQLException {
+        try (PreparedStatement st = connection.prepareStatement(INSERT_CHUNK)) {
+            st.setString(1, importName);
+            st.setString(2, phase.name());
+            st.setLong(3, chunk.index);
+            st.setInt(4, batchSize);
+            st.setInt(5, chunk.rows.size() - chunk.rowsRejectedByDatabase);
+            st.setInt(6, chunk.rejects.size());
+            st.executeUpdate();
+        }
+    }
+
+    private void insertAccounts(Connection connection, List<Account> accounts) throws SQLException {
+        try (PreparedStatement st = connection.prepareStatement(INSERT_ACCOUNT)) {
+            for(Account account : accounts) {
+                st.setString(1, account.getNumber());
+                st.setString(2, account.getHolder());
+                st.setBigDecimal(3, account.getBalance());
+                st.addBatch();
+            }
+
+            st.executeBatch();
+        }
+    }
+
+    /**
+     * Changes balances first, so transaction holds locks of all its accounts
+     * in order of their ids before payments referencing them are inserted.
+     */
+    private void insertPayments(Connection connection, List<Payment> payments) throws SQLException {
+        Map<Long, Money> balanceChanges = new TreeMap<>();
+        Map<Long, StatisticsChange> statisticsChanges = new TreeMap<>();
+
+        for(Payment payment : payments) {
+            Long from = payment.getFrom().getId();
+            Long to = payment.getTo().getId();
+
+            Money amount = Money.of(payment.getAmount());
+            balanceChanges.merge(from, amount.negate(), Money::add);
+            balanceChanges.merge(to, amount, Money::add);
+            statisticsChanges.computeIfAbsent(from, id -> new StatisticsChange()).addOut(payment);
+            statisticsChanges.computeIfAbsent(to, id -> new StatisticsChange()).addIn(payment);
+        }
+
+        try (PreparedStatement st = connection.prepareStatement(CHANGE_BALANCE)) {
+            for(Map.Entry<Long, Money> change : balanceChanges.entrySet()) {
+                st.setBigDecimal(1, change.getValue().toBigDecimal());
+                st.setLong(2, change.getKey());
+                st.addBatch();
+            }
+
+            st.executeBatch();
+        }
+
+        try (PreparedStatement st = connection.prepareStatement(INSERT_PAYMENT)) {
+            for(Payment payment : payments) {
+                st.setLong(1, payment.getFrom().getId());
+                st.setLong(2, payment.getTo().getId());
+                st.setBigDecimal(3, payment.getAmount());
+                st.setDate(4, Date.valueOf(payment.getDate()));
+                st.addBatch();
+            }
+
+            st.executeBatch();
+        }
+
+        try (PreparedStatement st = connection.prepareStatement(ADD_TO_STATS)) {
+            for(Map.Entry<Long, StatisticsChange> change : statisticsChanges.entrySet()) {
+                StatisticsChange statistics = change.getValue();
+                st.setBigDecimal(1, statistics.totalIn.toBigDecimal());
+                st.setLong(2, statistics.countIn);
+                st.setBigDecimal(3, statistics.totalOut.toBigDecimal());
+                st.setLong(4, statistics.countOut);
+                st.setDate(5, Date.valueOf(statistics.lastPaymentDate));
+                st.setDate(6, Date.valueOf(statistics.lastPaymentDate));
+                st.setLong(7, change.getKey());
+                st.addBatch();
+            }
+
+            st.executeBatch();
+        }
+    }
+
+    /**
+     * Imports CSV files into persistent database.
+     * Usage: CsvImporter importName accounts.csv payments.csv [profile]
+     * Rejected rows are written to file importName-rejects.csv.
+     * @param args command line arguments
+     * @throws SQLException when closing of database fails
+     */
+    public static void main(String[] args) throws SQLException {
+        if(args.length < 3) {
+            System.err.println("Usage: CsvImporter importName accounts.csv payments.csv [profile]");
+            System.exit(1);
+        }
+
+        DataSource dataSource = DBUtils.createPersistentDatabase(args.length > 3 ? args[3] : "disk");
+        AtomicLong lastReport = new AtomicLong();
+
+        try {
+            CsvImporter importer = new CsvImporter(dataSource);
+            importer.setRejectsFile(Paths.get(args[0] + "-rejects.csv"));
+            importer.setProgressListener(progress -> {
+                long now = System.nanoTime();
+                long last = lastReport.get();
+
+                if(now - last > TimeUnit.SECONDS.toNanos(1) && lastReport.compareAndSet(last, now)) {
+                    System.out.println(progress);
+                }
+            });
+
+            for(ImportProgress progress : importer.importAll(args[0], Paths.get(args[1]), Paths.get(args[2]))) {
+                System.out.println(progress);
+            }
+        } finally {
+            if(dataSource instanceof PooledDataSource) {
+                ((PooledDataSource) dataSource).close();
+            }
+        }
+    }
+
+    private interface RowParser<T> {
+        T parse(List<String> fields);
+    }
+
+    private interface ChunkWriter<T> {
+        void write(Connection connection, List<T> rows) throws SQLException;
+    }
+
+    private interface ChunkConsumer<T> {
+        boolean accept(Chunk<T> chunk) throws InterruptedException;
+    }
+
+    private static class Chunk<T> {
+        private final long index;
+        private final List<Row<T>> rows = new ArrayList<>();
+        private final List<Reject> rejects = new ArrayList<>();
+        private int rowsRejectedByDatabase;
+
+        private Chunk(long index) {
+            this.index = index;
+        }
+    }
+
+    private static class Row<T> {
+        private final long line;
+        private final String raw;
+        private final T value;
+
+        private Row(long line, String raw, T value) {
+            this.line = line;
+            this.raw = raw;
+            this.value = value;
+        }
+    }
+
+    private static class Reject {
+        private final long line;
+        private final String raw;
+        private final String reason;
+
+        private Reject(long line, String raw, String reason) {
+            this.line = line;
+            this.raw = raw;
+            this.reason = reason;
+        }
+    }
+
+    private static class StatisticsChange {
+        private Money totalIn = Money.ZERO;
+        private Money totalOut = Money.ZERO;
+        private long countIn;
+        private long countOut;
+        private LocalDate lastPaymentDate;
+
+        private void addIn(Payment payment) {
+            totalIn = totalIn.add(Money.of(payment.getAmount()));
+            countIn++;
+            addDate(payment.getDate());
+        }
+
+        private void addOut(Payment payment) {
+            totalOut = totalOut.add(Money.of(payment.getAmount()));
+            countOut++;
+            addDate(payment.getDate());
+        }
+
+        private void addDate(LocalDate date) {
+            if(lastPaymentDate == null || lastPaymentDate.isBefore(date)) {
+                lastPaymentDate = date;
+            }
+        }
+    }
+
+    private static class Progress {
+        private final Phase phase;
+        private final long start = System.nanoTime();
+        private final AtomicLong read = new AtomicLong();
+        private final AtomicLong imported = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong skippedChunks = new AtomicLong();
+
+        private Progress(Phase phase) {
+            this.phase = phase;
+        }
+
+        private ImportProgress snapshot() {
+            return new ImportProgress(phase, read.get(), imported.get(), rejected.get(),
+                    skippedChunks.get(), System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Appends rejected rows to rejects file, rows of one chunk are written
+     * together and flushed
+     */
+    private static class Rejects implements AutoCloseable {
+        private final BufferedWriter writer;
+        private final String source;
+
+        private Rejects(Path file, String source) throws IOException {
+            this.writer = file == null ? null : Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            this.source = source;
+        }
+
+        private synchronized void write(List<Reject> rejects) {
+            if(writer == null || rejects.isEmpty()) {
+                return;
+            }
+
+            List<Reject> sorted = new ArrayList<>(rejects);
+            sorted.sort(Comparator.comparingLong(reject -> reject.line));
+
+            try {
+                for(Reject reject : sorted) {
+                    writer.write(CsvFormat.formatLine(source, String.valueOf(reject.line), reject.reason, reject.raw));
+                    writer.newLine();
+                }
+
+                writer.flush();
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Rejects can not be written", ex);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if(writer != null) {
+                writer.close();
+            }
+        }
+    }
+}
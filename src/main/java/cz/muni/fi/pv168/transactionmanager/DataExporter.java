@@ -0,0 +1,325 @@
+package cz.muni.fi.pv168.transactionmanager;
+
+import cz.muni.fi.pv168.utils.CsvFormat;
+import cz.muni.fi.pv168.utils.DBUtils;
+import cz.muni.fi.pv168.utils.MetricsRegistry;
+import cz.muni.fi.pv168.utils.Money;
+import cz.muni.fi.pv168.utils.OperationMetrics;
+import cz.muni.fi.pv168.utils.PooledDataSource;
+import cz.muni.fi.pv168.utils.ServiceFailureException;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+import javax.sql.DataSource;
+
+/**
+ * Export of all accounts or payments into file. Rows are read from forward
+ * only, read only result set and written directly to buffer of file channel,
+ * no entities are created, so memory does not depend on size of tables.
+ * Export does not lock tables, rows changed during export may be exported
+ * in either state.
+ * <p>
+ * CSV export has header line, accounts have columns id, number, holder,
+ * balance and version, payments have columns id, from id, from number, to id,
+ * to number, amount and date.
+ * <p>
+ * Binary export starts with magic number 0x50563136, format version and type
+ * of rows (1 for accounts, 2 for payments). Every row is written as int
+ * length of row followed by its data. Amounts are longs in units of 1/10000,
+ * dates are days since 1970-01-01 and strings are unsigned short length of
+ * UTF-8 bytes followed by bytes, null string has length 0xFFFF.
+ * Account row: long id, string number, string holder, long balance, long version.
+ * Payment row: long id, long from id, string from number, long to id,
+ * string to number, long amount, int date.
+ *
+ * @author Miroslav Kubus
+ */
+public class DataExporter {
+
+    private static final Logger logger = Logger.getLogger(DataExporter.class.getName());
+
+    /**
+     * Format of exported file
+     */
+    public enum Format {
+        CSV, BINARY
+    }
+
+    public static final int MAGIC = 0x50563136;
+    public static final byte BINARY_VERSION = 1;
+    public static final byte ACCOUNT_ROWS = 1;
+    public static final byte PAYMENT_ROWS = 2;
+    public static final int DEFAULT_FETCH_SIZE = 1000;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int NULL_STRING = 0xFFFF;
+
+    private static final String SELECT_ACCOUNTS =
+            "SELECT id, number, holder, balance, version FROM account";
+    private static final String SELECT_PAYMENTS =
+            "SELECT p.id, f.id, f.number, t.id, t.number, p.amount, p.date "
+            + "FROM payment p "
+            + "JOIN account f ON p.fromAccount = f.id "
+            + "JOIN account t ON p.toAccount = t.id";
+
+    private static final MetricsRegistry METRICS = MetricsRegistry.getDefault();
+    private static final OperationMetrics SQL_EXPORT_ACCOUNTS = METRICS.operation("sql.export.accounts");
+    private static final OperationMetrics SQL_EXPORT_PAYMENTS = METRICS.operation("sql.export.payments");
+
+    private final DataSource dataSource;
+    private int fetchSize = DEFAULT_FETCH_SIZE;
+
+    public DataExporter(DataSource dataSource) {
+        if(dataSource == null) {
+            throw new IllegalArgumentException("Null data source");
+        }
+
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * @param fetchSize count of rows which driver fetches at once
+     */
+    public void setFetchSize(int fetchSize) {
+        if(fetchSize < 1) {
+            throw new IllegalArgumentException("Fetch size must be positive: " + fetchSize);
+        }
+
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * Exports all accounts
+     * @param file target file, existing file is overwritten
+     * @param format format of file
+     * @param gzip true when file should be compressed by gzip
+     * @return count of exported accounts
+     */
+    public long exportAccounts(Path file, Format format, boolean gzip) {
+        logger.log(Level.INFO, "Exporting accounts to {0} as {1}", new Object[]{file, format});
+
+        return export(file, format, gzip, SELECT_ACCOUNTS, SQL_EXPORT_ACCOUNTS, ACCOUNT_ROWS,
+                "id,number,holder,balance,version", this::writeAccount);
+    }
+
+    /**
+     * Exports all payments with ids and numbers of their accounts
+     * @param file target file, existing file is overwritten
+     * @param format format of file
+     * @param gzip true when file should be compressed by gzip
+     * @return count of exported payments
+     */
+    public long exportPayments(Path file, Format format, boolean gzip) {
+        logger.log(Level.INFO, "Exporting payments to {0} as {1}", new Object[]{file, format});
+
+        return export(file, format, gzip, SELECT_PAYMENTS, SQL_EXPORT_PAYMENTS, PAYMENT_ROWS,
+                "id,fromId,fromNumber,toId,toNumber,amount,date", this::writePayment);
+    }
+
+    private long export(Path file, Format format, boolean gzip, String sql, OperationMetrics metrics,
+                        byte rowType, String header, RowWriter rowWriter) {
+        if(file == null || format == null) {
+            throw new IllegalArgumentException("Null file or format of export");
+        }
+
+        long count = 0;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             Output output = new Output(gzip ? Channels.newChannel(new GZIPOutputStream(
+                     Channels.newOutputStream(channel), BUFFER_SIZE)) : channel);
+             Connection connection = dataSource.getConnection();
+             PreparedStatement st = connection.prepareStatement(sql,
+                     ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            st.setFetchSize(fetchSize);
+
+            if(format == Format.CSV) {
+                output.writeLine(header);
+            } else {
+                output.buffer(4 + 1 + 1).putInt(MAGIC).put(BINARY_VERSION).put(rowType);
+            }
+
+            try (ResultSet rs = metrics.executeQuery(st)) {
+                while(rs.next()) {
+                    rowWriter.write(rs, format, output);
+                    count++;
+                }
+            }
+        } catch (SQLException | IOException ex) {
+            logger.log(Level.SEVERE, "Error while exporting to " + file, ex);
+            throw new ServiceFailureException("Error when exporting to " + file, ex);
+        }
+
+        logger.log(Level.INFO, "Exported {0} rows to {1}", new Object[]{count, file});
+
+        return count;
+    }
+
+    private void writeAccount(ResultSet rs, Format format, Output output) throws SQLException, IOException {
+        long id = rs.getLong(1);
+        String number = rs.getString(2);
+        String holder = rs.getString(3);
+        BigDecimal balance = rs.getBigDecimal(4);
+        long version = rs.getLong(5);
+
+        if(format == Format.CSV) {
+            output.writeLine(CsvFormat.formatLine(String.valueOf(id), number, holder,
+                    balance == null ? null : balance.toPlainString(), String.valueOf(version)));
+            return;
+        }
+
+        byte[] numberBytes = bytesOf(number);
+        byte[] holderBytes = bytesOf(holder);
+        int length = 8 + stringLength(numberBytes) + stringLength(holderBytes) + 8 + 8;
+
+        ByteBuffer buffer = output.buffer(4 + length).putInt(length).putLong(id);
+        putString(buffer, numberBytes);
+        putString(buffer, holderBytes);
+        buffer.putLong(unitsOf(balance)).putLong(version);
+    }
+
+    private void writePayment(ResultSet rs, Format format, Output output) throws SQLException, IOException {
+        long id = rs.getLong(1);
+        long fromId = rs.getLong(2);
+        String fromNumber = rs.getString(3);
+        long toId = rs.getLong(4);
+        String toNumber = rs.getString(5);
+        BigDecimal amount = rs.getBigDecimal(6);
+        Date date = rs.getDate(7);
+
+        if(format == Format.CSV) {
+            output.writeLine(CsvFormat.formatLine(String.valueOf(id), String.valueOf(fromId), fromNumber,
+                    String.valueOf(toId), toNumber, amount == null ? null : amount.toPlainString(),
+                    date == null ? null : date.toString()));
+            return;
+        }
+
+        byte[] fromBytes = bytesOf(fromNumber);
+        byte[] toBytes = bytesOf(toNumber);
+        int length = 8 + 8 + stringLength(fromBytes) + 8 + stringLength(toBytes) + 8 + 4;
+
+        ByteBuffer buffer = output.buffer(4 + length).putInt(length).putLong(id).putLong(fromId);
+        putString(buffer, fromBytes);
+        buffer.putLong(toId);
+        putString(buffer, toBytes);
+        buffer.putLong(unitsOf(amount)).putInt(date == null ? 0 : (int) date.toLocalDate().toEpochDay());
+    }
+
+    private static byte[] bytesOf(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int stringLength(byte[] bytes) {
+        return 2 + (bytes == null ? 0 : bytes.length);
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        if(bytes == null) {
+            buffer.putShort((short) NULL_STRING);
+        } else {
+            buffer.putShort((short) bytes.length).put(bytes);
+        }
+    }
+
+    private static long unitsOf(BigDecimal amount) {
+        return amount == null ? 0 : Money.of(amount).getUnits();
+    }
+
+    /**
+     * Exports accounts or payments of persistent database. File with name
+     * ending by .gz is compressed.
+     * Usage: DataExporter accounts|payments csv|binary file [profile]
+     * @param args command line arguments
+     * @throws SQLException when closing of database fails
+     */
+    public static void main(String[] args) throws SQLException {
+        if(args.length < 3) {
+            System.err.println("Usage: DataExporter accounts|payments csv|binary file [profile]");
+            System.exit(1);
+        }
+
+        DataSource dataSource = DBUtils.createPersistentDatabase(args.length > 3 ? args[3] : "disk");
+
+        try {
+            DataExporter exporter = new DataExporter(dataSource);
+            Format format = Format.valueOf(args[1].toUpperCase());
+            Path file = Paths.get(args[2]);
+            boolean gzip = args[2].endsWith(".gz");
+            long count = "accounts".equals(args[0]) ? exporter.exportAccounts(file, format, gzip)
+                    : exporter.exportPayments(file, format, gzip);
+
+            System.out.println("Exported " + count + " rows to " + file);
+        } finally {
+            if(dataSource instanceof PooledDataSource) {
+                ((PooledDataSource) dataSource).close();
+            }
+        }
+    }
+
+    private interface RowWriter {
+        void write(ResultSet rs, Format format, Output output) throws SQLException, IOException;
+    }
+
+    /**
+     * Buffer which is written to channel when it has no room for next row
+     */
+    private static class Output implements AutoCloseable {
+        private final WritableByteChannel channel;
+        private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        private Output(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * @return buffer with room for given count of bytes
+         */
+        private ByteBuffer buffer(int bytes) throws IOException {
+            if(buffer.remaining() < bytes) {
+                flush();
+
+                if(buffer.capacity() < bytes) {
+                    buffer = ByteBuffer.allocate(bytes);
+                }
+            }
+
+            return buffer;
+        }
+
+        private void writeLine(String line) throws IOException {
+            byte[] bytes = (line + '\n').getBytes(StandardCharsets.UTF_8);
+            buffer(bytes.length).put(bytes);
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+
+            while(buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package cz.muni.fi.pv168.transactionmanager;
+
+import cz.muni.fi.pv168.utils.LatencyHistogram;
+import cz.muni.fi.pv168.utils.MetricsRegistry;
+import cz.muni.fi.pv168.utils.OperationMetrics;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Creates payments submitted from many threads by group commit. Payments are
+ * queued and one writer thread drains them into batches of at most
+ * maxBatchSize payments. Batch is closed when it is full or when linger time
+ * since its first payment elapses, and it is created by
+ * {@link PaymentManager#createPayments(java.util.Collection)}, so many
+ * payments share one commit and one force of log. Future of every payment is
+ * completed only after createPayments returns, i.e. after commit of batch.
+ * <p>
+ * PaymentManagerImpl creates batch in one transaction only when its chunk
+ * size is at least maxBatchSize.
+ *
+ * @author Miroslav Kubus
+ */
+public class GroupCommitPaymentWriter implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(GroupCommitPaymentWriter.class.getName());
+
+    public static final String MAX_BATCH_SIZE_PROPERTY = "groupCommit.maxBatchSize";
+    public static final String LINGER_MILLIS_PROPERTY = "groupCommit.lingerMillis";
+    public static final String QUEUE_CAPACITY_PROPERTY = "groupCommit.queueCapacity";
+
+    private static final long IDLE_POLL_MILLIS = 100;
+    private static final OperationMetrics COMMIT = MetricsRegistry.getDefault().operation("groupCommit.commit");
+
+    private final PaymentManager paymentManager;
+    private final int maxBatchSize;
+    private final long lingerNanos;
+    private final BlockingQueue<Request> queue;
+    private final LatencyHistogram batchSizes = new LatencyHistogram();
+    private final LatencyHistogram waitTimes = new LatencyHistogram();
+    private final Thread writer;
+    private boolean closed;
+
+    /**
+     * Creates writer and starts its thread
+     * @param paymentManager manager which creates batches of payments
+     * @param maxBatchSize maximal count of payments in one commit
+     * @param lingerMillis maximal time for which first payment of batch
+     * waits for other payments, zero commits payments which are already queued
+     * @param queueCapacity maximal count of waiting payments, payments over
+     * capacity are rejected
+     */
+    public GroupCommitPaymentWriter(PaymentManager paymentManager, int maxBatchSize,
+                                    long lingerMillis, int queueCapacity) {
+        if(paymentManager == null) {
+            throw new IllegalArgumentException("Null payment manager");
+        }
+
+        if(maxBatchSize < 1 || lingerMillis < 0 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Size of batch and capacity of queue must be positive "
+                    + "and linger must not be negative");
+        }
+
+        this.paymentManager = paymentManager;
+        this.maxBatchSize = maxBatchSize;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        this.queue = new LinkedBlockingQueue<>(queueCapacity);
+
+        writer = new Thread(this::writeBatches, "group-commit-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Creates writer configured by properties groupCommit.maxBatchSize,
+     * groupCommit.lingerMillis and groupCommit.queueCapacity
+     * @param paymentManager manager which creates batches of payments
+     * @param properties configuration of writer
+     * @return new writer
+     */
+    public static GroupCommitPaymentWriter create(PaymentManager paymentManager, Properties properties) {
+        int maxBatchSize = Integer.parseInt(properties.getProperty(MAX_BATCH_SIZE_PROPERTY, "100"));
+        long lingerMillis = Long.parseLong(properties.getProperty(LINGER_MILLIS_PROPERTY, "2"));
+        int queueCapacity = Integer.parseInt(properties.getProperty(QUEUE_CAPACITY_PROPERTY, "10000"));
+
+        return new GroupCommitPaymentWriter(paymentManager, maxBatchSize, lingerMillis, queueCapacity);
+    }
+
+    /**
+     * Queues payment for creating. Future completes exceptionally with the
+     * same exception as createPayment would throw or with
+     * RejectedExecutionException when writer is closed or queue is full.
+     * @param payment payment to be created
+     * @return future with created payment with generated id
+     */
+    public CompletableFuture<Payment> submit(Payment payment) {
+        Request request = new Request(payment);
+
+        synchronized (this) {
+            if(closed) {
+                request.future.completeExceptionally(new RejectedExecutionException("Group commit writer is closed"));
+            } else if(!queue.offer(request)) {
+                logger.log(Level.WARNING, "Queue of group commit is full, rejecting payment {0}", payment);
+                request.future.completeExceptionally(new RejectedExecutionException("Queue of group commit is full"));
+            }
+        }
+
+        return request.future;
+    }
+
+    private void writeBatches() {
+        List<Request> batch = new ArrayList<>(maxBatchSize);
+
+        try {
+            while(true) {
+                Request first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+
+                if(first == null) {
+                    if(isClosed()) {
+                        return;
+                    }
+
+                    continue;
+                }
+
+                batch.add(first);
+                long deadline = first.submitted + lingerNanos;
+
+                while(batch.size() < maxBatchSize) {
+                    Request next = queue.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+
+                    if(next == null) {
+                        break;
+                    }
+
+                    batch.add(next);
+                }
+
+                commit(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException ex) {
+            logger.log(Level.WARNING, "Group commit writer interrupted", ex);
+            failAll(batch, new RejectedExecutionException("Group commit writer interrupted"));
+            failQueued("Group commit writer interrupted");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void commit(List<Request> batch) {
+        List<Payment> payments = new ArrayList<>(batch.size());
+
+        for(Request request : batch) {
+            payments.add(request.payment);
+        }
+
+        long start = System.nanoTime();
+        PaymentBatchResult result;
+
+        try {
+            result = paymentManager.createPayments(payments);
+            COMMIT.record(start);
+        } catch (RuntimeException ex) {
+            COMMIT.recordError(start);
+            logger.log(Level.SEVERE, "Batch of group commit failed", ex);
+            failAll(batch, ex);
+            return;
+        }
+
+        batchSizes.record(batch.size());
+
+        for(int i = 0; i < batch.size(); i++) {
+            Request request = batch.get(i);
+            RuntimeException failure = result.getFailures().get(i);
+
+            waitTimes.record(System.nanoTime() - request.submitted);
+
+            if(failure == null) {
+                request.future.complete(request.payment);
+            } else {
+                request.future.completeExceptionally(failure);
+            }
+        }
+    }
+
+    private void failAll(List<Request> requests, Throwable failure) {
+        for(Request request : requests) {
+            request.future.completeExceptionally(failure);
+        }
+    }
+
+    /**
+     * Fails payments which are still in queue, writer thread may take some
+     * of them concurrently and commit them
+     */
+    private void failQueued(String reason) {
+        List<Request> queued = new ArrayList<>();
+        queue.drainTo(queued);
+        failAll(queued, new RejectedExecutionException(reason));
+    }
+
+    private synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Histogram of counts of payments in committed batches. Values are
+     * recorded as counts, not as nanoseconds.
+     * @return histogram of sizes of batches
+     */
+    public LatencyHistogram getBatchSizes() {
+        return batchSizes;
+    }
+
+    /**
+     * Histogram of times from submitting of payment to completion of its
+     * future, i.e. time spent in queue, in linger and in commit
+     * @return histogram of waiting times in nanoseconds
+     */
+    public LatencyHistogram getWaitTimes() {
+        return waitTimes;
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * Stops accepting of payments, commits already queued payments and waits
+     * for writer thread. When waiting is interrupted, payments still queued
+     * are failed with RejectedExecutionException and interrupt status of
+     * calling thread is restored.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if(closed) {
+                return;
+            }
+
+            closed = true;
+        }
+
+        logger.log(Level.INFO, "Closing group commit writer with {0} queued payments", queue.size());
+
+        try {
+            writer.join();
+        } catch (InterruptedException ex) {
+            logger.log(Level.WARNING, "Closing of group commit writer interrupted", ex);
+            failQueued("Group commit writer closed");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits until writer thread of closed writer commits queued payments
+     * @param timeout maximal time to wait
+     * @param unit unit of timeout
+     * @return true when writer thread finished, false when timeout elapsed
+     * @throws InterruptedException when waiting is interrupted
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        writer.join(Math.max(1, unit.toMillis(timeout)));
+        return !writer.isAlive();
+    }
+
+    private static class Request {
+        private final Payment payment;
+        private final CompletableFuture<Payment> future = new CompletableFuture<>();
+        private final long submitted = System.nanoTime();
+
+        private Request(Payment payment) {
+            this.payment = payment;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package cz.muni.fi.pv168.transactionmanager;
+
+import java.util.Locale;
+
+/**
+ * This class represents state of one phase of import of CSV file - counts of
+ * rows which were read, imported and rejected and count of chunks skipped
+ * because they were imported by previous run of import.
+ *
+ * @author Miroslav Kubus
+ */
+public class ImportProgress {
+    private final CsvImporter.Phase phase;
+    private final long read;
+    private final long imported;
+    private final long rejected;
+    private final long skippedChunks;
+    private final long elapsedNanos;
+
+    public ImportProgress(CsvImporter.Phase phase, long read, long imported, long rejected,
+            long skippedChunks, long elapsedNanos) {
+        this.phase = phase;
+        this.read = read;
+        this.imported = imported;
+        this.rejected = rejected;
+        this.skippedChunks = skippedChunks;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public CsvImporter.Phase getPhase() {
+        return phase;
+    }
+
+    /**
+     * @return count of rows of file read so far, rows of skipped chunks are
+     * not counted
+     */
+    public long getRead() {
+        return read;
+    }
+
+    public long getImported() {
+        return imported;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public long getSkippedChunks() {
+        return skippedChunks;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * @return imported rows per second since start of phase
+     */
+    public double getRowsPerSecond() {
+        return elapsedNanos == 0 ? 0 : imported * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "ImportProgress{phase=%s, read=%d, imported=%d, rejected=%d, "
+                + "skippedChunks=%d, rowsPerSecond=%.0f}",
+                phase, read, imported, rejected, skippedChunks, getRowsPerSecond());
+    }
+}
@@ -0,0 +1,985 @@
+package cz.muni.fi.pv168.transactionmanager;
+
+import cz.muni.fi.pv168.utils.AccountLockManager;
+import cz.muni.fi.pv168.utils.AccountLockManager.LockedAccounts;
+import cz.muni.fi.pv168.utils.EntityNotFoundException;
+import cz.muni.fi.pv168.utils.InsufficientFundsException;
+import cz.muni.fi.pv168.utils.MetricsRegistry;
+import cz.muni.fi.pv168.utils.OperationMetrics;
+import cz.muni.fi.pv168.utils.OptimisticLockException;
+import cz.muni.fi.pv168.utils.ServiceFailureException;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+/**
+ * Append-only ledger of account and payment events. Every change is appended
+ * as one row of table ledger_event and then applied to in memory projection
+ * of accounts, payments and their statistics, so no row is ever updated and
+ * balances of hot accounts are not rewritten in database. Events of the same
+ * account are appended and applied under lock of its stripe, so their order
+ * in log is the order in which they were applied.
+ * <p>
+ * Projection is periodically written to table ledger_snapshot. On startup the
+ * latest snapshot is loaded and only events appended after it are replayed.
+ * Appenders only capture entities of snapshot, it is serialized and stored by
+ * background thread, so writers do not wait for it.
+ * Live changes and replay share one method which applies events, so replay
+ * restores exactly the same state including versions of entities.
+ *
+ * @author Miroslav Kubus
+ */
+public class Ledger {
+
+    private static final Logger logger = Logger.getLogger(Ledger.class.getName());
+
+    /**
+     * Default count of events appended between two snapshots
+     */
+    public static final int DEFAULT_SNAPSHOT_INTERVAL = 10000;
+
+    private static final int SNAPSHOT_FORMAT = 1;
+    private static final int SNAPSHOTS_KEPT = 2;
+    private static final int REPLAY_FETCH_SIZE = 1000;
+
+    private static final String INSERT_EVENT =
+            "INSERT INTO ledger_event (type, entityId, fromAccount, toAccount, amount, date, number, holder) "
+            + "VALUES (?,?,?,?,?,?,?,?)";
+    private static final String SELECT_EVENTS =
+            "SELECT seq, type, entityId, fromAccount, toAccount, amount, date, number, holder "
+            + "FROM ledger_event WHERE seq > ? ORDER BY seq";
+
+    private static final MetricsRegistry METRICS = MetricsRegistry.getDefault();
+    private static final OperationMetrics SQL_APPEND = METRICS.operation("sql.ledger.append");
+    private static final OperationMetrics SQL_SNAPSHOT = METRICS.operation("sql.ledger.snapshot");
+    private static final OperationMetrics REPLAY = METRICS.operation("ledger.replay");
+
+    enum EventType {
+        ACCOUNT_CREATED, ACCOUNT_UPDATED, ACCOUNT_DELETED,
+        PAYMENT_CREATED, PAYMENT_UPDATED, PAYMENT_DELETED
+    }
+
+    /**
+     * One row of ledger_event. Payment events carry full state of payment,
+     * account events carry full state of account with balance in amount.
+     */
+    private static class Event {
+        long seq;
+        EventType type;
+        long entityId;
+        Long fromAccount;
+        Long toAccount;
+        BigDecimal amount;
+        LocalDate date;
+        String number;
+        String holder;
+
+        Event(EventType type, long entityId) {
+            this.type = type;
+            this.entityId = entityId;
+        }
+    }
+
+    private final DataSource dataSource;
+    private final boolean checkFunds;
+    private final int snapshotInterval;
+    private final AccountLockManager lockManager = new AccountLockManager();
+
+    /**
+     * Appending of events holds read lock, capture of snapshot holds write
+     * lock, so snapshot sees every appended event applied
+     */
+    private final ReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+
+    /**
+     * Single daemon thread which writes snapshots, it terminates when idle
+     */
+    private final ThreadPoolExecutor snapshotExecutor;
+
+    /**
+     * Entities of projection are never changed after they are published,
+     * every change replaces them, so readers need no locks
+     */
+    private final Map<Long, Account> accounts = new ConcurrentSkipListMap<>();
+    private final Map<String, Long> accountIdByNumber = new ConcurrentHashMap<>();
+    private final Map<Long, Payment> payments = new ConcurrentSkipListMap<>();
+    private final Map<Long, NavigableSet<Long>> paymentsFrom = new ConcurrentHashMap<>();
+    private final Map<Long, NavigableSet<Long>> paymentsTo = new ConcurrentHashMap<>();
+    private final Map<Long, AccountStatistics> statistics = new ConcurrentHashMap<>();
+
+    private final AtomicLong nextAccountId = new AtomicLong(1);
+    private final AtomicLong nextPaymentId = new AtomicLong(1);
+    private final AtomicLong lastSeq = new AtomicLong();
+    private final AtomicLong eventsSinceSnapshot = new AtomicLong();
+    private final AtomicBoolean snapshotRunning = new AtomicBoolean();
+    private volatile long snapshotSeq;
+    private volatile Future<?> pendingSnapshot;
+    private long replayedEvents;
+
+    public Ledger(DataSource dataSource) {
+        this(dataSource, false, DEFAULT_SNAPSHOT_INTERVAL);
+    }
+
+    /**
+     * Creates ledger and restores its projection from the latest snapshot
+     * and events appended after it
+     * @param dataSource represents datasource of database with ledger tables
+     * @param checkFunds true if payments which would lower balance of from
+     * account under zero should be refused with InsufficientFundsException
+     * @param snapshotInterval represents count of events between snapshots
+     * @throws IllegalArgumentException when snapshotInterval is not positive
+     */
+    public Ledger(DataSource dataSource, boolean checkFunds, int snapshotInterval) {
+        if(snapshotInterval < 1) {
+            throw new IllegalArgumentException("Snapshot interval must be positive: " + snapshotInterval);
+        }
+
+        this.dataSource = dataSource;
+        this.checkFunds = checkFunds;
+        this.snapshotInterval = snapshotInterval;
+        this.snapshotExecutor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "ledger-snapshot");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.snapshotExecutor.allowCoreThreadTimeOut(true);
+        restore();
+    }
+
+    /**
+     * @return count of events replayed on startup after the latest snapshot
+     */
+    public long getReplayedEvents() {
+        return replayedEvents;
+    }
+
+    /**
+     * @return sequence number of the latest applied event
+     */
+    public long getLastSeq() {
+        return lastSeq.get();
+    }
+
+    void createAccount(Account account) {
+        long id = nextAccountId.getAndIncrement();
+
+        if(accountIdByNumber.putIfAbsent(account.getNumber(), id) != null) {
+            throw new ServiceFailureException("Error when creating new account. Account number "
+                                              + account.getNumber() + " is already used.");
+        }
+
+        Event event = accountEvent(EventType.ACCOUNT_CREATED, id, account);
+
+        try {
+            appendAndApply(event, Collections.singletonList(id), () -> { });
+        } catch (RuntimeException ex) {
+            accountIdByNumber.remove(account.getNumber(), id);
+            throw ex;
+        }
+
+        account.setId(id);
+        account.setVersion(0);
+    }
+
+    void updateAccount(Account account) {
+        Long id = account.getId();
+        Event event = accountEvent(EventType.ACCOUNT_UPDATED, id, account);
+        boolean[] reserved = new boolean[1];
+
+        try {
+            appendAndApply(event, Collections.singletonList(id), () -> {
+                Account current = existingAccount(id);
+
+                if(current.getVersion() != account.getVersion()) {
+                    throw new OptimisticLockException("Account " + account + " was changed since it was read, "
+                            + "current state is " + current, copy(current));
+                }
+
+                if(!current.getNumber().equals(account.getNumber())) {
+                    if(accountIdByNumber.putIfAbsent(account.getNumber(), id) != null) {
+                        throw new ServiceFailureException("Account number " + account.getNumber() 
+                                                          + " is already used.");
+                    }
+                    
+                    reserved[0] = true;
+                }
+            });
+        } catch (RuntimeException ex) {
+            if(reserved[0]) {
+                accountIdByNumber.remove(account.getNumber(), id);
+            }
+            
+            throw ex;
+        }
+
+        account.setVersion(account.getVersion() + 1);
+    }
+
+    void deleteAccount(Account account) {
+        Long id = account.getId();
+
+        appendAndApply(new Event(EventType.ACCOUNT_DELETED, id), Collections.singletonList(id), () -> {
+            existingAccount(id);
+
+            if(!indexOf(paymentsFrom, id).isEmpty() || !indexOf(paymentsTo, id).isEmpty()) {
+                throw new ServiceFailureException("Account " + account + " can not be deleted, it has payments");
+            }
+        });
+    }
+
+    Account getAccount(Long id) {
+        Account account = accounts.get(id);
+        return account == null ? null : copy(account);
+    }
+
+    Account getAccountByNumber(String number) {
+        Long id = accountIdByNumber.get(number);
+        return id == null ? null : getAccount(id);
+    }
+
+    List<Account> getAllAccounts() {
+        List<Account> all = new ArrayList<>(accounts.size());
+
+        for(Account account : accounts.values()) {
+            all.add(copy(account));
+        }
+
+        return all;
+    }
+
+    void createPayment(Payment payment) {
+        Long from = payment.getFrom().getId();
+        Long to = payment.getTo().getId();
+        long id = nextPaymentId.getAndIncrement();
+        Event event = paymentEvent(EventType.PAYMENT_CREATED, id, payment);
+
+        appendAndApply(event, Arrays.asList(from, to), () -> {
+            Account fromAccount = existingAccount(from);
+            existingAccount(to);
+
+            if(checkFunds && fromAccount.getBalance().compareTo(payment.getAmount()) < 0) {
+                throw new InsufficientFundsException("Insufficient funds on account "
+                                                     + fromAccount + " for amount " + payment.getAmount());
+            }
+        });
+
+        payment.setId(id);
+        payment.setVersion(0);
+    }
+
+    /**
+     * Changes amount and date of payment. Accounts of payment cannot be
+     * changed, like in PaymentManagerImpl.
+     * @throws IllegalArgumentException when accounts differ from stored ones
+     */
+    void updatePayment(Payment payment) {
+        Long id = payment.getId();
+        Long from = payment.getFrom().getId();
+        Long to = payment.getTo().getId();
+        Event event = paymentEvent(EventType.PAYMENT_UPDATED, id, payment);
+
+        appendAndApply(event, Arrays.asList(from, to), () -> {
+            Payment current = payments.get(id);
+
+            if(current == null) {
+                throw new EntityNotFoundException("No payment " + payment + " in ledger");
+            }
+
+            if(current.getVersion() != payment.getVersion()) {
+                throw new OptimisticLockException("Payment " + payment + " was changed since it was read, "
+                        + "current state is " + current, withAccounts(current));
+            }
+
+            if(!current.getFrom().getId().equals(from) || !current.getTo().getId().equals(to)) {
+                throw new IllegalArgumentException("Accounts of payment " + payment
+                        + " cannot be changed, stored payment is " + current);
+            }
+
+            BigDecimal difference = payment.getAmount().subtract(current.getAmount());
+
+            if(checkFunds && difference.signum() > 0 && accounts.get(from).getBalance().compareTo(difference) < 0) {
+                throw new InsufficientFundsException("Insufficient funds on account "
+                                                     + accounts.get(from) + " for amount " + difference);
+            }
+
+            if(checkFunds && difference.signum() < 0 && accounts.get(to).getBalance().compareTo(difference.negate()) < 0) {
+                throw new InsufficientFundsException("Insufficient funds on account "
+                                                     + accounts.get(to) + " for amount " + difference.negate());
+            }
+        });
+
+        payment.setVersion(payment.getVersion() + 1);
+    }
+
+    void deletePayment(Payment payment) {
+        Long id = payment.getId();
+        Payment current = payments.get(id);
+
+        if(current == null) {
+            throw new EntityNotFoundException(payment + " was not find in ledger");
+        }
+
+        Event event = new Event(EventType.PAYMENT_DELETED, id);
+
+        appendAndApply(event, Arrays.asList(current.getFrom().getId(), current.getTo().getId()), () -> {
+            if(!payments.containsKey(id)) {
+                throw new EntityNotFoundException(payment + " was not find in ledger");
+            }
+        });
+    }
+
+    Payment getPayment(Long id) {
+        Payment payment = payments.get(id);
+        return payment == null ? null : withAccounts(payment);
+    }
+
+    /**
+     * @return payments ordered by id, accounts of payments have current balances
+     */
+    Collection<Payment> getPayments() {
+        return new PaymentsView(payments.values());
+    }
+
+    Collection<Payment> getPaymentsFrom(Long accountId) {
+        return new PaymentsView(idsToPayments(indexOf(paymentsFrom, accountId)));
+    }
+
+    Collection<Payment> getPaymentsTo(Long accountId) {
+        return new PaymentsView(idsToPayments(indexOf(paymentsTo, accountId)));
+    }
+
+    AccountStatistics getStatistics(Long accountId) {
+        return statistics.get(accountId);
+    }
+
+    /**
+     * Writes snapshot of projection, so following startup replays only events
+     * appended after it. Older snapshots except the previous one are deleted.
+     * Does nothing when snapshot is just being written in background.
+     */
+    public void snapshot() {
+        if(!snapshotRunning.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            writeAndStoreSnapshot();
+        } finally {
+            snapshotRunning.set(false);
+        }
+    }
+
+    /**
+     * Submits snapshot to background thread when enough events were appended
+     * since the last one and no snapshot is running. Snapshot which finishes
+     * calls it again, so events appended meanwhile are not left out.
+     */
+    private void scheduleSnapshot() {
+        if(eventsSinceSnapshot.get() < snapshotInterval || !snapshotRunning.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            pendingSnapshot = snapshotExecutor.submit(() -> {
+                try {
+                    writeAndStoreSnapshot();
+                } catch (RuntimeException ex) {
+                    logger.log(Level.SEVERE, "Error while taking snapshot of ledger", ex);
+                } finally {
+                    snapshotRunning.set(false);
+                    scheduleSnapshot();
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            snapshotRunning.set(false);
+            logger.log(Level.WARNING, "Snapshot of ledger rejected by executor", ex);
+        }
+    }
+
+    /**
+     * Waits until snapshots submitted to background thread are written
+     */
+    void awaitSnapshot() throws InterruptedException, ExecutionException {
+        Future<?> snapshot;
+
+        while((snapshot = pendingSnapshot) != null && !snapshot.isDone()) {
+            snapshot.get();
+        }
+    }
+
+    /**
+     * Captures accounts and payments under write lock and serializes and
+     * stores them after it is released. Entities of projection are immutable,
+     * so copies of their references are consistent snapshot.
+     */
+    private void writeAndStoreSnapshot() {
+        long start = System.nanoTime();
+        long seq;
+        long accountId;
+        long paymentId;
+        List<Account> capturedAccounts;
+        List<Payment> capturedPayments;
+
+        snapshotLock.writeLock().lock();
+        try {
+            seq = lastSeq.get();
+            accountId = nextAccountId.get();
+            paymentId = nextPaymentId.get();
+            capturedAccounts = new ArrayList<>(accounts.values());
+            capturedPayments = new ArrayList<>(payments.values());
+            eventsSinceSnapshot.set(0);
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+
+        if(seq == snapshotSeq) {
+            return;
+        }
+
+        byte[] data;
+
+        try {
+            data = writeSnapshot(seq, accountId, paymentId, capturedAccounts, capturedPayments);
+        } catch (IOException ex) {
+            throw new ServiceFailureException("Error while writing snapshot of ledger", ex);
+        }
+
+        try(Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+
+            try(PreparedStatement st = connection.prepareStatement(
+                        "INSERT INTO ledger_snapshot (seq, created, data) VALUES (?,?,?)");
+                PreparedStatement delete = connection.prepareStatement(
+                        "DELETE FROM ledger_snapshot WHERE seq < (SELECT MIN(seq) FROM "
+                        + "(SELECT seq FROM ledger_snapshot ORDER BY seq DESC FETCH FIRST "
+                        + SNAPSHOTS_KEPT + " ROWS ONLY) kept)")) {
+                st.setLong(1, seq);
+                st.setTimestamp(2, new Timestamp(System.currentTimeMillis()));
+                st.setBytes(3, data);
+                st.executeUpdate();
+                delete.executeUpdate();
+                connection.commit();
+            } catch (SQLException | RuntimeException ex) {
+                connection.rollback();
+                throw ex;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException ex) {
+            SQL_SNAPSHOT.recordError(start);
+            logger.log(Level.SEVERE, "Error while storing snapshot of ledger", ex);
+            throw new ServiceFailureException("Error while storing snapshot of ledger", ex);
+        }
+
+        snapshotSeq = seq;
+        SQL_SNAPSHOT.record(start);
+        logger.log(Level.INFO, "Snapshot of ledger at event {0} written, {1} bytes", new Object[]{seq, data.length});
+    }
+
+    /**
+     * Checks event against current projection, appends it and applies it.
+     * Accounts of event are locked for the whole time, so check is valid
+     * when event is applied and events of the same account are in log in
+     * the order of their application.
+     */
+    private void appendAndApply(Event event, Collection<Long> accountIds, Runnable check) {
+        snapshotLock.readLock().lock();
+        try(LockedAccounts locked = lockManager.lock(accountIds)) {
+            check.run();
+            event.seq = append(event);
+            apply(event);
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+
+        if(eventsSinceSnapshot.incrementAndGet() >= snapshotInterval) {
+            scheduleSnapshot();
+        }
+    }
+
+    private long append(Event event) {
+        long start = System.nanoTime();
+
+        try(Connection connection = dataSource.getConnection();
+            PreparedStatement st = connection.prepareStatement(INSERT_EVENT, Statement.RETURN_GENERATED_KEYS)) {
+            st.setString(1, event.type.name());
+            st.setLong(2, event.entityId);
+            setNullableLong(st, 3, event.fromAccount);
+            setNullableLong(st, 4, event.toAccount);
+            st.setBigDecimal(5, event.amount);
+            st.setDate(6, event.date == null ? null : Date.valueOf(event.date));
+            st.setString(7, event.number);
+            st.setString(8, event.holder);
+            st.executeUpdate();
+
+            try(ResultSet keys = st.getGeneratedKeys()) {
+                if(!keys.next()) {
+                    throw new ServiceFailureException("Internal Error: no sequence number of event " + event.type);
+                }
+
+                SQL_APPEND.record(start);
+                return keys.getLong(1);
+            }
+        } catch (SQLException ex) {
+            SQL_APPEND.recordError(start);
+            logger.log(Level.SEVERE, "Error while appending event " + event.type + " of " + event.entityId, ex);
+            throw new ServiceFailureException("Error while appending event " + event.type
+                                              + " of " + event.entityId, ex);
+        }
+    }
+
+    /**
+     * Applies event to projection. Called for live events and during replay,
+     * so it must not depend on anything else than projection and event.
+     */
+    private void apply(Event event) {
+        switch(event.type) {
+            case ACCOUNT_CREATED:
+                applyAccountCreated(event);
+                break;
+            case ACCOUNT_UPDATED:
+                applyAccountUpdated(event);
+                break;
+            case ACCOUNT_DELETED:
+                applyAccountDeleted(event);
+                break;
+            case PAYMENT_CREATED:
+                applyPaymentCreated(event);
+                break;
+            case PAYMENT_UPDATED:
+                applyPaymentUpdated(event);
+                break;
+            case PAYMENT_DELETED:
+                applyPaymentDeleted(event);
+                break;
+            default:
+                throw new ServiceFailureException("Unknown event " + event.type);
+        }
+
+        lastSeq.accumulateAndGet(event.seq, Math::max);
+    }
+
+    private void applyAccountCreated(Event event) {
+        Account account = new Account(event.number, event.holder, event.amount);
+        account.setId(event.entityId);
+
+        accounts.put(event.entityId, account);
+        accountIdByNumber.put(event.number, event.entityId);
+        statistics.put(event.entityId, new AccountStatistics(event.entityId, BigDecimal.ZERO, BigDecimal.ZERO, 0, 0, null));
+        nextAccountId.accumulateAndGet(event.entityId + 1, Math::max);
+    }
+
+    private void applyAccountUpdated(Event event) {
+        Account current = accounts.get(event.entityId);
+        Account account = new Account(event.number, event.holder, event.amount);
+        account.setId(event.entityId);
+        account.setVersion(current.getVersion() + 1);
+
+        accounts.put(event.entityId, account);
+
+        if(!current.getNumber().equals(event.number)) {
+            accountIdByNumber.remove(current.getNumber(), event.entityId);
+            accountIdByNumber.put(event.number, event.entityId);
+        }
+    }
+
+    private void applyAccountDeleted(Event event) {
+        Account current = accounts.remove(event.entityId);
+
+        accountIdByNumber.remove(current.getNumber(), event.entityId);
+        statistics.remove(event.entityId);
+        paymentsFrom.remove(event.entityId);
+        paymentsTo.remove(event.entityId);
+    }
+
+    private void applyPaymentCreated(Event event) {
+        Payment payment = newPayment(event.entityId, event.fromAccount, event.toAccount, event.amount, event.date, 0);
+
+        changeBalance(event.fromAccount, event.amount.negate());
+        changeBalance(event.toAccount, event.amount);
+        payments.put(event.entityId, payment);
+        indexOf(paymentsFrom, event.fromAccount).add(event.entityId);
+        indexOf(paymentsTo, event.toAccount).add(event.entityId);
+        changeStatistics(event.fromAccount, BigDecimal.ZERO, event.amount, 0, 1, event.date);
+        changeStatistics(event.toAccount, event.amount, BigDecimal.ZERO, 1, 0, event.date);
+        nextPaymentId.accumulateAndGet(event.entityId + 1, Math::max);
+    }
+
+    private void applyPaymentUpdated(Event event) {
+        Payment current = payments.get(event.entityId);
+        BigDecimal difference = event.amount.subtract(current.getAmount());
+        Long from = current.getFrom().getId();
+        Long to = current.getTo().getId();
+
+        changeBalance(from, difference.negate());
+        changeBalance(to, difference);
+        payments.put(event.entityId, newPayment(event.entityId, from, to, event.amount, event.date,
+                                                current.getVersion() + 1));
+        changeStatistics(from, BigDecimal.ZERO, difference, 0, 0, event.date);
+        changeStatistics(to, difference, BigDecimal.ZERO, 0, 0, event.date);
+
+        if(!current.getDate().equals(event.date)) {
+            refreshLastPaymentDate(from);
+            refreshLastPaymentDate(to);
+        }
+    }
+
+    /**
+     * Deleted payment does not return money, like in PaymentManagerImpl
+     */
+    private void applyPaymentDeleted(Event event) {
+        Payment current = payments.remove(event.entityId);
+        Long from = current.getFrom().getId();
+        Long to = current.getTo().getId();
+
+        indexOf(paymentsFrom, from).remove(event.entityId);
+        indexOf(paymentsTo, to).remove(event.entityId);
+        changeStatistics(from, BigDecimal.ZERO, current.getAmount().negate(), 0, -1, null);
+        changeStatistics(to, current.getAmount().negate(), BigDecimal.ZERO, -1, 0, null);
+        refreshLastPaymentDate(from);
+        refreshLastPaymentDate(to);
+    }
+
+    private void changeBalance(Long accountId, BigDecimal amount) {
+        Account current = accounts.get(accountId);
+        Account account = new Account(current.getNumber(), current.getHolder(), current.getBalance().add(amount));
+        account.setId(accountId);
+        account.setVersion(current.getVersion() + 1);
+
+        accounts.put(accountId, account);
+    }
+
+    private void changeStatistics(Long accountId, BigDecimal in, BigDecimal out,
+                                  int countIn, int countOut, LocalDate date) {
+        AccountStatistics current = statistics.get(accountId);
+        LocalDate last = current.getLastPaymentDate();
+
+        if(date != null && (last == null || last.isBefore(date))) {
+            last = date;
+        }
+
+        statistics.put(accountId, new AccountStatistics(accountId, current.getTotalIn().add(in),
+                current.getTotalOut().add(out), current.getCountIn() + countIn,
+                current.getCountOut() + countOut, last));
+    }
+
+    private void refreshLastPaymentDate(Long accountId) {
+        LocalDate last = null;
+
+        for(Payment payment : idsToPayments(indexOf(paymentsFrom, accountId))) {
+            last = last == null || last.isBefore(payment.getDate()) ? payment.getDate() : last;
+        }
+
+        for(Payment payment : idsToPayments(indexOf(paymentsTo, accountId))) {
+            last = last == null || last.isBefore(payment.getDate()) ? payment.getDate() : last;
+        }
+
+        AccountStatistics current = statistics.get(accountId);
+        statistics.put(accountId, new AccountStatistics(accountId, current.getTotalIn(), current.getTotalOut(),
+                current.getCountIn(), current.getCountOut(), last));
+    }
+
+    private void restore() {
+        long start = System.nanoTime();
+
+        try(Connection connection = dataSource.getConnection()) {
+            long seq = loadSnapshot(connection);
+
+            try(PreparedStatement st = connection.prepareStatement(SELECT_EVENTS,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                st.setLong(1, seq);
+                st.setFetchSize(REPLAY_FETCH_SIZE);
+
+                try(ResultSet rs = st.executeQuery()) {
+                    while(rs.next()) {
+                        apply(resultSetToEvent(rs));
+                        replayedEvents++;
+                    }
+                }
+            }
+        } catch (SQLException | IOException ex) {
+            REPLAY.recordError(start);
+            logger.log(Level.SEVERE, "Error while restoring ledger", ex);
+            throw new ServiceFailureException("Error while restoring ledger", ex);
+        }
+
+        eventsSinceSnapshot.set(replayedEvents);
+        REPLAY.record(start);
+        logger.log(Level.INFO, "Ledger restored, {0} events replayed in {1} ms",
+                new Object[]{replayedEvents, (System.nanoTime() - start) / 1000000});
+    }
+
+    private static Event resultSetToEvent(ResultSet rs) throws SQLException {
+        Event event = new Event(EventType.valueOf(rs.getString("type")), rs.getLong("entityId"));
+        Date date = rs.getDate("date");
+
+        event.seq = rs.getLong("seq");
+        event.fromAccount = (Long) rs.getObject("fromAccount");
+        event.toAccount = (Long) rs.getObject("toAccount");
+        event.amount = rs.getBigDecimal("amount");
+        event.date = date == null ? null : date.toLocalDate();
+        event.number = rs.getString("number");
+        event.holder = rs.getString("holder");
+
+        return event;
+    }
+
+    /**
+     * Loads the latest snapshot into empty projection
+     * @return sequence number of the latest event contained in snapshot, 0 without snapshot
+     */
+    private long loadSnapshot(Connection connection) throws SQLException, IOException {
+        try(PreparedStatement st = connection.prepareStatement(
+                "SELECT seq, data FROM ledger_snapshot ORDER BY seq DESC FETCH FIRST 1 ROWS ONLY");
+            ResultSet rs = st.executeQuery()) {
+            if(!rs.next()) {
+                return 0;
+            }
+
+            try(InputStream input = rs.getBinaryStream("data")) {
+                readSnapshot(new DataInputStream(input));
+            }
+
+            snapshotSeq = rs.getLong("seq");
+            return snapshotSeq;
+        }
+    }
+
+    private byte[] writeSnapshot(long seq, long accountId, long paymentId,
+            List<Account> accounts, List<Payment> payments) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeInt(SNAPSHOT_FORMAT);
+        out.writeLong(seq);
+        out.writeLong(accountId);
+        out.writeLong(paymentId);
+        out.writeInt(accounts.size());
+
+        for(Account account : accounts) {
+            out.writeLong(account.getId());
+            out.writeUTF(account.getNumber());
+            out.writeUTF(account.getHolder());
+            out.writeUTF(account.getBalance().toPlainString());
+            out.writeLong(account.getVersion());
+        }
+
+        out.writeInt(payments.size());
+
+        for(Payment payment : payments) {
+            out.writeLong(payment.getId());
+            out.writeLong(payment.getFrom().getId());
+            out.writeLong(payment.getTo().getId());
+            out.writeUTF(payment.getAmount().toPlainString());
+            out.writeLong(payment.getDate().toEpochDay());
+            out.writeLong(payment.getVersion());
+        }
+
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads accounts and payments of snapshot, statistics of accounts are
+     * computed from payments
+     */
+    private void readSnapshot(DataInputStream in) throws IOException {
+        int format = in.readInt();
+
+        if(format != SNAPSHOT_FORMAT) {
+            throw new IOException("Unsupported format of snapshot of ledger: " + format);
+        }
+
+        lastSeq.set(in.readLong());
+        nextAccountId.set(in.readLong());
+        nextPaymentId.set(in.readLong());
+
+        for(int i = in.readInt(); i > 0; i--) {
+            long id = in.readLong();
+            Account account = new Account(in.readUTF(), in.readUTF(), new BigDecimal(in.readUTF()));
+            account.setId(id);
+            account.setVersion(in.readLong());
+
+            accounts.put(id, account);
+            accountIdByNumber.put(account.getNumber(), id);
+            statistics.put(id, new AccountStatistics(id, BigDecimal.ZERO, BigDecimal.ZERO, 0, 0, null));
+        }
+
+        for(int i = in.readInt(); i > 0; i--) {
+            long id = in.readLong();
+            long from = in.readLong();
+            long to = in.readLong();
+            BigDecimal amount = new BigDecimal(in.readUTF());
+            LocalDate date = LocalDate.ofEpochDay(in.readLong());
+
+            payments.put(id, newPayment(id, from, to, amount, date, in.readLong()));
+            indexOf(paymentsFrom, from).add(id);
+            indexOf(paymentsTo, to).add(id);
+            changeStatistics(from, BigDecimal.ZERO, amount, 0, 1, date);
+            changeStatistics(to, amount, BigDecimal.ZERO, 1, 0, date);
+        }
+    }
+
+    private Account existingAccount(Long id) {
+        Account account = accounts.get(id);
+
+        if(account == null) {
+            throw new EntityNotFoundException("No account with id " + id + " in ledger");
+        }
+
+        return account;
+    }
+
+    private static NavigableSet<Long> indexOf(Map<Long, NavigableSet<Long>> index, Long accountId) {
+        return index.computeIfAbsent(accountId, id -> new ConcurrentSkipListSet<>());
+    }
+
+    private Collection<Payment> idsToPayments(Collection<Long> ids) {
+        List<Payment> found = new ArrayList<>(ids.size());
+
+        for(Long id : ids) {
+            Payment payment = payments.get(id);
+
+            if(payment != null) {
+                found.add(payment);
+            }
+        }
+
+        return found;
+    }
+
+    /**
+     * Payment of projection references its accounts only by id, returned
+     * payment gets copies of current accounts
+     */
+    private Payment withAccounts(Payment stored) {
+        Payment payment = newPayment(stored.getId(), stored.getFrom().getId(), stored.getTo().getId(),
+                                     stored.getAmount(), stored.getDate(), stored.getVersion());
+        payment.setFrom(getAccount(stored.getFrom().getId()));
+        payment.setTo(getAccount(stored.getTo().getId()));
+
+        return payment;
+    }
+
+    /**
+     * Iterates stored payments and returns them with current accounts
+     */
+    private class PaymentsView extends AbstractCollection<Payment> {
+        private final Collection<Payment> stored;
+
+        PaymentsView(Collection<Payment> stored) {
+            this.stored = stored;
+        }
+
+        @Override
+        public Iterator<Payment> iterator() {
+            Iterator<Payment> iterator = stored.iterator();
+
+            return new Iterator<Payment>() {
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public Payment next() {
+                    return withAccounts(iterator.next());
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return stored.size();
+        }
+    }
+
+    private static Payment newPayment(Long id, Long from, Long to, BigDecimal amount, LocalDate date, long version) {
+        Account fromAccount = new Account();
+        fromAccount.setId(from);
+        Account toAccount = new Account();
+        toAccount.setId(to);
+
+        Payment payment = new Payment();
+        payment.setId(id);
+        payment.setFrom(fromAccount);
+        payment.setTo(toAccount);
+        payment.setAmount(amount);
+        payment.setDate(date);
+        payment.setVersion(version);
+
+        return payment;
+    }
+
+    private static Event accountEvent(EventType type, Long id, Account account) {
+        Event event = new Event(type, id);
+        event.number = account.getNumber();
+        event.holder = account.getHolder();
+        event.amount = account.getBalance();
+
+        return event;
+    }
+
+    private static Event paymentEvent(EventType type, Long id, Payment payment) {
+        Event event = new Event(type, id);
+        event.fromAccount = payment.getFrom().getId();
+        event.toAccount = payment.getTo().getId();
+        event.amount = payment.getAmount();
+        event.date = payment.getDate();
+
+        return event;
+    }
+
+    private static void setNullableLong(PreparedStatement st, int index, Long value) throws SQLException {
+        if(value == null) {
+            st.setNull(index, Types.BIGINT);
+        } else {
+            st.setLong(index, value);
+        }
+    }
+
+    private static Account copy(Account account) {
+        Account copy = new Account(account.getNumber(), account.getHolder(), account.getBalance());
+        copy.setId(account.getId());
+        copy.setVersion(account.getVersion());
+        return copy;
+    }
+}
@@ -0,0 +1,91 @@
+package cz.muni.fi.pv168.transactionmanager;
+
+import cz.muni.fi.pv168.utils.AccountHelper;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Account manager backed by append-only ledger. Changes of accounts are
+ * appended to ledger, accounts are read from its in memory projection.
+ *
+ * @author Miroslav Kubus
+ */
+public class LedgerAccountManager implements AccountManager {
+
+    private static final Logger logger = Logger.getLogger(LedgerAccountManager.class.getName());
+
+    private final Ledger ledger;
+    private final AccountHelper accountHelper = new AccountHelper();
+
+    public LedgerAccountManager(Ledger ledger) {
+        this.ledger = ledger;
+    }
+
+    @Override
+    public void createAccount(Account account) {
+        logger.log(Level.INFO, "Creating new account");
+        accountHelper.validate(account);
+
+        if(account.getId() != null) {
+            throw new IllegalArgumentException("Account ID is already set");
+        }
+
+        ledger.createAccount(account);
+    }
+
+    @Override
+    public void updateAccount(Account account) {
+        logger.log(Level.INFO, "Updating account {0}", account);
+        accountHelper.validate(account);
+
+        if(account.getId() == null) {
+            throw new IllegalArgumentException("Null id of account to upadate");
+        }
+
+        ledger.updateAccount(account);
+    }
+
+    @Override
+    public void deleteAccount(Account account) {
+        logger.log(Level.INFO, "Deleting account {0}", account);
+
+        if(account == null) {
+            throw new IllegalArgumentException("Non existing account to delete");
+        }
+
+        if(account.getId() == null) {
+            throw new IllegalArgumentException("Null id of account to delete");
+        }
+
+        ledger.deleteAccount(account);
+    }
+
+    @Override
+    public Account getAccountById(Long id) {
+        logger.log(Level.INFO, "Getting account with ID: {0}", id);
+
+        if(id == null) {
+            throw new IllegalArgumentException("Null id of account in getAccountByID");
+        }
+
+        return ledger.getAccount(id);
+    }
+
+    @Override
+    public List<Account> getAllAccounts() {
+        logger.log(Level.INFO, "Getting all accounts from ledger");
+        return ledger.getAllAccounts();
+    }
+
+    @Override
+    public Account getAccountByNumber(String number) {
+        logger.log(Level.INFO, "Getting account with number: {0}", number);
+
+        if(number == null) {
+            throw new IllegalArgumentException("Null number of account in getAccountByNumber");
+        }
+
+        return ledger.getAccountByNumber(number);
+    }
+}
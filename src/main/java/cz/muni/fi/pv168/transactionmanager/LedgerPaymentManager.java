@@ -0,0 +1,251 @@
+package cz.muni.fi.pv168.transactionmanager;
+
+import cz.muni.fi.pv168.utils.AccountHelper;
+import cz.muni.fi.pv168.utils.PaymentHelper;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Payment manager backed by append-only ledger. Every change of payment is one
+ * appended event, balances and statistics of accounts are kept by in memory
+ * projection of ledger, so reading of payments does not touch database.
+ *
+ * @author Miroslav Kubus
+ */
+public class LedgerPaymentManager implements PaymentManager {
+
+    private static final Logger logger = Logger.getLogger(LedgerPaymentManager.class.getName());
+
+    private final Ledger ledger;
+    private final AccountHelper accountHelper = new AccountHelper();
+    private final PaymentHelper paymentHelper = new PaymentHelper();
+
+    public LedgerPaymentManager(Ledger ledger) {
+        this.ledger = ledger;
+    }
+
+    @Override
+    public void createPayment(Payment payment) {
+        logger.log(Level.INFO, "Creating new payment");
+        paymentHelper.validate(payment);
+
+        if(payment.getId() != null) {
+            throw new IllegalArgumentException("Payment ID is already set");
+        }
+
+        ledger.createPayment(payment);
+    }
+
+    /**
+     * Creates payments one by one, every payment is one appended event, so
+     * failure of one payment does not affect others
+     */
+    @Override
+    public PaymentBatchResult createPayments(Collection<Payment> payments) {
+        if(payments == null) {
+            throw new IllegalArgumentException("Null collection of payments");
+        }
+
+        logger.log(Level.INFO, "Creating batch of {0} payments", payments.size());
+
+        PaymentBatchResult result = new PaymentBatchResult(payments.size());
+        int index = 0;
+
+        for(Payment payment : payments) {
+            try {
+                createPayment(payment);
+                result.setId(index, payment.getId());
+            } catch (RuntimeException ex) {
+                result.addFailure(index, ex);
+            }
+
+            index++;
+        }
+
+        return result;
+    }
+
+    @Override
+    public void updatePayment(Payment payment) {
+        logger.log(Level.INFO, "Updating payment{0}", payment);
+        paymentHelper.validate(payment);
+
+        if(payment.getId() == null) {
+            throw new IllegalArgumentException("Null id of payment to update");
+        }
+
+        ledger.updatePayment(payment);
+    }
+
+    @Override
+    public void deletePayment(Payment payment) {
+        logger.log(Level.INFO, "Deleting payment{0}", payment);
+        paymentHelper.validate(payment);
+
+        if(payment.getId() == null) {
+            throw new IllegalArgumentException("Null id of payment for deleting");
+        }
+
+        ledger.deletePayment(payment);
+    }
+
+    @Override
+    public Payment getPaymentByID(Long id) {
+        logger.log(Level.INFO, "Getting payment by ID:{0}", id);
+
+        if(id == null) {
+            throw new IllegalArgumentException("Null id of payment in getPaymentByID");
+        }
+
+        return ledger.getPayment(id);
+    }
+
+    @Override
+    public List<Payment> getAllPayments() {
+        return new ArrayList<>(ledger.getPayments());
+    }
+
+    @Override
+    public void forEachPayment(Consumer<? super Payment> consumer) {
+        logger.log(Level.INFO, "Getting all payments from ledger");
+
+        if(consumer == null) {
+            throw new IllegalArgumentException("Null consumer of payments");
+        }
+
+        ledger.getPayments().forEach(consumer);
+    }
+
+    @Override
+    public List<Payment> getPaymentsAfter(Long afterId, int limit) {
+        if(limit < 1) {
+            throw new IllegalArgumentException("Limit of payments must be positive: " + limit);
+        }
+
+        PaymentQuery query = new PaymentQuery();
+        query.setAfterId(afterId);
+        query.setLimit(limit);
+
+        return findPayments(query);
+    }
+
+    @Override
+    public List<Payment> findPayments(PaymentQuery query) {
+        List<Payment> toReturn = new ArrayList<>();
+        forEachPayment(query, toReturn::add);
+
+        return toReturn;
+    }
+
+    /**
+     * Evaluates query on payments of account when query has account,
+     * otherwise on all payments
+     */
+    @Override
+    public void forEachPayment(PaymentQuery query, Consumer<? super Payment> consumer) {
+        logger.log(Level.INFO, "Searching payments by {0}", query);
+
+        if(query == null) {
+            throw new IllegalArgumentException("Null query of payments");
+        }
+
+        if(consumer == null) {
+            throw new IllegalArgumentException("Null consumer of payments");
+        }
+
+        query.validate();
+
+        List<Payment> matching = new ArrayList<>();
+
+        for(Payment payment : candidatesOf(query)) {
+            if(query.matches(payment)) {
+                matching.add(payment);
+            }
+        }
+
+        matching.sort(query.comparator());
+
+        int end = query.getLimit() == null ? matching.size()
+                : (int) Math.min(matching.size(), (long) query.getOffset() + query.getLimit());
+
+        for(int i = query.getOffset(); i < end; i++) {
+            consumer.accept(matching.get(i));
+        }
+    }
+
+    private Collection<Payment> candidatesOf(PaymentQuery query) {
+        if(query.getAccount() == null) {
+            return ledger.getPayments();
+        }
+
+        Long accountId = query.getAccount().getId();
+
+        switch(query.getDirection()) {
+            case FROM:
+                return ledger.getPaymentsFrom(accountId);
+            case TO:
+                return ledger.getPaymentsTo(accountId);
+            default:
+                List<Payment> both = new ArrayList<>(ledger.getPaymentsFrom(accountId));
+                both.addAll(ledger.getPaymentsTo(accountId));
+                return both;
+        }
+    }
+
+    @Override
+    public AccountStatistics getAccountStatistics(Account account) {
+        logger.log(Level.INFO, "Getting statistics of account {0}", account);
+
+        if(account == null || account.getId() == null) {
+            throw new IllegalArgumentException("Null account or id of account in getAccountStatistics");
+        }
+
+        return ledger.getStatistics(account.getId());
+    }
+
+    @Override
+    public List<Payment> getPaymentsFromAccount(Account account) {
+        List<Payment> toReturn = new ArrayList<>();
+        forEachPaymentFromAccount(account, toReturn::add);
+
+        return toReturn;
+    }
+
+    @Override
+    public void forEachPaymentFromAccount(Account account, Consumer<? super Payment> consumer) {
+        logger.log(Level.INFO, "Getting all payment with same from account");
+        validateAccount(account, consumer);
+        ledger.getPaymentsFrom(account.getId()).forEach(consumer);
+    }
+
+    @Override
+    public List<Payment> getPaymentsToAcoount(Account account) {
+        List<Payment> toReturn = new ArrayList<>();
+        forEachPaymentToAccount(account, toReturn::add);
+
+        return toReturn;
+    }
+
+    @Override
+    public void forEachPaymentToAccount(Account account, Consumer<? super Payment> consumer) {
+        logger.log(Level.INFO, "Getting all payment with same to account");
+        validateAccount(account, consumer);
+        ledger.getPaymentsTo(account.getId()).forEach(consumer);
+    }
+
+    private void validateAccount(Account account, Consumer<? super Payment> consumer) {
+        accountHelper.validate(account);
+
+        if(account.getId() == null) {
+            throw new IllegalArgumentException("Null id of account in search of payments");
+        }
+
+        if(consumer == null) {
+            throw new IllegalArgumentException("Null consumer of payments");
+        }
+    }
+}
@@ -0,0 +1,896 @@
+package cz.muni.fi.pv168.transactionmanager;
+
+import cz.muni.fi.pv168.transactionmanager.PaymentLog.Record;
+import cz.muni.fi.pv168.utils.AccountHelper;
+import cz.muni.fi.pv168.utils.AccountLockManager;
+import cz.muni.fi.pv168.utils.AccountLockManager.LockedAccounts;
+import cz.muni.fi.pv168.utils.EntityNotFoundException;
+import cz.muni.fi.pv168.utils.InsufficientFundsException;
+import cz.muni.fi.pv168.utils.MetricsRegistry;
+import cz.muni.fi.pv168.utils.Money;
+import cz.muni.fi.pv168.utils.OperationMetrics;
+import cz.muni.fi.pv168.utils.OptimisticLockException;
+import cz.muni.fi.pv168.utils.PaymentHelper;
+import cz.muni.fi.pv168.utils.ServiceFailureException;
+import cz.muni.fi.pv168.utils.TransferHelper;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+/**
+ * Payment manager which stores payments in memory-mapped PaymentLog instead
+ * of payment table. Balances of accounts stay in account table and are
+ * changed by TransferHelper like in PaymentManagerImpl, so every payment
+ * still costs one transaction of database.
+ * <p>
+ * Payment is appended to log as pending record (change of payment as
+ * amendment) inside of transaction which changes balances. Number of the
+ * record is inserted to table payment_log_commit in the same transaction and
+ * log is forced to disk before database commits. Record is committed in log
+ * after database commits and discarded when transaction fails. Pending
+ * records left by crash are committed or discarded by rows of
+ * payment_log_commit when the first manager of opened log is created. Rows
+ * of committed records are deleted by the next transaction of manager,
+ * which forces their commit in log to disk first.
+ * <p>
+ * Payments of account are found by index of log, accounts of read payments
+ * are loaded from database by their ids, every account once per call.
+ * Payments whose account does not exist any more are skipped like rows
+ * of join in PaymentManagerImpl.
+ *
+ * @author Miroslav Kubus
+ */
+public class MappedPaymentManager implements PaymentManager {
+
+    private static final Logger logger = Logger.getLogger(MappedPaymentManager.class.getName());
+
+    private static final String SELECT_ACCOUNT =
+            "SELECT id, number, holder, balance, version FROM account WHERE id = ?";
+
+    /**
+     * Accounts of more payments are loaded by one select for every 100 ids,
+     * unused parameters repeat the first id, so text of statement is always
+     * the same. Few accounts are loaded one by one, because Derby evaluates
+     * long IN list slower than few lookups by primary key.
+     */
+    private static final int ACCOUNTS_PER_SELECT = 100;
+    private static final int ACCOUNTS_LOADED_ONE_BY_ONE = 4;
+    private static final String SELECT_ACCOUNTS =
+            "SELECT id, number, holder, balance, version FROM account WHERE id IN ("
+            + String.join(",", Collections.nCopies(ACCOUNTS_PER_SELECT, "?")) + ")";
+
+    private static final String INSERT_COMMIT = "INSERT INTO payment_log_commit (logRecord) VALUES (?)";
+    private static final String DELETE_COMMIT = "DELETE FROM payment_log_commit WHERE logRecord = ?";
+
+    private static final int STREAM_CHUNK_SIZE = 1000;
+
+    private static final MetricsRegistry METRICS = MetricsRegistry.getDefault();
+    private static final OperationMetrics SQL_SELECT_ACCOUNT = METRICS.operation("sql.account.selectById");
+    private static final OperationMetrics SQL_SELECT_ACCOUNTS = METRICS.operation("sql.account.selectByIds");
+    private static final OperationMetrics SQL_INSERT_COMMITS = METRICS.operation("sql.paymentLogCommit.insert");
+    private static final OperationMetrics SQL_DELETE_COMMITS = METRICS.operation("sql.paymentLogCommit.delete");
+    private static final OperationMetrics SQL_SELECT_COMMITS = METRICS.operation("sql.paymentLogCommit.select");
+
+    /**
+     * Default count of payments committed in one transaction by createPayments
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+    private final DataSource dataSource;
+    private final PaymentLog log;
+    private final TransferHelper transferHelper;
+    private final AccountHelper accountHelper = new AccountHelper();
+    private final PaymentHelper paymentHelper = new PaymentHelper();
+    private final Queue<Long> committedRecords = new ConcurrentLinkedQueue<>();
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private AccountLockManager lockManager;
+    private final BalanceChangeSupport balanceChangeSupport = new BalanceChangeSupport();
+
+    public MappedPaymentManager(DataSource dataSource, PaymentLog log) {
+        this(dataSource, log, false);
+    }
+
+    /**
+     * Creates payment manager, the first manager of opened log commits or
+     * discards its records left pending by crash
+     * @param dataSource represents datasource of database with accounts
+     * @param log represents log of payments, it can be shared by more managers
+     * @param checkFunds true if payments which would lower balance of from
+     * account under zero should be refused with InsufficientFundsException
+     */
+    public MappedPaymentManager(DataSource dataSource, PaymentLog log, boolean checkFunds) {
+        if(dataSource == null || log == null) {
+            throw new IllegalArgumentException("Null data source or payment log");
+        }
+
+        this.dataSource = dataSource;
+        this.log = log;
+        transferHelper = new TransferHelper(checkFunds);
+
+        long[] recovery = log.takeRecovery();
+
+        if(recovery != null) {
+            recover(recovery);
+        }
+    }
+
+    /**
+     * Sets count of payments which are created in one transaction by createPayments
+     * @param chunkSize represents count of payments in one transaction
+     * @throws IllegalArgumentException when chunkSize is not positive
+     */
+    public void setChunkSize(int chunkSize) {
+        if(chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
+
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Sets lock manager which locks accounts of payment before its transaction
+     * starts, see PaymentManagerImpl.setLockManager
+     * @param lockManager represents lock manager or null when accounts should not be locked
+     */
+    public void setLockManager(AccountLockManager lockManager) {
+        this.lockManager = lockManager;
+    }
+
+    /**
+     * Registers listener which is notified about accounts whose balance
+     * was changed by committed payment
+     * @param listener represents listener, e.g. cache of accounts
+     */
+    public void addBalanceChangeListener(BalanceChangeListener listener) {
+        balanceChangeSupport.add(listener);
+    }
+
+    public void removeBalanceChangeListener(BalanceChangeListener listener) {
+        balanceChangeSupport.remove(listener);
+    }
+
+    private LockedAccounts lockAccounts(Collection<Long> accountIds) {
+        return lockManager == null ? null : lockManager.lock(accountIds);
+    }
+
+    /**
+     * Commits pending records whose number is in payment_log_commit and
+     * discards the other ones, then rows of payment_log_commit are deleted
+     */
+    private void recover(long[] numbers) {
+        try(Connection connection = dataSource.getConnection()) {
+            Set<Long> committed = new HashSet<>();
+
+            try(PreparedStatement st = connection.prepareStatement("SELECT logRecord FROM payment_log_commit");
+                ResultSet rs = SQL_SELECT_COMMITS.executeQuery(st)) {
+                while(rs.next()) {
+                    committed.add(rs.getLong(1));
+                }
+            }
+
+            int discarded = 0;
+
+            for(long number : numbers) {
+                if(committed.contains(number)) {
+                    log.commit(number);
+                } else {
+                    log.discard(number);
+                    discarded++;
+                }
+            }
+
+            log.force();
+
+            try(PreparedStatement st = connection.prepareStatement("DELETE FROM payment_log_commit")) {
+                SQL_DELETE_COMMITS.executeUpdate(st);
+            }
+
+            logger.log(Level.INFO, "Recovered payment log, {0} pending records committed and {1} discarded",
+                    new Object[]{numbers.length - discarded, discarded});
+        } catch (SQLException ex) {
+            logger.log(Level.SEVERE, "Error while recovering payment log", ex);
+            throw new ServiceFailureException("Error while recovering payment log", ex);
+        }
+    }
+
+    @Override
+    public void createPayment(Payment payment) {
+        logger.log(Level.INFO, "Creating new payment");
+
+        validate(payment);
+        if(payment.getId() != null) {
+            throw new IllegalArgumentException("Payment ID is already set");
+        }
+
+        long amount = Money.of(payment.getAmount()).getUnits();
+        Record record = null;
+        boolean committed = false;
+
+        try (LockedAccounts locked = lockAccounts(Arrays.asList(payment.getFrom().getId(), payment.getTo().getId()));
+             Connection connection = dataSource.getConnection()) {
+
+            connection.setAutoCommit(false);
+            List<Long> obsolete = takeCommittedRecords();
+
+            try {
+                transferHelper.transfer(connection, payment.getFrom(), payment.getTo(), payment.getAmount());
+                record = log.append(payment.getFrom().getId(), payment.getTo().getId(), amount,
+                        Math.toIntExact(payment.getDate().toEpochDay()));
+
+                commit(connection, Collections.singletonList(record.id), obsolete);
+                committed = true;
+            } catch (SQLException | RuntimeException ex) {
+                discard(record);
+                connection.rollback();
+                committedRecords.addAll(obsolete);
+                throw ex;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch(SQLException ex) {
+            if(!committed) {
+                logger.log(Level.SEVERE, "Error while creating new payment", ex);
+                throw new ServiceFailureException("Error when inserting payment " + payment, ex);
+            }
+
+            logger.log(Level.WARNING, "Error after commit of payment " + payment, ex);
+        }
+
+        commitRecord(record.id);
+        payment.setId(record.id);
+        balanceChangeSupport.fire(Arrays.asList(payment.getFrom().getId(), payment.getTo().getId()));
+    }
+
+    @Override
+    public PaymentBatchResult createPayments(Collection<Payment> payments) {
+        return paymentHelper.createInChunks(payments, chunkSize, this::createChunkOfPayments, this::createPayment);
+    }
+
+    /**
+     * Creates chunk of valid payments in one transaction, so whole chunk
+     * costs one commit of database and one force of log. Balances are changed
+     * by JDBC batches of TransferHelper.
+     * @return failures of payments or null when chunk failed as a whole
+     */
+    private RuntimeException[] createChunkOfPayments(List<Payment> chunk) {
+        RuntimeException[] failures = new RuntimeException[chunk.size()];
+        Record[] records = new Record[chunk.size()];
+        List<Long> accountIds = new ArrayList<>();
+        boolean committed = false;
+
+        for(Payment payment : chunk) {
+            accountIds.add(payment.getFrom().getId());
+            accountIds.add(payment.getTo().getId());
+        }
+
+        try (LockedAccounts locked = lockAccounts(accountIds);
+             Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            List<Long> obsolete = takeCommittedRecords();
+
+            try {
+                transferHelper.transferChunk(connection, chunk, failures);
+                List<Long> numbers = new ArrayList<>();
+
+                for(int i = 0; i < chunk.size(); i++) {
+                    if(failures[i] == null) {
+                        Payment payment = chunk.get(i);
+                        records[i] = log.append(payment.getFrom().getId(), payment.getTo().getId(),
+                                Money.of(payment.getAmount()).getUnits(), Math.toIntExact(payment.getDate().toEpochDay()));
+                        numbers.add(records[i].id);
+                    }
+                }
+
+                commit(connection, numbers, obsolete);
+                committed = true;
+            } catch (SQLException | RuntimeException ex) {
+                for(Record record : records) {
+                    discard(record);
+                }
+
+                connection.rollback();
+                committedRecords.addAll(obsolete);
+                throw ex;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException | RuntimeException ex) {
+            if(!committed) {
+                logger.log(Level.WARNING, "Chunk of payments failed, creating payments one by one", ex);
+                return null;
+            }
+
+            logger.log(Level.WARNING, "Error after commit of chunk of payments", ex);
+        }
+
+        for(int i = 0; i < chunk.size(); i++) {
+            if(records[i] != null) {
+                commitRecord(records[i].id);
+                chunk.get(i).setId(records[i].id);
+            }
+        }
+
+        balanceChangeSupport.fire(new LinkedHashSet<>(accountIds));
+        return failures;
+    }
+
+    /**
+     * Records numbers of log records in payment_log_commit, deletes rows of
+     * records whose commit in log is not forced yet, forces log and commits
+     * transaction of database
+     */
+    private void commit(Connection connection, List<Long> numbers, List<Long> obsolete) throws SQLException {
+        if(!numbers.isEmpty()) {
+            try(PreparedStatement st = connection.prepareStatement(INSERT_COMMIT)) {
+                for(Long number : numbers) {
+                    st.setLong(1, number);
+                    st.addBatch();
+                }
+
+                SQL_INSERT_COMMITS.executeBatch(st);
+            }
+        }
+
+        if(!obsolete.isEmpty()) {
+            try(PreparedStatement st = connection.prepareStatement(DELETE_COMMIT)) {
+                for(Long number : obsolete) {
+                    st.setLong(1, number);
+                    st.addBatch();
+                }
+
+                SQL_DELETE_COMMITS.executeBatch(st);
+            }
+        }
+
+        log.force();
+        connection.commit();
+    }
+
+    /**
+     * Commits record in log after its transaction of database was committed,
+     * its row of payment_log_commit is deleted by the next transaction
+     */
+    private void commitRecord(long number) {
+        log.commit(number);
+        committedRecords.add(number);
+    }
+
+    private List<Long> takeCommittedRecords() {
+        List<Long> numbers = new ArrayList<>();
+        Long number;
+
+        while((number = committedRecords.poll()) != null) {
+            numbers.add(number);
+        }
+
+        return numbers;
+    }
+
+    /**
+     * Discards pending record of payment whose transaction was not committed
+     */
+    private void discard(Record record) {
+        if(record != null) {
+            log.discard(record.id);
+        }
+    }
+
+    @Override
+    public void updatePayment(Payment payment) {
+        logger.log(Level.INFO, "Updating payment{0}", payment);
+
+        validate(payment);
+
+        if(payment.getId() == null) {
+            throw new IllegalArgumentException("Null id of payment to update");
+        }
+
+        long amount = Money.of(payment.getAmount()).getUnits();
+        long amendment = -1;
+
+        try(LockedAccounts locked = lockAccounts(Arrays.asList(payment.getFrom().getId(), payment.getTo().getId()));
+            Connection connection = dataSource.getConnection()) {
+
+            connection.setAutoCommit(false);
+            List<Long> obsolete = takeCommittedRecords();
+            long pending = -1;
+
+            try {
+                Record stored = log.get(payment.getId());
+
+                if(stored == null) {
+                    throw new EntityNotFoundException("No payment " + payment + " in database");
+                }
+
+                if(stored.version != payment.getVersion()) {
+                    Payment current = new AccountLoader(connection).withAccounts(toPayment(stored));
+                    throw new OptimisticLockException("Payment " + payment + " was changed since it was read, "
+                            + "current state is " + current, current);
+                }
+
+                if(stored.fromAccount != payment.getFrom().getId() || stored.toAccount != payment.getTo().getId()) {
+                    throw new IllegalArgumentException("Accounts of payment " + payment
+                            + " cannot be changed, stored payment is " + toPayment(stored));
+                }
+
+                pending = log.amend(stored.id, stored.version, amount, Math.toIntExact(payment.getDate().toEpochDay()));
+
+                if(pending < 0) {
+                    throw new OptimisticLockException("Payment " + payment + " was changed since it was read",
+                            new AccountLoader(connection).withAccounts(toPayment(log.get(stored.id))));
+                }
+
+                BigDecimal difference = Money.ofUnits(amount).subtract(Money.ofUnits(stored.amount)).toBigDecimal();
+                transferHelper.transfer(connection, payment.getFrom(), payment.getTo(), difference);
+                commit(connection, Collections.singletonList(pending), obsolete);
+                amendment = pending;
+            } catch (OptimisticLockException ex) {
+                connection.rollback();
+                committedRecords.addAll(obsolete);
+                logger.log(Level.WARNING, "Conflict while updating payment " + payment, ex);
+                throw ex;
+            } catch (IllegalArgumentException | InsufficientFundsException ex) {
+                if(pending >= 0) {
+                    log.discard(pending);
+                }
+
+                connection.rollback();
+                committedRecords.addAll(obsolete);
+                throw ex;
+            } catch (Exception ex) {
+                if(pending >= 0) {
+                    log.discard(pending);
+                }
+
+                connection.rollback();
+                committedRecords.addAll(obsolete);
+                logger.log(Level.SEVERE, "Error while updating payment " + payment , ex);
+                throw new ServiceFailureException("Error while updating payment " + payment, ex);
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch(SQLException ex) {
+            if(amendment < 0) {
+                logger.log(Level.SEVERE, "Connection error while updating payment " + payment, ex);
+                throw new ServiceFailureException("Error while updating payment " + payment, ex);
+            }
+
+            logger.log(Level.WARNING, "Error after commit of update of payment " + payment, ex);
+        }
+
+        if(amendment >= 0) {
+            commitRecord(amendment);
+            payment.setVersion(payment.getVersion() + 1);
+            balanceChangeSupport.fire(Arrays.asList(payment.getFrom().getId(), payment.getTo().getId()));
+        }
+    }
+
+    /**
+     * Deletes payment from log, balances of accounts are not changed
+     * like in PaymentManagerImpl
+     */
+    @Override
+    public void deletePayment(Payment payment) {
+        logger.log(Level.INFO, "Deleting payment{0}", payment);
+
+        validate(payment);
+
+        if(payment.getId() == null) {
+            throw new IllegalArgumentException("Null id of payment for deleting");
+        }
+
+        if(log.delete(payment.getId()) == null) {
+            throw new EntityNotFoundException(payment + " was not find in database");
+        }
+    }
+
+    @Override
+    public AccountStatistics getAccountStatistics(Account account) {
+        logger.log(Level.INFO, "Getting statistics of account {0}", account);
+
+        if(account == null || account.getId() == null) {
+            throw new IllegalArgumentException("Null account or id of account in getAccountStatistics");
+        }
+
+        AccountStatistics statistics = log.getStatistics(account.getId());
+
+        if(statistics != null) {
+            return statistics;
+        }
+
+        try(Connection connection = dataSource.getConnection()) {
+            return new AccountLoader(connection).get(account.getId()) == null ? null
+                    : new AccountStatistics(account.getId(), BigDecimal.ZERO, BigDecimal.ZERO, 0, 0, null);
+        } catch (SQLException ex) {
+            logger.log(Level.SEVERE, "Error while getting statistics of account " + account, ex);
+            throw new ServiceFailureException("Error while getting statistics of account " + account, ex);
+        }
+    }
+
+    /**
+     * Recomputes statistics of all accounts by one scan of payment log
+     */
+    public void rebuildAccountStatistics() {
+        logger.log(Level.INFO, "Rebuilding statistics of accounts");
+        log.rebuild();
+    }
+
+    @Override
+    public Payment getPaymentByID(Long id) {
+        logger.log(Level.INFO, "Getting payment by ID:{0}", id);
+
+        if(id == null) {
+            throw new IllegalArgumentException("Null id of payment in getPaymentByID");
+        }
+
+        Record record = log.get(id);
+
+        if(record == null) {
+            return null;
+        }
+
+        try(Connection connection = dataSource.getConnection()) {
+            return new AccountLoader(connection).withAccounts(toPayment(record));
+        } catch (SQLException ex) {
+            logger.log(Level.SEVERE, "Error while getting payment with ID " + id, ex);
+            throw new ServiceFailureException("Error while getting payment with id " + id, ex);
+        }
+    }
+
+    @Override
+    public List<Payment> getAllPayments() {
+        List<Payment> toReturn = new ArrayList<>();
+        forEachPayment(toReturn::add);
+
+        return toReturn;
+    }
+
+    /**
+     * Passes all payments to consumer ordered by id, records are copied
+     * out of log by chunks, so log is not locked while consumer runs
+     */
+    @Override
+    public void forEachPayment(Consumer<? super Payment> consumer) {
+        logger.log(Level.INFO, "Getting all payments from log");
+
+        if(consumer == null) {
+            throw new IllegalArgumentException("Null consumer of payments");
+        }
+
+        try(Connection connection = dataSource.getConnection()) {
+            AccountLoader loader = new AccountLoader(connection);
+            List<Record> records = log.getAfter(0, STREAM_CHUNK_SIZE);
+
+            while(!records.isEmpty()) {
+                emit(loader, toPayments(records), consumer);
+                records = log.getAfter(records.get(records.size() - 1).id, STREAM_CHUNK_SIZE);
+            }
+        } catch (SQLException ex) {
+            logger.log(Level.SEVERE, "Error while getting all payments", ex);
+            throw new ServiceFailureException("Error while getting all payments from log", ex);
+        }
+    }
+
+    @Override
+    public List<Payment> getPaymentsFromAccount(Account account) {
+        List<Payment> toReturn = new ArrayList<>();
+        forEachPaymentFromAccount(account, toReturn::add);
+
+        return toReturn;
+    }
+
+    @Override
+    public void forEachPaymentFromAccount(Account account, Consumer<? super Payment> consumer) {
+        logger.log(Level.INFO, "Getting all payment with same from account");
+        validateAccount(account, consumer);
+        emit(toPayments(log.getFrom(account.getId())), consumer);
+    }
+
+    @Override
+    public List<Payment> getPaymentsToAcoount(Account account) {
+        List<Payment> toReturn = new ArrayList<>();
+        forEachPaymentToAccount(account, toReturn::add);
+
+        return toReturn;
+    }
+
+    @Override
+    public void forEachPaymentToAccount(Account account, Consumer<? super Payment> consumer) {
+        logger.log(Level.INFO, "Getting all payment with same to account");
+        validateAccount(account, consumer);
+        emit(toPayments(log.getTo(account.getId())), consumer);
+    }
+
+    @Override
+    public List<Payment> getPaymentsAfter(Long afterId, int limit) {
+        logger.log(Level.INFO, "Getting page of {0} payments after ID {1}", new Object[]{limit, afterId});
+
+        if(limit < 1) {
+            throw new IllegalArgumentException("Limit of payments must be positive: " + limit);
+        }
+
+        List<Payment> toReturn = new ArrayList<>();
+        emit(toPayments(log.getAfter(afterId == null ? 0 : afterId, limit)), toReturn::add);
+
+        return toReturn;
+    }
+
+    @Override
+    public List<Payment> findPayments(PaymentQuery query) {
+        List<Payment> toReturn = new ArrayList<>();
+        forEachPayment(query, toReturn::add);
+
+        return toReturn;
+    }
+
+    /**
+     * Evaluates query on records of account when query has account,
+     * otherwise on all records. Records are matched with ids of their
+     * accounts, accounts are loaded only for returned page.
+     */
+    @Override
+    public void forEachPayment(PaymentQuery query, Consumer<? super Payment> consumer) {
+        logger.log(Level.INFO, "Searching payments by {0}", query);
+
+        if(query == null) {
+            throw new IllegalArgumentException("Null query of payments");
+        }
+
+        if(consumer == null) {
+            throw new IllegalArgumentException("Null consumer of payments");
+        }
+
+        query.validate();
+
+        List<Payment> matching = new ArrayList<>();
+
+        for(Record record : candidatesOf(query)) {
+            Payment payment = toPayment(record);
+
+            if(query.matches(payment)) {
+                matching.add(payment);
+            }
+        }
+
+        matching.sort(query.comparator());
+
+        int end = query.getLimit() == null ? matching.size()
+                : (int) Math.min(matching.size(), (long) query.getOffset() + query.getLimit());
+
+        try(Connection connection = dataSource.getConnection()) {
+            emit(new AccountLoader(connection), matching.subList(Math.min(query.getOffset(), end), end), consumer);
+        } catch (SQLException ex) {
+            logger.log(Level.SEVERE, "Error while searching payments by " + query, ex);
+            throw new ServiceFailureException("Error while searching payments by " + query, ex);
+        }
+    }
+
+    private List<Record> candidatesOf(PaymentQuery query) {
+        if(query.getAccount() == null) {
+            return log.getAfter(0, Integer.MAX_VALUE);
+        }
+
+        Long accountId = query.getAccount().getId();
+
+        switch(query.getDirection()) {
+            case FROM:
+                return log.getFrom(accountId);
+            case TO:
+                return log.getTo(accountId);
+            default:
+                List<Record> both = log.getFrom(accountId);
+                both.addAll(log.getTo(accountId));
+                return both;
+        }
+    }
+
+    private void validate(Payment payment) throws IllegalArgumentException {
+        logger.log(Level.INFO, "Validation of payment{0}", payment);
+        paymentHelper.validate(payment);
+    }
+
+    private void validateAccount(Account account, Consumer<? super Payment> consumer) {
+        accountHelper.validate(account);
+
+        if(account.getId() == null) {
+            throw new IllegalArgumentException("Null id of account in search of payments");
+        }
+
+        if(consumer == null) {
+            throw new IllegalArgumentException("Null consumer of payments");
+        }
+    }
+
+    /**
+     * @return payment of record whose accounts have only ids
+     */
+    private static Payment toPayment(Record record) {
+        Payment payment = new Payment();
+        payment.setId(record.id);
+        payment.setFrom(accountWithId(record.fromAccount));
+        payment.setTo(accountWithId(record.toAccount));
+        payment.setAmount(record.getAmount());
+        payment.setDate(record.getDate());
+        payment.setVersion(record.version);
+
+        return payment;
+    }
+
+    private static Account accountWithId(long id) {
+        Account account = new Account();
+        account.setId(id);
+
+        return account;
+    }
+
+    private static List<Payment> toPayments(List<Record> records) {
+        List<Payment> payments = new ArrayList<>(records.size());
+
+        for(Record record : records) {
+            payments.add(toPayment(record));
+        }
+
+        return payments;
+    }
+
+    private void emit(List<Payment> payments, Consumer<? super Payment> consumer) {
+        try(Connection connection = dataSource.getConnection()) {
+            emit(new AccountLoader(connection), payments, consumer);
+        } catch (SQLException ex) {
+            logger.log(Level.SEVERE, "Error while loading accounts of payments", ex);
+            throw new ServiceFailureException("Error while loading accounts of payments", ex);
+        }
+    }
+
+    /**
+     * Passes payments with current state of their accounts to consumer,
+     * payments whose account does not exist are skipped
+     */
+    private static void emit(AccountLoader loader, List<Payment> payments,
+                             Consumer<? super Payment> consumer) throws SQLException {
+        loader.load(payments);
+
+        for(Payment payment : payments) {
+            Payment loaded = loader.withAccounts(payment);
+
+            if(loaded != null) {
+                consumer.accept(loaded);
+            }
+        }
+    }
+
+    /**
+     * Loads accounts by their ids, every account is loaded once for one call
+     * of manager and every payment gets its own copy of account
+     */
+    private class AccountLoader {
+        private final Connection connection;
+        private final Map<Long, Account> accounts = new HashMap<>();
+
+        private AccountLoader(Connection connection) {
+            this.connection = connection;
+        }
+
+        /**
+         * Loads accounts of payments which were not loaded yet
+         */
+        private void load(Collection<Payment> payments) throws SQLException {
+            Set<Long> missing = new LinkedHashSet<>();
+
+            for(Payment payment : payments) {
+                missing.add(payment.getFrom().getId());
+                missing.add(payment.getTo().getId());
+            }
+
+            missing.removeAll(accounts.keySet());
+
+            if(!missing.isEmpty()) {
+                load(new ArrayList<>(missing));
+            }
+        }
+
+        private void load(List<Long> ids) throws SQLException {
+            if(ids.size() <= ACCOUNTS_LOADED_ONE_BY_ONE) {
+                try(PreparedStatement st = connection.prepareStatement(SELECT_ACCOUNT)) {
+                    for(Long id : ids) {
+                        st.setLong(1, id);
+                        put(id, SQL_SELECT_ACCOUNT.executeQuery(st));
+                    }
+                }
+
+                return;
+            }
+
+
+            try(PreparedStatement st = connection.prepareStatement(SELECT_ACCOUNTS)) {
+                for(int start = 0; start < ids.size(); start += ACCOUNTS_PER_SELECT) {
+                    for(int i = 0; i < ACCOUNTS_PER_SELECT; i++) {
+                        st.setLong(i + 1, ids.get(start + i < ids.size() ? start + i : start));
+                    }
+
+                    put(null, SQL_SELECT_ACCOUNTS.executeQuery(st));
+                }
+            }
+
+            for(Long id : ids) {
+                accounts.putIfAbsent(id, null);
+            }
+        }
+
+        /**
+         * Puts accounts of result set to map, id which was not found is
+         * remembered as missing account
+         */
+        private void put(Long id, ResultSet rs) throws SQLException {
+            try {
+                while(rs.next()) {
+                    Account account = accountHelper.resultSetToAccount(rs);
+                    accounts.put(account.getId(), account);
+                }
+            } finally {
+                rs.close();
+            }
+
+            if(id != null) {
+                accounts.putIfAbsent(id, null);
+            }
+        }
+
+        /**
+         * @return copy of account or null when account does not exist
+         */
+        private Account get(Long id) throws SQLException {
+            if(!accounts.containsKey(id)) {
+                load(Collections.singletonList(id));
+            }
+
+            Account loaded = accounts.get(id);
+
+            if(loaded == null) {
+                return null;
+            }
+
+            Account copy = new Account(loaded.getNumber(), loaded.getHolder(), loaded.getBalance());
+            copy.setId(loaded.getId());
+            copy.setVersion(loaded.getVersion());
+
+            return copy;
+        }
+
+        /**
+         * Replaces accounts of payment which have only ids by their current state
+         * @return payment or null when some of its accounts does not exist
+         */
+        private Payment withAccounts(Payment payment) throws SQLException {
+            Account from = get(payment.getFrom().getId());
+            Account to = get(payment.getTo().getId());
+
+            if(from == null || to == null) {
+                return null;
+            }
+
+            payment.setFrom(from);
+            payment.setTo(to);
+
+            return payment;
+        }
+    }
+}
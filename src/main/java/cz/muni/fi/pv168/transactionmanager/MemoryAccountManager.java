@@ -0,0 +1,91 @@
+package cz.muni.fi.pv168.transactionmanager;
+
+import cz.muni.fi.pv168.utils.AccountHelper;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Account manager backed by MemoryStore, accounts live only in memory
+ * of the process and are not stored in any database.
+ *
+ * @author Miroslav Kubus
+ */
+public class MemoryAccountManager implements AccountManager {
+
+    private static final Logger logger = Logger.getLogger(MemoryAccountManager.class.getName());
+
+    private final MemoryStore store;
+    private final AccountHelper accountHelper = new AccountHelper();
+
+    public MemoryAccountManager(MemoryStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public void createAccount(Account account) {
+        logger.log(Level.INFO, "Creating new account");
+        accountHelper.validate(account);
+
+        if(account.getId() != null) {
+            throw new IllegalArgumentException("Account ID is already set");
+        }
+
+        store.createAccount(account);
+    }
+
+    @Override
+    public void updateAccount(Account account) {
+        logger.log(Level.INFO, "Updating account {0}", account);
+        accountHelper.validate(account);
+
+        if(account.getId() == null) {
+            throw new IllegalArgumentException("Null id of account to upadate");
+        }
+
+        store.updateAccount(account);
+    }
+
+    @Override
+    public void deleteAccount(Account account) {
+        logger.log(Level.INFO, "Deleting account {0}", account);
+
+        if(account == null) {
+            throw new IllegalArgumentException("Non existing account to delete");
+        }
+
+        if(account.getId() == null) {
+            throw new IllegalArgumentException("Null id of account to delete");
+        }
+
+        store.deleteAccount(account);
+    }
+
+    @Override
+    public Account getAccountById(Long id) {
+        logger.log(Level.INFO, "Getting account with ID: {0}", id);
+
+        if(id == null) {
+            throw new IllegalArgumentException("Null id of account in getAccountByID");
+        }
+
+        return store.getAccount(id);
+    }
+
+    @Override
+    public List<Account> getAllAccounts() {
+        logger.log(Level.INFO, "Getting all accounts from store");
+        return store.getAllAccounts();
+    }
+
+    @Override
+    public Account getAccountByNumber(String number) {
+        logger.log(Level.INFO, "Getting account with number: {0}", number);
+
+        if(number == null) {
+            throw new IllegalArgumentException("Null number of account in getAccountByNumber");
+        }
+
+        return store.getAccountByNumber(number);
+    }
+}
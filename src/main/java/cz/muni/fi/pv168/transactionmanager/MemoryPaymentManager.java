@@ -0,0 +1,320 @@
+package cz.muni.fi.pv168.transactionmanager;
+
+import cz.muni.fi.pv168.utils.AccountHelper;
+import cz.muni.fi.pv168.utils.AccountLockManager;
+import cz.muni.fi.pv168.utils.AccountLockManager.LockedAccounts;
+import cz.muni.fi.pv168.utils.EntityNotFoundException;
+import cz.muni.fi.pv168.utils.InsufficientFundsException;
+import cz.muni.fi.pv168.utils.OptimisticLockException;
+import cz.muni.fi.pv168.utils.PaymentHelper;
+import cz.muni.fi.pv168.utils.ServiceFailureException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Payment manager backed by MemoryStore. Payments and balances of accounts
+ * live only in memory of the process, so it suits simulations and batch jobs
+ * which need no database. Store locks accounts of every payment itself.
+ *
+ * @author Miroslav Kubus
+ */
+public class MemoryPaymentManager implements PaymentManager {
+
+    private static final Logger logger = Logger.getLogger(MemoryPaymentManager.class.getName());
+
+    private final MemoryStore store;
+    private final boolean checkFunds;
+    private final AccountHelper accountHelper = new AccountHelper();
+    private final PaymentHelper paymentHelper = new PaymentHelper();
+    private AccountLockManager lockManager;
+
+    public MemoryPaymentManager(MemoryStore store) {
+        this(store, false);
+    }
+
+    /**
+     * Creates manager
+     * @param store represents store of accounts and payments
+     * @param checkFunds represents whether payment is refused when from
+     * account has not enough money
+     */
+    public MemoryPaymentManager(MemoryStore store, boolean checkFunds) {
+        if(store == null) {
+            throw new IllegalArgumentException("Null memory store");
+        }
+
+        this.store = store;
+        this.checkFunds = checkFunds;
+    }
+
+    /**
+     * Sets lock manager which locks accounts of payment before store is
+     * changed, see PaymentManagerImpl.setLockManager
+     * @param lockManager represents lock manager or null when accounts should not be locked
+     */
+    public void setLockManager(AccountLockManager lockManager) {
+        this.lockManager = lockManager;
+    }
+
+    /**
+     * Recomputes statistics of all accounts from payments in store
+     */
+    public void rebuildAccountStatistics() {
+        logger.log(Level.INFO, "Rebuilding statistics of accounts");
+        store.rebuildStatistics();
+    }
+
+    private LockedAccounts lockAccounts(Payment payment) {
+        return lockManager == null ? null
+                : lockManager.lock(Arrays.asList(payment.getFrom().getId(), payment.getTo().getId()));
+    }
+
+    @Override
+    public void createPayment(Payment payment) {
+        logger.log(Level.INFO, "Creating new payment");
+        validate(payment);
+
+        if(payment.getId() != null) {
+            throw new IllegalArgumentException("Payment ID is already set");
+        }
+
+        try(LockedAccounts locked = lockAccounts(payment)) {
+            store.createPayment(payment, checkFunds);
+        }
+    }
+
+    /**
+     * Creates payments one by one, payment is applied to store at once,
+     * so failure of one payment does not affect others
+     */
+    @Override
+    public PaymentBatchResult createPayments(Collection<Payment> payments) {
+        if(payments == null) {
+            throw new IllegalArgumentException("Null collection of payments");
+        }
+
+        logger.log(Level.INFO, "Creating batch of {0} payments", payments.size());
+
+        PaymentBatchResult result = new PaymentBatchResult(payments.size());
+        int index = 0;
+
+        for(Payment payment : payments) {
+            try {
+                createPayment(payment);
+                result.setId(index, payment.getId());
+            } catch (RuntimeException ex) {
+                result.addFailure(index, ex);
+            }
+
+            index++;
+        }
+
+        return result;
+    }
+
+    @Override
+    public void updatePayment(Payment payment) {
+        logger.log(Level.INFO, "Updating payment{0}", payment);
+        validate(payment);
+
+        if(payment.getId() == null) {
+            throw new IllegalArgumentException("Null id of payment to update");
+        }
+
+        try(LockedAccounts locked = lockAccounts(payment)) {
+            store.updatePayment(payment, checkFunds);
+        } catch (OptimisticLockException ex) {
+            logger.log(Level.WARNING, "Conflict while updating payment " + payment, ex);
+            throw ex;
+        } catch (IllegalArgumentException | InsufficientFundsException ex) {
+            throw ex;
+        } catch (RuntimeException ex) {
+            logger.log(Level.SEVERE, "Error while updating payment " + payment, ex);
+            throw new ServiceFailureException("Error while updating payment " + payment, ex);
+        }
+    }
+
+    @Override
+    public void deletePayment(Payment payment) {
+        logger.log(Level.INFO, "Deleting payment{0}", payment);
+        paymentHelper.validate(payment);
+
+        if(payment.getId() == null) {
+            throw new IllegalArgumentException("Null id of payment for deleting");
+        }
+
+        store.deletePayment(payment);
+    }
+
+    @Override
+    public Payment getPaymentByID(Long id) {
+        logger.log(Level.INFO, "Getting payment by ID:{0}", id);
+
+        if(id == null) {
+            throw new IllegalArgumentException("Null id of payment in getPaymentByID");
+        }
+
+        return store.getPayment(id);
+    }
+
+    @Override
+    public List<Payment> getAllPayments() {
+        return store.getPayments();
+    }
+
+    @Override
+    public void forEachPayment(Consumer<? super Payment> consumer) {
+        logger.log(Level.INFO, "Getting all payments from store");
+
+        if(consumer == null) {
+            throw new IllegalArgumentException("Null consumer of payments");
+        }
+
+        store.getPayments().forEach(consumer);
+    }
+
+    @Override
+    public List<Payment> getPaymentsAfter(Long afterId, int limit) {
+        if(limit < 1) {
+            throw new IllegalArgumentException("Limit of payments must be positive: " + limit);
+        }
+
+        PaymentQuery query = new PaymentQuery();
+        query.setAfterId(afterId);
+        query.setLimit(limit);
+
+        return findPayments(query);
+    }
+
+    @Override
+    public List<Payment> findPayments(PaymentQuery query) {
+        List<Payment> toReturn = new ArrayList<>();
+        forEachPayment(query, toReturn::add);
+
+        return toReturn;
+    }
+
+    /**
+     * Evaluates query on payments of account when query has account,
+     * otherwise on all payments
+     */
+    @Override
+    public void forEachPayment(PaymentQuery query, Consumer<? super Payment> consumer) {
+        logger.log(Level.INFO, "Searching payments by {0}", query);
+
+        if(query == null) {
+            throw new IllegalArgumentException("Null query of payments");
+        }
+
+        if(consumer == null) {
+            throw new IllegalArgumentException("Null consumer of payments");
+        }
+
+        query.validate();
+
+        List<Payment> matching = new ArrayList<>();
+
+        for(Payment payment : candidatesOf(query)) {
+            if(query.matches(payment)) {
+                matching.add(payment);
+            }
+        }
+
+        matching.sort(query.comparator());
+
+        int end = query.getLimit() == null ? matching.size()
+                : (int) Math.min(matching.size(), (long) query.getOffset() + query.getLimit());
+
+        for(int i = query.getOffset(); i < end; i++) {
+            consumer.accept(matching.get(i));
+        }
+    }
+
+    private List<Payment> candidatesOf(PaymentQuery query) {
+        if(query.getAccount() == null) {
+            return store.getPayments();
+        }
+
+        long accountId = query.getAccount().getId();
+
+        switch(query.getDirection()) {
+            case FROM:
+                return store.getPaymentsFrom(accountId);
+            case TO:
+                return store.getPaymentsTo(accountId);
+            default:
+                List<Payment> both = store.getPaymentsFrom(accountId);
+                both.addAll(store.getPaymentsTo(accountId));
+                return both;
+        }
+    }
+
+    @Override
+    public AccountStatistics getAccountStatistics(Account account) {
+        logger.log(Level.INFO, "Getting statistics of account {0}", account);
+
+        if(account == null || account.getId() == null) {
+            throw new IllegalArgumentException("Null account or id of account in getAccountStatistics");
+        }
+
+        return store.getStatistics(account.getId());
+    }
+
+    @Override
+    public List<Payment> getPaymentsFromAccount(Account account) {
+        List<Payment> toReturn = new ArrayList<>();
+        forEachPaymentFromAccount(account, toReturn::add);
+
+        return toReturn;
+    }
+
+    @Override
+    public void forEachPaymentFromAccount(Account account, Consumer<? super Payment> consumer) {
+        logger.log(Level.INFO, "Getting all payment with same from account");
+        validateAccount(account, consumer);
+        store.getPaymentsFrom(account.getId()).forEach(consumer);
+    }
+
+    @Override
+    public List<Payment> getPaymentsToAcoount(Account account) {
+        List<Payment> toReturn = new ArrayList<>();
+        forEachPaymentToAccount(account, toReturn::add);
+
+        return toReturn;
+    }
+
+    @Override
+    public void forEachPaymentToAccount(Account account, Consumer<? super Payment> consumer) {
+        logger.log(Level.INFO, "Getting all payment with same to account");
+        validateAccount(account, consumer);
+        store.getPaymentsTo(account.getId()).forEach(consumer);
+    }
+
+    /**
+     * Account without id can not exist in store
+     */
+    private void validate(Payment payment) {
+        paymentHelper.validate(payment);
+
+        if(payment.getFrom().getId() == null || payment.getTo().getId() == null) {
+            throw new EntityNotFoundException("Account of payment " + payment + " does not exist in store");
+        }
+    }
+
+    private void validateAccount(Account account, Consumer<? super Payment> consumer) {
+        accountHelper.validate(account);
+
+        if(account.getId() == null) {
+            throw new IllegalArgumentException("Null id of account in search of payments");
+        }
+
+        if(consumer == null) {
+            throw new IllegalArgumentException("Null consumer of payments");
+        }
+    }
+}
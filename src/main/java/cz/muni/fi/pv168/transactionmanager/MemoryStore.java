@@ -0,0 +1,779 @@
+package cz.muni.fi.pv168.transactionmanager;
+
+import cz.muni.fi.pv168.utils.EntityNotFoundException;
+import cz.muni.fi.pv168.utils.InsufficientFundsException;
+import cz.muni.fi.pv168.utils.LongHashMap;
+import cz.muni.fi.pv168.utils.LongList;
+import cz.muni.fi.pv168.utils.Money;
+import cz.muni.fi.pv168.utils.OptimisticLockException;
+import cz.muni.fi.pv168.utils.ServiceFailureException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-process store of accounts and payments without any database, e.g. for
+ * simulations and batch jobs whose state need not survive the process.
+ * Accounts and payments are kept in hash maps with primitive long keys split
+ * into stripes, every stripe has its own read write lock. Account keeps ids
+ * of its payments in primitive lists together with its balance and
+ * statistics, number of account is indexed in concurrent hash map. Amounts
+ * are kept as Money and converted to BigDecimal only for returned entities.
+ * <p>
+ * Payment locks stripes of both its accounts for writing in order of stripes,
+ * so opposite payments can not deadlock, and payments of different stripes
+ * run in parallel. Id of payment is generated under these locks, so lists of
+ * account are ordered by id. Lock of payment stripe is always taken after
+ * locks of account stripes, readers hold only one lock at once.
+ * <p>
+ * Operations expect arguments validated by MemoryAccountManager and
+ * MemoryPaymentManager and throw the same exceptions as managers backed
+ * by database.
+ *
+ * @author Miroslav Kubus
+ */
+public class MemoryStore {
+
+    /**
+     * Default count of stripes of accounts and of payments
+     */
+    public static final int DEFAULT_STRIPES = 64;
+
+    /**
+     * State of account, guarded by lock of its stripe
+     */
+    private static class AccountEntry {
+        final long id;
+        String number;
+        String holder;
+        Money balance;
+        long version;
+        Money totalIn = Money.ZERO;
+        Money totalOut = Money.ZERO;
+        long countIn;
+        long countOut;
+        LocalDate lastPaymentDate;
+        final LongList paymentsFrom = new LongList();
+        final LongList paymentsTo = new LongList();
+
+        AccountEntry(long id, Account account) {
+            this.id = id;
+            this.number = account.getNumber();
+            this.holder = account.getHolder();
+            this.balance = Money.of(account.getBalance());
+        }
+    }
+
+    /**
+     * Stored payment is never changed, update replaces it
+     */
+    private static class PaymentEntry {
+        final long id;
+        final long from;
+        final long to;
+        final Money amount;
+        final LocalDate date;
+        final long version;
+
+        PaymentEntry(long id, long from, long to, Money amount, LocalDate date, long version) {
+            this.id = id;
+            this.from = from;
+            this.to = to;
+            this.amount = amount;
+            this.date = date;
+            this.version = version;
+        }
+    }
+
+    private static class Stripe<V> {
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        final LongHashMap<V> entries = new LongHashMap<>();
+    }
+
+    /**
+     * Stripes of one kind of entries are not generic, so arrays of them are
+     * created without unchecked conversion
+     */
+    private static class AccountStripe extends Stripe<AccountEntry> {
+    }
+
+    private static class PaymentStripe extends Stripe<PaymentEntry> {
+    }
+
+    private final AccountStripe[] accountStripes;
+    private final PaymentStripe[] paymentStripes;
+    private final int mask;
+    private final Map<String, Long> accountIdByNumber = new ConcurrentHashMap<>();
+    private final AtomicLong nextAccountId = new AtomicLong(1);
+    private final AtomicLong nextPaymentId = new AtomicLong(1);
+    private final AtomicLong paymentCount = new AtomicLong();
+    private volatile long maxPayments = Long.MAX_VALUE;
+
+    public MemoryStore() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * Creates empty store
+     * @param stripeCount represents count of stripes, rounded up to power of two
+     * @throws IllegalArgumentException when stripeCount is not positive
+     */
+    public MemoryStore(int stripeCount) {
+        if(stripeCount < 1) {
+            throw new IllegalArgumentException("Count of stripes must be positive: " + stripeCount);
+        }
+
+        int count = Integer.highestOneBit(stripeCount);
+        count = count < stripeCount ? count * 2 : count;
+        mask = count - 1;
+        accountStripes = new AccountStripe[count];
+        paymentStripes = new PaymentStripe[count];
+
+        for(int i = 0; i < count; i++) {
+            accountStripes[i] = new AccountStripe();
+            paymentStripes[i] = new PaymentStripe();
+        }
+    }
+
+    public int getStripeCount() {
+        return accountStripes.length;
+    }
+
+    public long getPaymentCount() {
+        return paymentCount.get();
+    }
+
+    /**
+     * Limits count of stored payments, e.g. to bound memory of simulation.
+     * Payment over limit fails with ServiceFailureException before it changes
+     * any balance.
+     * @param maxPayments represents maximal count of stored payments
+     * @throws IllegalArgumentException when maxPayments is negative
+     */
+    public void setMaxPayments(long maxPayments) {
+        if(maxPayments < 0) {
+            throw new IllegalArgumentException("Maximal count of payments must not be negative: " + maxPayments);
+        }
+
+        this.maxPayments = maxPayments;
+    }
+
+    void createAccount(Account account) {
+        long id = nextAccountId.getAndIncrement();
+
+        if(accountIdByNumber.putIfAbsent(account.getNumber(), id) != null) {
+            throw new ServiceFailureException("Error when creating new account. Account number "
+                                              + account.getNumber() + " is already used.");
+        }
+
+        Stripe<AccountEntry> stripe = accountStripes[stripeOf(id)];
+        stripe.lock.writeLock().lock();
+
+        try {
+            stripe.entries.put(id, new AccountEntry(id, account));
+        } finally {
+            stripe.lock.writeLock().unlock();
+        }
+
+        account.setId(id);
+        account.setVersion(0);
+    }
+
+    /**
+     * Stores account with its id, balance and version, e.g. account of
+     * restored snapshot. Ids of later created accounts are greater.
+     */
+    void restoreAccount(Account account) {
+        long id = account.getId();
+
+        if(accountIdByNumber.putIfAbsent(account.getNumber(), id) != null) {
+            throw new ServiceFailureException("Error when restoring account. Account number "
+                                              + account.getNumber() + " is already used.");
+        }
+
+        Stripe<AccountEntry> stripe = accountStripes[stripeOf(id)];
+        stripe.lock.writeLock().lock();
+
+        try {
+            if(stripe.entries.containsKey(id)) {
+                accountIdByNumber.remove(account.getNumber(), id);
+                throw new ServiceFailureException("Error when restoring account " + account
+                                                  + ". Id is already used.");
+            }
+
+            AccountEntry entry = new AccountEntry(id, account);
+            entry.version = account.getVersion();
+            stripe.entries.put(id, entry);
+        } finally {
+            stripe.lock.writeLock().unlock();
+        }
+
+        nextAccountId.accumulateAndGet(id + 1, Math::max);
+    }
+
+    void updateAccount(Account account) {
+        long id = account.getId();
+        Stripe<AccountEntry> stripe = accountStripes[stripeOf(id)];
+        stripe.lock.writeLock().lock();
+
+        try {
+            AccountEntry entry = existingAccount(stripe, id);
+
+            if(entry.version != account.getVersion()) {
+                throw new OptimisticLockException("Account " + account + " was changed since it was read, "
+                        + "current state is " + toAccount(entry), toAccount(entry));
+            }
+
+            if(!entry.number.equals(account.getNumber())) {
+                if(accountIdByNumber.putIfAbsent(account.getNumber(), id) != null) {
+                    throw new ServiceFailureException("Account number " + account.getNumber()
+                                                      + " is already used.");
+                }
+
+                accountIdByNumber.remove(entry.number, id);
+                entry.number = account.getNumber();
+            }
+
+            entry.holder = account.getHolder();
+            entry.balance = Money.of(account.getBalance());
+            entry.version++;
+            account.setVersion(entry.version);
+        } finally {
+            stripe.lock.writeLock().unlock();
+        }
+    }
+
+    void deleteAccount(Account account) {
+        long id = account.getId();
+        Stripe<AccountEntry> stripe = accountStripes[stripeOf(id)];
+        stripe.lock.writeLock().lock();
+
+        try {
+            AccountEntry entry = existingAccount(stripe, id);
+
+            if(!entry.paymentsFrom.isEmpty() || !entry.paymentsTo.isEmpty()) {
+                throw new ServiceFailureException("Account " + account + " can not be deleted, it has payments");
+            }
+
+            stripe.entries.remove(id);
+            accountIdByNumber.remove(entry.number, id);
+        } finally {
+            stripe.lock.writeLock().unlock();
+        }
+    }
+
+    Account getAccount(long id) {
+        Stripe<AccountEntry> stripe = accountStripes[stripeOf(id)];
+        stripe.lock.readLock().lock();
+
+        try {
+            AccountEntry entry = stripe.entries.get(id);
+            return entry == null ? null : toAccount(entry);
+        } finally {
+            stripe.lock.readLock().unlock();
+        }
+    }
+
+    Account getAccountByNumber(String number) {
+        Long id = accountIdByNumber.get(number);
+        return id == null ? null : getAccount(id);
+    }
+
+    /**
+     * @return accounts ordered by id
+     */
+    List<Account> getAllAccounts() {
+        List<Account> all = new ArrayList<>();
+
+        for(Stripe<AccountEntry> stripe : accountStripes) {
+            stripe.lock.readLock().lock();
+
+            try {
+                stripe.entries.forEachValue(entry -> all.add(toAccount(entry)));
+            } finally {
+                stripe.lock.readLock().unlock();
+            }
+        }
+
+        all.sort(Comparator.comparing(Account::getId));
+        return all;
+    }
+
+    void createPayment(Payment payment, boolean checkFunds) {
+        long from = payment.getFrom().getId();
+        long to = payment.getTo().getId();
+        Money amount = Money.of(payment.getAmount());
+        Lock[] locks = lockAccountsForWriting(from, to);
+
+        try {
+            AccountEntry fromEntry = existingAccount(accountStripes[stripeOf(from)], from);
+            AccountEntry toEntry = existingAccount(accountStripes[stripeOf(to)], to);
+
+            if(checkFunds && fromEntry.balance.isLessThan(amount)) {
+                throw new InsufficientFundsException("Insufficient funds on account "
+                                                     + toAccount(fromEntry) + " for amount " + payment.getAmount());
+            }
+
+            Money fromBalance = fromEntry.balance.subtract(amount);
+            Money toBalance = toEntry.balance.add(amount);
+
+            if(paymentCount.incrementAndGet() > maxPayments) {
+                paymentCount.decrementAndGet();
+                throw new ServiceFailureException("Error when inserting payment " + payment
+                                                  + ", store is full with " + maxPayments + " payments");
+            }
+
+            PaymentEntry entry = new PaymentEntry(nextPaymentId.getAndIncrement(), from, to,
+                                                  amount, payment.getDate(), 0);
+            putPayment(entry);
+            fromEntry.paymentsFrom.add(entry.id);
+            toEntry.paymentsTo.add(entry.id);
+            changeBalance(fromEntry, fromBalance);
+            changeBalance(toEntry, toBalance);
+            changeStatistics(fromEntry, Money.ZERO, entry.amount, 0, 1, entry.date);
+            changeStatistics(toEntry, entry.amount, Money.ZERO, 1, 0, entry.date);
+
+            payment.setId(entry.id);
+            payment.setVersion(0);
+        } finally {
+            unlock(locks);
+        }
+    }
+
+    /**
+     * Stores payment with its id and version without any change of balances,
+     * e.g. payment of restored snapshot whose accounts already have balances
+     * after it. Payments of account must be restored in ascending order of
+     * ids, ids of later created payments are greater.
+     */
+    void restorePayment(Payment payment) {
+        long id = payment.getId();
+        long from = payment.getFrom().getId();
+        long to = payment.getTo().getId();
+        Lock[] locks = lockAccountsForWriting(from, to);
+
+        try {
+            AccountEntry fromEntry = existingAccount(accountStripes[stripeOf(from)], from);
+            AccountEntry toEntry = existingAccount(accountStripes[stripeOf(to)], to);
+
+            if(getPaymentEntry(id) != null) {
+                throw new ServiceFailureException("Error when restoring payment " + payment
+                                                  + ". Id is already used.");
+            }
+
+            PaymentEntry entry = new PaymentEntry(id, from, to, Money.of(payment.getAmount()),
+                                                  payment.getDate(), payment.getVersion());
+            putPayment(entry);
+            paymentCount.incrementAndGet();
+            fromEntry.paymentsFrom.add(id);
+            toEntry.paymentsTo.add(id);
+            changeStatistics(fromEntry, Money.ZERO, entry.amount, 0, 1, entry.date);
+            changeStatistics(toEntry, entry.amount, Money.ZERO, 1, 0, entry.date);
+        } finally {
+            unlock(locks);
+        }
+
+        nextPaymentId.accumulateAndGet(id + 1, Math::max);
+    }
+
+    /**
+     * Changes amount and date of payment. Accounts of payment cannot be
+     * changed, like in PaymentManagerImpl.
+     * @throws IllegalArgumentException when accounts differ from stored ones
+     */
+    void updatePayment(Payment payment, boolean checkFunds) {
+        long id = payment.getId();
+        Money amount = Money.of(payment.getAmount());
+        PaymentEntry stored = getPaymentEntry(id);
+
+        if(stored == null) {
+            throw new EntityNotFoundException("No payment " + payment + " in store");
+        }
+
+        Lock[] locks = lockAccountsForWriting(stored.from, stored.to);
+
+        try {
+            PaymentEntry current = getPaymentEntry(id);
+
+            if(current == null) {
+                throw new EntityNotFoundException("No payment " + payment + " in store");
+            }
+
+            if(current.version != payment.getVersion()) {
+                Payment currentPayment = toPayment(current);
+                throw new OptimisticLockException("Payment " + payment + " was changed since it was read, "
+                        + "current state is " + currentPayment, currentPayment);
+            }
+
+            if(current.from != payment.getFrom().getId() || current.to != payment.getTo().getId()) {
+                throw new IllegalArgumentException("Accounts of payment " + payment
+                        + " cannot be changed, stored payment is " + toPayment(current));
+            }
+
+            AccountEntry fromEntry = accountStripes[stripeOf(current.from)].entries.get(current.from);
+            AccountEntry toEntry = accountStripes[stripeOf(current.to)].entries.get(current.to);
+            Money difference = amount.subtract(current.amount);
+
+            if(checkFunds && difference.signum() > 0 && fromEntry.balance.isLessThan(difference)) {
+                throw new InsufficientFundsException("Insufficient funds on account "
+                                                     + toAccount(fromEntry) + " for amount " + difference);
+            }
+
+            if(checkFunds && difference.signum() < 0 && toEntry.balance.isLessThan(difference.negate())) {
+                throw new InsufficientFundsException("Insufficient funds on account "
+                                                     + toAccount(toEntry) + " for amount " + difference.negate());
+            }
+
+            Money fromBalance = fromEntry.balance.subtract(difference);
+            Money toBalance = toEntry.balance.add(difference);
+
+            PaymentEntry updated = new PaymentEntry(id, current.from, current.to, amount,
+                                                    payment.getDate(), current.version + 1);
+            putPayment(updated);
+            changeBalance(fromEntry, fromBalance);
+            changeBalance(toEntry, toBalance);
+            changeStatistics(fromEntry, Money.ZERO, difference, 0, 0, updated.date);
+            changeStatistics(toEntry, difference, Money.ZERO, 0, 0, updated.date);
+
+            if(!current.date.equals(updated.date)) {
+                refreshLastPaymentDate(fromEntry);
+                refreshLastPaymentDate(toEntry);
+            }
+
+            payment.setVersion(updated.version);
+        } finally {
+            unlock(locks);
+        }
+    }
+
+    /**
+     * Deleted payment does not return money, like in PaymentManagerImpl
+     */
+    void deletePayment(Payment payment) {
+        long id = payment.getId();
+        PaymentEntry stored = getPaymentEntry(id);
+
+        if(stored == null) {
+            throw new EntityNotFoundException(payment + " was not find in store");
+        }
+
+        Lock[] locks = lockAccountsForWriting(stored.from, stored.to);
+
+        try {
+            Stripe<PaymentEntry> stripe = paymentStripes[stripeOf(id)];
+            PaymentEntry current;
+            stripe.lock.writeLock().lock();
+
+            try {
+                current = stripe.entries.remove(id);
+            } finally {
+                stripe.lock.writeLock().unlock();
+            }
+
+            if(current == null) {
+                throw new EntityNotFoundException(payment + " was not find in store");
+            }
+
+            paymentCount.decrementAndGet();
+            AccountEntry fromEntry = accountStripes[stripeOf(current.from)].entries.get(current.from);
+            AccountEntry toEntry = accountStripes[stripeOf(current.to)].entries.get(current.to);
+            fromEntry.paymentsFrom.remove(id);
+            toEntry.paymentsTo.remove(id);
+            changeStatistics(fromEntry, Money.ZERO, current.amount.negate(), 0, -1, null);
+            changeStatistics(toEntry, current.amount.negate(), Money.ZERO, -1, 0, null);
+            refreshLastPaymentDate(fromEntry);
+            refreshLastPaymentDate(toEntry);
+        } finally {
+            unlock(locks);
+        }
+    }
+
+    Payment getPayment(long id) {
+        PaymentEntry entry = getPaymentEntry(id);
+        return entry == null ? null : toPayment(entry);
+    }
+
+    /**
+     * @return payments ordered by id, accounts of payments have current balances
+     */
+    List<Payment> getPayments() {
+        List<PaymentEntry> entries = new ArrayList<>();
+
+        for(Stripe<PaymentEntry> stripe : paymentStripes) {
+            stripe.lock.readLock().lock();
+
+            try {
+                stripe.entries.forEachValue(entries::add);
+            } finally {
+                stripe.lock.readLock().unlock();
+            }
+        }
+
+        entries.sort(Comparator.comparingLong(entry -> entry.id));
+        return toPayments(entries);
+    }
+
+    /**
+     * @return payments from account ordered by id or empty list when account does not exist
+     */
+    List<Payment> getPaymentsFrom(long accountId) {
+        return toPayments(paymentIdsOf(accountId, true));
+    }
+
+    /**
+     * @return payments to account ordered by id or empty list when account does not exist
+     */
+    List<Payment> getPaymentsTo(long accountId) {
+        return toPayments(paymentIdsOf(accountId, false));
+    }
+
+    AccountStatistics getStatistics(long accountId) {
+        Stripe<AccountEntry> stripe = accountStripes[stripeOf(accountId)];
+        stripe.lock.readLock().lock();
+
+        try {
+            AccountEntry entry = stripe.entries.get(accountId);
+
+            return entry == null ? null : new AccountStatistics(entry.id, entry.totalIn.toBigDecimal(),
+                    entry.totalOut.toBigDecimal(), entry.countIn, entry.countOut, entry.lastPaymentDate);
+        } finally {
+            stripe.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Recomputes statistics of all accounts from stored payments, holds
+     * locks of all account stripes, so no payment is changed meanwhile
+     */
+    void rebuildStatistics() {
+        for(Stripe<AccountEntry> stripe : accountStripes) {
+            stripe.lock.writeLock().lock();
+        }
+
+        try {
+            for(Stripe<AccountEntry> stripe : accountStripes) {
+                stripe.entries.forEachValue(entry -> {
+                    entry.totalIn = Money.ZERO;
+                    entry.totalOut = Money.ZERO;
+                    entry.countIn = 0;
+                    entry.countOut = 0;
+                    entry.lastPaymentDate = null;
+
+                    for(long id : entry.paymentsFrom.toArray()) {
+                        PaymentEntry payment = getPaymentEntry(id);
+                        changeStatistics(entry, Money.ZERO, payment.amount, 0, 1, payment.date);
+                    }
+
+                    for(long id : entry.paymentsTo.toArray()) {
+                        PaymentEntry payment = getPaymentEntry(id);
+                        changeStatistics(entry, payment.amount, Money.ZERO, 1, 0, payment.date);
+                    }
+                });
+            }
+        } finally {
+            for(int i = accountStripes.length - 1; i >= 0; i--) {
+                accountStripes[i].lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private int stripeOf(long id) {
+        return (int) (id ^ (id >>> 32)) & mask;
+    }
+
+    /**
+     * Locks stripes of both accounts for writing in ascending order of stripes
+     * @return locked locks in order in which they were locked
+     */
+    private Lock[] lockAccountsForWriting(long first, long second) {
+        int firstStripe = stripeOf(first);
+        int secondStripe = stripeOf(second);
+        Lock[] locks;
+
+        if(firstStripe == secondStripe) {
+            locks = new Lock[] {accountStripes[firstStripe].lock.writeLock()};
+        } else {
+            locks = new Lock[] {accountStripes[Math.min(firstStripe, secondStripe)].lock.writeLock(),
+                                accountStripes[Math.max(firstStripe, secondStripe)].lock.writeLock()};
+        }
+
+        for(Lock lock : locks) {
+            lock.lock();
+        }
+
+        return locks;
+    }
+
+    private static void unlock(Lock[] locks) {
+        for(int i = locks.length - 1; i >= 0; i--) {
+            locks[i].unlock();
+        }
+    }
+
+    private static AccountEntry existingAccount(Stripe<AccountEntry> stripe, long id) {
+        AccountEntry entry = stripe.entries.get(id);
+
+        if(entry == null) {
+            throw new EntityNotFoundException("No account with id " + id + " in store");
+        }
+
+        return entry;
+    }
+
+    private PaymentEntry getPaymentEntry(long id) {
+        Stripe<PaymentEntry> stripe = paymentStripes[stripeOf(id)];
+        stripe.lock.readLock().lock();
+
+        try {
+            return stripe.entries.get(id);
+        } finally {
+            stripe.lock.readLock().unlock();
+        }
+    }
+
+    private void putPayment(PaymentEntry entry) {
+        Stripe<PaymentEntry> stripe = paymentStripes[stripeOf(entry.id)];
+        stripe.lock.writeLock().lock();
+
+        try {
+            stripe.entries.put(entry.id, entry);
+        } finally {
+            stripe.lock.writeLock().unlock();
+        }
+    }
+
+    private long[] paymentIdsOf(long accountId, boolean from) {
+        Stripe<AccountEntry> stripe = accountStripes[stripeOf(accountId)];
+        stripe.lock.readLock().lock();
+
+        try {
+            AccountEntry entry = stripe.entries.get(accountId);
+
+            if(entry == null) {
+                return new long[0];
+            }
+
+            return from ? entry.paymentsFrom.toArray() : entry.paymentsTo.toArray();
+        } finally {
+            stripe.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Payment deleted after its id was read is skipped
+     */
+    private List<Payment> toPayments(long[] ids) {
+        List<PaymentEntry> entries = new ArrayList<>(ids.length);
+
+        for(long id : ids) {
+            PaymentEntry entry = getPaymentEntry(id);
+
+            if(entry != null) {
+                entries.add(entry);
+            }
+        }
+
+        return toPayments(entries);
+    }
+
+    /**
+     * Every account is read once, payments get their own copies of it
+     */
+    private List<Payment> toPayments(List<PaymentEntry> entries) {
+        LongHashMap<Account> accounts = new LongHashMap<>();
+        List<Payment> payments = new ArrayList<>(entries.size());
+
+        for(PaymentEntry entry : entries) {
+            payments.add(newPayment(entry, accountOf(accounts, entry.from), accountOf(accounts, entry.to)));
+        }
+
+        return payments;
+    }
+
+    private Account accountOf(LongHashMap<Account> accounts, long id) {
+        Account account = accounts.get(id);
+
+        if(account == null) {
+            account = getAccount(id);
+
+            if(account == null) {
+                return null;
+            }
+
+            accounts.put(id, account);
+        }
+
+        return copy(account);
+    }
+
+    private Payment toPayment(PaymentEntry entry) {
+        return newPayment(entry, getAccount(entry.from), getAccount(entry.to));
+    }
+
+    private static Payment newPayment(PaymentEntry entry, Account from, Account to) {
+        Payment payment = new Payment();
+        payment.setId(entry.id);
+        payment.setFrom(from);
+        payment.setTo(to);
+        payment.setAmount(entry.amount.toBigDecimal());
+        payment.setDate(entry.date);
+        payment.setVersion(entry.version);
+
+        return payment;
+    }
+
+    /**
+     * Payment changes version of account like update of its balance in database.
+     * New balance is computed before store is changed, so overflow of it
+     * leaves store unchanged.
+     */
+    private static void changeBalance(AccountEntry entry, Money balance) {
+        entry.balance = balance;
+        entry.version++;
+    }
+
+    private static void changeStatistics(AccountEntry entry, Money in, Money out,
+                                         int countIn, int countOut, LocalDate date) {
+        entry.totalIn = entry.totalIn.add(in);
+        entry.totalOut = entry.totalOut.add(out);
+        entry.countIn += countIn;
+        entry.countOut += countOut;
+
+        if(date != null && (entry.lastPaymentDate == null || entry.lastPaymentDate.isBefore(date))) {
+            entry.lastPaymentDate = date;
+        }
+    }
+
+    private void refreshLastPaymentDate(AccountEntry entry) {
+        LocalDate last = null;
+
+        for(LongList ids : new LongList[] {entry.paymentsFrom, entry.paymentsTo}) {
+            for(int i = 0; i < ids.size(); i++) {
+                LocalDate date = getPaymentEntry(ids.get(i)).date;
+                last = last == null || last.isBefore(date) ? date : last;
+            }
+        }
+
+        entry.lastPaymentDate = last;
+    }
+
+    private static Account toAccount(AccountEntry entry) {
+        Account account = new Account(entry.number, entry.holder, entry.balance.toBigDecimal());
+        account.setId(entry.id);
+        account.setVersion(entry.version);
+        return account;
+    }
+
+    private static Account copy(Account account) {
+        Account copy = new Account(account.getNumber(), account.getHolder(), account.getBalance());
+        copy.setId(account.getId());
+        copy.setVersion(account.getVersion());
+        return copy;
+    }
+}
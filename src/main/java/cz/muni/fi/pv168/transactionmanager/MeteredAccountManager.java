@@ -0,0 +1,126 @@
+package cz.muni.fi.pv168.transactionmanager;
+
+import cz.muni.fi.pv168.utils.MetricsRegistry;
+import cz.muni.fi.pv168.utils.OperationMetrics;
+import java.util.List;
+
+/**
+ * AccountManager which records count of calls, count of failed calls and 
+ * latencies of every method of another AccountManager into MetricsRegistry.
+ * 
+ * @author Miroslav Kubus
+ */
+public class MeteredAccountManager implements AccountManager {
+    
+    private final AccountManager accountManager;
+    private final OperationMetrics createAccount;
+    private final OperationMetrics updateAccount;
+    private final OperationMetrics deleteAccount;
+    private final OperationMetrics getAccountById;
+    private final OperationMetrics getAllAccounts;
+    private final OperationMetrics getAccountByNumber;
+    
+    public MeteredAccountManager(AccountManager accountManager) {
+        this(accountManager, MetricsRegistry.getDefault());
+    }
+    
+    /**
+     * Creates manager which records metrics of every call of given manager
+     * @param accountManager represents manager which performs operations
+     * @param registry represents registry of metrics
+     */
+    public MeteredAccountManager(AccountManager accountManager, MetricsRegistry registry) {
+        if(accountManager == null || registry == null) {
+            throw new IllegalArgumentException("Manager and registry of metrics must not be null");
+        }
+        
+        this.accountManager = accountManager;
+        createAccount = registry.operation("AccountManager.createAccount");
+        updateAccount = registry.operation("AccountManager.updateAccount");
+        deleteAccount = registry.operation("AccountManager.deleteAccount");
+        getAccountById = registry.operation("AccountManager.getAccountById");
+        getAllAccounts = registry.operation("AccountManager.getAllAccounts");
+        getAccountByNumber = registry.operation("AccountManager.getAccountByNumber");
+    }
+    
+    @Override
+    public void createAccount(Account account) {
+        long start = System.nanoTime();
+        
+        try {
+            accountManager.createAccount(account);
+            createAccount.record(start);
+        } catch (RuntimeException ex) {
+            createAccount.recordError(start);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void updateAccount(Account account) {
+        long start = System.nanoTime();
+        
+        try {
+            accountManager.updateAccount(account);
+            updateAccount.record(start);
+        } catch (RuntimeException ex) {
+            updateAccount.recordError(start);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void deleteAccount(Account account) {
+        long start = System.nanoTime();
+        
+        try {
+            accountManager.deleteAccount(account);
+            deleteAccount.record(start);
+        } catch (RuntimeException ex) {
+            deleteAccount.recordError(start);
+            throw ex;
+        }
+    }
+
+    @Override
+    public Account getAccountById(Long id) {
+        long start = System.nanoTime();
+        
+        try {
+            Account result = accountManager.getAccountById(id);
+            getAccountById.record(start);
+            return result;
+        } catch (RuntimeException ex) {
+            getAccountById.recordError(start);
+            throw ex;
+        }
+    }
+
+    @Override
+    public List<Account> getAllAccounts() {
+        long start = System.nanoTime();
+        
+        try {
+            List<Account> result = accountManager.getAllAccounts();
+            getAllAccounts.record(start);
+            return result;
+        } catch (RuntimeException ex) {
+            getAllAccounts.recordError(start);
+            throw ex;
+        }
+    }
+
+    @Override
+    public Account getAccountByNumber(String number) {
+        long start = System.nanoTime();
+        
+        try {
+            Account result = accountManager.getAccountByNumber(number);
+            getAccountByNumber.record(start);
+            return result;
+        } catch (RuntimeException ex) {
+            getAccountByNumber.recordError(start);
+            throw ex;
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package cz.muni.fi.pv168.transactionmanager;
+
+import cz.muni.fi.pv168.utils.MetricsRegistry;
+import cz.muni.fi.pv168.utils.OperationMetrics;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * PaymentManager which records count of calls, count of failed calls and 
+ * latencies of every method of another PaymentManager into MetricsRegistry.
+ * 
+ * @author Miroslav Kubus
+ */
+public class MeteredPaymentManager implements PaymentManager {
+    
+    private final PaymentManager paymentManager;
+    private final OperationMetrics createPayment;
+    private final OperationMetrics createPayments;
+    private final OperationMetrics updatePayment;
+    private final OperationMetrics deletePayment;
+    private final OperationMetrics getPaymentByID;
+    private final OperationMetrics getAllPayments;
+    private final OperationMetrics forEachPayment;
+    private final OperationMetrics getPaymentsAfter;
+    private final OperationMetrics findPayments;
+    private final OperationMetrics forEachPaymentByQuery;
+    private final OperationMetrics getAccountStatistics;
+    private final OperationMetrics getPaymentsFromAccount;
+    private final OperationMetrics forEachPaymentFromAccount;
+    private final OperationMetrics getPaymentsToAcoount;
+    private final OperationMetrics forEachPaymentToAccount;
+    
+    public MeteredPaymentManager(PaymentManager paymentManager) {
+        this(paymentManager, MetricsRegistry.getDefault());
+    }
+    
+    /**
+     * Creates manager which records metrics of every call of given manager
+     * @param paymentManager represents manager which performs operations
+     * @param registry represents registry of metrics
+     */
+    public MeteredPaymentManager(PaymentManager paymentManager, MetricsRegistry registry) {
+        if(paymentManager == null || registry == null) {
+            throw new IllegalArgumentException("Manager and registry of metrics must not be null");
+        }
+        
+        this.paymentManager = paymentManager;
+        createPayment = registry.operation("PaymentManager.createPayment");
+        createPayments = registry.operation("PaymentManager.createPayments");
+        updatePayment = registry.operation("PaymentManager.updatePayment");
+        deletePayment = registry.operation("PaymentManager.deletePayment");
+        getPaymentByID = registry.operation("PaymentManager.getPaymentByID");
+        getAllPayments = registry.operation("PaymentManager.getAllPayments");
+        forEachPayment = registry.operation("PaymentManager.forEachPayment");
+        getPaymentsAfter = registry.operation("PaymentManager.getPaymentsAfter");
+        findPayments = registry.operation("PaymentManager.findPayments");
+        forEachPaymentByQuery = registry.operation("PaymentManager.forEachPaymentByQuery");
+        getAccountStatistics = registry.operation("PaymentManager.getAccountStatistics");
+        getPaymentsFromAccount = registry.operation("PaymentManager.getPaymentsFromAccount");
+        forEachPaymentFromAccount = registry.operation("PaymentManager.forEachPaymentFromAccount");
+        getPaymentsToAcoount = registry.operation("PaymentManager.getPaymentsToAcoount");
+        forEachPaymentToAccount = registry.operation("PaymentManager.forEachPaymentToAccount");
+    }
+    
+    @Override
+    public void createPayment(Payment payment) {
+        long start = System.nanoTime();
+        
+        try {
+            paymentManager.createPayment(payment);
+            createPayment.record(start);
+        } catch (RuntimeException ex) {
+            createPayment.recordError(start);
+            throw ex;
+        }
+    }
+
+    @Override
+    public PaymentBatchResult createPayments(Collection<Payment> payments) {
+        long start = System.nanoTime();
+        
+        try {
+            PaymentBatchResult result = paymentManager.createPayments(payments);
+            createPayments.record(start);
+            return result;
+        } catch (RuntimeException ex) {
+            createPayments.recordError(start);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void updatePayment(Payment payment) {
+        long start = System.nanoTime();
+        
+        try {
+            paymentManager.updatePayment(payment);
+            updatePayment.record(start);
+        } catch (RuntimeException ex) {
+            updatePayment.recordError(start);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void deletePayment(Payment payment) {
+        long start = System.nanoTime();
+        
+        try {
+            paymentManager.deletePayment(payment);
+            deletePayment.record(start);
+        } catch (RuntimeException ex) {
+            deletePayment.recordError(start);
+            throw ex;
+        }
+    }
+
+    @Override
+    public Payment getPaymentByID(Long id) {
+        long start = System.nanoTime();
+        
+        try {
+            Payment result = paymentManager.getPaymentByID(id);
+            getPaymentByID.record(start);
+            return result;
+        } catch (RuntimeException ex) {
+            getPaymentByID.recordError(start);
+            throw ex;
+        }
+    }
+
+    @Override
+    public List<Payment> getAllPayments() {
+        long start = System.nanoTime();
+        
+        try {
+            List<Payment> result = paymentManager.getAllPayments();
+            getAllPayments.record(start);
+            return result;
+        } catch (RuntimeException ex) {
+            getAllPayments.recordError(start);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void forEachPayment(Consumer<? super Payment> consumer) {
+        long start = System.nanoTime();
+        
+        try {
+            paymentManager.forEachPayment(consumer);
+            forEachPayment.record(start);
+        } catch (RuntimeException ex) {
+            forEachPayment.recordError(start);
+            throw ex;
+        }
+    }
+
+    @Override
+    public List<Payment> getPaymentsAfter(Long afterId, int limit) {
+        long start = System.nanoTime();
+        
+        try {
+            List<Payment> result = paymentManager.getPaymentsAfter(afterId, limit);
+            getPaymentsAfter.record(start);
+            return result;
+        } catch (RuntimeException ex) {
+            getPaymentsAfter.recordError(start);
+            throw ex;
+        }
+    }
+
+    @Override
+    public List<Payment> findPayments(PaymentQuery query) {
+        long start = System.nanoTime();
+        
+        try {
+            List<Payment> result = paymentManager.findPayments(query);
+            findPayments.record(start);
+            return result;
+        } catch (RuntimeException ex) {
+            findPayments.recordError(start);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void forEachPayment(PaymentQuery query, Consumer<? super Payment> consumer) {
+        long start = System.nanoTime();
+        
+        try {
+            paymentManager.forEachPayment(query, consumer);
+            forEachPaymentByQuery.record(start);
+        } catch (RuntimeException ex) {
+            forEachPaymentByQuery.recordError(start);
+            throw ex;
+        }
+    }
+
+    @Override
+    public AccountStatistics getAccountStatistics(Account account) {
+        long start = System.nanoTime();
+        
+        try {
+            AccountStatistics result = paymentManager.getAccountStatistics(account);
+            getAccountStatistics.record(start);
+            return result;
+        } catch (RuntimeException ex) {
+            getAccountStatistics.recordError(start);
+            throw ex;
+        }
+    }
+
+    @Override
+    public List<Payment> getPaymentsFromAccount(Account account) {
+        long start = System.nanoTime();
+        
+        try {
+            List<Payment> result = paymentManager.getPaymentsFromAccount(account);
+            getPaymentsFromAccount.record(start);
+            return result;
+        } catch (RuntimeException ex) {
+            getPaymentsFromAccount.recordError(start);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void forEachPaymentFromAccount(Account account, Consumer<? super Payment> consumer) {
+        long start = System.nanoTime();
+        
+        try {
+            paymentManager.forEachPaymentFromAccount(account, consumer);
+            forEachPaymentFromAccount.record(start);
+        } catch (RuntimeException ex) {
+            forEachPaymentFromAccount.recordError(start);
+            throw ex;
+        }
+    }
+
+    @Override
+    public List<Payment> getPaymentsToAcoount(Account account) {
+        long start = System.nanoTime();
+        
+        try {
+            List<Payment> result = paymentManager.getPaymentsToAcoount(account);
+            getPaymentsToAcoount.record(start);
+            return result;
+        } catch (RuntimeException ex) {
+            getPaymentsToAcoount.recordError(start);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void forEachPaymentToAccount(Account account, Consumer<? super Payment> consumer) {
+        long start = System.nanoTime();
+        
+        try {
+            paymentManager.forEachPaymentToAccount(account, consumer);
+            forEachPaymentToAccount.record(start);
+        } catch (RuntimeException ex) {
+            forEachPaymentToAccount.recordError(start);
+            throw ex;
+        }
+    }
+}
@@ -15,6 +15,7 @@ public class Payment {
     private Account to;
     private BigDecimal amount;
     private LocalDate date;
+    private long version;
     
     public void setId(Long id) {
         this.id = id;
@@ -56,6 +57,19 @@ public class Payment {
         return this.date;
     }    
     
+    /**
+     * Returns version of payment which was read from database. Version is 
+     * not part of equality of payments.
+     * @return version of payment
+     */
+    public long getVersion() {
+        return this.version;
+    }
+    
+    public void setVersion(long version) {
+        this.version = version;
+    }
+    
     @Override
     public String toString() {
         return "Payment{id = " + this.id + ",from account = " + this.from + ",to account = " 
@@ -0,0 +1,57 @@
+package cz.muni.fi.pv168.transactionmanager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * This class represents result of creating of more payments at once.
+ * It holds generated ids of payments in the same order as payments were 
+ * given and failures of payments which were not created.
+ * 
+ * @author Miroslav Kubus
+ */
+public class PaymentBatchResult {
+    private final List<Long> ids;
+    private final Map<Integer, RuntimeException> failures;
+    
+    public PaymentBatchResult(int size) {
+        this.ids = new ArrayList<>(Collections.nCopies(size, (Long) null));
+        this.failures = new TreeMap<>();
+    }
+    
+    public void setId(int index, Long id) {
+        ids.set(index, id);
+    }
+    
+    public void addFailure(int index, RuntimeException failure) {
+        failures.put(index, failure);
+    }
+    
+    /**
+     * Returns ids of created payments in order of given payments.
+     * @return list of ids where id of not created payment is null
+     */
+    public List<Long> getIds() {
+        return Collections.unmodifiableList(ids);
+    }
+    
+    /**
+     * Returns failures of payments which were not created.
+     * @return map from index of payment in given collection to its failure
+     */
+    public Map<Integer, RuntimeException> getFailures() {
+        return Collections.unmodifiableMap(failures);
+    }
+    
+    public boolean hasFailures() {
+        return !failures.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "PaymentBatchResult{ids = " + ids + ",failures = " + failures + "}";
+    }
+}
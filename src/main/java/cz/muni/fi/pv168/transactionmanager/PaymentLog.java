@@ -0,0 +1,807 @@
+package cz.muni.fi.pv168.transactionmanager;
+
+import cz.muni.fi.pv168.utils.LongList;
+import cz.muni.fi.pv168.utils.MetricsRegistry;
+import cz.muni.fi.pv168.utils.Money;
+import cz.muni.fi.pv168.utils.OperationMetrics;
+import cz.muni.fi.pv168.utils.ServiceFailureException;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Append-only log of payments stored in memory-mapped segment files. Every
+ * payment is one fixed-width record, so payment with id n is record n - 1
+ * and it is found without any index. Segment has fixed count of records,
+ * when it is full next segment file is created and mapped.
+ * <p>
+ * Segment file starts with header of int magic number 0x5056504C, int format
+ * version, int count of records in segment and one reserved int. Record has
+ * 48 bytes: long id, long from account, long to account, long amount in units
+ * of 1/10000, long version, int date as days since 1970-01-01 and int state
+ * (0 free, 1 live, 2 deleted, 3 pending, 4 amendment). State is written as
+ * the last field, so record torn by crash of process is free slot when log
+ * is opened again.
+ * <p>
+ * Records are written in two phases, so log can follow transaction of other
+ * storage. New payment is appended as pending record and change of payment
+ * is appended as amendment, new state of payment whose id is in the record.
+ * Live records are never rewritten by uncommitted change. Commit makes
+ * pending record live or copies amendment over its payment, discard marks
+ * record as deleted. Record number is position of record + 1, for pending
+ * record it is id of the new payment. Numbers of pending records and
+ * amendments found when log is opened are kept for recovery, owner of log
+ * commits or discards them by its own record of committed transactions.
+ * <p>
+ * Positions of live records are indexed by from and to account and statistics
+ * of accounts are kept in memory, both are rebuilt by one scan of segments
+ * when log is opened. Records are written under write lock, readers share
+ * read lock and copy records out of mapped memory. Changes are written to
+ * page cache of operating system, so they survive crash of process, force
+ * writes changed segments to disk.
+ *
+ * @author Miroslav Kubus
+ */
+public class PaymentLog implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(PaymentLog.class.getName());
+
+    public static final int MAGIC = 0x5056504C;
+    public static final int FORMAT_VERSION = 2;
+    public static final int RECORD_SIZE = 48;
+    public static final int HEADER_SIZE = 16;
+
+    /**
+     * Default count of records in one segment, segment has about 3 MB
+     */
+    public static final int DEFAULT_SEGMENT_RECORDS = 64 * 1024;
+
+    private static final int FREE = 0;
+    private static final int LIVE = 1;
+    private static final int DELETED = 2;
+    private static final int PENDING = 3;
+    private static final int AMENDMENT = 4;
+
+    private static final int ID = 0;
+    private static final int FROM = 8;
+    private static final int TO = 16;
+    private static final int AMOUNT = 24;
+    private static final int VERSION = 32;
+    private static final int DATE = 40;
+    private static final int STATE = 44;
+
+    private static final MetricsRegistry METRICS = MetricsRegistry.getDefault();
+    private static final OperationMetrics OPEN = METRICS.operation("paymentLog.open");
+    private static final OperationMetrics ROLL = METRICS.operation("paymentLog.roll");
+    private static final OperationMetrics FORCE = METRICS.operation("paymentLog.force");
+
+    /**
+     * One payment read out of log. Amount is in units of 1/10000 and date
+     * is count of days since 1970-01-01.
+     */
+    static final class Record {
+        final long id;
+        final long fromAccount;
+        final long toAccount;
+        final long amount;
+        final long version;
+        final int epochDay;
+
+        Record(long id, long fromAccount, long toAccount, long amount, long version, int epochDay) {
+            this.id = id;
+            this.fromAccount = fromAccount;
+            this.toAccount = toAccount;
+            this.amount = amount;
+            this.version = version;
+            this.epochDay = epochDay;
+        }
+
+        BigDecimal getAmount() {
+            return BigDecimal.valueOf(amount, Money.SCALE);
+        }
+
+        LocalDate getDate() {
+            return LocalDate.ofEpochDay(epochDay);
+        }
+    }
+
+    /**
+     * Turnover of one account, date of the latest payment is counted only
+     * when account has some payment
+     */
+    private static final class Statistics {
+        long totalIn;
+        long totalOut;
+        long countIn;
+        long countOut;
+        int lastDay;
+
+        private AccountStatistics toAccountStatistics(long accountId) {
+            return new AccountStatistics(accountId, BigDecimal.valueOf(totalIn, Money.SCALE),
+                    BigDecimal.valueOf(totalOut, Money.SCALE), countIn, countOut,
+                    countIn + countOut == 0 ? null : LocalDate.ofEpochDay(lastDay));
+        }
+    }
+
+    /**
+     * Ascending positions of records, positions are appended in ascending
+     * order, so list stays sorted without sorting
+     */
+    private static final class Positions {
+        private long[] values = new long[4];
+        private int size;
+
+        private void add(long position) {
+            if(size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+
+            values[size++] = position;
+        }
+
+        private void remove(long position) {
+            int index = Arrays.binarySearch(values, 0, size, position);
+
+            if(index >= 0) {
+                System.arraycopy(values, index + 1, values, index, size - index - 1);
+                size--;
+            }
+        }
+    }
+
+    private final Path directory;
+    private final int segmentRecords;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private final Map<Long, Positions> positionsFrom = new HashMap<>();
+    private final Map<Long, Positions> positionsTo = new HashMap<>();
+    private final Map<Long, Statistics> statistics = new HashMap<>();
+    private final Set<Long> amending = new HashSet<>();
+    private final BitSet dirtySegments = new BitSet();
+    private LongList recovery;
+    private long size;
+    private boolean closed;
+
+    public PaymentLog(Path directory) {
+        this(directory, DEFAULT_SEGMENT_RECORDS);
+    }
+
+    /**
+     * Opens log in given directory, existing segments are mapped and scanned
+     * @param directory represents directory with segment files, it is created
+     * when it does not exist
+     * @param segmentRecords represents count of records in one segment
+     * @throws IllegalArgumentException when segmentRecords is not positive or
+     * existing segment has other format or count of records
+     */
+    public PaymentLog(Path directory, int segmentRecords) {
+        if(directory == null) {
+            throw new IllegalArgumentException("Null directory of payment log");
+        }
+
+        if(segmentRecords < 1 || segmentRecords > (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE) {
+            throw new IllegalArgumentException("Invalid count of records in segment: " + segmentRecords);
+        }
+
+        this.directory = directory;
+        this.segmentRecords = segmentRecords;
+        open();
+    }
+
+    /**
+     * @return count of records in log including deleted ones, id of the
+     * next payment is size + 1
+     */
+    public long size() {
+        lock.readLock().lock();
+
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return count of mapped segment files
+     */
+    public int getSegmentCount() {
+        lock.readLock().lock();
+
+        try {
+            return segments.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes segments changed since the last force to disk
+     */
+    public void force() {
+        long start = System.nanoTime();
+        List<MappedByteBuffer> changed = new ArrayList<>();
+
+        lock.writeLock().lock();
+
+        try {
+            checkOpen();
+
+            for(int i = dirtySegments.nextSetBit(0); i >= 0; i = dirtySegments.nextSetBit(i + 1)) {
+                changed.add(segments.get(i));
+            }
+
+            dirtySegments.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        for(MappedByteBuffer segment : changed) {
+            segment.force();
+        }
+
+        FORCE.record(start);
+    }
+
+    /**
+     * Forces segments to disk and releases them, every later operation
+     * fails with ServiceFailureException
+     */
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+
+        try {
+            if(closed) {
+                return;
+            }
+
+            for(MappedByteBuffer segment : segments) {
+                segment.force();
+            }
+
+            segments.clear();
+            closed = true;
+            logger.log(Level.INFO, "Closed payment log in {0}", directory);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Appends pending record of new payment, payment is not visible until
+     * the record is committed
+     * @return appended record with new id and version 0, its id is number
+     * of the record
+     */
+    Record append(long fromAccount, long toAccount, long amount, int epochDay) {
+        lock.writeLock().lock();
+
+        try {
+            checkOpen();
+
+            Record record = new Record(size + 1, fromAccount, toAccount, amount, 0, epochDay);
+            write(appendPosition(), record, PENDING);
+            size++;
+
+            return record;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return live record of payment with given id or null when there is none
+     */
+    Record get(long id) {
+        lock.readLock().lock();
+
+        try {
+            checkOpen();
+
+            return id < 1 || id > size ? null : readLive(id - 1);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Appends amendment which changes amount and date of live payment and
+     * increments its version when it is committed
+     * @return number of amendment or -1 when payment is not live, has other
+     * version than the expected one or has other amendment which was not
+     * committed or discarded yet
+     */
+    long amend(long id, long expectedVersion, long amount, int epochDay) {
+        lock.writeLock().lock();
+
+        try {
+            checkOpen();
+
+            Record current = id < 1 || id > size ? null : readLive(id - 1);
+
+            if(current == null || current.version != expectedVersion || amending.contains(id)) {
+                return -1;
+            }
+
+            write(appendPosition(), new Record(id, current.fromAccount, current.toAccount, amount,
+                    current.version + 1, epochDay), AMENDMENT);
+            amending.add(id);
+
+            return ++size;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Makes pending record live or copies amendment over its payment. Amendment
+     * keeps its state, so it can be applied again when its payment was not
+     * forced to disk; payment which was deleted or already has version of
+     * amendment is not changed. Number which is neither pending record nor
+     * amendment is ignored.
+     */
+    void commit(long number) {
+        lock.writeLock().lock();
+
+        try {
+            checkOpen();
+
+            long position = number - 1;
+            int state = stateOf(position);
+
+            if(state == PENDING) {
+                Record record = read(position);
+                setState(position, LIVE);
+                index(position, record);
+                addToStatistics(record, 1);
+            } else if(state == AMENDMENT) {
+                Record amendment = read(position);
+                amending.remove(amendment.id);
+                apply(amendment);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Marks pending record or amendment whose transaction was not committed
+     * as deleted, number of other record is ignored
+     */
+    void discard(long number) {
+        lock.writeLock().lock();
+
+        try {
+            checkOpen();
+
+            long position = number - 1;
+            int state = stateOf(position);
+
+            if(state == AMENDMENT) {
+                amending.remove(read(position).id);
+            }
+
+            if(state == PENDING || state == AMENDMENT) {
+                setState(position, DELETED);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns numbers of pending records and amendments found when log was
+     * opened, only the first call gets them
+     * @return ascending numbers of records or null when they were taken
+     */
+    long[] takeRecovery() {
+        lock.writeLock().lock();
+
+        try {
+            long[] numbers = recovery == null ? null : recovery.toArray();
+            recovery = null;
+
+            return numbers;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Marks live payment as deleted, its id is never used again
+     * @return deleted record or null when payment is not live
+     */
+    Record delete(long id) {
+        lock.writeLock().lock();
+
+        try {
+            checkOpen();
+
+            Record current = id < 1 || id > size ? null : readLive(id - 1);
+
+            if(current == null) {
+                return null;
+            }
+
+            setState(id - 1, DELETED);
+            positionsOf(positionsFrom, current.fromAccount).remove(id - 1);
+            positionsOf(positionsTo, current.toAccount).remove(id - 1);
+            addToStatistics(current, -1);
+            refreshLastDay(current.fromAccount);
+            refreshLastDay(current.toAccount);
+
+            return current;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return live records with from account of given id ordered by id
+     */
+    List<Record> getFrom(long accountId) {
+        return recordsOf(positionsFrom, accountId);
+    }
+
+    /**
+     * @return live records with to account of given id ordered by id
+     */
+    List<Record> getTo(long accountId) {
+        return recordsOf(positionsTo, accountId);
+    }
+
+    /**
+     * @return at most limit live records with id greater than afterId
+     * ordered by id
+     */
+    List<Record> getAfter(long afterId, int limit) {
+        lock.readLock().lock();
+
+        try {
+            checkOpen();
+
+            List<Record> records = new ArrayList<>();
+
+            for(long position = Math.max(afterId, 0); position < size && records.size() < limit; position++) {
+                Record record = readLive(position);
+
+                if(record != null) {
+                    records.add(record);
+                }
+            }
+
+            return records;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return statistics of account or null when no payment of account
+     * was ever written to log
+     */
+    AccountStatistics getStatistics(long accountId) {
+        lock.readLock().lock();
+
+        try {
+            checkOpen();
+
+            Statistics current = statistics.get(accountId);
+
+            return current == null ? null : current.toAccountStatistics(accountId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Recomputes indexes and statistics of accounts by one scan of segments
+     */
+    void rebuild() {
+        lock.writeLock().lock();
+
+        try {
+            checkOpen();
+            scan();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private List<Record> recordsOf(Map<Long, Positions> index, long accountId) {
+        lock.readLock().lock();
+
+        try {
+            checkOpen();
+
+            Positions positions = index.get(accountId);
+            List<Record> records = new ArrayList<>(positions == null ? 0 : positions.size);
+
+            for(int i = 0; positions != null && i < positions.size; i++) {
+                records.add(read(positions.values[i]));
+            }
+
+            return records;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void open() {
+        long start = System.nanoTime();
+
+        try {
+            Files.createDirectories(directory);
+
+            List<Path> files = new ArrayList<>();
+
+            try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "payments-*.seg")) {
+                stream.forEach(files::add);
+            }
+
+            files.sort(null);
+
+            for(int i = 0; i < files.size(); i++) {
+                if(!files.get(i).equals(segmentFile(i))) {
+                    throw new IllegalArgumentException("Missing segment " + segmentFile(i) + " of payment log");
+                }
+
+                segments.add(map(files.get(i), false));
+            }
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, "Error while opening payment log in " + directory, ex);
+            throw new ServiceFailureException("Error while opening payment log in " + directory, ex);
+        }
+
+        scan();
+        recovery = new LongList();
+
+        for(long position = 0; position < size; position++) {
+            int state = stateOf(position);
+
+            if(state == PENDING || state == AMENDMENT) {
+                recovery.add(position + 1);
+            }
+        }
+
+        OPEN.record(start);
+        logger.log(Level.INFO, "Opened payment log in {0} with {1} records in {2} segments",
+                new Object[]{directory, size, segments.size()});
+    }
+
+    /**
+     * Finds end of log and indexes live records. Free slot in the middle of
+     * log is left by torn write and it is skipped like deleted record.
+     */
+    private void scan() {
+        positionsFrom.clear();
+        positionsTo.clear();
+        statistics.clear();
+        size = 0;
+
+        long capacity = (long) segments.size() * segmentRecords;
+
+        for(long position = 0; position < capacity; position++) {
+            int state = segmentOf(position).getInt(offsetOf(position) + STATE);
+
+            if(state != FREE) {
+                size = position + 1;
+            }
+
+            if(state == LIVE) {
+                Record record = read(position);
+                index(position, record);
+                addToStatistics(record, 1);
+            }
+        }
+    }
+
+    private long appendPosition() {
+        if(size == (long) segments.size() * segmentRecords) {
+            roll();
+        }
+
+        return size;
+    }
+
+    /**
+     * Copies amendment over live payment with lower version and changes
+     * statistics of its accounts. Version is copied as the last field, so
+     * amendment torn by crash of process is applied again on recovery.
+     */
+    private void apply(Record amendment) {
+        long position = amendment.id - 1;
+        Record current = readLive(position);
+
+        if(current == null || current.version >= amendment.version) {
+            return;
+        }
+
+        amend(position, amendment);
+        addToStatistics(current, -1);
+        addToStatistics(amendment, 1);
+
+        if(current.epochDay != amendment.epochDay) {
+            refreshLastDay(current.fromAccount);
+            refreshLastDay(current.toAccount);
+        }
+    }
+
+    private void roll() {
+        long start = System.nanoTime();
+        Path file = segmentFile(segments.size());
+
+        try {
+            segments.add(map(file, true));
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, "Error while creating segment " + file, ex);
+            throw new ServiceFailureException("Error while creating segment " + file, ex);
+        }
+
+        ROLL.record(start);
+        logger.log(Level.INFO, "Created segment {0} of payment log", file);
+    }
+
+    private MappedByteBuffer map(Path file, boolean create) throws IOException {
+        long bytes = HEADER_SIZE + (long) segmentRecords * RECORD_SIZE;
+
+        try(FileChannel channel = create
+                ? FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if(!create && channel.size() != bytes) {
+                throw new IllegalArgumentException("Segment " + file + " has " + channel.size()
+                        + " bytes instead of " + bytes);
+            }
+
+            MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+
+            if(create) {
+                segment.putInt(0, MAGIC).putInt(4, FORMAT_VERSION).putInt(8, segmentRecords).putInt(12, 0);
+            } else if(segment.getInt(0) != MAGIC || segment.getInt(4) != FORMAT_VERSION
+                    || segment.getInt(8) != segmentRecords) {
+                throw new IllegalArgumentException("File " + file + " is not segment of payment log with "
+                        + segmentRecords + " records");
+            }
+
+            return segment;
+        }
+    }
+
+    private Path segmentFile(int index) {
+        return directory.resolve(String.format("payments-%06d.seg", index));
+    }
+
+    private MappedByteBuffer segmentOf(long position) {
+        return segments.get((int) (position / segmentRecords));
+    }
+
+    private int offsetOf(long position) {
+        return HEADER_SIZE + (int) (position % segmentRecords) * RECORD_SIZE;
+    }
+
+    private int stateOf(long position) {
+        return position < 0 || position >= size ? FREE : segmentOf(position).getInt(offsetOf(position) + STATE);
+    }
+
+    private Record readLive(long position) {
+        return segmentOf(position).getInt(offsetOf(position) + STATE) == LIVE ? read(position) : null;
+    }
+
+    private Record read(long position) {
+        MappedByteBuffer segment = segmentOf(position);
+        int offset = offsetOf(position);
+
+        return new Record(segment.getLong(offset + ID), segment.getLong(offset + FROM),
+                segment.getLong(offset + TO), segment.getLong(offset + AMOUNT),
+                segment.getLong(offset + VERSION), segment.getInt(offset + DATE));
+    }
+
+    private void write(long position, Record record, int state) {
+        MappedByteBuffer segment = segmentOf(position);
+        int offset = offsetOf(position);
+
+        segment.putLong(offset + ID, record.id)
+                .putLong(offset + FROM, record.fromAccount)
+                .putLong(offset + TO, record.toAccount)
+                .putLong(offset + AMOUNT, record.amount)
+                .putLong(offset + VERSION, record.version)
+                .putInt(offset + DATE, record.epochDay)
+                .putInt(offset + STATE, state);
+        dirtySegments.set((int) (position / segmentRecords));
+    }
+
+    /**
+     * Writes changeable fields of live record, ids of payment and accounts
+     * of amendment are the same
+     */
+    private void amend(long position, Record amendment) {
+        MappedByteBuffer segment = segmentOf(position);
+        int offset = offsetOf(position);
+
+        segment.putLong(offset + AMOUNT, amendment.amount)
+                .putInt(offset + DATE, amendment.epochDay)
+                .putLong(offset + VERSION, amendment.version);
+        dirtySegments.set((int) (position / segmentRecords));
+    }
+
+    private void setState(long position, int state) {
+        segmentOf(position).putInt(offsetOf(position) + STATE, state);
+        dirtySegments.set((int) (position / segmentRecords));
+    }
+
+    private void index(long position, Record record) {
+        positionsOf(positionsFrom, record.fromAccount).add(position);
+        positionsOf(positionsTo, record.toAccount).add(position);
+    }
+
+    private static Positions positionsOf(Map<Long, Positions> index, long accountId) {
+        return index.computeIfAbsent(accountId, id -> new Positions());
+    }
+
+    /**
+     * Adds record to statistics of its accounts or removes it with sign -1.
+     * Removed record can lower date of the latest payment, so caller
+     * refreshes it.
+     */
+    private void addToStatistics(Record record, int sign) {
+        Statistics out = statisticsOf(record.fromAccount);
+        out.totalOut = Math.addExact(out.totalOut, sign * record.amount);
+        out.countOut += sign;
+        out.lastDay = Math.max(out.lastDay, record.epochDay);
+
+        Statistics in = statisticsOf(record.toAccount);
+        in.totalIn = Math.addExact(in.totalIn, sign * record.amount);
+        in.countIn += sign;
+        in.lastDay = Math.max(in.lastDay, record.epochDay);
+    }
+
+    private Statistics statisticsOf(long accountId) {
+        return statistics.computeIfAbsent(accountId, id -> {
+            Statistics created = new Statistics();
+            created.lastDay = Integer.MIN_VALUE;
+            return created;
+        });
+    }
+
+    /**
+     * Recomputes date of the latest payment of account from its indexed records
+     */
+    private void refreshLastDay(long accountId) {
+        int last = Integer.MIN_VALUE;
+
+        for(Map<Long, Positions> index : Arrays.asList(positionsFrom, positionsTo)) {
+            Positions positions = positionsOf(index, accountId);
+
+            for(int i = 0; i < positions.size; i++) {
+                last = Math.max(last, segmentOf(positions.values[i]).getInt(offsetOf(positions.values[i]) + DATE));
+            }
+        }
+
+        statisticsOf(accountId).lastDay = last;
+    }
+
+    private void checkOpen() {
+        if(closed) {
+            throw new ServiceFailureException("Payment log in " + directory + " is closed");
+        }
+    }
+}
@@ -1,7 +1,8 @@
 package cz.muni.fi.pv168.transactionmanager;
 
-import java.sql.SQLException;
+import java.util.Collection;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Interface Payment Manager
@@ -15,13 +16,28 @@ public interface PaymentManager {
      * id attribute.
      * @param payment represents payment to be created
      * @throws IllegalArgumentException when payment id null or payment has already assigned id.
+     * @throws cz.muni.fi.pv168.utils.InsufficientFundsException when manager checks funds 
+     * and from account has not enough money for payment.
      */
     void createPayment(Payment payment);
     
+    /**
+     * Stores more payments into the database at once. Payments are validated 
+     * in the same way as in createPayment. Invalid or refused payments do not 
+     * abort the whole batch, they are reported in the result.
+     * @param payments represents payments to be created
+     * @return result with ids of created payments in order of given payments 
+     * and failures of payments which were not created
+     * @throws IllegalArgumentException when collection of payments is null.
+     */
+    PaymentBatchResult createPayments(Collection<Payment> payments);
+    
     /**
      * Update payment in the database.
      * @param payment updated payment to be stored into the database.
      * @throws IllegalArgumentException when some attribute is invalid
+     * @throws cz.muni.fi.pv168.utils.OptimisticLockException when payment was 
+     * changed in the database since it was read.
      */
     void updatePayment(Payment payment);
     
@@ -46,6 +62,51 @@ public interface PaymentManager {
      */
     List<Payment> getAllPayments();
     
+    /**
+     * Passes all payments in the database to consumer one by one, without 
+     * loading all of them into memory.
+     * @param consumer represents consumer of payments
+     * @throws IllegalArgumentException when consumer is null.
+     */
+    void forEachPayment(Consumer<? super Payment> consumer);
+    
+    /**
+     * Return page of payments ordered by id, which have id greater than afterId.
+     * Next page is requested with id of last payment of previous page.
+     * @param afterId represents id of last payment of previous page or null for first page
+     * @param limit represents maximal count of returned payments
+     * @return list of at most limit payments ordered by id
+     * @throws IllegalArgumentException when limit is not positive.
+     */
+    List<Payment> getPaymentsAfter(Long afterId, int limit);
+    
+    /**
+     * Return payments which match all criteria of query. Query is evaluated
+     * by database in one statement, including ordering and paging.
+     * @param query represents criteria of searched payments
+     * @return list of payments matching query in order given by query
+     * @throws IllegalArgumentException when query is null or invalid.
+     */
+    List<Payment> findPayments(PaymentQuery query);
+    
+    /**
+     * Passes payments which match all criteria of query to consumer one by one,
+     * without loading all of them into memory.
+     * @param query represents criteria of searched payments
+     * @param consumer represents consumer of payments
+     * @throws IllegalArgumentException when query is null or invalid or consumer is null.
+     */
+    void forEachPayment(PaymentQuery query, Consumer<? super Payment> consumer);
+    
+    /**
+     * Return turnover of account maintained together with its payments,
+     * so no payments of account are loaded.
+     * @param account represents account whose statistics are returned
+     * @return statistics of account or null when account does not exist
+     * @throws IllegalArgumentException when account or its id is null.
+     */
+    AccountStatistics getAccountStatistics(Account account);
+    
     /**
      * Return list of payments where from account is equal to parameter account
      * @param account represents FROM account of searched payments 
@@ -53,10 +114,28 @@ public interface PaymentManager {
      */
     List<Payment> getPaymentsFromAccount(Account account);
     
+    /**
+     * Passes payments where from account is equal to parameter account to 
+     * consumer one by one, without loading all of them into memory.
+     * @param account represents FROM account of searched payments 
+     * @param consumer represents consumer of payments
+     * @throws IllegalArgumentException when account or consumer is null.
+     */
+    void forEachPaymentFromAccount(Account account, Consumer<? super Payment> consumer);
+    
     /**
      * Return list of payments where TO account is equal to parameter account
      * @param account represents TO account of searched payments 
      * @return list of payments where TO account is equal to parameter account
      */
     List<Payment> getPaymentsToAcoount(Account account);
+    
+    /**
+     * Passes payments where TO account is equal to parameter account to 
+     * consumer one by one, without loading all of them into memory.
+     * @param account represents TO account of searched payments 
+     * @param consumer represents consumer of payments
+     * @throws IllegalArgumentException when account or consumer is null.
+     */
+    void forEachPaymentToAccount(Account account, Consumer<? super Payment> consumer);
 }
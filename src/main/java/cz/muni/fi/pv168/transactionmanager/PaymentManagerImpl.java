@@ -1,13 +1,26 @@
 package cz.muni.fi.pv168.transactionmanager;
 
 import cz.muni.fi.pv168.utils.AccountHelper;
+import cz.muni.fi.pv168.utils.AccountLockManager;
+import cz.muni.fi.pv168.utils.AccountLockManager.LockedAccounts;
 import cz.muni.fi.pv168.utils.EntityNotFoundException;
+import cz.muni.fi.pv168.utils.InsufficientFundsException;
+import cz.muni.fi.pv168.utils.MetricsRegistry;
+import cz.muni.fi.pv168.utils.Money;
+import cz.muni.fi.pv168.utils.OperationMetrics;
+import cz.muni.fi.pv168.utils.OptimisticLockException;
+import cz.muni.fi.pv168.utils.PaymentHelper;
 import cz.muni.fi.pv168.utils.ServiceFailureException;
+import cz.muni.fi.pv168.utils.TransferHelper;
 import java.sql.*;
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.sql.DataSource;
@@ -20,14 +33,152 @@ import javax.sql.DataSource;
 public class PaymentManagerImpl implements PaymentManager {
 
     private static final Logger logger = Logger.getLogger(PaymentManagerImpl.class.getName());
+    
+    /**
+     * Loads payment together with its from and to account in one query, 
+     * so no additional lookup of accounts is needed for each row.
+     */
+    private static final String SELECT_PAYMENT_WITH_ACCOUNTS = 
+            "SELECT p.id, p.amount, p.date, p.version, "
+            + "f.id AS fromId, f.number AS fromNumber, f.holder AS fromHolder, f.balance AS fromBalance, f.version AS fromVersion, "
+            + "t.id AS toId, t.number AS toNumber, t.holder AS toHolder, t.balance AS toBalance, t.version AS toVersion "
+            + "FROM payment p "
+            + "JOIN account f ON p.fromAccount = f.id "
+            + "JOIN account t ON p.toAccount = t.id";
+    
+    private static final String UPDATE_PAYMENT = 
+            "UPDATE payment SET amount = ?, date = ?, version = version + 1 WHERE id = ? AND version = ?";
+    private static final String DELETE_PAYMENT = 
+            "DELETE FROM payment WHERE id = ? AND version = ?";
+    private static final String INSERT_PAYMENT = 
+            "INSERT INTO payment (fromAccount,toAccount,amount,date) VALUES (?,?,?,?)";
+    
+    /**
+     * Statistics of accounts are changed relatively in the same transaction 
+     * as payments. Date of the latest payment is only moved forward, null 
+     * date leaves it unchanged.
+     */
+    private static final String ADD_TO_STATS_OUT = 
+            "UPDATE account_stats SET totalOut = totalOut + ?, countOut = countOut + ?, "
+            + "lastPaymentDate = CASE WHEN lastPaymentDate IS NULL OR lastPaymentDate < CAST(? AS DATE) "
+            + "THEN CAST(? AS DATE) ELSE lastPaymentDate END WHERE accountId = ?";
+    private static final String ADD_TO_STATS_IN = 
+            "UPDATE account_stats SET totalIn = totalIn + ?, countIn = countIn + ?, "
+            + "lastPaymentDate = CASE WHEN lastPaymentDate IS NULL OR lastPaymentDate < CAST(? AS DATE) "
+            + "THEN CAST(? AS DATE) ELSE lastPaymentDate END WHERE accountId = ?";
+    
+    /**
+     * Date of the latest payment is recomputed by two lookups, which use 
+     * indexes payment_from_date and payment_to_date.
+     */
+    private static final String SET_LAST_DATE_FROM_OUT = 
+            "UPDATE account_stats SET lastPaymentDate = "
+            + "(SELECT MAX(date) FROM payment WHERE fromAccount = ?) WHERE accountId = ?";
+    private static final String SET_LAST_DATE_FROM_IN = 
+            "UPDATE account_stats SET lastPaymentDate = CASE WHEN lastPaymentDate IS NULL "
+            + "OR lastPaymentDate < (SELECT MAX(date) FROM payment WHERE toAccount = ?) "
+            + "THEN (SELECT MAX(date) FROM payment WHERE toAccount = ?) ELSE lastPaymentDate END "
+            + "WHERE accountId = ?";
+    
+    private static final String[] REBUILD_STATS = {
+        "LOCK TABLE payment IN SHARE MODE",
+        "DELETE FROM account_stats",
+        "INSERT INTO account_stats (accountId) SELECT id FROM account",
+        "UPDATE account_stats s SET "
+            + "totalOut = (SELECT COALESCE(SUM(amount), 0) FROM payment WHERE fromAccount = s.accountId), "
+            + "countOut = (SELECT COUNT(*) FROM payment WHERE fromAccount = s.accountId), "
+            + "lastPaymentDate = (SELECT MAX(date) FROM payment WHERE fromAccount = s.accountId)",
+        "UPDATE account_stats s SET "
+            + "totalIn = (SELECT COALESCE(SUM(amount), 0) FROM payment WHERE toAccount = s.accountId), "
+            + "countIn = (SELECT COUNT(*) FROM payment WHERE toAccount = s.accountId), "
+            + "lastPaymentDate = CASE WHEN lastPaymentDate IS NULL "
+            + "OR lastPaymentDate < (SELECT MAX(date) FROM payment WHERE toAccount = s.accountId) "
+            + "THEN (SELECT MAX(date) FROM payment WHERE toAccount = s.accountId) ELSE lastPaymentDate END"
+    };
+    
+    private static final int STREAM_FETCH_SIZE = 100;
+    
+    private static final MetricsRegistry METRICS = MetricsRegistry.getDefault();
+    private static final OperationMetrics SQL_INSERT_PAYMENT = METRICS.operation("sql.payment.insert");
+    private static final OperationMetrics SQL_UPDATE_PAYMENT = METRICS.operation("sql.payment.update");
+    private static final OperationMetrics SQL_DELETE_PAYMENT = METRICS.operation("sql.payment.delete");
+    private static final OperationMetrics SQL_SELECT_PAYMENT = METRICS.operation("sql.payment.selectById");
+    private static final OperationMetrics SQL_STREAM_PAYMENTS = METRICS.operation("sql.payment.stream");
+    private static final OperationMetrics SQL_STATS_UPDATE = METRICS.operation("sql.accountStats.update");
+    private static final OperationMetrics SQL_STATS_UPDATE_BATCH = METRICS.operation("sql.accountStats.updateBatch");
+    private static final OperationMetrics SQL_STATS_LAST_DATE = METRICS.operation("sql.accountStats.lastDate");
+    private static final OperationMetrics SQL_STATS_SELECT = METRICS.operation("sql.accountStats.select");
+    private static final OperationMetrics SQL_STATS_REBUILD = METRICS.operation("sql.accountStats.rebuild");
+    
+    /**
+     * Default count of payments committed in one transaction by createPayments
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+    
     private final DataSource dataSource;
     private final AccountHelper accountHelper;
+    private final PaymentHelper paymentHelper = new PaymentHelper();
+    private final TransferHelper transferHelper;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private AccountLockManager lockManager;
+    private final BalanceChangeSupport balanceChangeSupport = new BalanceChangeSupport();
     
     public PaymentManagerImpl(DataSource dataSource) {
+        this(dataSource, false);
+    }
+    
+    /**
+     * Creates payment manager
+     * @param dataSource represents datasource of database
+     * @param checkFunds true if payments which would lower balance of from 
+     * account under zero should be refused with InsufficientFundsException
+     */
+    public PaymentManagerImpl(DataSource dataSource, boolean checkFunds) {
         this.dataSource = dataSource;
+        transferHelper = new TransferHelper(checkFunds);
         accountHelper = new AccountHelper();
     }
     
+    /**
+     * Sets count of payments which are created in one transaction by createPayments
+     * @param chunkSize represents count of payments in one transaction
+     * @throws IllegalArgumentException when chunkSize is not positive
+     */
+    public void setChunkSize(int chunkSize) {
+        if(chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
+        
+        this.chunkSize = chunkSize;
+    }
+    
+    /**
+     * Sets lock manager which locks accounts of payment before its transaction 
+     * starts, so conflicting payments wait in application instead of waiting 
+     * for row locks of database and aborting on deadlock.
+     * @param lockManager represents lock manager or null when accounts should not be locked
+     */
+    public void setLockManager(AccountLockManager lockManager) {
+        this.lockManager = lockManager;
+    }
+    
+    /**
+     * Registers listener which is notified about accounts whose balance 
+     * was changed by committed payment
+     * @param listener represents listener, e.g. cache of accounts
+     */
+    public void addBalanceChangeListener(BalanceChangeListener listener) {
+        balanceChangeSupport.add(listener);
+    }
+    
+    public void removeBalanceChangeListener(BalanceChangeListener listener) {
+        balanceChangeSupport.remove(listener);
+    }
+    
+    private LockedAccounts lockAccounts(Collection<Long> accountIds) {
+        return lockManager == null ? null : lockManager.lock(accountIds);
+    }
+    
     @Override
     public void createPayment(Payment payment) {
         logger.log(Level.INFO, "Creating new payment");
@@ -37,67 +188,148 @@ public class PaymentManagerImpl implements PaymentManager {
             throw new IllegalArgumentException("Payment ID is already set");
         }
                 
-        try ( Connection connection = dataSource.getConnection();
-              PreparedStatement updateFromAcc = connection.prepareStatement("UPDATE account SET balance = ? WHERE id = ?");
-              PreparedStatement updateToAcc = connection.prepareStatement("UPDATE account SET balance = ? WHERE id = ?");
-              PreparedStatement st = connection.prepareStatement("INSERT INTO payment (fromAccount,toAccount,amount,date) VALUES (?,?,?,?)",
-              Statement.RETURN_GENERATED_KEYS)) {
-                       
-            changeAmountOfFromAccount(updateFromAcc, payment, null);
-            changeAmountOfToAccount(updateToAcc, payment, null);
-                   
-            st.setLong(1,payment.getFrom().getId());
-            st.setLong(2,payment.getTo().getId());
-            st.setBigDecimal(3,payment.getAmount());
-            st.setDate(4,Date.valueOf(payment.getDate()));
+        try (LockedAccounts locked = lockAccounts(Arrays.asList(payment.getFrom().getId(), payment.getTo().getId()));
+             Connection connection = dataSource.getConnection()) {
             
-            int added = st.executeUpdate();
+            connection.setAutoCommit(false);
             
-            if(added != 1) {
-                throw new ServiceFailureException("Internal Error: More rows ("
-                        + added + ") inserted when trying to insert payment " + payment);
+            try {
+                transferHelper.transfer(connection, payment.getFrom(), payment.getTo(), payment.getAmount());
+                Long id = insertPayment(connection, payment);
+                addToStatistics(connection, payment, payment.getAmount(), 1, payment.getDate());
+                
+                connection.commit();
+                payment.setId(id);
+            } catch (SQLException | RuntimeException ex) {
+                connection.rollback();
+                throw ex;
+            } finally {
+                connection.setAutoCommit(true);
             }
-            
-            ResultSet keyRS = st.getGeneratedKeys();
-            payment.setId(getKey(keyRS, payment));
         } catch(SQLException ex) {
             logger.log(Level.SEVERE, "Error while creating new payment", ex);
-            throw new ServiceFailureException("Error when inserting payment " + payment + ex.getLocalizedMessage());
+            throw new ServiceFailureException("Error when inserting payment " + payment, ex);
         }
+        
+        balanceChangeSupport.fire(Arrays.asList(payment.getFrom().getId(), payment.getTo().getId()));
     }
     
-    private void validate(Payment payment) throws IllegalArgumentException {
-        logger.log(Level.INFO, "Validation of payment{0}", payment);
-        
-        if(payment == null) {
-            throw new IllegalArgumentException("Payment is null");
+    private Long insertPayment(Connection connection, Payment payment) throws SQLException {
+        try (PreparedStatement st = connection.prepareStatement(INSERT_PAYMENT, Statement.RETURN_GENERATED_KEYS)) {
+            return insertPayment(st, payment);
         }
-        
-        if(payment.getFrom() == null) {
-            throw new IllegalArgumentException("Null fromAccount of payment");
-        }
-        
-        if(payment.getTo() == null) {
-            throw new IllegalArgumentException("Null toAccount of payment");
+    }
+    
+    private Long insertPayment(PreparedStatement st, Payment payment) throws SQLException {
+        st.setLong(1,payment.getFrom().getId());
+        st.setLong(2,payment.getTo().getId());
+        st.setBigDecimal(3,payment.getAmount());
+        st.setDate(4,Date.valueOf(payment.getDate()));
+
+        int added = SQL_INSERT_PAYMENT.executeUpdate(st);
+
+        if(added != 1) {
+            throw new ServiceFailureException("Internal Error: More rows ("
+                    + added + ") inserted when trying to insert payment " + payment);
         }
+
+        ResultSet keyRS = st.getGeneratedKeys();
+        return getKey(keyRS, payment);
+    }
+    
+    @Override
+    public PaymentBatchResult createPayments(Collection<Payment> payments) {
+        return paymentHelper.createInChunks(payments, chunkSize, this::createChunkOfPayments, this::createPayment);
+    }
+    
+    /**
+     * Creates chunk of valid payments in one transaction. Balance changes are 
+     * sent to database in JDBC batches, payments are inserted by one prepared 
+     * statement because Derby does not return generated keys of batch.
+     * @return failures of payments or null when chunk failed as a whole
+     */
+    private RuntimeException[] createChunkOfPayments(List<Payment> chunk) {
+        RuntimeException[] failures = new RuntimeException[chunk.size()];
+        Long[] ids = new Long[chunk.size()];
+        List<Long> accountIds = new ArrayList<>();
         
-        if(payment.getDate() == null) {
-            throw new IllegalArgumentException("Null date of payment");
+        for(Payment payment : chunk) {
+            accountIds.add(payment.getFrom().getId());
+            accountIds.add(payment.getTo().getId());
         }
         
-        if(payment.getAmount().compareTo(BigDecimal.ZERO) <= 0) {
-            throw new IllegalArgumentException("Negative or zero amount of payment");
+        try (LockedAccounts locked = lockAccounts(accountIds);
+             Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            
+            try {
+                transferHelper.transferChunk(connection, chunk, failures);
+                
+                try (PreparedStatement st = connection.prepareStatement(INSERT_PAYMENT, Statement.RETURN_GENERATED_KEYS)) {
+                    for(int i = 0; i < chunk.size(); i++) {
+                        if(failures[i] == null) {
+                            ids[i] = insertPayment(st, chunk.get(i));
+                        }
+                    }
+                }
+                
+                addChunkToStatistics(connection, chunk, failures);
+                
+                connection.commit();
+            } catch (SQLException | RuntimeException ex) {
+                connection.rollback();
+                throw ex;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException | RuntimeException ex) {
+            logger.log(Level.WARNING, "Chunk of payments failed, creating payments one by one", ex);
+            return null;
         }
         
-        if(payment.getFrom().equals(payment.getTo())) {
-            throw new IllegalArgumentException("Payment with same From and To account");
+        for(int i = 0; i < chunk.size(); i++) {
+            if(failures[i] == null) {
+                chunk.get(i).setId(ids[i]);
+            }
         }
         
-        if(payment.getDate().isBefore(LocalDate.now())) {
-            throw new IllegalArgumentException("Date of payment from past");
+        balanceChangeSupport.fire(new LinkedHashSet<>(accountIds));
+        return failures;
+    }
+    
+    /**
+     * Adds created payments of chunk to statistics of their accounts by two 
+     * JDBC batches.
+     */
+    private static void addChunkToStatistics(Connection connection, List<Payment> chunk, 
+                                             RuntimeException[] failures) throws SQLException {
+        try (PreparedStatement out = connection.prepareStatement(ADD_TO_STATS_OUT);
+             PreparedStatement in = connection.prepareStatement(ADD_TO_STATS_IN)) {
+            boolean added = false;
+            
+            for(int i = 0; i < chunk.size(); i++) {
+                if(failures[i] == null) {
+                    Payment payment = chunk.get(i);
+                    setStatisticsChange(out, payment.getFrom().getId(), payment.getAmount(), 1, payment.getDate());
+                    out.addBatch();
+                    setStatisticsChange(in, payment.getTo().getId(), payment.getAmount(), 1, payment.getDate());
+                    in.addBatch();
+                    added = true;
+                }
+            }
+            
+            if(added) {
+                SQL_STATS_UPDATE_BATCH.executeBatch(out);
+                SQL_STATS_UPDATE_BATCH.executeBatch(in);
+            }
         }
     }
     
+    private void validate(Payment payment) throws IllegalArgumentException {
+        logger.log(Level.INFO, "Validation of payment{0}", payment);
+        paymentHelper.validate(payment);
+    }
+    
     private Long getKey(ResultSet keyRS, Payment payment) throws ServiceFailureException, SQLException {
         logger.log(Level.INFO, "Setting key of new payment");
         if (keyRS.next()) {
@@ -132,31 +364,55 @@ public class PaymentManagerImpl implements PaymentManager {
             throw new IllegalArgumentException("Null id of payment to update");
         }
         
-        Payment paymentBeforeUpdate = getPaymentByID(payment.getId());
-
+        boolean balancesChanged = false;
         
-        try(Connection connection = dataSource.getConnection()) {
+        try(LockedAccounts locked = lockAccounts(Arrays.asList(payment.getFrom().getId(), payment.getTo().getId()));
+            Connection connection = dataSource.getConnection()) {
                  
             connection.setAutoCommit(false);
 
             try {
-                if((payment.getFrom().equals(paymentBeforeUpdate.getFrom()) && payment.getTo().equals(paymentBeforeUpdate.getTo()))) {
+                Payment paymentBeforeUpdate = loadPayment(connection, payment.getId());
                 
-                    try(PreparedStatement st = connection.prepareStatement("UPDATE payment SET amount = ?, date = ? WHERE id = ?")) {
-                        executeUpdateOfPayment(st, payment);
-                    }
-
-                    try(PreparedStatement st = connection.prepareStatement("UPDATE account SET balance = ? WHERE id = ?")) {
-                        changeAmountOfFromAccount(st, payment, paymentBeforeUpdate);
-                    }
+                if(paymentBeforeUpdate == null) {
+                    throw new EntityNotFoundException("No payment " + payment + " in database");
+                }
+                
+                if(paymentBeforeUpdate.getVersion() != payment.getVersion()) {
+                    throw new OptimisticLockException("Payment " + payment + " was changed since it was read, "
+                            + "current state is " + paymentBeforeUpdate, paymentBeforeUpdate);
+                }
+                
+                if(!payment.getFrom().getId().equals(paymentBeforeUpdate.getFrom().getId()) 
+                        || !payment.getTo().getId().equals(paymentBeforeUpdate.getTo().getId())) {
+                    throw new IllegalArgumentException("Accounts of payment " + payment 
+                            + " cannot be changed, stored payment is " + paymentBeforeUpdate);
+                }
+                
+                try(PreparedStatement st = connection.prepareStatement(UPDATE_PAYMENT)) {
+                    executeUpdateOfPayment(st, payment, paymentBeforeUpdate);
+                }
 
-                    try(PreparedStatement st = connection.prepareStatement("UPDATE account SET balance = ? WHERE id = ?")) {
-                        changeAmountOfToAccount(st, payment, paymentBeforeUpdate);
-                    }
+                BigDecimal difference = Money.of(payment.getAmount())
+                        .subtract(Money.of(paymentBeforeUpdate.getAmount())).toBigDecimal();
+                transferHelper.transfer(connection, payment.getFrom(), payment.getTo(), difference);
+                addToStatistics(connection, payment, difference, 0, null);
                 
+                if(!payment.getDate().equals(paymentBeforeUpdate.getDate())) {
+                    refreshLastPaymentDate(connection, payment.getFrom().getId());
+                    refreshLastPaymentDate(connection, payment.getTo().getId());
                 }
                 
-                connection.commit();                
+                connection.commit();
+                payment.setVersion(paymentBeforeUpdate.getVersion() + 1);
+                balancesChanged = true;
+            } catch (OptimisticLockException ex) {
+                connection.rollback();
+                logger.log(Level.WARNING, "Conflict while updating payment " + payment, ex);
+                throw ex;
+            } catch (IllegalArgumentException | InsufficientFundsException ex) {
+                connection.rollback();
+                throw ex;
             } catch (Exception ex) {
                 connection.rollback();
                 logger.log(Level.SEVERE, "Error while updating payment " + payment , ex);
@@ -167,18 +423,25 @@ public class PaymentManagerImpl implements PaymentManager {
             logger.log(Level.SEVERE, "Connection error while updating payment " + payment, ex);
             throw new ServiceFailureException("Error while updating payment " + payment, ex);
         }
+        
+        if(balancesChanged) {
+            balanceChangeSupport.fire(Arrays.asList(payment.getFrom().getId(), payment.getTo().getId()));
+        }
     }
     
-    private static void executeUpdateOfPayment(PreparedStatement st, Payment payment) throws SQLException {
+    private static void executeUpdateOfPayment(PreparedStatement st, Payment payment, 
+                                               Payment paymentBeforeUpdate) throws SQLException {
         logger.log(Level.INFO, "Executing update of payment{0}", payment);
         st.setBigDecimal(1, payment.getAmount());
         st.setDate(2, Date.valueOf(payment.getDate()));
         st.setLong(3, payment.getId());
+        st.setLong(4, payment.getVersion());
             
-        int updated = st.executeUpdate();
+        int updated = SQL_UPDATE_PAYMENT.executeUpdate(st);
             
         if(updated == 0) {
-            throw new EntityNotFoundException("No payment " + payment + " in database");
+            throw new OptimisticLockException("Payment " + payment + " was changed since it was read", 
+                    paymentBeforeUpdate);
         } 
             
         if(updated != 1) {
@@ -187,53 +450,62 @@ public class PaymentManagerImpl implements PaymentManager {
         }
     }
     
-    private static void changeAmountOfFromAccount(PreparedStatement updateFromAccSt, Payment payment, Payment paymentBeforeUpdate) throws SQLException {
-        logger.log(Level.INFO, "Changing amount of from account of payment{0}", payment);
-        
-        if(paymentBeforeUpdate != null) {
-            BigDecimal help = paymentBeforeUpdate.getFrom().getBalance().add(paymentBeforeUpdate.getAmount());
-            updateFromAccSt.setBigDecimal(1, help.subtract(payment.getAmount()));
+    /**
+     * Changes statistics of from and to account of payment. Rows of statistics 
+     * are updated in ascending order of account ids like rows of accounts 
+     * in transfer.
+     */
+    private static void addToStatistics(Connection connection, Payment payment, BigDecimal amount, 
+                                        int count, LocalDate date) throws SQLException {
+        if(payment.getFrom().getId() < payment.getTo().getId()) {
+            addToStatistics(connection, ADD_TO_STATS_OUT, payment.getFrom().getId(), amount, count, date);
+            addToStatistics(connection, ADD_TO_STATS_IN, payment.getTo().getId(), amount, count, date);
         } else {
-            updateFromAccSt.setBigDecimal(1, payment.getFrom().getBalance().subtract(payment.getAmount()));
+            addToStatistics(connection, ADD_TO_STATS_IN, payment.getTo().getId(), amount, count, date);
+            addToStatistics(connection, ADD_TO_STATS_OUT, payment.getFrom().getId(), amount, count, date);
+        }
+    }
+    
+    private static void addToStatistics(Connection connection, String sql, Long accountId, 
+                                        BigDecimal amount, int count, LocalDate date) throws SQLException {
+        int updated;
+        
+        try(PreparedStatement st = connection.prepareStatement(sql)) {
+            setStatisticsChange(st, accountId, amount, count, date);
+            updated = SQL_STATS_UPDATE.executeUpdate(st);
         }
         
-        updateFromAccSt.setLong(2, payment.getFrom().getId());
-        int updated = updateFromAccSt.executeUpdate();
-         
-        if(updated == 0) {
-            throw new EntityNotFoundException("No account " + payment.getFrom() + " in database");
-        } 
-            
         if(updated != 1) {
-            throw new ServiceFailureException("Invalid updated rows count detected "
-                                        + "(one row should be updated): " + updated);
+            throw new ServiceFailureException("Invalid updated rows count of statistics of account " 
+                                              + accountId + " (one row should be updated): " + updated);
         }
     }
     
-    private static void changeAmountOfToAccount(PreparedStatement updateToAccSt, Payment payment, Payment paymentBeforeUpdate) throws SQLException {
-        logger.log(Level.INFO, "Changing amount of to account of payment{0}", payment);
-
-        if(paymentBeforeUpdate != null) {
-            BigDecimal help = paymentBeforeUpdate.getTo().getBalance().subtract(paymentBeforeUpdate.getAmount());
-            updateToAccSt.setBigDecimal(1, help.add(payment.getAmount()));
-        } else {
-            updateToAccSt.setBigDecimal(1, payment.getTo().getBalance().add(payment.getAmount()));
-        }
-        
-        updateToAccSt.setLong(2, payment.getTo().getId());
-            
-        int updated = updateToAccSt.executeUpdate();
+    private static void setStatisticsChange(PreparedStatement st, Long accountId, BigDecimal amount, 
+                                            int count, LocalDate date) throws SQLException {
+        Date sqlDate = date == null ? null : Date.valueOf(date);
         
-        if(updated == 0) {
-            throw new EntityNotFoundException("No account " + payment.getTo() + " in database");
-        } 
+        st.setBigDecimal(1, amount);
+        st.setInt(2, count);
+        st.setDate(3, sqlDate);
+        st.setDate(4, sqlDate);
+        st.setLong(5, accountId);
+    }
+    
+    private static void refreshLastPaymentDate(Connection connection, Long accountId) throws SQLException {
+        try(PreparedStatement out = connection.prepareStatement(SET_LAST_DATE_FROM_OUT);
+            PreparedStatement in = connection.prepareStatement(SET_LAST_DATE_FROM_IN)) {
+            out.setLong(1, accountId);
+            out.setLong(2, accountId);
+            SQL_STATS_LAST_DATE.executeUpdate(out);
             
-        if(updated != 1) {
-            throw new ServiceFailureException("Invalid updated rows count detected "
-                                        + "(one row should be updated): " + updated);
+            in.setLong(1, accountId);
+            in.setLong(2, accountId);
+            in.setLong(3, accountId);
+            SQL_STATS_LAST_DATE.executeUpdate(in);
         }
     }
-
+    
     @Override
     public void deletePayment(Payment payment) {
         logger.log(Level.INFO, "Deleting payment{0}", payment);
@@ -244,26 +516,118 @@ public class PaymentManagerImpl implements PaymentManager {
             throw new IllegalArgumentException("Null id of payment for deleting");
         }
         
-        try( Connection connection = dataSource.getConnection();
-             PreparedStatement st = connection.prepareStatement("DELETE FROM payment WHERE id = ?")) {
+        try( Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
             
-            st.setLong(1,payment.getId());
+            try {
+                Payment stored = loadPayment(connection, payment.getId());
+                
+                if(stored == null) {
+                    throw new EntityNotFoundException(payment + " was not find in database");
+                }
+                
+                try(PreparedStatement st = connection.prepareStatement(DELETE_PAYMENT)) {
+                    st.setLong(1, payment.getId());
+                    st.setLong(2, stored.getVersion());
+                    
+                    int removed = SQL_DELETE_PAYMENT.executeUpdate(st);
+                    
+                    if(removed == 0) {
+                        Payment current = loadPayment(connection, payment.getId());
+                        
+                        if(current == null) {
+                            throw new EntityNotFoundException(payment + " was not find in database");
+                        }
+                        
+                        throw new OptimisticLockException("Payment " + payment + " was changed while it was deleted, "
+                                + "current state is " + current, current);
+                    }
+                    
+                    if(removed != 1) {
+                        throw new ServiceFailureException("Invalid deleted rows count detected: " + removed);
+                    }
+                }
+                
+                addToStatistics(connection, stored, stored.getAmount().negate(), -1, null);
+                refreshLastPaymentDate(connection, stored.getFrom().getId());
+                refreshLastPaymentDate(connection, stored.getTo().getId());
+                
+                connection.commit();
+            } catch (SQLException | RuntimeException ex) {
+                connection.rollback();
+                throw ex;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException ex) {
+            logger.log(Level.SEVERE, "Error while deleting payment", ex);
+            throw new ServiceFailureException("Error while deleting payment " + payment,ex);
+        }
+    }       
+
+    @Override
+    public AccountStatistics getAccountStatistics(Account account) {
+        logger.log(Level.INFO, "Getting statistics of account {0}", account);
+        
+        if(account == null || account.getId() == null) {
+            throw new IllegalArgumentException("Null account or id of account in getAccountStatistics");
+        }
+        
+        try( Connection connection = dataSource.getConnection();
+             PreparedStatement st = connection.prepareStatement(
+                "SELECT totalIn, totalOut, countIn, countOut, lastPaymentDate FROM account_stats WHERE accountId = ?")) {
             
-            int removed = st.executeUpdate();
+            st.setLong(1, account.getId());
             
-            if(removed == 0) {
-                throw new EntityNotFoundException(payment + " was not find in database");
+            try(ResultSet rs = SQL_STATS_SELECT.executeQuery(st)) {
+                if(!rs.next()) {
+                    return null;
+                }
+                
+                Date lastPaymentDate = rs.getDate("lastPaymentDate");
+                
+                return new AccountStatistics(account.getId(), rs.getBigDecimal("totalIn"), 
+                        rs.getBigDecimal("totalOut"), rs.getLong("countIn"), rs.getLong("countOut"),
+                        lastPaymentDate == null ? null : lastPaymentDate.toLocalDate());
             }
+        } catch (SQLException ex) {
+            logger.log(Level.SEVERE, "Error while getting statistics of account " + account, ex);
+            throw new ServiceFailureException("Error while getting statistics of account " + account, ex);
+        }
+    }
+    
+    /**
+     * Recomputes statistics of all accounts from history of payments in one 
+     * transaction. Payment table is locked in share mode, so payments created 
+     * concurrently wait until statistics are rebuilt.
+     */
+    public void rebuildAccountStatistics() {
+        logger.log(Level.INFO, "Rebuilding statistics of accounts");
+        
+        try( Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
             
-            if(removed != 1) {
-                throw new ServiceFailureException("Invalid deleted rows count detected: " + removed);
+            try(Statement st = connection.createStatement()) {
+                long start = System.nanoTime();
+                
+                for(String sql : REBUILD_STATS) {
+                    st.executeUpdate(sql);
+                }
+                
+                connection.commit();
+                SQL_STATS_REBUILD.record(start);
+            } catch (SQLException | RuntimeException ex) {
+                connection.rollback();
+                throw ex;
+            } finally {
+                connection.setAutoCommit(true);
             }
         } catch (SQLException ex) {
-            logger.log(Level.SEVERE, "Error while deleting payment", ex);
-            throw new ServiceFailureException("Error while deleting payment " + payment,ex);
+            logger.log(Level.SEVERE, "Error while rebuilding statistics of accounts", ex);
+            throw new ServiceFailureException("Error while rebuilding statistics of accounts", ex);
         }
-    }       
-    //Accounty v jednom SQL dotaze
+    }
+
     @Override
     public Payment getPaymentByID(Long id) {
         logger.log(Level.INFO, "Getting payment by ID:{0}", id);
@@ -272,36 +636,41 @@ public class PaymentManagerImpl implements PaymentManager {
             throw new IllegalArgumentException("Null id of payment in getPaymentByID");
         }
         
-        try( Connection connection = dataSource.getConnection();
-             PreparedStatement st = connection.prepareStatement(
-                "SELECT * FROM payment WHERE id = ?")) {
+        try( Connection connection = dataSource.getConnection()) {
+            return loadPayment(connection, id);
+        } catch (SQLException ex) {
+            logger.log(Level.SEVERE, "Error while getting payment with ID " + id, ex);
+            throw new ServiceFailureException("Error while getting payment with id " + id, ex);
+        }
+    }
+    
+    private Payment loadPayment(Connection connection, Long id) throws SQLException {
+        try( PreparedStatement st = connection.prepareStatement(
+                SELECT_PAYMENT_WITH_ACCOUNTS + " WHERE p.id = ?")) {
             
             st.setLong(1,id);
-            ResultSet rs = st.executeQuery();
+            ResultSet rs = SQL_SELECT_PAYMENT.executeQuery(st);
             
             if(rs.next()) {
-                Payment payment = resultSetToPayment(connection, rs);
+                Payment payment = resultSetToPayment(rs);
                 
                 if (rs.next()) {
                     throw new ServiceFailureException("Internal error: More entities with the same id found "
-                            + "(source id: " + id + ", found " + payment + " and " + resultSetToPayment(connection, rs));
+                            + "(source id: " + id + ", found " + payment + " and " + resultSetToPayment(rs));
                 }
                 
                 return payment;
             } else {
                 return null;
             }   
-        } catch (SQLException ex) {
-            logger.log(Level.SEVERE, "Error while getting payment with ID " + id, ex);
-            throw new ServiceFailureException("Error while getting payment with id " + id, ex);
         }
     }
     
-    private Payment resultSetToPayment(Connection connection, ResultSet rs) throws SQLException {
+    private Payment resultSetToPayment(ResultSet rs) throws SQLException {
         logger.log(Level.INFO, "Transforming ResultSet to payment");
         Payment payment = setAttributeOfPayment(rs);
-        payment.setFrom(loadAccountOfPayment(connection,rs.getLong("fromAccount")));
-        payment.setTo(loadAccountOfPayment(connection,rs.getLong("toAccount")));
+        payment.setFrom(accountHelper.resultSetToAccount(rs, "from"));
+        payment.setTo(accountHelper.resultSetToAccount(rs, "to"));
         
         return payment;
     }
@@ -313,56 +682,29 @@ public class PaymentManagerImpl implements PaymentManager {
         payment.setAmount(rs.getBigDecimal("amount"));
         payment.setId(rs.getLong("id"));
         payment.setDate(rs.getDate("date").toLocalDate());
+        payment.setVersion(rs.getLong("version"));
         
         return payment;
     }
-    
-    private Account loadAccountOfPayment(Connection connection, Long idOfAccount) {
-        logger.log(Level.INFO, "Loading account of payment from database");
 
-        if (idOfAccount == null) {
-            throw new IllegalArgumentException("Null id of account when retrieving account from database!");
-        }
+    @Override
+    public List<Payment> getAllPayments() {
+        List<Payment> toReturn = new ArrayList<>();
+        forEachPayment(toReturn::add);
         
-        try( PreparedStatement st = connection.prepareStatement
-             ("SELECT id, balance, holder, number FROM account WHERE id = ?")) {
-            
-            st.setLong(1, idOfAccount);
-            ResultSet rs = st.executeQuery();
-            
-            if(rs.next()) {
-                
-                Account account = accountHelper.resultSetToAccount(rs);
-       
-                if(rs.next()) {
-                    throw new IllegalArgumentException("Too much accounts with ID " + idOfAccount);
-                }
-                
-                return account;
-            } else {
-                throw new IllegalArgumentException("No account with ID " + idOfAccount);
-            }
-            
-        } catch (SQLException ex) {
-            logger.log(Level.SEVERE, "Error while loading account of payment with ID " + idOfAccount, ex);
-            throw new ServiceFailureException("Error while retrieving account with ID " + idOfAccount + ex);
-        }
+        return toReturn;
     }
-
+    
     @Override
-    public List<Payment> getAllPayments() {
+    public void forEachPayment(Consumer<? super Payment> consumer) {
         logger.log(Level.INFO, "Getting all payments from database");
+        
+        if(consumer == null) {
+            throw new IllegalArgumentException("Null consumer of payments");
+        }
 
-        try( Connection connection = dataSource.getConnection();
-             PreparedStatement st = connection.prepareStatement("SELECT * FROM payment")) {
-            List<Payment> toReturn = new ArrayList<>();
-            ResultSet rs = st.executeQuery();
-            
-            while(rs.next()) {
-                toReturn.add(resultSetToPayment(connection,rs));
-            }
-            
-            return toReturn;
+        try {
+            streamPayments(SELECT_PAYMENT_WITH_ACCOUNTS, consumer);
         } catch (SQLException ex) {
             logger.log(Level.SEVERE, "Error while getting all payments", ex);
             throw new ServiceFailureException("Error while getting all payments from database", ex);
@@ -371,6 +713,14 @@ public class PaymentManagerImpl implements PaymentManager {
 
     @Override
     public List<Payment> getPaymentsFromAccount(Account account) {
+        List<Payment> toReturn = new ArrayList<>();
+        forEachPaymentFromAccount(account, toReturn::add);
+        
+        return toReturn;
+    }
+    
+    @Override
+    public void forEachPaymentFromAccount(Account account, Consumer<? super Payment> consumer) {
         logger.log(Level.INFO, "Getting all payment with same from account");
         accountHelper.validate(account);
         
@@ -378,19 +728,12 @@ public class PaymentManagerImpl implements PaymentManager {
             throw new IllegalArgumentException("Null id of account in getPaymentsFromAccount");
         }
         
-        try( Connection connection = dataSource.getConnection();
-             PreparedStatement st = connection.prepareStatement(
-                "SELECT * FROM payment WHERE fromAccount = ?")) {
-            
-            st.setLong(1, account.getId());
-            List<Payment> toReturn = new ArrayList<>();
-            ResultSet rs = st.executeQuery();
-            
-            while(rs.next()) {
-                toReturn.add(resultSetToPayment(connection,rs));
-            }
-            
-            return toReturn;
+        if(consumer == null) {
+            throw new IllegalArgumentException("Null consumer of payments");
+        }
+        
+        try {
+            streamPayments(SELECT_PAYMENT_WITH_ACCOUNTS + " WHERE p.fromAccount = ?", consumer, account.getId());
         } catch(SQLException ex) {
             logger.log(Level.SEVERE, "Error while getting all payments from same account", ex);
             throw new ServiceFailureException("Error while getting all payment "
@@ -400,6 +743,14 @@ public class PaymentManagerImpl implements PaymentManager {
 
     @Override
     public List<Payment> getPaymentsToAcoount(Account account) {
+        List<Payment> toReturn = new ArrayList<>();
+        forEachPaymentToAccount(account, toReturn::add);
+        
+        return toReturn;
+    }
+    
+    @Override
+    public void forEachPaymentToAccount(Account account, Consumer<? super Payment> consumer) {
         logger.log(Level.INFO, "Getting all payment with same to account");
 
         accountHelper.validate(account);
@@ -408,24 +759,205 @@ public class PaymentManagerImpl implements PaymentManager {
             throw new IllegalArgumentException("Null id of account in getPaymentsToAccount");
         }
         
-        try( Connection connection = dataSource.getConnection();
-             PreparedStatement st = connection.prepareStatement(
-                "SELECT * FROM payment WHERE toAccount = ?")) {
+        if(consumer == null) {
+            throw new IllegalArgumentException("Null consumer of payments");
+        }
+        
+        try {
+            streamPayments(SELECT_PAYMENT_WITH_ACCOUNTS + " WHERE p.toAccount = ?", consumer, account.getId());
+        } catch (SQLException ex) {
+            logger.log(Level.SEVERE, "Error while getting all payment to same account", ex);
+            throw new ServiceFailureException("Error while getting all payment "
+                                              + "to account " + account,ex);
+        }
+    }
+    
+    @Override
+    public List<Payment> getPaymentsAfter(Long afterId, int limit) {
+        logger.log(Level.INFO, "Getting page of {0} payments after ID {1}", new Object[]{limit, afterId});
+        
+        if(limit < 1) {
+            throw new IllegalArgumentException("Limit of payments must be positive: " + limit);
+        }
+        
+        List<Payment> toReturn = new ArrayList<>();
+        
+        try {
+            streamPayments(SELECT_PAYMENT_WITH_ACCOUNTS + " WHERE p.id > ? ORDER BY p.id FETCH FIRST ? ROWS ONLY", 
+                    toReturn::add, afterId == null ? Long.MIN_VALUE : afterId, limit);
+        } catch (SQLException ex) {
+            logger.log(Level.SEVERE, "Error while getting page of payments after ID " + afterId, ex);
+            throw new ServiceFailureException("Error while getting payments after id " + afterId, ex);
+        }
+        
+        return toReturn;
+    }
+    
+    @Override
+    public List<Payment> findPayments(PaymentQuery query) {
+        List<Payment> toReturn = new ArrayList<>();
+        forEachPayment(query, toReturn::add);
+        
+        return toReturn;
+    }
+    
+    @Override
+    public void forEachPayment(PaymentQuery query, Consumer<? super Payment> consumer) {
+        logger.log(Level.INFO, "Searching payments by {0}", query);
+        
+        if(consumer == null) {
+            throw new IllegalArgumentException("Null consumer of payments");
+        }
+        
+        List<Object> parameters = new ArrayList<>();
+        String sql = queryToSql(query, parameters);
+        
+        try {
+            streamPayments(sql, consumer, parameters.toArray());
+        } catch (SQLException ex) {
+            logger.log(Level.SEVERE, "Error while searching payments by " + query, ex);
+            throw new ServiceFailureException("Error while searching payments by " + query, ex);
+        }
+    }
+    
+    /**
+     * Translates query into one parameterized select. Criteria are compared 
+     * directly with indexed columns, so account criteria use indexes 
+     * payment_from_date or payment_to_date and date range alone uses index 
+     * payment_date. Account on either side is searched as union of both 
+     * indexed lookups, because condition with OR makes Derby scan whole table. 
+     * Payment can not have the same from and to account, so union contains 
+     * no duplicates. Text of statement depends only on which criteria are set, 
+     * so it is reused from statement cache of connection pool.
+     */
+    private String queryToSql(PaymentQuery query, List<Object> parameters) {
+        if(query == null) {
+            throw new IllegalArgumentException("Null query of payments");
+        }
+        
+        query.validate();
+        
+        List<String> conditions = new ArrayList<>();
+        List<Object> conditionParameters = new ArrayList<>();
+        
+        if(query.getDateFrom() != null) {
+            conditions.add("p.date >= ?");
+            conditionParameters.add(Date.valueOf(query.getDateFrom()));
+        }
+        
+        if(query.getDateTo() != null) {
+            conditions.add("p.date <= ?");
+            conditionParameters.add(Date.valueOf(query.getDateTo()));
+        }
+        
+        if(query.getMinAmount() != null) {
+            conditions.add("p.amount >= ?");
+            conditionParameters.add(query.getMinAmount());
+        }
+        
+        if(query.getMaxAmount() != null) {
+            conditions.add("p.amount <= ?");
+            conditionParameters.add(query.getMaxAmount());
+        }
+        
+        if(query.getAfterId() != null) {
+            conditions.add(query.getOrder() == PaymentQuery.Order.ID_ASC ? "p.id > ?" : "p.id < ?");
+            conditionParameters.add(query.getAfterId());
+        }
+        
+        StringBuilder sql = new StringBuilder();
+        
+        if(query.getAccount() == null) {
+            appendSelect(sql, null, conditions);
+            parameters.addAll(conditionParameters);
+        } else if(query.getDirection() == PaymentQuery.Direction.BOTH) {
+            appendSelect(sql, "p.fromAccount = ?", conditions);
+            sql.append(" UNION ALL ");
+            appendSelect(sql, "p.toAccount = ?", conditions);
             
-            st.setLong(1, account.getId());
-            ResultSet rs = st.executeQuery();
-            List<Payment> toReturn = new ArrayList<>();
+            for(int i = 0; i < 2; i++) {
+                parameters.add(query.getAccount().getId());
+                parameters.addAll(conditionParameters);
+            }
+        } else {
+            appendSelect(sql, query.getDirection() == PaymentQuery.Direction.FROM 
+                    ? "p.fromAccount = ?" : "p.toAccount = ?", conditions);
+            parameters.add(query.getAccount().getId());
+            parameters.addAll(conditionParameters);
+        }
+        
+        sql.append(" ORDER BY ").append(orderByOf(query.getOrder()));
+        
+        if(query.getOffset() > 0) {
+            sql.append(" OFFSET ? ROWS");
+            parameters.add(query.getOffset());
+        }
+        
+        if(query.getLimit() != null) {
+            sql.append(" FETCH FIRST ? ROWS ONLY");
+            parameters.add(query.getLimit());
+        }
+        
+        return sql.toString();
+    }
+    
+    private static void appendSelect(StringBuilder sql, String accountCondition, List<String> conditions) {
+        List<String> all = new ArrayList<>();
+        
+        if(accountCondition != null) {
+            all.add(accountCondition);
+        }
+        all.addAll(conditions);
+        
+        sql.append(SELECT_PAYMENT_WITH_ACCOUNTS);
+        
+        if(!all.isEmpty()) {
+            sql.append(" WHERE ").append(String.join(" AND ", all));
+        }
+    }
+    
+    /**
+     * Columns are referenced by their positions in SELECT_PAYMENT_WITH_ACCOUNTS 
+     * (1 is id, 2 is amount, 3 is date), so order is valid for union of 
+     * selects too.
+     */
+    private static String orderByOf(PaymentQuery.Order order) {
+        switch(order) {
+            case ID_DESC:
+                return "1 DESC";
+            case DATE_ASC:
+                return "3, 1";
+            case DATE_DESC:
+                return "3 DESC, 1 DESC";
+            case AMOUNT_ASC:
+                return "2, 1";
+            case AMOUNT_DESC:
+                return "2 DESC, 1 DESC";
+            default:
+                return "1";
+        }
+    }
+    
+    /**
+     * Passes payments selected by given query to consumer one by one as they 
+     * are read from forward only cursor, so no payments are held in memory.
+     */
+    private void streamPayments(String sql, Consumer<? super Payment> consumer, Object... parameters) throws SQLException {
+        try( Connection connection = dataSource.getConnection();
+             PreparedStatement st = connection.prepareStatement(sql, 
+                     ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
             
-            while(rs.next()) {
-                toReturn.add(resultSetToPayment(connection,rs));
+            for(int i = 0; i < parameters.length; i++) {
+                st.setObject(i + 1, parameters[i]);
             }
             
-            return toReturn;
+            st.setFetchSize(STREAM_FETCH_SIZE);
             
-        } catch (SQLException ex) {
-            logger.log(Level.SEVERE, "Error while getting all payment to same account", ex);
-            throw new ServiceFailureException("Error while getting all payment "
-                                              + "to account " + account,ex);
+            try(ResultSet rs = SQL_STREAM_PAYMENTS.executeQuery(st)) {
+                while(rs.next()) {
+                    consumer.accept(resultSetToPayment(rs));
+                }
+            }
         }
-    }    
+    }
 }
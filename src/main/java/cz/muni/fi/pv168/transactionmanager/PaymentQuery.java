@@ -0,0 +1,223 @@
+package cz.muni.fi.pv168.transactionmanager;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Comparator;
+
+/**
+ * Criteria of payment search. All criteria are optional, unset criteria do
+ * not restrict result. Bounds of date and amount ranges are inclusive.
+ * Result is paged either by limit and offset or by afterId, which is id of
+ * last payment of previous page. Paging by afterId is supported only for
+ * orders by id.
+ * @author Miroslav Kubus
+ */
+public class PaymentQuery {
+
+    /**
+     * Side of payment on which account of query is searched
+     */
+    public enum Direction {
+        FROM, TO, BOTH
+    }
+
+    /**
+     * Order of returned payments, payments with same date or amount are
+     * ordered by id
+     */
+    public enum Order {
+        ID_ASC, ID_DESC, DATE_ASC, DATE_DESC, AMOUNT_ASC, AMOUNT_DESC
+    }
+
+    private Account account;
+    private Direction direction = Direction.BOTH;
+    private LocalDate dateFrom;
+    private LocalDate dateTo;
+    private BigDecimal minAmount;
+    private BigDecimal maxAmount;
+    private Order order = Order.ID_ASC;
+    private Integer limit;
+    private int offset;
+    private Long afterId;
+
+    public Account getAccount() {
+        return account;
+    }
+
+    public void setAccount(Account account) {
+        this.account = account;
+    }
+
+    public Direction getDirection() {
+        return direction;
+    }
+
+    public void setDirection(Direction direction) {
+        this.direction = direction;
+    }
+
+    public LocalDate getDateFrom() {
+        return dateFrom;
+    }
+
+    public void setDateFrom(LocalDate dateFrom) {
+        this.dateFrom = dateFrom;
+    }
+
+    public LocalDate getDateTo() {
+        return dateTo;
+    }
+
+    public void setDateTo(LocalDate dateTo) {
+        this.dateTo = dateTo;
+    }
+
+    public BigDecimal getMinAmount() {
+        return minAmount;
+    }
+
+    public void setMinAmount(BigDecimal minAmount) {
+        this.minAmount = minAmount;
+    }
+
+    public BigDecimal getMaxAmount() {
+        return maxAmount;
+    }
+
+    public void setMaxAmount(BigDecimal maxAmount) {
+        this.maxAmount = maxAmount;
+    }
+
+    public Order getOrder() {
+        return order;
+    }
+
+    public void setOrder(Order order) {
+        this.order = order;
+    }
+
+    /**
+     * @return maximal count of returned payments or null for no limit
+     */
+    public Integer getLimit() {
+        return limit;
+    }
+
+    public void setLimit(Integer limit) {
+        this.limit = limit;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public void setOffset(int offset) {
+        this.offset = offset;
+    }
+
+    /**
+     * @return id of last payment of previous page or null for first page
+     */
+    public Long getAfterId() {
+        return afterId;
+    }
+
+    public void setAfterId(Long afterId) {
+        this.afterId = afterId;
+    }
+
+    /**
+     * Checks that criteria can be evaluated together
+     * @throws IllegalArgumentException when account has null id, direction or 
+     * order is null, limit is not positive, offset is negative or afterId is 
+     * set for order which is not by id
+     */
+    public void validate() {
+        if(account != null && account.getId() == null) {
+            throw new IllegalArgumentException("Null id of account in query " + this);
+        }
+        
+        if(direction == null || order == null) {
+            throw new IllegalArgumentException("Null direction or order of query " + this);
+        }
+        
+        if(limit != null && limit < 1) {
+            throw new IllegalArgumentException("Limit of payments must be positive: " + limit);
+        }
+        
+        if(offset < 0) {
+            throw new IllegalArgumentException("Offset of payments must not be negative: " + offset);
+        }
+        
+        if(afterId != null && order != Order.ID_ASC && order != Order.ID_DESC) {
+            throw new IllegalArgumentException("Paging by afterId requires order by id: " + this);
+        }
+    }
+
+    /**
+     * Evaluates criteria of query on payment which is already in memory. 
+     * Used by backends which do not translate query into SQL. Limit and 
+     * offset are not evaluated.
+     * @param payment represents evaluated payment
+     * @return true when payment matches all criteria
+     */
+    public boolean matches(Payment payment) {
+        if(account != null) {
+            boolean from = account.getId().equals(payment.getFrom().getId());
+            boolean to = account.getId().equals(payment.getTo().getId());
+            
+            if((direction == Direction.FROM && !from) || (direction == Direction.TO && !to) 
+                    || (direction == Direction.BOTH && !from && !to)) {
+                return false;
+            }
+        }
+        
+        if((dateFrom != null && payment.getDate().isBefore(dateFrom)) 
+                || (dateTo != null && payment.getDate().isAfter(dateTo))) {
+            return false;
+        }
+        
+        if((minAmount != null && payment.getAmount().compareTo(minAmount) < 0) 
+                || (maxAmount != null && payment.getAmount().compareTo(maxAmount) > 0)) {
+            return false;
+        }
+        
+        if(afterId != null) {
+            return order == Order.ID_ASC ? payment.getId() > afterId : payment.getId() < afterId;
+        }
+        
+        return true;
+    }
+    
+    /**
+     * @return comparator of payments by order of query, payments with same 
+     * date or amount are ordered by id
+     */
+    public Comparator<Payment> comparator() {
+        Comparator<Payment> byId = Comparator.comparing(Payment::getId);
+        
+        switch(order) {
+            case ID_DESC:
+                return byId.reversed();
+            case DATE_ASC:
+                return Comparator.comparing(Payment::getDate).thenComparing(byId);
+            case DATE_DESC:
+                return Comparator.comparing(Payment::getDate).thenComparing(byId).reversed();
+            case AMOUNT_ASC:
+                return Comparator.comparing(Payment::getAmount).thenComparing(byId);
+            case AMOUNT_DESC:
+                return Comparator.comparing(Payment::getAmount).thenComparing(byId).reversed();
+            default:
+                return byId;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PaymentQuery{" + "account=" + account + ", direction=" + direction
+                + ", dateFrom=" + dateFrom + ", dateTo=" + dateTo
+                + ", minAmount=" + minAmount + ", maxAmount=" + maxAmount
+                + ", order=" + order + ", limit=" + limit + ", offset=" + offset
+                + ", afterId=" + afterId + '}';
+    }
+}
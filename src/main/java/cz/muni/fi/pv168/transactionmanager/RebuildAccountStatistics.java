@@ -0,0 +1,31 @@
+package cz.muni.fi.pv168.transactionmanager;
+
+import cz.muni.fi.pv168.utils.DBUtils;
+import cz.muni.fi.pv168.utils.PooledDataSource;
+import java.sql.SQLException;
+import javax.sql.DataSource;
+
+/**
+ * Command which recomputes statistics of all accounts of persistent database
+ * from history of their payments. Directory of database can be overridden by
+ * system property transactionmanager.directory.
+ * Usage: RebuildAccountStatistics [profile]
+ *
+ * @author Miroslav Kubus
+ */
+public class RebuildAccountStatistics {
+
+    public static void main(String[] args) throws SQLException {
+        String profile = args.length > 0 ? args[0] : "disk";
+        DataSource dataSource = DBUtils.createPersistentDatabase(profile);
+
+        try {
+            new PaymentManagerImpl(dataSource).rebuildAccountStatistics();
+            System.out.println("Statistics of accounts rebuilt");
+        } finally {
+            if (dataSource instanceof PooledDataSource) {
+                ((PooledDataSource) dataSource).close();
+            }
+        }
+    }
+}
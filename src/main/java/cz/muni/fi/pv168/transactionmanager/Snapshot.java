@@ -0,0 +1,944 @@
+package cz.muni.fi.pv168.transactionmanager;
+
+import cz.muni.fi.pv168.utils.DBUtils;
+import cz.muni.fi.pv168.utils.MetricsRegistry;
+import cz.muni.fi.pv168.utils.Money;
+import cz.muni.fi.pv168.utils.OperationMetrics;
+import cz.muni.fi.pv168.utils.PooledDataSource;
+import cz.muni.fi.pv168.utils.ServiceFailureException;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+import org.apache.derby.vti.VTITemplate;
+
+/**
+ * Binary snapshot of tables account and payment. Snapshot is columnar - rows
+ * are written in blocks and every block stores values column by column, so
+ * it is written and restored with one block of rows in memory.
+ * <p>
+ * File starts with magic number 0x50563153 and format version. Then blocks
+ * of accounts and blocks of payments follow, each part is terminated by
+ * block with zero rows. Block starts with int count of rows and int count of
+ * bytes of its columns. Account columns are id, version, balance (longs) and
+ * number, holder (strings), payment columns are id, from id, to id, amount,
+ * version (longs) and date (ints). Amounts are in units of 1/10000, dates are
+ * days since 1970-01-01 and string is short length of UTF-8 bytes (-1 for
+ * null) followed by bytes. Rows are ordered by id.
+ * <p>
+ * Ids of table are generated always by database and Derby can not change
+ * identity column to generated by default, so restore requires empty tables
+ * and restored rows get new ids in the same order as in snapshot. Payments
+ * are remapped to new ids of their accounts. Statistics of accounts are
+ * computed from payments while they are restored. Table functions used by
+ * restore are created by migration 008. Restore into MemoryStore keeps ids
+ * of snapshot.
+ *
+ * @author Miroslav Kubus
+ */
+public class Snapshot {
+
+    private static final Logger logger = Logger.getLogger(Snapshot.class.getName());
+
+    public static final int MAGIC = 0x50563153;
+    public static final byte FORMAT_VERSION = 1;
+    public static final int DEFAULT_BLOCK_SIZE = 10000;
+
+
+    private static final String[] LOCK_TABLES = {
+        "LOCK TABLE account IN SHARE MODE",
+        "LOCK TABLE payment IN SHARE MODE"
+    };
+    private static final String SELECT_ACCOUNTS =
+            "SELECT id, version, balance, number, holder FROM account ORDER BY id";
+    private static final String SELECT_PAYMENTS =
+            "SELECT id, fromAccount, toAccount, amount, version, date FROM payment ORDER BY id";
+    private static final String COUNT_ROWS =
+            "SELECT (SELECT COUNT(*) FROM account) + (SELECT COUNT(*) FROM payment) FROM SYSIBM.SYSDUMMY1";
+    private static final String INSERT_ACCOUNTS =
+            "INSERT INTO account (number, holder, balance, version) "
+            + "SELECT number, holder, balance, version FROM TABLE (snapshot_accounts(?)) r";
+    private static final String SELECT_ACCOUNT_IDS = "SELECT id FROM account ORDER BY id";
+    private static final String INSERT_PAYMENTS =
+            "INSERT INTO payment (fromAccount, toAccount, amount, date, version) "
+            + "SELECT fromAccount, toAccount, amount, date, version FROM TABLE (snapshot_payments(?)) r";
+    private static final String DELETE_STATISTICS = "DELETE FROM account_stats";
+    private static final String INSERT_STATISTICS =
+            "INSERT INTO account_stats (accountId, totalIn, totalOut, countIn, countOut, lastPaymentDate) "
+            + "SELECT accountId, totalIn, totalOut, countIn, countOut, lastPaymentDate "
+            + "FROM TABLE (snapshot_statistics(?)) r";
+
+    /**
+     * Restores in progress, table functions find them by their key
+     */
+    private static final Map<String, Restore> RESTORES = new ConcurrentHashMap<>();
+
+    private static final MetricsRegistry METRICS = MetricsRegistry.getDefault();
+    private static final OperationMetrics SQL_RESTORE_ACCOUNTS = METRICS.operation("sql.snapshot.insertAccounts");
+    private static final OperationMetrics SQL_RESTORE_PAYMENTS = METRICS.operation("sql.snapshot.insertPayments");
+    private static final OperationMetrics SQL_RESTORE_STATISTICS = METRICS.operation("sql.snapshot.insertStatistics");
+
+    private final DataSource dataSource;
+    private int blockSize = DEFAULT_BLOCK_SIZE;
+
+    public Snapshot(DataSource dataSource) {
+        if(dataSource == null) {
+            throw new IllegalArgumentException("Null data source");
+        }
+
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * @param blockSize count of rows in one block of written snapshot
+     */
+    public void setBlockSize(int blockSize) {
+        if(blockSize < 1) {
+            throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+        }
+
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Writes all accounts and payments into file. Both tables are read in one
+     * transaction which holds share locks of them, so every payment of
+     * snapshot refers to account of snapshot and balances match payments.
+     * @param file target file, existing file is overwritten
+     * @return count of written rows
+     */
+    public long write(Path file) {
+        if(file == null) {
+            throw new IllegalArgumentException("Null file of snapshot");
+        }
+
+        logger.log(Level.INFO, "Writing snapshot to {0}", file);
+        long start = System.nanoTime();
+        long rows = 0;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             Connection connection = dataSource.getConnection()) {
+            writeFully(channel, (ByteBuffer) ByteBuffer.allocate(5).putInt(MAGIC).put(FORMAT_VERSION).flip());
+            connection.setAutoCommit(false);
+
+            try {
+                try (Statement st = connection.createStatement()) {
+                    for(String sql : LOCK_TABLES) {
+                        st.execute(sql);
+                    }
+                }
+
+                AccountBlock accounts = new AccountBlock(blockSize);
+                try (ResultSet rs = query(connection, SELECT_ACCOUNTS)) {
+                    while(rs.next()) {
+                        accounts.add(rs.getLong(1), rs.getLong(2), unitsOf(rs.getBigDecimal(3)),
+                                rs.getString(4), rs.getString(5));
+                        if(accounts.rows == blockSize) {
+                            rows += writeBlock(channel, accounts);
+                        }
+                    }
+                }
+                if(accounts.rows > 0) {
+                    rows += writeBlock(channel, accounts);
+                }
+                writeBlock(channel, accounts);
+
+                PaymentBlock payments = new PaymentBlock(blockSize);
+                try (ResultSet rs = query(connection, SELECT_PAYMENTS)) {
+                    while(rs.next()) {
+                        Date date = rs.getDate(6);
+                        payments.add(rs.getLong(1), rs.getLong(2), rs.getLong(3), unitsOf(rs.getBigDecimal(4)),
+                                rs.getLong(5), date == null ? 0 : (int) date.toLocalDate().toEpochDay());
+                        if(payments.rows == blockSize) {
+                            rows += writeBlock(channel, payments);
+                        }
+                    }
+                }
+                if(payments.rows > 0) {
+                    rows += writeBlock(channel, payments);
+                }
+                writeBlock(channel, payments);
+                connection.commit();
+            } catch (SQLException | IOException | RuntimeException ex) {
+                connection.rollback();
+                throw ex;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException | IOException ex) {
+            logger.log(Level.SEVERE, "Error while writing snapshot to " + file, ex);
+            throw new ServiceFailureException("Error when writing snapshot to " + file, ex);
+        }
+
+        logger.log(Level.INFO, "Snapshot of {0} rows written in {1} ms",
+                new Object[]{rows, (System.nanoTime() - start) / 1000000});
+
+        return rows;
+    }
+
+    /**
+     * Loads accounts and payments from snapshot into empty tables. Each table
+     * is filled by one INSERT ... SELECT from table function which reads
+     * blocks of snapshot. Derby loads empty table from one statement several
+     * times faster than from batch of inserts or from several statements.
+     * Rows of statistics created by trigger for restored accounts are
+     * replaced by statistics computed from restored payments.
+     * @param file file of snapshot
+     * @return count of restored rows
+     * @throws IllegalArgumentException when file is not snapshot or tables
+     * are not empty
+     */
+    public long restore(Path file) {
+        if(file == null) {
+            throw new IllegalArgumentException("Null file of snapshot");
+        }
+
+        logger.log(Level.INFO, "Restoring snapshot from {0}", file);
+        long start = System.nanoTime();
+        Restore restore;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+             Connection connection = dataSource.getConnection()) {
+            readHeader(channel, file);
+
+            try (ResultSet rs = query(connection, COUNT_ROWS)) {
+                if(rs.next() && rs.getLong(1) != 0) {
+                    throw new IllegalArgumentException("Snapshot can be restored only into empty tables");
+                }
+            }
+
+            String key = UUID.randomUUID().toString();
+            restore = new Restore(channel);
+            RESTORES.put(key, restore);
+            connection.setAutoCommit(false);
+            try {
+                try (PreparedStatement st = connection.prepareStatement(INSERT_ACCOUNTS)) {
+                    st.setString(1, key);
+                    SQL_RESTORE_ACCOUNTS.executeUpdate(st);
+                }
+
+                restore.newIds = new long[restore.accountCount];
+                int index = 0;
+                try (ResultSet rs = query(connection, SELECT_ACCOUNT_IDS)) {
+                    while(rs.next()) {
+                        restore.newIds[index++] = rs.getLong(1);
+                    }
+                }
+
+                restore.statistics = new Statistics(restore.accountCount);
+
+                try (PreparedStatement st = connection.prepareStatement(INSERT_PAYMENTS)) {
+                    st.setString(1, key);
+                    SQL_RESTORE_PAYMENTS.executeUpdate(st);
+                }
+
+                try (PreparedStatement st = connection.prepareStatement(DELETE_STATISTICS)) {
+                    st.executeUpdate();
+                }
+
+                try (PreparedStatement st = connection.prepareStatement(INSERT_STATISTICS)) {
+                    st.setString(1, key);
+                    SQL_RESTORE_STATISTICS.executeUpdate(st);
+                }
+
+                connection.commit();
+            } catch (SQLException | RuntimeException ex) {
+                connection.rollback();
+                throw ex;
+            } finally {
+                RESTORES.remove(key);
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException | IOException ex) {
+            logger.log(Level.SEVERE, "Error while restoring snapshot from " + file, ex);
+            throw new ServiceFailureException("Error when restoring snapshot from " + file, ex);
+        }
+
+        logger.log(Level.INFO, "Snapshot of {0} rows restored in {1} ms",
+                new Object[]{restore.rows, (System.nanoTime() - start) / 1000000});
+
+        return restore.rows;
+    }
+
+    /**
+     * Loads accounts and payments from snapshot into empty in-memory store.
+     * Store accepts ids of entities, so accounts and payments keep their ids
+     * and statistics of accounts are computed while payments are stored.
+     * @param file file of snapshot
+     * @param store empty store
+     * @return count of restored rows
+     * @throws IllegalArgumentException when file is not snapshot
+     */
+    public static long restore(Path file, MemoryStore store) {
+        if(file == null || store == null) {
+            throw new IllegalArgumentException("Null file of snapshot or store");
+        }
+
+        logger.log(Level.INFO, "Restoring snapshot from {0} into memory store", file);
+        long start = System.nanoTime();
+        long rows = 0;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            readHeader(channel, file);
+
+            AccountBlock accounts = new AccountBlock(0);
+            while(accounts.read(channel)) {
+                for(int i = 0; i < accounts.rows; i++) {
+                    Account account = new Account(string(accounts.numbers[i]), string(accounts.holders[i]),
+                            BigDecimal.valueOf(accounts.balances[i], Money.SCALE));
+                    account.setId(accounts.ids[i]);
+                    account.setVersion(accounts.versions[i]);
+                    store.restoreAccount(account);
+                }
+                rows += accounts.rows;
+            }
+
+            PaymentBlock payments = new PaymentBlock(0);
+            while(payments.read(channel)) {
+                for(int i = 0; i < payments.rows; i++) {
+                    Payment payment = new Payment();
+                    payment.setId(payments.ids[i]);
+                    payment.setFrom(accountWithId(payments.fromIds[i]));
+                    payment.setTo(accountWithId(payments.toIds[i]));
+                    payment.setAmount(BigDecimal.valueOf(payments.amounts[i], Money.SCALE));
+                    payment.setDate(LocalDate.ofEpochDay(payments.dates[i]));
+                    payment.setVersion(payments.versions[i]);
+                    store.restorePayment(payment);
+                }
+                rows += payments.rows;
+            }
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, "Error while restoring snapshot from " + file, ex);
+            throw new ServiceFailureException("Error when restoring snapshot from " + file, ex);
+        }
+
+        logger.log(Level.INFO, "Snapshot of {0} rows restored into memory store in {1} ms",
+                new Object[]{rows, (System.nanoTime() - start) / 1000000});
+
+        return rows;
+    }
+
+    private static void readHeader(FileChannel channel, Path file) throws IOException {
+        ByteBuffer header = readFully(channel, 5);
+        if(header.getInt() != MAGIC || header.get() != FORMAT_VERSION) {
+            throw new IllegalArgumentException("File " + file + " is not snapshot of version " + FORMAT_VERSION);
+        }
+    }
+
+    private static Account accountWithId(long id) {
+        Account account = new Account();
+        account.setId(id);
+
+        return account;
+    }
+
+    /**
+     * Table function snapshot_accounts, it is called by Derby
+     * @param key key of restore in progress
+     * @return accounts of snapshot
+     */
+    public static ResultSet accountRows(String key) {
+        return new BlockRows(RESTORES.get(key), new AccountBlock(0));
+    }
+
+    /**
+     * Table function snapshot_payments, it is called by Derby
+     * @param key key of restore in progress
+     * @return payments of snapshot with ids of restored accounts
+     */
+    public static ResultSet paymentRows(String key) {
+        return new BlockRows(RESTORES.get(key), new PaymentBlock(0));
+    }
+
+    /**
+     * Table function snapshot_statistics, it is called by Derby after all
+     * payments were restored
+     * @param key key of restore in progress
+     * @return statistics of restored accounts
+     */
+    public static ResultSet statisticsRows(String key) {
+        Restore restore = RESTORES.get(key);
+
+        if(restore == null) {
+            throw new IllegalArgumentException("No snapshot is being restored");
+        }
+
+        return new StatisticsRows(restore);
+    }
+
+    private ResultSet query(Connection connection, String sql) throws SQLException {
+        PreparedStatement st = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        st.setFetchSize(blockSize);
+        st.closeOnCompletion();
+
+        return st.executeQuery();
+    }
+
+    private static long unitsOf(BigDecimal amount) {
+        return amount == null ? 0 : Money.of(amount).getUnits();
+    }
+
+    private static String string(byte[] bytes) {
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int writeBlock(FileChannel channel, Block block) throws IOException {
+        int rows = block.rows;
+        int bytes = block.byteSize();
+        ByteBuffer buffer = ByteBuffer.allocate(8 + bytes).putInt(rows).putInt(bytes);
+
+        block.write(buffer);
+        buffer.flip();
+        writeFully(channel, buffer);
+        block.rows = 0;
+
+        return rows;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while(buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, int bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(bytes);
+
+        while(buffer.hasRemaining()) {
+            if(channel.read(buffer) < 0) {
+                throw new EOFException("Unexpected end of snapshot");
+            }
+        }
+        buffer.flip();
+
+        return buffer;
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        if(bytes == null) {
+            buffer.putShort((short) -1);
+        } else {
+            buffer.putShort((short) bytes.length).put(bytes);
+        }
+    }
+
+    private static byte[] getBytes(ByteBuffer buffer) {
+        int length = buffer.getShort();
+
+        if(length < 0) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+
+        return bytes;
+    }
+
+    /**
+     * Writes snapshot of persistent database.
+     * Usage: Snapshot file [profile]
+     * @param args command line arguments
+     * @throws SQLException when closing of database fails
+     */
+    public static void main(String[] args) throws SQLException {
+        if(args.length < 1) {
+            System.err.println("Usage: Snapshot file [profile]");
+            System.exit(1);
+        }
+
+        DataSource dataSource = DBUtils.createPersistentDatabase(args.length > 1 ? args[1] : "disk");
+
+        try {
+            long rows = new Snapshot(dataSource).write(Paths.get(args[0]));
+            System.out.println("Snapshot of " + rows + " rows written to " + args[0]);
+        } finally {
+            if(dataSource instanceof PooledDataSource) {
+                ((PooledDataSource) dataSource).close();
+            }
+        }
+    }
+
+    /**
+     * Rows of one block stored in columns
+     */
+    private abstract static class Block {
+        int rows;
+        int next;
+        boolean wasNull;
+
+        abstract long getLong(int column);
+
+        abstract String getString(int column);
+
+        abstract BigDecimal getBigDecimal(int column);
+
+        abstract Date getDate(int column);
+
+        /**
+         * Called when block was read from file of restore
+         */
+        abstract void loaded(Restore restore);
+
+        abstract int byteSize();
+
+        abstract void write(ByteBuffer buffer);
+
+        abstract void read(ByteBuffer buffer);
+
+        /**
+         * Reads next block of file
+         * @return false when block terminating part of file was read
+         */
+        boolean read(FileChannel channel) throws IOException {
+            ByteBuffer header = readFully(channel, 8);
+            rows = header.getInt();
+            int bytes = header.getInt();
+
+            if(rows < 0 || bytes < 0) {
+                throw new IllegalArgumentException("Corrupted block of snapshot");
+            }
+            if(rows == 0) {
+                return false;
+            }
+
+            read(readFully(channel, bytes));
+
+            return true;
+        }
+    }
+
+    private static class AccountBlock extends Block {
+        long[] ids;
+        long[] versions;
+        long[] balances;
+        byte[][] numbers;
+        byte[][] holders;
+
+        AccountBlock(int capacity) {
+            allocate(capacity);
+        }
+
+        private void allocate(int capacity) {
+            ids = new long[capacity];
+            versions = new long[capacity];
+            balances = new long[capacity];
+            numbers = new byte[capacity][];
+            holders = new byte[capacity][];
+        }
+
+        void add(long id, long version, long balance, String number, String holder) {
+            ids[rows] = id;
+            versions[rows] = version;
+            balances[rows] = balance;
+            numbers[rows] = number == null ? null : number.getBytes(StandardCharsets.UTF_8);
+            holders[rows] = holder == null ? null : holder.getBytes(StandardCharsets.UTF_8);
+            rows++;
+        }
+
+        @Override
+        long getLong(int column) {
+            return versions[next];
+        }
+
+        @Override
+        String getString(int column) {
+            byte[] bytes = column == 1 ? numbers[next] : holders[next];
+            wasNull = bytes == null;
+
+            return string(bytes);
+        }
+
+        @Override
+        BigDecimal getBigDecimal(int column) {
+            return BigDecimal.valueOf(balances[next], Money.SCALE);
+        }
+
+        @Override
+        Date getDate(int column) {
+            throw new UnsupportedOperationException("Account has no date");
+        }
+
+        @Override
+        void loaded(Restore restore) {
+            if(restore.accountCount + rows > restore.oldIds.length) {
+                restore.oldIds = Arrays.copyOf(restore.oldIds,
+                        Math.max(2 * restore.oldIds.length, restore.accountCount + rows));
+            }
+
+            for(int i = 0; i < rows; i++) {
+                if(restore.accountCount > 0 && ids[i] <= restore.oldIds[restore.accountCount - 1]) {
+                    throw new IllegalArgumentException("Accounts of snapshot are not ordered by id");
+                }
+                restore.oldIds[restore.accountCount++] = ids[i];
+            }
+            restore.rows += rows;
+        }
+
+        @Override
+        int byteSize() {
+            int size = rows * (3 * 8 + 2 * 2);
+
+            for(int i = 0; i < rows; i++) {
+                size += (numbers[i] == null ? 0 : numbers[i].length) + (holders[i] == null ? 0 : holders[i].length);
+            }
+
+            return size;
+        }
+
+        @Override
+        void write(ByteBuffer buffer) {
+            for(int i = 0; i < rows; i++) {
+                buffer.putLong(ids[i]);
+            }
+            for(int i = 0; i < rows; i++) {
+                buffer.putLong(versions[i]);
+            }
+            for(int i = 0; i < rows; i++) {
+                buffer.putLong(balances[i]);
+            }
+            for(int i = 0; i < rows; i++) {
+                putBytes(buffer, numbers[i]);
+            }
+            for(int i = 0; i < rows; i++) {
+                putBytes(buffer, holders[i]);
+            }
+        }
+
+        @Override
+        void read(ByteBuffer buffer) {
+            if(ids.length < rows) {
+                allocate(rows);
+            }
+
+            for(int i = 0; i < rows; i++) {
+                ids[i] = buffer.getLong();
+            }
+            for(int i = 0; i < rows; i++) {
+                versions[i] = buffer.getLong();
+            }
+            for(int i = 0; i < rows; i++) {
+                balances[i] = buffer.getLong();
+            }
+            for(int i = 0; i < rows; i++) {
+                numbers[i] = getBytes(buffer);
+            }
+            for(int i = 0; i < rows; i++) {
+                holders[i] = getBytes(buffer);
+            }
+        }
+    }
+
+    private static class PaymentBlock extends Block {
+        long[] ids;
+        long[] fromIds;
+        long[] toIds;
+        long[] amounts;
+        long[] versions;
+        int[] dates;
+
+        PaymentBlock(int capacity) {
+            allocate(capacity);
+        }
+
+        private void allocate(int capacity) {
+            ids = new long[capacity];
+            fromIds = new long[capacity];
+            toIds = new long[capacity];
+            amounts = new long[capacity];
+            versions = new long[capacity];
+            dates = new int[capacity];
+        }
+
+        void add(long id, long fromId, long toId, long amount, long version, int date) {
+            ids[rows] = id;
+            fromIds[rows] = fromId;
+            toIds[rows] = toId;
+            amounts[rows] = amount;
+            versions[rows] = version;
+            dates[rows] = date;
+            rows++;
+        }
+
+        @Override
+        long getLong(int column) {
+            return column == 1 ? fromIds[next] : column == 2 ? toIds[next] : versions[next];
+        }
+
+        @Override
+        String getString(int column) {
+            throw new UnsupportedOperationException("Payment has no string");
+        }
+
+        @Override
+        BigDecimal getBigDecimal(int column) {
+            return BigDecimal.valueOf(amounts[next], Money.SCALE);
+        }
+
+        @Override
+        Date getDate(int column) {
+            return Date.valueOf(LocalDate.ofEpochDay(dates[next]));
+        }
+
+        @Override
+        void loaded(Restore restore) {
+            for(int i = 0; i < rows; i++) {
+                int from = restore.indexOf(fromIds[i]);
+                int to = restore.indexOf(toIds[i]);
+
+                fromIds[i] = restore.newIds[from];
+                toIds[i] = restore.newIds[to];
+                restore.statistics.add(from, to, amounts[i], dates[i]);
+            }
+            restore.rows += rows;
+        }
+
+        @Override
+        int byteSize() {
+            return rows * (5 * 8 + 4);
+        }
+
+        @Override
+        void write(ByteBuffer buffer) {
+            for(long[] column : new long[][]{ids, fromIds, toIds, amounts, versions}) {
+                for(int i = 0; i < rows; i++) {
+                    buffer.putLong(column[i]);
+                }
+            }
+            for(int i = 0; i < rows; i++) {
+                buffer.putInt(dates[i]);
+            }
+        }
+
+        @Override
+        void read(ByteBuffer buffer) {
+            if(ids.length < rows) {
+                allocate(rows);
+            }
+
+            for(long[] column : new long[][]{ids, fromIds, toIds, amounts, versions}) {
+                for(int i = 0; i < rows; i++) {
+                    column[i] = buffer.getLong();
+                }
+            }
+            for(int i = 0; i < rows; i++) {
+                dates[i] = buffer.getInt();
+            }
+        }
+    }
+
+    /**
+     * Turnover of restored accounts indexed like ids of accounts in snapshot,
+     * amounts are in units of 1/10000
+     */
+    private static class Statistics {
+        final long[] totalIn;
+        final long[] totalOut;
+        final long[] countIn;
+        final long[] countOut;
+        final int[] lastDays;
+
+        Statistics(int accountCount) {
+            totalIn = new long[accountCount];
+            totalOut = new long[accountCount];
+            countIn = new long[accountCount];
+            countOut = new long[accountCount];
+            lastDays = new int[accountCount];
+        }
+
+        void add(int from, int to, long amount, int day) {
+            totalOut[from] = Math.addExact(totalOut[from], amount);
+            countOut[from]++;
+            totalIn[to] = Math.addExact(totalIn[to], amount);
+            countIn[to]++;
+            lastDays[from] = countIn[from] + countOut[from] == 1 ? day : Math.max(lastDays[from], day);
+            lastDays[to] = countIn[to] + countOut[to] == 1 ? day : Math.max(lastDays[to], day);
+        }
+    }
+
+    /**
+     * State of restore shared by table functions - file of snapshot, ids
+     * of accounts in snapshot and in database and statistics of accounts
+     */
+    private static class Restore {
+        final FileChannel channel;
+        long[] oldIds = new long[0];
+        int accountCount;
+        long[] newIds;
+        Statistics statistics;
+        long rows;
+
+        Restore(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * @return index of account in snapshot
+         */
+        int indexOf(long oldId) {
+            int index = Arrays.binarySearch(oldIds, 0, accountCount, oldId);
+
+            if(index < 0) {
+                throw new IllegalArgumentException("Payment of snapshot refers to missing account " + oldId);
+            }
+
+            return index;
+        }
+    }
+
+    /**
+     * Rows of statistics of restored accounts returned by table function
+     */
+    private static class StatisticsRows extends VTITemplate {
+        private final Restore restore;
+        private int next = -1;
+        private boolean wasNull;
+
+        StatisticsRows(Restore restore) {
+            this.restore = restore;
+        }
+
+        @Override
+        public boolean next() {
+            return ++next < restore.accountCount;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean wasNull() {
+            return wasNull;
+        }
+
+        @Override
+        public long getLong(int column) {
+            wasNull = false;
+
+            switch(column) {
+                case 1:
+                    return restore.newIds[next];
+                case 4:
+                    return restore.statistics.countIn[next];
+                default:
+                    return restore.statistics.countOut[next];
+            }
+        }
+
+        @Override
+        public BigDecimal getBigDecimal(int column) {
+            wasNull = false;
+
+            return BigDecimal.valueOf(column == 2 ? restore.statistics.totalIn[next]
+                    : restore.statistics.totalOut[next], Money.SCALE);
+        }
+
+        @Override
+        public Date getDate(int column) {
+            Statistics statistics = restore.statistics;
+            wasNull = statistics.countIn[next] + statistics.countOut[next] == 0;
+
+            return wasNull ? null : Date.valueOf(LocalDate.ofEpochDay(statistics.lastDays[next]));
+        }
+
+        @Override
+        public ResultSetMetaData getMetaData() {
+            return null;
+        }
+    }
+
+    /**
+     * Rows returned by table function, blocks are read from file of restore
+     * when previous block is exhausted
+     */
+    private static class BlockRows extends VTITemplate {
+        private final Restore restore;
+        private final Block block;
+        private boolean finished;
+
+        BlockRows(Restore restore, Block block) {
+            if(restore == null) {
+                throw new IllegalArgumentException("No snapshot is being restored");
+            }
+
+            this.restore = restore;
+            this.block = block;
+        }
+
+        @Override
+        public boolean next() throws SQLException {
+            block.wasNull = false;
+
+            try {
+                while(!finished && ++block.next >= block.rows) {
+                    if(block.read(restore.channel)) {
+                        block.next = -1;
+                        block.loaded(restore);
+                    } else {
+                        finished = true;
+                    }
+                }
+            } catch (IOException ex) {
+                throw new SQLException("Error when reading snapshot", ex);
+            }
+
+            return !finished;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean wasNull() {
+            return block.wasNull;
+        }
+
+        @Override
+        public long getLong(int column) {
+            return block.getLong(column);
+        }
+
+        @Override
+        public String getString(int column) {
+            return block.getString(column);
+        }
+
+        @Override
+        public BigDecimal getBigDecimal(int column) {
+            return block.getBigDecimal(column);
+        }
+
+        @Override
+        public Date getDate(int column) {
+            return block.getDate(column);
+        }
+
+        @Override
+        public ResultSetMetaData getMetaData() {
+            return null;
+        }
+    }
+}
@@ -1,7 +1,7 @@
 package cz.muni.fi.pv168.transactionmanager.swing;
 
 import cz.muni.fi.pv168.transactionmanager.Account;
-import cz.muni.fi.pv168.transactionmanager.AccountManagerImpl;
+import cz.muni.fi.pv168.transactionmanager.AccountManager;
 import java.math.BigDecimal;
 import java.text.NumberFormat;
 import java.util.ArrayList;
@@ -16,9 +16,9 @@ import javax.swing.table.AbstractTableModel;
 public class AccountTableModel extends AbstractTableModel {
 
     private List<Account> accounts = new ArrayList<>();
-    private AccountManagerImpl accountManager;
+    private AccountManager accountManager;
     
-    public AccountTableModel(AccountManagerImpl accMan) {
+    public AccountTableModel(AccountManager accMan) {
         accountManager = accMan;
     }
     
@@ -1,22 +1,36 @@
 package cz.muni.fi.pv168.transactionmanager.swing;
 
 import cz.muni.fi.pv168.transactionmanager.Account;
+import cz.muni.fi.pv168.transactionmanager.AccountManager;
 import cz.muni.fi.pv168.transactionmanager.AccountManagerImpl;
+import cz.muni.fi.pv168.transactionmanager.AsyncAccountManager;
+import cz.muni.fi.pv168.transactionmanager.AsyncPaymentManager;
+import cz.muni.fi.pv168.transactionmanager.CachingAccountManager;
+import cz.muni.fi.pv168.transactionmanager.MeteredAccountManager;
+import cz.muni.fi.pv168.transactionmanager.MeteredPaymentManager;
 import cz.muni.fi.pv168.transactionmanager.Payment;
+import cz.muni.fi.pv168.transactionmanager.PaymentManager;
 import cz.muni.fi.pv168.transactionmanager.PaymentManagerImpl;
 import cz.muni.fi.pv168.utils.DBUtils;
+import cz.muni.fi.pv168.utils.ManagerExecutors;
+import cz.muni.fi.pv168.utils.MetricsRegistry;
 import java.awt.BorderLayout;
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 import javax.sql.DataSource;
 import javax.swing.JComboBox;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
 import javax.swing.SwingWorker;
 
 /**
@@ -25,9 +39,11 @@ import javax.swing.SwingWorker;
  */
 public class TransactionManager extends javax.swing.JFrame {
     
-    private AccountManagerImpl accountManager;
+    private AccountManager accountManager;
     private final DataSource dataSource;
-    private PaymentManagerImpl paymentManager;
+    private PaymentManager paymentManager;
+    private final ExecutorService executor;
+    private final AsyncPaymentManager asyncPaymentManager;
     private final AccountTableModel accountModel;
     private PaymentTableModel paymentModel;
     
@@ -35,14 +51,39 @@ public class TransactionManager extends javax.swing.JFrame {
      * Creates new form TransactionManager
      */
     public TransactionManager() {
-        dataSource = DBUtils.createMemoryDatabase();
-        accountManager = new AccountManagerImpl(dataSource);
-        paymentManager = new PaymentManagerImpl(dataSource);
+        dataSource = DBUtils.createDatabase();
+        Properties properties = DBUtils.loadProperties(DBUtils.DATASOURCE_PROPERTIES);
+        startMetrics(properties);
+        CachingAccountManager cachingAccountManager = new CachingAccountManager(new AccountManagerImpl(dataSource));
+        PaymentManagerImpl paymentManagerImpl = new PaymentManagerImpl(dataSource);
+        paymentManagerImpl.addBalanceChangeListener(cachingAccountManager);
+        accountManager = new MeteredAccountManager(cachingAccountManager);
+        paymentManager = new MeteredPaymentManager(paymentManagerImpl);
+        executor = ManagerExecutors.create("transaction-manager", properties);
+        asyncPaymentManager = new AsyncPaymentManager(paymentManager,
+                new AsyncAccountManager(accountManager, executor), executor);
         initComponents();
         accountModel = (AccountTableModel) jAccountTable.getModel();
         accountModel.updateAccounts();
         paymentModel = (PaymentTableModel) jPaymentTable.getModel();
     }
+    
+    /**
+     * Publishes metrics of managers through JMX and starts their periodic 
+     * writing to log according to properties metrics.jmx and metrics.reportSeconds
+     */
+    private static void startMetrics(Properties properties) {
+        MetricsRegistry registry = MetricsRegistry.getDefault();
+        
+        if(Boolean.parseBoolean(properties.getProperty("metrics.jmx", "true"))) {
+            registry.registerMBeans();
+        }
+        
+        long reportSeconds = Long.parseLong(properties.getProperty("metrics.reportSeconds", "0"));
+        if(reportSeconds > 0) {
+            registry.startReporter(reportSeconds, TimeUnit.SECONDS);
+        }
+    }
         
     private class CreateAccountSwingWorker extends SwingWorker<Void, Void> {
         private Account account;
@@ -69,33 +110,6 @@ public class TransactionManager extends javax.swing.JFrame {
         }
     }
         
-    private class CreatePaymentSwingWorker extends SwingWorker<Void, Void> {
-        
-        @Override
-        protected Void doInBackground() throws Exception {
-            Payment payment = new Payment();
-            payment.setDate(jCalendar.getDate().toInstant().atZone(ZoneId.systemDefault()).toLocalDate());
-            payment.setFrom(accountManager.getAccountByNumber((String) makePaymentFromAccJComboBox.getSelectedItem()));
-            payment.setTo(accountManager.getAccountByNumber((String) makePaymentToAccJComboBox.getSelectedItem()));
-            payment.setAmount(new BigDecimal(makePaymentAmountJTextField.getText()));
-        
-            paymentManager.createPayment(payment);
-            accountModel.updateAccounts();
-            
-            return null;
-        }
-        
-        @Override    
-        protected void done() {
-            try {
-                this.get();
-                JOptionPane.showMessageDialog(null, java.util.ResourceBundle.getBundle("cz/muni/fi/pv168/transactionmanager/swing/Bundle").getString("PAYMENT CREATED"), "Message", JOptionPane.INFORMATION_MESSAGE);
-            } catch(InterruptedException | ExecutionException ex) {
-                JOptionPane.showMessageDialog(null, ex.getCause().getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-            }
-        }   
-    }
-    
     private class DeleteAccountSwingWorker extends SwingWorker<Void, Void> {
         private final int index;
         private Account account;
@@ -810,8 +824,28 @@ public class TransactionManager extends javax.swing.JFrame {
     }//GEN-LAST:event_jExitButtonInMenuActionPerformed
 
     private void createPaymentButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_createPaymentButtonActionPerformed
-        CreatePaymentSwingWorker createPaymentSwingWorker = new CreatePaymentSwingWorker();
-        createPaymentSwingWorker.execute();
+        LocalDate date = jCalendar.getDate().toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
+        String fromNumber = (String) makePaymentFromAccJComboBox.getSelectedItem();
+        String toNumber = (String) makePaymentToAccJComboBox.getSelectedItem();
+        BigDecimal amount;
+        
+        try {
+            amount = new BigDecimal(makePaymentAmountJTextField.getText());
+        } catch(NumberFormatException ex) {
+            JOptionPane.showMessageDialog(null, java.util.ResourceBundle.getBundle("cz/muni/fi/pv168/transactionmanager/swing/Bundle").getString("INVALID AMOUNT OF PAYMENT"), java.util.ResourceBundle.getBundle("cz/muni/fi/pv168/transactionmanager/swing/Bundle").getString("ERROR"), JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        
+        asyncPaymentManager.createPayment(fromNumber, toNumber, amount, date)
+                .thenRun(accountModel::updateAccounts)
+                .whenComplete((result, ex) -> SwingUtilities.invokeLater(() -> {
+                    if(ex == null) {
+                        JOptionPane.showMessageDialog(null, java.util.ResourceBundle.getBundle("cz/muni/fi/pv168/transactionmanager/swing/Bundle").getString("PAYMENT CREATED"), "Message", JOptionPane.INFORMATION_MESSAGE);
+                    } else {
+                        Throwable cause = ex instanceof CompletionException ? ex.getCause() : ex;
+                        JOptionPane.showMessageDialog(null, cause.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                    }
+                }));
     }//GEN-LAST:event_createPaymentButtonActionPerformed
 
     private void jMenuCreateNewAccountButtonInMenuActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jMenuCreateNewAccountButtonInMenuActionPerformed
@@ -1,7 +1,6 @@
 package cz.muni.fi.pv168.utils;
 
 import cz.muni.fi.pv168.transactionmanager.Account;
-import java.math.BigDecimal;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 
@@ -23,14 +22,35 @@ public class AccountHelper {
         account.setBalance(rs.getBigDecimal("balance"));
         account.setHolder(rs.getString("holder"));
         account.setNumber(rs.getString("number"));
+        account.setVersion(rs.getLong("version"));
         
         return account;        
     }
+    
+    /**
+     * Method which retrieve account from resultSet where columns of account 
+     * are labeled with given prefix (e.g. fromId, fromNumber, ...)
+     * @param rs represents resultSet from which we retrieve account
+     * @param prefix represents prefix of labels of account columns
+     * @return account retrieved from resultSet
+     * @throws SQLException in case of any error when retrieving data from resultSet
+     */
+    public Account resultSetToAccount(ResultSet rs, String prefix) throws SQLException {
+        Account account = new Account();
+        account.setId(rs.getLong(prefix + "Id"));
+        account.setBalance(rs.getBigDecimal(prefix + "Balance"));
+        account.setHolder(rs.getString(prefix + "Holder"));
+        account.setNumber(rs.getString(prefix + "Number"));
+        account.setVersion(rs.getLong(prefix + "Version"));
+        
+        return account;
+    }
 
     /**
      * Method which validate parameters of account
      * @param account represents account to be validate
-     * @throws IllegalArgumentException in case of invalid value of argument of account
+     * @throws IllegalArgumentException in case of invalid value of argument of account,
+     * e.g. balance which can not be converted to Money
      */
     public void validate(Account account) throws IllegalArgumentException {
         if(account == null) {
@@ -45,7 +65,7 @@ public class AccountHelper {
             throw new IllegalArgumentException("Null holder of account");
         }
         
-        if(account.getBalance().compareTo(BigDecimal.ZERO) < 0) {
+        if(Money.of(account.getBalance()).signum() < 0) {
             throw new IllegalArgumentException("Negative balance of account");
         }        
     }
@@ -0,0 +1,183 @@
+package cz.muni.fi.pv168.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Locks accounts inside of application before database transaction starts.
+ * Accounts are mapped to fixed number of stripes by their ids, so transfers 
+ * between unrelated accounts run in parallel and transfers sharing an account 
+ * wait for each other. Stripes are always locked in ascending order of their 
+ * index, so two transfers can not wait for each other crosswise.
+ * 
+ * @author Miroslav Kubus
+ */
+public class AccountLockManager {
+    
+    private static final Logger logger = Logger.getLogger(AccountLockManager.class.getName());
+    public static final int DEFAULT_STRIPES = 64;
+    
+    private final ReentrantLock[] stripes;
+    private final AtomicLongArray acquisitions;
+    private final AtomicLongArray contended;
+    private final AtomicLongArray totalWaitNanos;
+    private final AtomicLongArray maxWaitNanos;
+    
+    public AccountLockManager() {
+        this(DEFAULT_STRIPES);
+    }
+    
+    /**
+     * Creates lock manager
+     * @param stripeCount represents count of locks shared by all accounts
+     * @throws IllegalArgumentException when stripeCount is not positive
+     */
+    public AccountLockManager(int stripeCount) {
+        if(stripeCount < 1) {
+            throw new IllegalArgumentException("Count of stripes must be positive: " + stripeCount);
+        }
+        
+        stripes = new ReentrantLock[stripeCount];
+        for(int i = 0; i < stripeCount; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        
+        acquisitions = new AtomicLongArray(stripeCount);
+        contended = new AtomicLongArray(stripeCount);
+        totalWaitNanos = new AtomicLongArray(stripeCount);
+        maxWaitNanos = new AtomicLongArray(stripeCount);
+    }
+    
+    public int getStripeCount() {
+        return stripes.length;
+    }
+    
+    /**
+     * Returns index of stripe which guards account with given id
+     * @param accountId id of account
+     * @return index of stripe
+     */
+    public int stripeOf(long accountId) {
+        return (int) Math.floorMod(accountId, (long) stripes.length);
+    }
+    
+    /**
+     * Locks stripes of all given accounts. Returned object unlocks them 
+     * when closed, so it should be used in try-with-resources.
+     * @param accountIds ids of accounts
+     * @return locked accounts
+     * @throws IllegalArgumentException when some of ids is null
+     */
+    public LockedAccounts lock(Long... accountIds) {
+        List<Long> ids = new ArrayList<>(accountIds.length);
+        for(Long id : accountIds) {
+            ids.add(id);
+        }
+        
+        return lock(ids);
+    }
+    
+    /**
+     * Locks stripes of all given accounts. Returned object unlocks them 
+     * when closed, so it should be used in try-with-resources.
+     * @param accountIds ids of accounts
+     * @return locked accounts
+     * @throws IllegalArgumentException when some of ids is null
+     */
+    public LockedAccounts lock(Iterable<Long> accountIds) {
+        TreeSet<Integer> indexes = new TreeSet<>();
+        
+        for(Long id : accountIds) {
+            if(id == null) {
+                throw new IllegalArgumentException("Null id of account to lock");
+            }
+            
+            indexes.add(stripeOf(id));
+        }
+        
+        int[] locked = new int[indexes.size()];
+        int count = 0;
+        
+        for(int index : indexes) {
+            lockStripe(index);
+            locked[count++] = index;
+        }
+        
+        return new LockedAccounts(locked);
+    }
+    
+    private void lockStripe(int index) {
+        ReentrantLock stripe = stripes[index];
+        
+        if(!stripe.tryLock()) {
+            long start = System.nanoTime();
+            stripe.lock();
+            long waited = System.nanoTime() - start;
+            
+            contended.incrementAndGet(index);
+            totalWaitNanos.addAndGet(index, waited);
+            
+            long max = maxWaitNanos.get(index);
+            while(waited > max && !maxWaitNanos.compareAndSet(index, max, waited)) {
+                max = maxWaitNanos.get(index);
+            }
+        }
+        
+        acquisitions.incrementAndGet(index);
+    }
+    
+    /**
+     * Returns statistics of waiting for locks of all stripes
+     * @return statistics ordered by index of stripe
+     */
+    public List<StripeStatistics> getStatistics() {
+        List<StripeStatistics> statistics = new ArrayList<>(stripes.length);
+        
+        for(int i = 0; i < stripes.length; i++) {
+            statistics.add(new StripeStatistics(i, acquisitions.get(i), contended.get(i), 
+                    totalWaitNanos.get(i), maxWaitNanos.get(i), stripes[i].getQueueLength()));
+        }
+        
+        return statistics;
+    }
+    
+    /**
+     * Logs statistics of stripes where some transfer had to wait
+     */
+    public void logStatistics() {
+        for(StripeStatistics stripe : getStatistics()) {
+            if(stripe.getContended() > 0) {
+                logger.log(Level.INFO, "{0}", stripe);
+            }
+        }
+    }
+    
+    /**
+     * Stripes locked by one call of lock
+     */
+    public class LockedAccounts implements AutoCloseable {
+        private final int[] indexes;
+        private boolean closed;
+        
+        private LockedAccounts(int[] indexes) {
+            this.indexes = indexes;
+        }
+        
+        @Override
+        public void close() {
+            if(closed) {
+                return;
+            }
+            
+            closed = true;
+            for(int i = indexes.length - 1; i >= 0; i--) {
+                stripes[indexes[i]].unlock();
+            }
+        }
+    }
+}
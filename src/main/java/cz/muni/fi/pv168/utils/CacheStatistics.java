@@ -0,0 +1,65 @@
+package cz.muni.fi.pv168.utils;
+
+/**
+ * This class represents snapshot of statistics of cache of accounts
+ * 
+ * @author Miroslav Kubus
+ */
+public class CacheStatistics {
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final long invalidations;
+    private final int size;
+    private final int maxSize;
+
+    public CacheStatistics(long hits, long misses, long evictions, long invalidations, 
+            int size, int maxSize) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.invalidations = invalidations;
+        this.size = size;
+        this.maxSize = maxSize;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns part of lookups which were answered from cache
+     * @return hit rate between 0 and 1, zero when there was no lookup
+     */
+    public double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public long getInvalidations() {
+        return invalidations;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStatistics{" + "hits=" + hits + ", misses=" + misses + ", hitRate=" + getHitRate()
+                + ", evictions=" + evictions + ", invalidations=" + invalidations 
+                + ", size=" + size + ", maxSize=" + maxSize + '}';
+    }
+}
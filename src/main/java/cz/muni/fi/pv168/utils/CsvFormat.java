@@ -0,0 +1,162 @@
+package cz.muni.fi.pv168.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reading and writing of records of CSV files. Fields are separated by comma,
+ * fields with comma, quote or end of line are enclosed in quotes and quotes
+ * inside of them are doubled. Record with quoted end of line spans several
+ * lines, other records are one line.
+ *
+ * @author Miroslav Kubus
+ */
+public class CsvFormat {
+
+    private CsvFormat() {
+    }
+
+    /**
+     * Reads one record. Record continues on the next line while it has
+     * quoted field which is not closed, ends of lines inside of quoted field
+     * are read as \n.
+     * @param reader reader of CSV file
+     * @return record without end of line, null at end of file
+     * @throws IOException when reading fails
+     */
+    public static String readRecord(BufferedReader reader) throws IOException {
+        String line = reader.readLine();
+
+        if(line == null || quotesIn(line) % 2 == 0) {
+            return line;
+        }
+
+        StringBuilder record = new StringBuilder(line);
+        long quotes = quotesIn(line);
+
+        while(quotes % 2 != 0 && (line = reader.readLine()) != null) {
+            record.append('\n').append(line);
+            quotes += quotesIn(line);
+        }
+
+        return record.toString();
+    }
+
+    private static long quotesIn(String line) {
+        long quotes = 0;
+
+        for(int i = 0; i < line.length(); i++) {
+            if(line.charAt(i) == '"') {
+                quotes++;
+            }
+        }
+
+        return quotes;
+    }
+
+    /**
+     * Splits record into fields
+     * @param line record of CSV file without end of line
+     * @return fields of line
+     * @throws IllegalArgumentException when quoted field is not closed or
+     * closing quote is not followed by separator
+     */
+    public static List<String> parseLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        int i = 0;
+
+        while(true) {
+            if(i < line.length() && line.charAt(i) == '"') {
+                i++;
+
+                while(true) {
+                    if(i >= line.length()) {
+                        throw new IllegalArgumentException("Unclosed quoted field in line: " + line);
+                    }
+
+                    char c = line.charAt(i++);
+
+                    if(c == '"') {
+                        if(i < line.length() && line.charAt(i) == '"') {
+                            field.append('"');
+                            i++;
+                        } else {
+                            break;
+                        }
+                    } else {
+                        field.append(c);
+                    }
+                }
+
+                if(i < line.length() && line.charAt(i) != ',') {
+                    throw new IllegalArgumentException("Unexpected character after quoted field in line: " + line);
+                }
+            } else {
+                int end = line.indexOf(',', i);
+                field.append(line, i, end < 0 ? line.length() : end);
+                i = end < 0 ? line.length() : end;
+            }
+
+            fields.add(field.toString());
+            field.setLength(0);
+
+            if(i >= line.length()) {
+                return fields;
+            }
+
+            i++;
+        }
+    }
+
+    /**
+     * Appends field to line, field is quoted only when it is needed
+     * @param line line which is being written
+     * @param value value of field, null is written as empty field
+     * @return given line
+     */
+    public static StringBuilder appendField(StringBuilder line, String value) {
+        if(value == null) {
+            return line;
+        }
+
+        if(value.indexOf(',') < 0 && value.indexOf('"') < 0
+                && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return line.append(value);
+        }
+
+        line.append('"');
+
+        for(int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            line.append(c);
+
+            if(c == '"') {
+                line.append('"');
+            }
+        }
+
+        return line.append('"');
+    }
+
+    /**
+     * Formats fields as one line of CSV
+     * @param fields values of fields
+     * @return line without end of line
+     */
+    public static String formatLine(String... fields) {
+        StringBuilder line = new StringBuilder();
+
+        for(int i = 0; i < fields.length; i++) {
+            if(i > 0) {
+                line.append(',');
+            }
+
+            appendField(line, fields[i]);
+        }
+
+        return line.toString();
+    }
+}
@@ -3,16 +3,30 @@ package cz.muni.fi.pv168.utils;
 import cz.muni.fi.pv168.transactionmanager.Account;
 import cz.muni.fi.pv168.transactionmanager.AccountManager;
 import cz.muni.fi.pv168.transactionmanager.AccountManagerImpl;
+import cz.muni.fi.pv168.transactionmanager.Snapshot;
 import org.apache.commons.dbcp2.BasicDataSource;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.URL;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.CallableStatement;
 import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Properties;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.sql.DataSource;
@@ -26,27 +40,409 @@ import org.apache.derby.jdbc.EmbeddedDriver;
 public class DBUtils {
 
     private static final Logger logger = Logger.getLogger(DBUtils.class.getName());
+    
+    /**
+     * Ordered migrations of database schema. Version of migration is its 
+     * position in array starting from 1. New migrations must be only appended.
+     */
+    private static final String[] MIGRATIONS = {
+        "cz/muni/fi/pv168/transactionmanager/createAccountTable.sql",
+        "cz/muni/fi/pv168/transactionmanager/createPaymentTable.sql",
+        "cz/muni/fi/pv168/transactionmanager/migrations/003-payment-indexes.sql",
+        "cz/muni/fi/pv168/transactionmanager/migrations/004-version-columns.sql",
+        "cz/muni/fi/pv168/transactionmanager/migrations/005-account-stats.sql",
+        "cz/muni/fi/pv168/transactionmanager/migrations/006-ledger.sql",
+        "cz/muni/fi/pv168/transactionmanager/migrations/007-import-chunks.sql",
+        "cz/muni/fi/pv168/transactionmanager/migrations/008-snapshot-functions.sql",
+        "cz/muni/fi/pv168/transactionmanager/migrations/009-payment-log-commits.sql"
+    };
+    
+    /**
+     * Version of schema created by createAccountTable.sql and createPaymentTable.sql
+     * before migrations were introduced
+     */
+    private static final int BASELINE_VERSION = 2;
+    
+    /**
+     * Default settings of connection pool
+     */
+    public static final String DATASOURCE_PROPERTIES = "cz/muni/fi/pv168/transactionmanager/datasource.properties";
+    
+    /**
+     * System property with name of profile of persistent database
+     */
+    public static final String PROFILE_PROPERTY = "transactionmanager.profile";
+    
+    /**
+     * System property with directory of persistent database
+     */
+    public static final String DIRECTORY_PROPERTY = "transactionmanager.directory";
+    
+    /**
+     * System property with path of snapshot which is restored into in memory
+     * database instead of test data
+     */
+    public static final String SNAPSHOT_PROPERTY = "transactionmanager.snapshot";
+    
+    private static final String PROFILES = "cz/muni/fi/pv168/transactionmanager/profiles/";
+    
+    /**
+     * Derby properties which are read only when Derby engine boots and can 
+     * not be stored in database, they are set as system properties
+     */
+    private static final Set<String> ENGINE_PROPERTIES = new HashSet<>(Arrays.asList(
+            "derby.storage.pageCacheSize"));
 
     /**
      * Method which creates in memory database with table account and payment
      * @return datasource of database
      */
     public static DataSource createMemoryDatabase() {
-        BasicDataSource bds = new BasicDataSource();
-        
-        bds.setDriverClassName(EmbeddedDriver.class.getName());
-        bds.setUrl("jdbc:derby:memory:transactionDB;create=true");
-        logger.info("Database created");
+        BasicDataSource bds = createMigratedMemoryDatabase();
         
         new ResourceDatabasePopulator(
-                new ClassPathResource("cz/muni/fi/pv168/transactionmanager/createAccountTable.sql"),
-                new ClassPathResource("cz/muni/fi/pv168/transactionmanager/createPaymentTable.sql"),
                 new ClassPathResource("cz/muni/fi/pv168/transactionmanager/test-data.sql")).execute(bds);
           
         logger.info("SQL scripts executed");
         return bds;
     }
     
+    /**
+     * Method which creates in memory database with accounts and payments 
+     * restored from binary snapshot
+     * @param snapshot file of snapshot written by class Snapshot
+     * @return datasource of database
+     */
+    public static DataSource createMemoryDatabase(Path snapshot) {
+        BasicDataSource bds = createMigratedMemoryDatabase();
+        
+        new Snapshot(bds).restore(snapshot);
+        
+        logger.log(Level.INFO, "Snapshot {0} restored", snapshot);
+        return bds;
+    }
+    
+    private static BasicDataSource createMigratedMemoryDatabase() {
+        BasicDataSource bds = createDataSource("jdbc:derby:memory:transactionDB;create=true", 
+                loadProperties(DATASOURCE_PROPERTIES));
+        logger.info("Database created");
+        
+        try {
+            migrate(bds);
+        } catch (SQLException ex) {
+            logger.log(Level.SEVERE, "Error while migrating database", ex);
+            throw new ServiceFailureException("Error while migrating database", ex);
+        }
+        
+        return bds;
+    }
+    
+    /**
+     * Creates database selected by system property transactionmanager.profile.
+     * Without this property in memory database is created, it contains 
+     * snapshot given by system property transactionmanager.snapshot or test 
+     * data, otherwise persistent database configured by given profile is opened.
+     * @return datasource of database
+     */
+    public static DataSource createDatabase() {
+        String profile = System.getProperty(PROFILE_PROPERTY);
+        
+        if (profile == null || profile.isEmpty()) {
+            String snapshot = System.getProperty(SNAPSHOT_PROPERTY);
+            
+            return snapshot == null || snapshot.isEmpty() ? createMemoryDatabase() 
+                    : createMemoryDatabase(Paths.get(snapshot));
+        }
+        
+        return createPersistentDatabase(profile);
+    }
+    
+    /**
+     * Opens persistent database configured by profile from directory profiles.
+     * Directory of database can be overridden by system property 
+     * transactionmanager.directory.
+     * @param profile name of profile, e.g. "disk" or "disk-tuned"
+     * @return datasource of database
+     */
+    public static DataSource createPersistentDatabase(String profile) {
+        Properties properties = loadProperties(DATASOURCE_PROPERTIES);
+        properties.putAll(loadProperties(PROFILES + profile + ".properties"));
+        
+        String directory = System.getProperty(DIRECTORY_PROPERTY, 
+                properties.getProperty("database.directory", "transactionDB"));
+        
+        return createPersistentDatabase(directory, properties);
+    }
+    
+    /**
+     * Opens persistent database in given directory, database is created when 
+     * it does not exist. Schema is migrated to the latest version, so tables 
+     * are created only in new database. Properties with prefix "derby." are 
+     * stored in database, so they apply only to this database, except of 
+     * ENGINE_PROPERTIES, which are set as system properties and apply to all 
+     * Derby databases of the process. Properties with prefix "pool." 
+     * configure connection pool.
+     * @param directory directory of database
+     * @param properties settings of Derby and connection pool
+     * @return datasource of database
+     */
+    public static PooledDataSource createPersistentDatabase(String directory, Properties properties) {
+        Properties databaseProperties = new Properties();
+        
+        for (String key : properties.stringPropertyNames()) {
+            if (ENGINE_PROPERTIES.contains(key)) {
+                System.setProperty(key, properties.getProperty(key));
+            } else if (key.startsWith("derby.")) {
+                databaseProperties.setProperty(key, properties.getProperty(key));
+            }
+        }
+        
+        PooledDataSource pds = createDataSource("jdbc:derby:" + directory + ";create=true", properties);
+        
+        try {
+            setDatabaseProperties(directory, databaseProperties);
+            logger.log(Level.INFO, "Database in {0} migrated to version {1}", 
+                    new Object[]{directory, migrate(pds)});
+        } catch (SQLException ex) {
+            logger.log(Level.SEVERE, "Error while migrating database in " + directory, ex);
+            throw new ServiceFailureException("Error while migrating database in " + directory, ex);
+        }
+        
+        return pds;
+    }
+    
+    /**
+     * Stores Derby properties in database. Some of them are read only when 
+     * database boots, so database whose properties were changed is shut down 
+     * and the next connection boots it again.
+     */
+    private static void setDatabaseProperties(String directory, Properties properties) throws SQLException {
+        if (properties.isEmpty()) {
+            return;
+        }
+        
+        boolean changed = false;
+        
+        try (Connection connection = DriverManager.getConnection("jdbc:derby:" + directory + ";create=true");
+             PreparedStatement get = connection.prepareStatement("VALUES SYSCS_UTIL.SYSCS_GET_DATABASE_PROPERTY(?)");
+             CallableStatement set = connection.prepareCall("CALL SYSCS_UTIL.SYSCS_SET_DATABASE_PROPERTY(?, ?)")) {
+            for (String key : properties.stringPropertyNames()) {
+                get.setString(1, key);
+                
+                try (ResultSet rs = get.executeQuery()) {
+                    rs.next();
+                    
+                    if (properties.getProperty(key).equals(rs.getString(1))) {
+                        continue;
+                    }
+                }
+                
+                set.setString(1, key);
+                set.setString(2, properties.getProperty(key));
+                set.execute();
+                changed = true;
+            }
+        }
+        
+        if (changed) {
+            logger.log(Level.INFO, "Derby properties of database in {0} changed, rebooting it", directory);
+            shutdownDatabase(directory);
+        }
+    }
+    
+    /**
+     * Shuts down persistent database in given directory, so all its files are closed.
+     * @param directory directory of database
+     */
+    public static void shutdownDatabase(String directory) {
+        try {
+            DriverManager.getConnection("jdbc:derby:" + directory + ";shutdown=true").close();
+        } catch (SQLException ex) {
+            if (!"08006".equals(ex.getSQLState())) {
+                logger.log(Level.SEVERE, "Error while shutting down database in " + directory, ex);
+                throw new ServiceFailureException("Error while shutting down database in " + directory, ex);
+            }
+        }
+    }
+    
+    /**
+     * Creates pooled datasource of embedded Derby database. Pool is configured 
+     * by properties with prefix "pool." (see datasource.properties), missing 
+     * properties keep default values of DBCP.
+     * 
+     * @param url JDBC url of database
+     * @param properties settings of connection pool
+     * @return pooled datasource which provides statistics of pool
+     */
+    public static PooledDataSource createDataSource(String url, Properties properties) {
+        PooledDataSource pds = new PooledDataSource();
+        
+        pds.setDriverClassName(EmbeddedDriver.class.getName());
+        pds.setUrl(url);
+        
+        pds.setMaxTotal(intProperty(properties, "pool.maxTotal", pds.getMaxTotal()));
+        pds.setMaxIdle(intProperty(properties, "pool.maxIdle", pds.getMaxIdle()));
+        pds.setMinIdle(intProperty(properties, "pool.minIdle", pds.getMinIdle()));
+        pds.setMaxWaitMillis(longProperty(properties, "pool.maxWaitMillis", pds.getMaxWaitMillis()));
+        
+        pds.setPoolPreparedStatements(booleanProperty(properties, "pool.poolPreparedStatements", true));
+        pds.setMaxOpenPreparedStatements(intProperty(properties, "pool.maxOpenPreparedStatements", 
+                pds.getMaxOpenPreparedStatements()));
+        
+        pds.setValidationQuery(properties.getProperty("pool.validationQuery", "VALUES 1"));
+        pds.setTestOnBorrow(booleanProperty(properties, "pool.testOnBorrow", pds.getTestOnBorrow()));
+        pds.setTestWhileIdle(booleanProperty(properties, "pool.testWhileIdle", pds.getTestWhileIdle()));
+        
+        pds.setTimeBetweenEvictionRunsMillis(longProperty(properties, "pool.timeBetweenEvictionRunsMillis", 
+                pds.getTimeBetweenEvictionRunsMillis()));
+        pds.setMinEvictableIdleTimeMillis(longProperty(properties, "pool.minEvictableIdleTimeMillis", 
+                pds.getMinEvictableIdleTimeMillis()));
+        
+        if (booleanProperty(properties, "pool.trackLeaks", false)) {
+            pds.setTrackLeaks(true);
+            pds.setRemoveAbandonedOnMaintenance(true);
+            pds.setRemoveAbandonedTimeout(intProperty(properties, "pool.removeAbandonedTimeout", 
+                    pds.getRemoveAbandonedTimeout()));
+            pds.setLeakSuspectMillis(longProperty(properties, "pool.leakSuspectMillis", 
+                    pds.getLeakSuspectMillis()));
+        }
+        
+        return pds;
+    }
+    
+    /**
+     * Loads properties from classpath resource
+     * 
+     * @param resource path of resource in classpath
+     * @return loaded properties
+     */
+    public static Properties loadProperties(String resource) {
+        Properties properties = new Properties();
+        
+        try (InputStream input = DBUtils.class.getClassLoader().getResourceAsStream(resource)) {
+            if (input == null) {
+                throw new ServiceFailureException("Missing properties " + resource);
+            }
+            properties.load(input);
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, "Error while reading properties " + resource, ex);
+            throw new ServiceFailureException("Cannot read " + resource, ex);
+        }
+        
+        return properties;
+    }
+    
+    private static int intProperty(Properties properties, String key, int defaultValue) {
+        String value = properties.getProperty(key);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+    
+    private static long longProperty(Properties properties, String key, long defaultValue) {
+        String value = properties.getProperty(key);
+        return value == null ? defaultValue : Long.parseLong(value.trim());
+    }
+    
+    private static boolean booleanProperty(Properties properties, String key, boolean defaultValue) {
+        String value = properties.getProperty(key);
+        return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+    
+    /**
+     * Brings schema of database to the latest version. Migrations which are 
+     * not recorded in table schema_version are executed in order, each one 
+     * in its own transaction together with record of its version.
+     * Database with tables created before migrations were introduced is 
+     * treated as database in baseline version.
+     * 
+     * @param dataSource datasource
+     * @return version of schema after migration
+     * @throws SQLException when some migration fails
+     */
+    public static int migrate(DataSource dataSource) throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            int version = currentSchemaVersion(connection);
+            
+            while (version < MIGRATIONS.length) {
+                version++;
+                applyMigration(connection, version, MIGRATIONS[version - 1]);
+            }
+            
+            return version;
+        }
+    }
+    
+    private static int currentSchemaVersion(Connection connection) throws SQLException {
+        if (!tableExists(connection, "SCHEMA_VERSION")) {
+            try (Statement st = connection.createStatement()) {
+                st.executeUpdate("CREATE TABLE schema_version ("
+                        + "version INT PRIMARY KEY, "
+                        + "script VARCHAR(255), "
+                        + "applied TIMESTAMP)");
+            }
+            
+            if (tableExists(connection, "ACCOUNT") && tableExists(connection, "PAYMENT")) {
+                logger.info("Existing schema recorded as baseline version");
+                for (int version = 1; version <= BASELINE_VERSION; version++) {
+                    recordMigration(connection, version, MIGRATIONS[version - 1]);
+                }
+            }
+        }
+        
+        try (Statement st = connection.createStatement();
+             ResultSet rs = st.executeQuery("SELECT MAX(version) FROM schema_version")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+    
+    private static void applyMigration(Connection connection, int version, String script) throws SQLException {
+        logger.log(Level.INFO, "Applying migration {0}: {1}", new Object[]{version, script});
+        URL scriptUrl = DBUtils.class.getClassLoader().getResource(script);
+        
+        if (scriptUrl == null) {
+            throw new ServiceFailureException("Missing migration script " + script);
+        }
+        
+        connection.setAutoCommit(false);
+        
+        try (Statement st = connection.createStatement()) {
+            for (String sqlStatement : readSqlStatements(scriptUrl)) {
+                String withoutComments = stripComments(sqlStatement);
+                
+                if (!withoutComments.isEmpty()) {
+                    st.executeUpdate(withoutComments);
+                }
+            }
+            
+            recordMigration(connection, version, script);
+            connection.commit();
+        } catch (SQLException | RuntimeException ex) {
+            connection.rollback();
+            throw ex;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+    
+    private static void recordMigration(Connection connection, int version, String script) throws SQLException {
+        try (PreparedStatement st = connection.prepareStatement(
+                "INSERT INTO schema_version (version, script, applied) VALUES (?,?,CURRENT_TIMESTAMP)")) {
+            st.setInt(1, version);
+            st.setString(2, script);
+            st.executeUpdate();
+        }
+    }
+    
+    private static boolean tableExists(Connection connection, String table) throws SQLException {
+        try (ResultSet rs = connection.getMetaData().getTables(null, null, table, null)) {
+            return rs.next();
+        }
+    }
+    
+    private static String stripComments(String sqlStatement) {
+        return sqlStatement.replaceAll("(?s)/\\*.*?\\*/", "").trim();
+    }
+    
     /**
      * Help main for testing createMemoryDatabase - can be deleted
      * @param args
@@ -61,6 +457,85 @@ public class DBUtils {
         System.out.println("allAccounts = " + allAccounts);
     }
 
+    /**
+     * Drops all triggers, functions and tables of current schema, e.g. after test.
+     * Tables referenced by foreign keys of other tables are dropped after
+     * them, so no table has to be listed in drop script.
+     * 
+     * @param dataSource datasource
+     * @throws SQLException when some object can not be dropped
+     */
+    public static void dropAll(DataSource dataSource) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             Statement st = connection.createStatement()) {
+            String schema;
+            
+            try (ResultSet rs = st.executeQuery("VALUES CURRENT SCHEMA")) {
+                rs.next();
+                schema = rs.getString(1);
+            }
+            
+            try (PreparedStatement triggers = connection.prepareStatement(
+                    "SELECT t.triggername FROM sys.systriggers t JOIN sys.sysschemas s"
+                    + " ON t.schemaid = s.schemaid WHERE s.schemaname = ?")) {
+                triggers.setString(1, schema);
+                List<String> names = new ArrayList<>();
+                
+                try (ResultSet rs = triggers.executeQuery()) {
+                    while (rs.next()) {
+                        names.add(rs.getString(1));
+                    }
+                }
+                
+                for (String trigger : names) {
+                    st.executeUpdate("DROP TRIGGER " + trigger);
+                }
+            }
+            
+            try (ResultSet rs = connection.getMetaData().getFunctions(null, schema, "%")) {
+                List<String> functions = new ArrayList<>();
+                
+                while (rs.next()) {
+                    functions.add(rs.getString("FUNCTION_NAME"));
+                }
+                
+                for (String function : functions) {
+                    st.executeUpdate("DROP FUNCTION " + function);
+                }
+            }
+            
+            List<String> tables = new ArrayList<>();
+            
+            try (ResultSet rs = connection.getMetaData().getTables(null, schema, "%", new String[]{"TABLE"})) {
+                while (rs.next()) {
+                    tables.add(rs.getString("TABLE_NAME"));
+                }
+            }
+            
+            while (!tables.isEmpty()) {
+                List<String> referenced = new ArrayList<>();
+                SQLException failure = null;
+                
+                for (String table : tables) {
+                    try {
+                        st.executeUpdate("DROP TABLE " + table);
+                    } catch (SQLException ex) {
+                        referenced.add(table);
+                        failure = ex;
+                    }
+                }
+                
+                if (referenced.size() == tables.size()) {
+                    throw failure;
+                }
+                
+                tables = referenced;
+            }
+        }
+        
+        logger.info("All tables dropped");
+    }
+    
     /**
      * Executes SQL script.
      * 
@@ -0,0 +1,27 @@
+package cz.muni.fi.pv168.utils;
+
+/**
+ * This exception is thrown when payment would lower balance of from account 
+ * under zero and manager checks funds of accounts
+ * 
+ * @author Miroslav Kubus
+ */
+public class InsufficientFundsException extends RuntimeException {
+
+    /**
+     * Creates a new instance of <code>InsufficientFundsException</code> without
+     * detail message.
+     */
+    public InsufficientFundsException() {
+    }
+
+    /**
+     * Constructs an instance of <code>InsufficientFundsException</code> with the
+     * specified detail message.
+     *
+     * @param msg the detail message.
+     */
+    public InsufficientFundsException(String msg) {
+        super(msg);
+    }
+}
@@ -0,0 +1,208 @@
+package cz.muni.fi.pv168.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Hash map with primitive long keys, so keys are not boxed and entries are
+ * not allocated. Keys are stored in open addressing table with linear probing,
+ * removed entry is filled by shifting of following entries back, so table
+ * has no tombstones. Null values are not allowed, null marks free slot.
+ * Map is not thread safe.
+ *
+ * @author Miroslav Kubus
+ */
+public class LongHashMap<V> {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    private Object[] values;
+    private int size;
+    private int mask;
+
+    public LongHashMap() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * Creates map
+     * @param expectedSize represents count of entries which map holds without growing
+     * @throws IllegalArgumentException when expectedSize is negative
+     */
+    public LongHashMap(int expectedSize) {
+        if(expectedSize < 0) {
+            throw new IllegalArgumentException("Expected size must not be negative: " + expectedSize);
+        }
+
+        int capacity = MIN_CAPACITY;
+        while(capacity * 3 / 4 < expectedSize) {
+            capacity *= 2;
+        }
+
+        allocate(capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return value of key or null when map does not contain key
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        for(int slot = slotOf(key); values[slot] != null; slot = (slot + 1) & mask) {
+            if(keys[slot] == key) {
+                return (V) values[slot];
+            }
+        }
+
+        return null;
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Associates value with key
+     * @return previous value of key or null
+     * @throws IllegalArgumentException when value is null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if(value == null) {
+            throw new IllegalArgumentException("Null value of key " + key);
+        }
+
+        int slot = slotOf(key);
+
+        for(; values[slot] != null; slot = (slot + 1) & mask) {
+            if(keys[slot] == key) {
+                V previous = (V) values[slot];
+                values[slot] = value;
+                return previous;
+            }
+        }
+
+        keys[slot] = key;
+        values[slot] = value;
+
+        if(++size > (mask + 1) * 3 / 4) {
+            rehash((mask + 1) * 2);
+        }
+
+        return null;
+    }
+
+    /**
+     * Removes key from map
+     * @return removed value or null when map did not contain key
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        for(int slot = slotOf(key); values[slot] != null; slot = (slot + 1) & mask) {
+            if(keys[slot] == key) {
+                V removed = (V) values[slot];
+                shiftBack(slot);
+                size--;
+                return removed;
+            }
+        }
+
+        return null;
+    }
+
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     * Passes every value to consumer in order of slots
+     */
+    @SuppressWarnings("unchecked")
+    public void forEachValue(Consumer<? super V> consumer) {
+        for(Object value : values) {
+            if(value != null) {
+                consumer.accept((V) value);
+            }
+        }
+    }
+
+    /**
+     * @return new list of all values in order of slots
+     */
+    public List<V> values() {
+        List<V> list = new ArrayList<>(size);
+        forEachValue(list::add);
+
+        return list;
+    }
+
+    /**
+     * Empties slot and moves back following entries of the same cluster
+     * which would not be found after their probe sequence is broken
+     */
+    private void shiftBack(int free) {
+        int slot = free;
+
+        while(true) {
+            slot = (slot + 1) & mask;
+
+            if(values[slot] == null) {
+                values[free] = null;
+                return;
+            }
+
+            int home = slotOf(keys[slot]);
+
+            if(((slot - home) & mask) >= ((slot - free) & mask)) {
+                keys[free] = keys[slot];
+                values[free] = values[slot];
+                free = slot;
+            }
+        }
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+
+        for(int i = 0; i < oldValues.length; i++) {
+            if(oldValues[i] != null) {
+                int slot = slotOf(oldKeys[i]);
+
+                while(values[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Sequential ids would fill one cluster, so bits of key are mixed by
+     * multiplication with golden ratio
+     */
+    private int slotOf(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
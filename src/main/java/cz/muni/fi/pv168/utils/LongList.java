@@ -0,0 +1,87 @@
+package cz.muni.fi.pv168.utils;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of primitive longs, e.g. ids of payments of one account.
+ * List is not thread safe.
+ *
+ * @author Miroslav Kubus
+ */
+public class LongList {
+
+    private long[] values;
+    private int size;
+
+    public LongList() {
+        this(4);
+    }
+
+    /**
+     * Creates list
+     * @param capacity represents count of values which list holds without growing
+     * @throws IllegalArgumentException when capacity is negative
+     */
+    public LongList(int capacity) {
+        if(capacity < 0) {
+            throw new IllegalArgumentException("Capacity must not be negative: " + capacity);
+        }
+
+        values = new long[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @throws IndexOutOfBoundsException when index is not lower than size
+     */
+    public long get(int index) {
+        if(index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " of list with size " + size);
+        }
+
+        return values[index];
+    }
+
+    public void add(long value) {
+        if(size == values.length) {
+            values = Arrays.copyOf(values, Math.max(4, size * 2));
+        }
+
+        values[size++] = value;
+    }
+
+    /**
+     * Removes the last occurrence of value, values are usually appended
+     * in ascending order and the recent ones are removed more often
+     * @return true when list contained value
+     */
+    public boolean remove(long value) {
+        for(int i = size - 1; i >= 0; i--) {
+            if(values[i] == value) {
+                System.arraycopy(values, i + 1, values, i, size - i - 1);
+                size--;
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * @return new array with values of list
+     */
+    public long[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
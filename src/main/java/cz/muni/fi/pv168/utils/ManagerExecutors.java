@@ -0,0 +1,90 @@
+package cz.muni.fi.pv168.utils;
+
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Creates bounded executors used by asynchronous managers and submits
+ * operations of managers to them.
+ *
+ * @author Miroslav Kubus
+ */
+public class ManagerExecutors {
+
+    private static final Logger logger = Logger.getLogger(ManagerExecutors.class.getName());
+    public static final String THREADS_PROPERTY = "executor.threads";
+    public static final String QUEUE_CAPACITY_PROPERTY = "executor.queueCapacity";
+
+    private ManagerExecutors() {
+    }
+
+    /**
+     * Creates executor with fixed number of daemon threads and bounded queue
+     * of waiting operations. Operations over capacity of queue are rejected.
+     * @param name prefix of names of threads
+     * @param threads number of threads
+     * @param queueCapacity maximal number of waiting operations
+     * @return new executor
+     */
+    public static ExecutorService create(String name, int threads, int queueCapacity) {
+        if(threads < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Number of threads and capacity of queue must be positive");
+        }
+
+        logger.log(Level.INFO, "Creating executor {0} with {1} threads", new Object[]{name, threads});
+        AtomicInteger counter = new AtomicInteger();
+
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Creates executor configured by properties executor.threads and
+     * executor.queueCapacity.
+     * @param name prefix of names of threads
+     * @param properties configuration of executor
+     * @return new executor
+     */
+    public static ExecutorService create(String name, Properties properties) {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int threads = Integer.parseInt(properties.getProperty(THREADS_PROPERTY, String.valueOf(processors)));
+        int queueCapacity = Integer.parseInt(properties.getProperty(QUEUE_CAPACITY_PROPERTY, "1000"));
+
+        return create(name, threads, queueCapacity);
+    }
+
+    /**
+     * Runs operation on executor. When executor rejects operation, returned
+     * future is completed exceptionally instead of throwing exception to caller.
+     * @param <T> type of result
+     * @param operation operation to run
+     * @param executor executor which runs operation
+     * @return future with result of operation
+     */
+    public static <T> CompletableFuture<T> supply(Supplier<T> operation, Executor executor) {
+        try {
+            return CompletableFuture.supplyAsync(operation, executor);
+        } catch(RejectedExecutionException ex) {
+            logger.log(Level.WARNING, "Operation rejected by executor", ex);
+            CompletableFuture<T> failed = new CompletableFuture<>();
+            failed.completeExceptionally(ex);
+            return failed;
+        }
+    }
+}
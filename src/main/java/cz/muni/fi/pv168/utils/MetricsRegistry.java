@@ -0,0 +1,153 @@
+package cz.muni.fi.pv168.utils;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registry of metrics of operations. Managers take their metrics from 
+ * registry once when they are created, so recording of calls does not 
+ * look up anything. Metrics can be published as MBeans and periodically 
+ * written to log.
+ * 
+ * @author Miroslav Kubus
+ */
+public class MetricsRegistry {
+    
+    private static final Logger logger = Logger.getLogger(MetricsRegistry.class.getName());
+    private static final MetricsRegistry DEFAULT = new MetricsRegistry("cz.muni.fi.pv168.transactionmanager");
+    
+    private final String domain;
+    private final ConcurrentMap<String, OperationMetrics> operations = new ConcurrentSkipListMap<>();
+    private volatile MBeanServer mBeanServer;
+    
+    /**
+     * Creates registry
+     * @param domain represents domain of names of MBeans
+     */
+    public MetricsRegistry(String domain) {
+        this.domain = domain;
+    }
+    
+    /**
+     * Returns registry used by managers
+     * @return default registry
+     */
+    public static MetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+    
+    /**
+     * Returns metrics of operation with given name, metrics are created 
+     * when they do not exist yet
+     * @param name name of operation, e.g. PaymentManager.createPayment
+     * @return metrics of operation
+     */
+    public OperationMetrics operation(String name) {
+        OperationMetrics metrics = operations.get(name);
+        
+        if(metrics == null) {
+            OperationMetrics created = new OperationMetrics(name);
+            metrics = operations.putIfAbsent(name, created);
+            
+            if(metrics == null) {
+                metrics = created;
+                
+                if(mBeanServer != null) {
+                    registerMBean(mBeanServer, created);
+                }
+            }
+        }
+        
+        return metrics;
+    }
+    
+    /**
+     * Returns metrics of all operations ordered by name
+     * @return list of metrics
+     */
+    public List<OperationMetrics> getOperations() {
+        return new ArrayList<>(operations.values());
+    }
+    
+    /**
+     * Publishes metrics of existing and future operations as MBeans in 
+     * platform MBean server
+     */
+    public synchronized void registerMBeans() {
+        if(mBeanServer != null) {
+            return;
+        }
+        
+        mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        for(OperationMetrics metrics : operations.values()) {
+            registerMBean(mBeanServer, metrics);
+        }
+    }
+    
+    private void registerMBean(MBeanServer server, OperationMetrics metrics) {
+        try {
+            ObjectName name = objectName(metrics.getName());
+            
+            if(!server.isRegistered(name)) {
+                server.registerMBean(metrics, name);
+            }
+        } catch (JMException ex) {
+            logger.log(Level.WARNING, "Metrics of operation " + metrics.getName() + " can not be registered", ex);
+        }
+    }
+    
+    /**
+     * Returns name of MBean of operation
+     * @param operation name of operation
+     * @return object name of MBean
+     * @throws JMException when name of operation is not valid part of object name
+     */
+    public ObjectName objectName(String operation) throws JMException {
+        return new ObjectName(domain + ":type=Operation,name=" + operation);
+    }
+    
+    /**
+     * Returns snapshot of all operations, one operation per line
+     * @return text of snapshot
+     */
+    public String dump() {
+        StringBuilder result = new StringBuilder();
+        
+        for(OperationMetrics metrics : operations.values()) {
+            if(metrics.getCount() > 0) {
+                result.append(metrics).append(System.lineSeparator());
+            }
+        }
+        
+        return result.toString();
+    }
+    
+    /**
+     * Starts daemon thread which periodically writes snapshot of metrics to log
+     * @param period period of writing
+     * @param unit unit of period
+     * @return executor of writing, shutdown of executor stops writing
+     */
+    public ScheduledExecutorService startReporter(long period, TimeUnit unit) {
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        
+        reporter.scheduleAtFixedRate(() -> logger.log(Level.INFO, "Metrics snapshot:{0}{1}", 
+                new Object[]{System.lineSeparator(), dump()}), period, period, unit);
+        return reporter;
+    }
+}
@@ -0,0 +1,114 @@
+package cz.muni.fi.pv168.utils;
+
+import java.math.BigDecimal;
+
+/**
+ * Amount of money as long count of 1/10000 units, which is precision of
+ * amounts and balances in database (DECIMAL(12,4)). Arithmetic does not
+ * allocate anything except result and fails with ArithmeticException on
+ * overflow instead of wrapping around. Managers use BigDecimal in their API
+ * and in JDBC, Money is used inside for validation and arithmetic.
+ *
+ * @author Miroslav Kubus
+ */
+public final class Money implements Comparable<Money> {
+
+    /**
+     * Count of decimal places of amount
+     */
+    public static final int SCALE = 4;
+
+    /**
+     * Count of units in one
+     */
+    public static final long UNITS_PER_ONE = 10000;
+
+    public static final Money ZERO = new Money(0);
+
+    private final long units;
+
+    private Money(long units) {
+        this.units = units;
+    }
+
+    public static Money ofUnits(long units) {
+        return units == 0 ? ZERO : new Money(units);
+    }
+
+    /**
+     * Converts amount of API or database
+     * @param amount represents amount with at most 4 decimal places
+     * @return money with the same value
+     * @throws IllegalArgumentException when amount is null, has more decimal
+     * places or does not fit into long of units
+     */
+    public static Money of(BigDecimal amount) {
+        if(amount == null) {
+            throw new IllegalArgumentException("Null amount of money");
+        }
+
+        try {
+            return ofUnits(amount.setScale(SCALE).unscaledValue().longValueExact());
+        } catch (ArithmeticException ex) {
+            throw new IllegalArgumentException("Amount " + amount + " has more than " + SCALE
+                    + " decimal places or is out of range", ex);
+        }
+    }
+
+    public long getUnits() {
+        return units;
+    }
+
+    public BigDecimal toBigDecimal() {
+        return BigDecimal.valueOf(units, SCALE);
+    }
+
+    /**
+     * @throws ArithmeticException when result overflows
+     */
+    public Money add(Money other) {
+        return ofUnits(Math.addExact(units, other.units));
+    }
+
+    /**
+     * @throws ArithmeticException when result overflows
+     */
+    public Money subtract(Money other) {
+        return ofUnits(Math.subtractExact(units, other.units));
+    }
+
+    /**
+     * @throws ArithmeticException when money is the lowest long of units
+     */
+    public Money negate() {
+        return ofUnits(Math.negateExact(units));
+    }
+
+    public int signum() {
+        return Long.signum(units);
+    }
+
+    public boolean isLessThan(Money other) {
+        return units < other.units;
+    }
+
+    @Override
+    public int compareTo(Money other) {
+        return Long.compare(units, other.units);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof Money && ((Money) obj).units == units;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(units);
+    }
+
+    @Override
+    public String toString() {
+        return toBigDecimal().toPlainString();
+    }
+}
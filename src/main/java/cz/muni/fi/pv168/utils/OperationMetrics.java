@@ -0,0 +1,162 @@
+package cz.muni.fi.pv168.utils;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Count of calls, count of failed calls and histogram of latencies of one 
+ * operation, e.g. one method of manager or one SQL statement. Operation is 
+ * measured as
+ * <pre>
+ * long start = System.nanoTime();
+ * ... operation ...
+ * metrics.record(start);        // or metrics.recordError(start) on failure
+ * </pre>
+ * 
+ * @author Miroslav Kubus
+ */
+public class OperationMetrics implements OperationMetricsMXBean {
+    
+    private final String name;
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final AtomicLong errors = new AtomicLong();
+    
+    public OperationMetrics(String name) {
+        this.name = name;
+    }
+    
+    /**
+     * Records successful call of operation
+     * @param startNanos value of System.nanoTime() when operation started
+     */
+    public void record(long startNanos) {
+        latencies.record(System.nanoTime() - startNanos);
+    }
+    
+    /**
+     * Records failed call of operation. Its latency is recorded as well.
+     * @param startNanos value of System.nanoTime() when operation started
+     */
+    public void recordError(long startNanos) {
+        latencies.record(System.nanoTime() - startNanos);
+        errors.incrementAndGet();
+    }
+    
+    /**
+     * Executes update statement and records its latency
+     * @param st prepared statement to be executed
+     * @return count of updated rows
+     * @throws SQLException when execution of statement fails
+     */
+    public int executeUpdate(PreparedStatement st) throws SQLException {
+        long start = System.nanoTime();
+        
+        try {
+            int updated = st.executeUpdate();
+            record(start);
+            return updated;
+        } catch (SQLException ex) {
+            recordError(start);
+            throw ex;
+        }
+    }
+    
+    /**
+     * Executes batch of statement and records its latency
+     * @param st prepared statement with batch to be executed
+     * @return counts of updated rows
+     * @throws SQLException when execution of batch fails
+     */
+    public int[] executeBatch(PreparedStatement st) throws SQLException {
+        long start = System.nanoTime();
+        
+        try {
+            int[] updated = st.executeBatch();
+            record(start);
+            return updated;
+        } catch (SQLException ex) {
+            recordError(start);
+            throw ex;
+        }
+    }
+    
+    /**
+     * Executes query and records latency until result set is returned
+     * @param st prepared statement to be executed
+     * @return result set of query
+     * @throws SQLException when execution of query fails
+     */
+    public ResultSet executeQuery(PreparedStatement st) throws SQLException {
+        long start = System.nanoTime();
+        
+        try {
+            ResultSet rs = st.executeQuery();
+            record(start);
+            return rs;
+        } catch (SQLException ex) {
+            recordError(start);
+            throw ex;
+        }
+    }
+    
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getCount() {
+        return latencies.getCount();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.get();
+    }
+
+    @Override
+    public double getMeanMicros() {
+        return latencies.getMeanNanos() / 1000.0;
+    }
+
+    @Override
+    public double getP50Micros() {
+        return latencies.getValueAtQuantile(0.5) / 1000.0;
+    }
+
+    @Override
+    public double getP99Micros() {
+        return latencies.getValueAtQuantile(0.99) / 1000.0;
+    }
+
+    @Override
+    public double getP999Micros() {
+        return latencies.getValueAtQuantile(0.999) / 1000.0;
+    }
+
+    @Override
+    public double getMaxMicros() {
+        return latencies.getMaxNanos() / 1000.0;
+    }
+
+    @Override
+    public void reset() {
+        latencies.reset();
+        errors.set(0);
+    }
+    
+    public LatencyHistogram getLatencies() {
+        return latencies;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, 
+                "%s count=%d errors=%d mean=%.1fus p50=%.1fus p99=%.1fus p999=%.1fus max=%.1fus",
+                name, getCount(), getErrors(), getMeanMicros(), getP50Micros(), 
+                getP99Micros(), getP999Micros(), getMaxMicros());
+    }
+}
@@ -0,0 +1,30 @@
+package cz.muni.fi.pv168.utils;
+
+/**
+ * Management interface of metrics of one operation published through JMX
+ * 
+ * @author Miroslav Kubus
+ */
+public interface OperationMetricsMXBean {
+    
+    String getName();
+    
+    long getCount();
+    
+    long getErrors();
+    
+    double getMeanMicros();
+    
+    double getP50Micros();
+    
+    double getP99Micros();
+    
+    double getP999Micros();
+    
+    double getMaxMicros();
+    
+    /**
+     * Clears counters and latencies of operation
+     */
+    void reset();
+}
@@ -0,0 +1,33 @@
+package cz.muni.fi.pv168.utils;
+
+/**
+ * This exception is thrown when update operation is performed with entity 
+ * which was changed in the database since it was read. Exception carries 
+ * current state of entity, so caller can merge changes and try it again.
+ * 
+ * @author Miroslav Kubus
+ */
+public class OptimisticLockException extends RuntimeException {
+    
+    private final Object currentState;
+
+    /**
+     * Constructs an instance of <code>OptimisticLockException</code> with the
+     * specified detail message and current state of entity.
+     *
+     * @param msg the detail message.
+     * @param currentState entity as it is currently stored in the database.
+     */
+    public OptimisticLockException(String msg, Object currentState) {
+        super(msg);
+        this.currentState = currentState;
+    }
+
+    /**
+     * Returns entity as it was stored in the database when conflict was detected.
+     * @return current account or payment
+     */
+    public Object getCurrentState() {
+        return currentState;
+    }
+}
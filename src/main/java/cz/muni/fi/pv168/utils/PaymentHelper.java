@@ -0,0 +1,147 @@
+package cz.muni.fi.pv168.utils;
+
+import cz.muni.fi.pv168.transactionmanager.Payment;
+import cz.muni.fi.pv168.transactionmanager.PaymentBatchResult;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Class which provides validation of payment and creating of payments 
+ * in chunks shared by payment managers
+ * @author Miroslav Kubus
+ */
+public class PaymentHelper {
+    
+    private static final Logger logger = Logger.getLogger(PaymentHelper.class.getName());
+    
+    /**
+     * Creates chunk of valid payments in one transaction of payment manager
+     */
+    public interface ChunkCreator {
+        
+        /**
+         * Creates chunk of payments, sets ids of created payments and notifies 
+         * listeners of manager after transaction is committed
+         * @param chunk represents valid payments without ids
+         * @return failures of payments indexed like chunk, null item for 
+         * created payment, or null when transaction of chunk failed as a whole 
+         * and nothing was created
+         */
+        RuntimeException[] create(List<Payment> chunk);
+    }
+
+    /**
+     * Method which validate parameters of payment
+     * @param payment represents payment to be validate
+     * @throws IllegalArgumentException in case of invalid value of argument of payment,
+     * e.g. amount which can not be converted to Money
+     */
+    public void validate(Payment payment) throws IllegalArgumentException {
+        if(payment == null) {
+            throw new IllegalArgumentException("Payment is null");
+        }
+        
+        if(payment.getFrom() == null) {
+            throw new IllegalArgumentException("Null fromAccount of payment");
+        }
+        
+        if(payment.getTo() == null) {
+            throw new IllegalArgumentException("Null toAccount of payment");
+        }
+        
+        if(payment.getDate() == null) {
+            throw new IllegalArgumentException("Null date of payment");
+        }
+        
+        if(Money.of(payment.getAmount()).signum() <= 0) {
+            throw new IllegalArgumentException("Negative or zero amount of payment");
+        }
+        
+        if(payment.getFrom().equals(payment.getTo())) {
+            throw new IllegalArgumentException("Payment with same From and To account");
+        }
+        
+        if(payment.getDate().isBefore(LocalDate.now())) {
+            throw new IllegalArgumentException("Date of payment from past");
+        }
+    }
+    
+    /**
+     * Validates payments and creates valid ones by chunks. If chunk fails 
+     * as a whole, its payments are created one by one, so failure of one 
+     * payment is reported only for that payment.
+     * @param payments represents payments to be created
+     * @param chunkSize represents count of payments in one transaction
+     * @param chunkCreator creates one chunk in one transaction
+     * @param paymentCreator creates one payment, e.g. createPayment of manager
+     * @return ids of created payments and failures of the other ones
+     * @throws IllegalArgumentException when collection of payments is null
+     */
+    public PaymentBatchResult createInChunks(Collection<Payment> payments, int chunkSize, 
+                                             ChunkCreator chunkCreator, Consumer<Payment> paymentCreator) {
+        if(payments == null) {
+            throw new IllegalArgumentException("Null collection of payments");
+        }
+        
+        logger.log(Level.INFO, "Creating batch of {0} payments", payments.size());
+        
+        PaymentBatchResult result = new PaymentBatchResult(payments.size());
+        List<Payment> chunk = new ArrayList<>();
+        List<Integer> indexes = new ArrayList<>();
+        int index = 0;
+        
+        for(Payment payment : payments) {
+            try {
+                validate(payment);
+                
+                if(payment.getId() != null) {
+                    throw new IllegalArgumentException("Payment ID is already set");
+                }
+                
+                chunk.add(payment);
+                indexes.add(index);
+            } catch (IllegalArgumentException ex) {
+                result.addFailure(index, ex);
+            }
+            
+            index++;
+            
+            if(chunk.size() == chunkSize) {
+                createChunk(chunk, indexes, result, chunkCreator, paymentCreator);
+                chunk.clear();
+                indexes.clear();
+            }
+        }
+        
+        if(!chunk.isEmpty()) {
+            createChunk(chunk, indexes, result, chunkCreator, paymentCreator);
+        }
+        
+        return result;
+    }
+    
+    private static void createChunk(List<Payment> chunk, List<Integer> indexes, PaymentBatchResult result, 
+                                    ChunkCreator chunkCreator, Consumer<Payment> paymentCreator) {
+        RuntimeException[] failures = chunkCreator.create(chunk);
+        
+        for(int i = 0; i < chunk.size(); i++) {
+            if(failures == null) {
+                try {
+                    paymentCreator.accept(chunk.get(i));
+                    result.setId(indexes.get(i), chunk.get(i).getId());
+                } catch (RuntimeException ex) {
+                    result.addFailure(indexes.get(i), ex);
+                }
+            } else if(failures[i] == null) {
+                result.setId(indexes.get(i), chunk.get(i).getId());
+            } else {
+                result.addFailure(indexes.get(i), failures[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package cz.muni.fi.pv168.utils;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class represents snapshot of statistics of connection pool
+ * 
+ * @author Miroslav Kubus
+ */
+public class PoolStatistics {
+    private final int active;
+    private final int idle;
+    private final int maxTotal;
+    private final long borrowedCount;
+    private final long meanBorrowWaitMillis;
+    private final long maxBorrowWaitMillis;
+    private final List<String> leakSuspects;
+
+    public PoolStatistics(int active, int idle, int maxTotal, long borrowedCount, 
+            long meanBorrowWaitMillis, long maxBorrowWaitMillis, List<String> leakSuspects) {
+        this.active = active;
+        this.idle = idle;
+        this.maxTotal = maxTotal;
+        this.borrowedCount = borrowedCount;
+        this.meanBorrowWaitMillis = meanBorrowWaitMillis;
+        this.maxBorrowWaitMillis = maxBorrowWaitMillis;
+        this.leakSuspects = Collections.unmodifiableList(leakSuspects);
+    }
+
+    public int getActive() {
+        return active;
+    }
+
+    public int getIdle() {
+        return idle;
+    }
+
+    public int getMaxTotal() {
+        return maxTotal;
+    }
+
+    public long getBorrowedCount() {
+        return borrowedCount;
+    }
+
+    public long getMeanBorrowWaitMillis() {
+        return meanBorrowWaitMillis;
+    }
+
+    public long getMaxBorrowWaitMillis() {
+        return maxBorrowWaitMillis;
+    }
+
+    /**
+     * Returns connections which are borrowed longer than configured time.
+     * @return descriptions of suspected connections with stack trace of their borrow
+     */
+    public List<String> getLeakSuspects() {
+        return leakSuspects;
+    }
+
+    @Override
+    public String toString() {
+        return "PoolStatistics{active = " + active + ",idle = " + idle + ",maxTotal = " + maxTotal 
+                + ",borrowed = " + borrowedCount + ",meanBorrowWaitMillis = " + meanBorrowWaitMillis 
+                + ",maxBorrowWaitMillis = " + maxBorrowWaitMillis + ",leakSuspects = " + leakSuspects.size() + "}";
+    }
+}
@@ -0,0 +1,135 @@
+package cz.muni.fi.pv168.utils;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.commons.dbcp2.BasicDataSource;
+import org.apache.commons.dbcp2.DelegatingConnection;
+import org.apache.commons.dbcp2.PoolableConnection;
+import org.apache.commons.pool2.impl.GenericObjectPool;
+
+/**
+ * Pooled datasource which provides statistics of its connection pool.
+ * When leaks are tracked, stack trace of each borrow of connection is kept
+ * until connection is closed, so connections borrowed for too long can be 
+ * reported together with place where they were borrowed. Tracking captures
+ * stack trace on every borrow, so it is meant for diagnostics only. Borrows
+ * of connections closed by pool as abandoned are dropped when leak suspects
+ * are searched.
+ * 
+ * @author Miroslav Kubus
+ */
+public class PooledDataSource extends BasicDataSource {
+    
+    private final Set<Borrow> borrows = ConcurrentHashMap.newKeySet();
+    private volatile boolean trackLeaks = false;
+    private volatile long leakSuspectMillis = Long.MAX_VALUE;
+
+    public boolean isTrackLeaks() {
+        return trackLeaks;
+    }
+
+    public void setTrackLeaks(boolean trackLeaks) {
+        this.trackLeaks = trackLeaks;
+    }
+
+    public long getLeakSuspectMillis() {
+        return leakSuspectMillis;
+    }
+
+    /**
+     * Sets time after which borrowed connection is reported as leak suspect.
+     * @param leakSuspectMillis time in milliseconds
+     */
+    public void setLeakSuspectMillis(long leakSuspectMillis) {
+        this.leakSuspectMillis = leakSuspectMillis;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        Connection connection = super.getConnection();
+        return trackLeaks ? new TrackedConnection(connection) : connection;
+    }
+    
+    /**
+     * Returns current statistics of connection pool
+     * @return snapshot of statistics
+     */
+    public PoolStatistics getStatistics() {
+        GenericObjectPool<PoolableConnection> pool = getConnectionPool();
+        
+        if(pool == null) {
+            return new PoolStatistics(0, 0, getMaxTotal(), 0, 0, 0, findLeakSuspects());
+        }
+        
+        return new PoolStatistics(pool.getNumActive(), pool.getNumIdle(), pool.getMaxTotal(), 
+                pool.getBorrowedCount(), pool.getMeanBorrowWaitTimeMillis(), 
+                pool.getMaxBorrowWaitTimeMillis(), findLeakSuspects());
+    }
+    
+    private List<String> findLeakSuspects() {
+        List<String> suspects = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        
+        for(Borrow borrow : borrows) {
+            if(borrow.isClosedByPool()) {
+                borrows.remove(borrow);
+            } else if(now - borrow.time >= leakSuspectMillis) {
+                StringWriter trace = new StringWriter();
+                borrow.printStackTrace(new PrintWriter(trace));
+                suspects.add(trace.toString());
+            }
+        }
+        
+        return suspects;
+    }
+    
+    private static class Borrow extends Throwable {
+        private final long time;
+        private final Connection connection;
+
+        Borrow(long time, Connection connection) {
+            this.time = time;
+            this.connection = connection;
+        }
+
+        /**
+         * Pool closes abandoned connection without calling close of its 
+         * tracking wrapper, borrowed connection is closed then.
+         */
+        boolean isClosedByPool() {
+            try {
+                return connection.isClosed();
+            } catch (SQLException ex) {
+                return true;
+            }
+        }
+
+        @Override
+        public String getMessage() {
+            return "Connection borrowed at " + new Date(time);
+        }
+    }
+    
+    private class TrackedConnection extends DelegatingConnection<Connection> {
+        private final Borrow borrow;
+        
+        TrackedConnection(Connection connection) {
+            super(connection);
+            borrow = new Borrow(System.currentTimeMillis(), connection);
+            borrows.add(borrow);
+        }
+
+        @Override
+        public void close() throws SQLException {
+            borrows.remove(borrow);
+            super.close();
+        }
+    }
+}
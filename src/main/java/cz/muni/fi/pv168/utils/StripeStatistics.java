@@ -0,0 +1,73 @@
+package cz.muni.fi.pv168.utils;
+
+/**
+ * This class represents snapshot of statistics of one stripe of AccountLockManager
+ * 
+ * @author Miroslav Kubus
+ */
+public class StripeStatistics {
+    private final int stripe;
+    private final long acquisitions;
+    private final long contended;
+    private final long totalWaitNanos;
+    private final long maxWaitNanos;
+    private final int waiting;
+
+    public StripeStatistics(int stripe, long acquisitions, long contended, 
+            long totalWaitNanos, long maxWaitNanos, int waiting) {
+        this.stripe = stripe;
+        this.acquisitions = acquisitions;
+        this.contended = contended;
+        this.totalWaitNanos = totalWaitNanos;
+        this.maxWaitNanos = maxWaitNanos;
+        this.waiting = waiting;
+    }
+
+    public int getStripe() {
+        return stripe;
+    }
+
+    public long getAcquisitions() {
+        return acquisitions;
+    }
+
+    /**
+     * Returns count of acquisitions which had to wait for another holder of lock
+     * @return count of contended acquisitions
+     */
+    public long getContended() {
+        return contended;
+    }
+
+    public long getTotalWaitNanos() {
+        return totalWaitNanos;
+    }
+
+    /**
+     * Returns mean wait of contended acquisitions
+     * @return mean wait in nanoseconds or zero when lock was never contended
+     */
+    public long getMeanWaitNanos() {
+        return contended == 0 ? 0 : totalWaitNanos / contended;
+    }
+
+    public long getMaxWaitNanos() {
+        return maxWaitNanos;
+    }
+
+    /**
+     * Returns estimated count of threads which were waiting for lock 
+     * when snapshot was taken
+     * @return count of waiting threads
+     */
+    public int getWaiting() {
+        return waiting;
+    }
+
+    @Override
+    public String toString() {
+        return "StripeStatistics{" + "stripe=" + stripe + ", acquisitions=" + acquisitions 
+                + ", contended=" + contended + ", meanWaitNanos=" + getMeanWaitNanos() 
+                + ", maxWaitNanos=" + maxWaitNanos + ", waiting=" + waiting + '}';
+    }
+}
@@ -0,0 +1,259 @@
+package cz.muni.fi.pv168.utils;
+
+import cz.muni.fi.pv168.transactionmanager.Account;
+import cz.muni.fi.pv168.transactionmanager.Payment;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Class which moves money between accounts in account table, shared by 
+ * payment managers which keep balances in database. Balances are changed 
+ * relatively inside of database, so concurrent payments on the same account 
+ * can not overwrite each other. Version of account is incremented, so account 
+ * read before payment can not be updated with its old balance. Rows of 
+ * accounts are updated in ascending order of their ids, so concurrent 
+ * transfers do not deadlock.
+ * @author Miroslav Kubus
+ */
+public class TransferHelper {
+    
+    private static final Logger logger = Logger.getLogger(TransferHelper.class.getName());
+    
+    private static final String DEBIT_ACCOUNT = 
+            "UPDATE account SET balance = balance - ?, version = version + 1 WHERE id = ?";
+    private static final String DEBIT_ACCOUNT_WITH_FUNDS_CHECK = 
+            "UPDATE account SET balance = balance - ?, version = version + 1 WHERE id = ? AND balance >= ?";
+    private static final String CREDIT_ACCOUNT = 
+            "UPDATE account SET balance = balance + ?, version = version + 1 WHERE id = ?";
+    private static final String SELECT_ACCOUNT_ID = "SELECT id FROM account WHERE id = ?";
+    
+    private static final MetricsRegistry METRICS = MetricsRegistry.getDefault();
+    private static final OperationMetrics SQL_DEBIT = METRICS.operation("sql.account.debit");
+    private static final OperationMetrics SQL_CREDIT = METRICS.operation("sql.account.credit");
+    private static final OperationMetrics SQL_DEBIT_BATCH = METRICS.operation("sql.account.debitBatch");
+    private static final OperationMetrics SQL_CREDIT_BATCH = METRICS.operation("sql.account.creditBatch");
+    private static final OperationMetrics SQL_ACCOUNT_EXISTS = METRICS.operation("sql.account.exists");
+    
+    private final boolean checkFunds;
+    
+    /**
+     * Creates helper
+     * @param checkFunds true if payments which would lower balance of from 
+     * account under zero should be refused with InsufficientFundsException
+     */
+    public TransferHelper(boolean checkFunds) {
+        this.checkFunds = checkFunds;
+    }
+    
+    /**
+     * Moves amount of money from one account to another one. Negative amount 
+     * is moved back from to account to from account, so funds of to account 
+     * are checked when update of payment lowers it.
+     * @param connection represents connection with transaction of payment
+     * @param from represents account of payment which is debited
+     * @param to represents account of payment which is credited
+     * @param amount represents amount, it is negative when update of payment lowers it
+     * @throws InsufficientFundsException when funds are checked and debited account has not enough money
+     * @throws EntityNotFoundException when some of accounts does not exist
+     * @throws SQLException in case of any error of database
+     */
+    public void transfer(Connection connection, Account from, Account to, BigDecimal amount) throws SQLException {
+        if(amount.signum() < 0) {
+            move(connection, to, from, amount.negate());
+        } else {
+            move(connection, from, to, amount);
+        }
+    }
+    
+    private void move(Connection connection, Account debited, Account credited, 
+                      BigDecimal amount) throws SQLException {
+        if(debited.getId() < credited.getId()) {
+            debit(connection, debited, amount);
+            credit(connection, credited, amount);
+        } else {
+            credit(connection, credited, amount);
+            debit(connection, debited, amount);
+        }
+    }
+    
+    private void debit(Connection connection, Account account, BigDecimal amount) throws SQLException {
+        logger.log(Level.INFO, "Debiting {0} from account {1}", new Object[]{amount, account});
+        
+        int updated;
+        
+        try(PreparedStatement debitSt = connection.prepareStatement(
+                checkFunds ? DEBIT_ACCOUNT_WITH_FUNDS_CHECK : DEBIT_ACCOUNT)) {
+            debitSt.setBigDecimal(1, amount);
+            debitSt.setLong(2, account.getId());
+
+            if(checkFunds) {
+                debitSt.setBigDecimal(3, amount);
+            }
+
+            updated = SQL_DEBIT.executeUpdate(debitSt);
+        }
+         
+        if(updated == 0) {
+            throw debitFailure(connection, account, amount);
+        } 
+            
+        if(updated != 1) {
+            throw new ServiceFailureException("Invalid updated rows count detected "
+                                        + "(one row should be updated): " + updated);
+        }
+    }
+    
+    private static void credit(Connection connection, Account account, BigDecimal amount) throws SQLException {
+        logger.log(Level.INFO, "Crediting {0} to account {1}", new Object[]{amount, account});
+        
+        int updated;
+
+        try(PreparedStatement creditSt = connection.prepareStatement(CREDIT_ACCOUNT)) {
+            creditSt.setBigDecimal(1, amount);
+            creditSt.setLong(2, account.getId());
+            
+            updated = SQL_CREDIT.executeUpdate(creditSt);
+        }
+        
+        if(updated == 0) {
+            throw new EntityNotFoundException("No account " + account + " in database");
+        } 
+            
+        if(updated != 1) {
+            throw new ServiceFailureException("Invalid updated rows count detected "
+                                        + "(one row should be updated): " + updated);
+        }
+    }
+    
+    /**
+     * Moves money of chunk of payments by two JDBC batches. Debits and 
+     * credits are sent in order of account ids like in transfer, so 
+     * concurrent chunks lock rows in the same order. Deadlock between debits 
+     * of one chunk and credits of another one is still possible, it fails 
+     * the whole transaction. When to account does not exist, already debited 
+     * amount is returned to from account.
+     * @param connection represents connection with transaction of chunk
+     * @param chunk represents valid payments
+     * @param failures represents failures of payments indexed like chunk, 
+     * failure of payment which was refused is set
+     * @throws SQLException in case of any error of database
+     */
+    public void transferChunk(Connection connection, List<Payment> chunk, 
+                              RuntimeException[] failures) throws SQLException {
+        debitChunk(connection, chunk, failures);
+        creditChunk(connection, chunk, failures);
+    }
+    
+    private void debitChunk(Connection connection, List<Payment> chunk, RuntimeException[] failures) throws SQLException {
+        Integer[] order = new Integer[chunk.size()];
+        
+        for(int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        
+        Arrays.sort(order, Comparator.comparing(i -> chunk.get(i).getFrom().getId()));
+        int[] updated;
+        
+        try (PreparedStatement st = connection.prepareStatement(
+                checkFunds ? DEBIT_ACCOUNT_WITH_FUNDS_CHECK : DEBIT_ACCOUNT)) {
+            for(int i : order) {
+                Payment payment = chunk.get(i);
+                st.setBigDecimal(1, payment.getAmount());
+                st.setLong(2, payment.getFrom().getId());
+                
+                if(checkFunds) {
+                    st.setBigDecimal(3, payment.getAmount());
+                }
+                
+                st.addBatch();
+            }
+            
+            updated = SQL_DEBIT_BATCH.executeBatch(st);
+        }
+        
+        for(int k = 0; k < order.length; k++) {
+            if(updated[k] == 0) {
+                Payment payment = chunk.get(order[k]);
+                failures[order[k]] = debitFailure(connection, payment.getFrom(), payment.getAmount());
+            }
+        }
+    }
+    
+    private static void creditChunk(Connection connection, List<Payment> chunk, 
+                                    RuntimeException[] failures) throws SQLException {
+        List<Integer> credited = new ArrayList<>();
+        int[] updated;
+        
+        for(int i = 0; i < chunk.size(); i++) {
+            if(failures[i] == null) {
+                credited.add(i);
+            }
+        }
+        
+        credited.sort(Comparator.comparing(i -> chunk.get(i).getTo().getId()));
+        
+        try (PreparedStatement st = connection.prepareStatement(CREDIT_ACCOUNT)) {
+            for(int i : credited) {
+                st.setBigDecimal(1, chunk.get(i).getAmount());
+                st.setLong(2, chunk.get(i).getTo().getId());
+                st.addBatch();
+            }
+            
+            updated = credited.isEmpty() ? new int[0] : SQL_CREDIT_BATCH.executeBatch(st);
+        }
+        
+        List<Payment> refunds = new ArrayList<>();
+        
+        for(int j = 0; j < updated.length; j++) {
+            if(updated[j] == 0) {
+                Payment payment = chunk.get(credited.get(j));
+                failures[credited.get(j)] = new EntityNotFoundException("No account " + payment.getTo() + " in database");
+                refunds.add(payment);
+            }
+        }
+        
+        if(!refunds.isEmpty()) {
+            try (PreparedStatement st = connection.prepareStatement(CREDIT_ACCOUNT)) {
+                for(Payment payment : refunds) {
+                    st.setBigDecimal(1, payment.getAmount());
+                    st.setLong(2, payment.getFrom().getId());
+                    st.addBatch();
+                }
+                
+                SQL_CREDIT_BATCH.executeBatch(st);
+            }
+        }
+    }
+    
+    /**
+     * Debit updates no row when account does not exist or when it has 
+     * insufficient funds, these cases are told apart by lookup of account.
+     */
+    private RuntimeException debitFailure(Connection connection, Account account, BigDecimal amount) throws SQLException {
+        if(checkFunds && accountExists(connection, account.getId())) {
+            return new InsufficientFundsException("Insufficient funds on account " 
+                                                  + account + " for amount " + amount);
+        }
+        
+        return new EntityNotFoundException("No account " + account + " in database");
+    }
+    
+    private static boolean accountExists(Connection connection, Long id) throws SQLException {
+        try(PreparedStatement st = connection.prepareStatement(SELECT_ACCOUNT_ID)) {
+            st.setLong(1, id);
+            
+            try(ResultSet rs = SQL_ACCOUNT_EXISTS.executeQuery(st)) {
+                return rs.next();
+            }
+        }
+    }
+}
@@ -0,0 +1,7 @@
+/**
+ * Indexes for per-account and date range lookups of payments
+ */
+
+CREATE INDEX payment_from_date ON payment (fromAccount, date);
+CREATE INDEX payment_to_date ON payment (toAccount, date);
+CREATE INDEX payment_date ON payment (date);
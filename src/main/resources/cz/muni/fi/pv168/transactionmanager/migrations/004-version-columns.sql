@@ -0,0 +1,8 @@
+/**
+ * Versions of rows for optimistic concurrency control. Every update of row
+ * increments its version and updates of entities check that version did not
+ * change since entity was read.
+ */
+
+ALTER TABLE account ADD COLUMN version BIGINT NOT NULL DEFAULT 0;
+ALTER TABLE payment ADD COLUMN version BIGINT NOT NULL DEFAULT 0;
@@ -0,0 +1,28 @@
+/**
+ * Turnover of accounts maintained by payment manager in the same transaction
+ * as payments. Row of statistics is created by trigger for every new account
+ * and deleted together with account. Existing accounts get statistics
+ * computed from their payment history.
+ */
+
+CREATE TABLE account_stats (
+    accountId BIGINT PRIMARY KEY REFERENCES account (id) ON DELETE CASCADE,
+    totalIn DECIMAL(31,4) NOT NULL DEFAULT 0,
+    totalOut DECIMAL(31,4) NOT NULL DEFAULT 0,
+    countIn BIGINT NOT NULL DEFAULT 0,
+    countOut BIGINT NOT NULL DEFAULT 0,
+    lastPaymentDate DATE
+);
+
+CREATE TRIGGER account_stats_insert AFTER INSERT ON account
+    REFERENCING NEW AS created FOR EACH ROW
+    INSERT INTO account_stats (accountId) VALUES (created.id);
+
+INSERT INTO account_stats (accountId, totalIn, totalOut, countIn, countOut, lastPaymentDate)
+    SELECT a.id,
+        (SELECT COALESCE(SUM(amount), 0) FROM payment WHERE toAccount = a.id),
+        (SELECT COALESCE(SUM(amount), 0) FROM payment WHERE fromAccount = a.id),
+        (SELECT COUNT(*) FROM payment WHERE toAccount = a.id),
+        (SELECT COUNT(*) FROM payment WHERE fromAccount = a.id),
+        (SELECT MAX(date) FROM payment WHERE fromAccount = a.id OR toAccount = a.id)
+    FROM account a;
@@ -0,0 +1,23 @@
+/**
+ * Append-only log of events of ledger backend and snapshots of its in memory
+ * projection. Rows of ledger_event are never updated or deleted, column
+ * amount holds balance of account for events of accounts.
+ */
+
+CREATE TABLE ledger_event (
+    seq BIGINT PRIMARY KEY GENERATED ALWAYS AS IDENTITY,
+    type VARCHAR(32) NOT NULL,
+    entityId BIGINT NOT NULL,
+    fromAccount BIGINT,
+    toAccount BIGINT,
+    amount DECIMAL(31,4),
+    date DATE,
+    number VARCHAR(255),
+    holder VARCHAR(255)
+);
+
+CREATE TABLE ledger_snapshot (
+    seq BIGINT PRIMARY KEY,
+    created TIMESTAMP NOT NULL,
+    data BLOB(2G) NOT NULL
+);
@@ -0,0 +1,15 @@
+/**
+ * Chunks of CSV files loaded by CsvImporter. Row of chunk is inserted in the
+ * same transaction as rows of chunk, so interrupted import is resumed by
+ * skipping of recorded chunks.
+ */
+
+CREATE TABLE import_chunk (
+    importName VARCHAR(255) NOT NULL,
+    phase VARCHAR(16) NOT NULL,
+    chunk BIGINT NOT NULL,
+    batchSize INT NOT NULL,
+    imported INT NOT NULL,
+    rejected INT NOT NULL,
+    PRIMARY KEY (importName, phase, chunk)
+);
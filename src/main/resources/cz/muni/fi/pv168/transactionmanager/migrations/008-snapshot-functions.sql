@@ -0,0 +1,34 @@
+/**
+ * Table functions which read blocks of binary snapshot during its restore,
+ * see class Snapshot. Function gets key of restore in progress.
+ */
+
+CREATE FUNCTION snapshot_accounts(block VARCHAR(64)) RETURNS TABLE (
+    number VARCHAR(255),
+    holder VARCHAR(255),
+    balance DECIMAL(12,4),
+    version BIGINT
+)
+    LANGUAGE JAVA PARAMETER STYLE DERBY_JDBC_RESULT_SET NO SQL
+    EXTERNAL NAME 'cz.muni.fi.pv168.transactionmanager.Snapshot.accountRows';
+
+CREATE FUNCTION snapshot_payments(block VARCHAR(64)) RETURNS TABLE (
+    fromAccount BIGINT,
+    toAccount BIGINT,
+    amount DECIMAL(12,4),
+    date DATE,
+    version BIGINT
+)
+    LANGUAGE JAVA PARAMETER STYLE DERBY_JDBC_RESULT_SET NO SQL
+    EXTERNAL NAME 'cz.muni.fi.pv168.transactionmanager.Snapshot.paymentRows';
+
+CREATE FUNCTION snapshot_statistics(block VARCHAR(64)) RETURNS TABLE (
+    accountId BIGINT,
+    totalIn DECIMAL(31,4),
+    totalOut DECIMAL(31,4),
+    countIn BIGINT,
+    countOut BIGINT,
+    lastPaymentDate DATE
+)
+    LANGUAGE JAVA PARAMETER STYLE DERBY_JDBC_RESULT_SET NO SQL
+    EXTERNAL NAME 'cz.muni.fi.pv168.transactionmanager.Snapshot.statisticsRows';
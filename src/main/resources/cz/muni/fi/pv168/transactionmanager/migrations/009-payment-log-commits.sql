@@ -0,0 +1,10 @@
+/**
+ * Numbers of PaymentLog records whose transaction was committed. Row is
+ * inserted in the same transaction as balances of payment, so record which
+ * is still pending after crash is committed when its row exists and
+ * discarded otherwise. Rows are deleted when log no longer needs them.
+ */
+
+CREATE TABLE payment_log_commit (
+    logRecord BIGINT NOT NULL PRIMARY KEY
+);
@@ -0,0 +1,143 @@
+package cz.muni.fi.pv168.benchmark;
+
+import cz.muni.fi.pv168.transactionmanager.AccountManager;
+import cz.muni.fi.pv168.transactionmanager.PaymentManager;
+import cz.muni.fi.pv168.utils.DBUtils;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.Random;
+import javax.sql.DataSource;
+import org.apache.derby.jdbc.EmbeddedDataSource;
+
+/**
+ * Measures latency of per-account and date range lookups of payments before
+ * and after migration which adds indexes on table payment.
+ * Usage: PaymentIndexBenchmark [accounts] [payments] [queries]
+ *
+ * @author Miroslav Kubus
+ */
+public class PaymentIndexBenchmark {
+
+    private static final LocalDate FIRST_DAY = LocalDate.of(2016, 1, 1);
+    private static final int DAYS = 1000;
+
+    public static void main(String[] args) throws SQLException {
+        int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int payments = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+        int queries = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+
+        EmbeddedDataSource dataSource = new EmbeddedDataSource();
+        dataSource.setDatabaseName("memory:index-benchmark");
+        dataSource.setCreateDatabase("create");
+
+        DBUtils.executeSqlScript(dataSource, AccountManager.class.getResource("createAccountTable.sql"));
+        DBUtils.executeSqlScript(dataSource, PaymentManager.class.getResource("createPaymentTable.sql"));
+        fill(dataSource, accounts, payments);
+
+        System.out.println("accounts = " + accounts + ", payments = " + payments + ", queries = " + queries);
+        run("without indexes", dataSource, accounts, queries);
+
+        DBUtils.migrate(dataSource);
+        updateStatistics(dataSource);
+        run("with indexes", dataSource, accounts, queries);
+    }
+
+    private static void fill(DataSource dataSource, int accounts, int payments) throws SQLException {
+        Random random = new Random(42);
+
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+
+            try (PreparedStatement st = connection.prepareStatement(
+                    "INSERT INTO account (number, holder, balance) VALUES (?,?,?)")) {
+                for (int i = 0; i < accounts; i++) {
+                    st.setString(1, "acc" + i);
+                    st.setString(2, "holder" + i);
+                    st.setLong(3, 1000000);
+                    st.addBatch();
+                }
+                st.executeBatch();
+            }
+
+            try (PreparedStatement st = connection.prepareStatement(
+                    "INSERT INTO payment (fromAccount, toAccount, amount, date) VALUES (?,?,?,?)")) {
+                for (int i = 0; i < payments; i++) {
+                    int from = 1 + random.nextInt(accounts);
+                    st.setLong(1, from);
+                    st.setLong(2, 1 + (from + random.nextInt(accounts - 1)) % accounts);
+                    st.setLong(3, 1 + random.nextInt(1000));
+                    st.setDate(4, Date.valueOf(FIRST_DAY.plusDays(random.nextInt(DAYS))));
+                    st.addBatch();
+
+                    if (i % 10000 == 9999) {
+                        st.executeBatch();
+                        connection.commit();
+                    }
+                }
+                st.executeBatch();
+            }
+
+            connection.commit();
+        }
+    }
+
+    private static void updateStatistics(DataSource dataSource) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             Statement st = connection.createStatement()) {
+            st.execute("CALL SYSCS_UTIL.SYSCS_UPDATE_STATISTICS('APP', 'PAYMENT', NULL)");
+        }
+    }
+
+    private static void run(String label, DataSource dataSource, int accounts, int queries) throws SQLException {
+        double fromAccountInRange = measure(dataSource, accounts, queries,
+                "SELECT id, amount FROM payment WHERE fromAccount = ? AND date BETWEEN ? AND ?", true);
+        double toAccountInRange = measure(dataSource, accounts, queries,
+                "SELECT id, amount FROM payment WHERE toAccount = ? AND date BETWEEN ? AND ?", true);
+        double dateRange = measure(dataSource, accounts, queries,
+                "SELECT id, amount FROM payment WHERE date BETWEEN ? AND ?", false);
+
+        System.out.printf("%-16s from account + date: %8.1f us, to account + date: %8.1f us, date: %8.1f us%n",
+                label, fromAccountInRange, toAccountInRange, dateRange);
+    }
+
+    /**
+     * Returns average latency of query in microseconds. Ranges cover one week.
+     */
+    private static double measure(DataSource dataSource, int accounts, int queries,
+                                  String sql, boolean byAccount) throws SQLException {
+        Random random = new Random(7);
+        long total = 0;
+
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement st = connection.prepareStatement(sql)) {
+            for (int i = -queries / 10; i < queries; i++) {
+                LocalDate start = FIRST_DAY.plusDays(random.nextInt(DAYS - 7));
+                int parameter = 1;
+
+                if (byAccount) {
+                    st.setLong(parameter++, 1 + random.nextInt(accounts));
+                }
+                st.setDate(parameter++, Date.valueOf(start));
+                st.setDate(parameter, Date.valueOf(start.plusDays(7)));
+
+                long begin = System.nanoTime();
+                try (ResultSet rs = st.executeQuery()) {
+                    while (rs.next()) {
+                        rs.getLong(1);
+                    }
+                }
+
+                if (i >= 0) {
+                    total += System.nanoTime() - begin;
+                }
+            }
+        }
+
+        return total / 1000.0 / queries;
+    }
+}
@@ -0,0 +1,278 @@
+package cz.muni.fi.pv168.benchmark;
+
+import cz.muni.fi.pv168.transactionmanager.Account;
+import cz.muni.fi.pv168.transactionmanager.AccountManagerImpl;
+import cz.muni.fi.pv168.transactionmanager.Payment;
+import cz.muni.fi.pv168.transactionmanager.PaymentManagerImpl;
+import cz.muni.fi.pv168.utils.AccountLockManager;
+import cz.muni.fi.pv168.utils.InsufficientFundsException;
+import cz.muni.fi.pv168.utils.LatencyHistogram;
+import cz.muni.fi.pv168.utils.PooledDataSource;
+import cz.muni.fi.pv168.utils.ServiceFailureException;
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+/**
+ * Fires random transfers between accounts from many threads for fixed time and
+ * then checks that no money was created or lost and no balance is negative.
+ * Transfers aborted by deadlock or lock timeout of Derby are retried.
+ * Usage: PaymentTorture memory|disk|disk-tuned [accounts] [threads] [seconds] [locks]
+ * where locks is true when AccountLockManager should be used.
+ *
+ * @author Miroslav Kubus
+ */
+public class PaymentTorture {
+
+    private static final BigDecimal INITIAL_BALANCE = new BigDecimal(1000);
+    private static final int MAX_AMOUNT = 100;
+    private static final int MAX_RETRIES = 5;
+
+    private final DataSource dataSource;
+    private final int accountCount;
+    private final int threads;
+    private final long durationMillis;
+    private final boolean useLocks;
+
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong refused = new AtomicLong();
+    private final AtomicLong aborts = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public PaymentTorture(DataSource dataSource, int accountCount, int threads,
+                          long durationMillis, boolean useLocks) {
+        this.dataSource = dataSource;
+        this.accountCount = accountCount;
+        this.threads = threads;
+        this.durationMillis = durationMillis;
+        this.useLocks = useLocks;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : "memory";
+        int accounts = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 30;
+        boolean locks = args.length > 4 && Boolean.parseBoolean(args[4]);
+
+        Logger.getLogger("cz.muni.fi.pv168").setLevel(Level.WARNING);
+        PooledDataSource dataSource = StorageModeBenchmark.open(mode);
+
+        try {
+            Result result = new PaymentTorture(dataSource, accounts, threads, seconds * 1000L, locks).run();
+            System.out.println(mode + ": " + result);
+
+            if (!result.isConsistent()) {
+                System.exit(1);
+            }
+        } finally {
+            dataSource.close();
+        }
+    }
+
+    /**
+     * Creates accounts, runs transfers and checks invariants
+     * @return result of run
+     * @throws Exception when some thread fails unexpectedly
+     */
+    public Result run() throws Exception {
+        AccountManagerImpl accountManager = new AccountManagerImpl(dataSource);
+        PaymentManagerImpl paymentManager = new PaymentManagerImpl(dataSource, true);
+        if (useLocks) {
+            paymentManager.setLockManager(new AccountLockManager());
+        }
+
+        List<Account> accounts = new ArrayList<>();
+        String prefix = "torture-" + System.nanoTime() + "-";
+        for (int i = 0; i < accountCount; i++) {
+            Account account = new Account(prefix + i, "holder" + i, INITIAL_BALANCE);
+            accountManager.createAccount(account);
+            accounts.add(account);
+        }
+        BigDecimal totalBefore = sumOfBalances(accountManager, accounts);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> workers = new ArrayList<>();
+        long start = System.nanoTime();
+        long deadline = start + durationMillis * 1000000L;
+
+        for (int t = 0; t < threads; t++) {
+            workers.add(executor.submit(() -> {
+                while (System.nanoTime() < deadline) {
+                    transfer(paymentManager, accounts);
+                }
+            }));
+        }
+
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        executor.shutdown();
+        long elapsedNanos = System.nanoTime() - start;
+
+        BigDecimal totalAfter = sumOfBalances(accountManager, accounts);
+        int negative = 0;
+        for (Account account : accounts) {
+            if (accountManager.getAccountById(account.getId()).getBalance().signum() < 0) {
+                negative++;
+            }
+        }
+
+        return new Result(this, elapsedNanos, totalBefore, totalAfter, negative);
+    }
+
+    private void transfer(PaymentManagerImpl paymentManager, List<Account> accounts) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int from = random.nextInt(accounts.size());
+        int to = (from + 1 + random.nextInt(accounts.size() - 1)) % accounts.size();
+        BigDecimal amount = new BigDecimal(1 + random.nextInt(MAX_AMOUNT));
+
+        for (int attempt = 0; ; attempt++) {
+            Payment payment = new Payment();
+            payment.setFrom(accounts.get(from));
+            payment.setTo(accounts.get(to));
+            payment.setAmount(amount);
+            payment.setDate(LocalDate.now());
+
+            long begin = System.nanoTime();
+            try {
+                paymentManager.createPayment(payment);
+                latencies.record(System.nanoTime() - begin);
+                completed.incrementAndGet();
+                return;
+            } catch (InsufficientFundsException ex) {
+                latencies.record(System.nanoTime() - begin);
+                refused.incrementAndGet();
+                return;
+            } catch (ServiceFailureException ex) {
+                if (!isAbort(ex)) {
+                    failed.incrementAndGet();
+                    return;
+                }
+
+                aborts.incrementAndGet();
+                if (attempt == MAX_RETRIES) {
+                    failed.incrementAndGet();
+                    return;
+                }
+                retries.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Returns true when transaction was rolled back by deadlock detection
+     * or lock timeout, so it can be retried
+     */
+    static boolean isAbort(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException) {
+                String state = ((SQLException) cause).getSQLState();
+                if ("40001".equals(state) || "40XL1".equals(state) || "40XL2".equals(state)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static BigDecimal sumOfBalances(AccountManagerImpl accountManager, List<Account> accounts) {
+        BigDecimal sum = BigDecimal.ZERO;
+        for (Account account : accounts) {
+            sum = sum.add(accountManager.getAccountById(account.getId()).getBalance());
+        }
+        return sum;
+    }
+
+    /**
+     * Counters, latencies and checked invariants of one run
+     */
+    public static class Result {
+        private final long completed;
+        private final long refused;
+        private final long aborts;
+        private final long retries;
+        private final long failed;
+        private final double seconds;
+        private final long p50Micros;
+        private final long p99Micros;
+        private final long p999Micros;
+        private final long maxMicros;
+        private final BigDecimal totalBefore;
+        private final BigDecimal totalAfter;
+        private final int negativeAccounts;
+
+        private Result(PaymentTorture torture, long elapsedNanos, BigDecimal totalBefore,
+                       BigDecimal totalAfter, int negativeAccounts) {
+            completed = torture.completed.get();
+            refused = torture.refused.get();
+            aborts = torture.aborts.get();
+            retries = torture.retries.get();
+            failed = torture.failed.get();
+            seconds = elapsedNanos / 1e9;
+            p50Micros = torture.latencies.getValueAtQuantile(0.5) / 1000;
+            p99Micros = torture.latencies.getValueAtQuantile(0.99) / 1000;
+            p999Micros = torture.latencies.getValueAtQuantile(0.999) / 1000;
+            maxMicros = torture.latencies.getMaxNanos() / 1000;
+            this.totalBefore = totalBefore;
+            this.totalAfter = totalAfter;
+            this.negativeAccounts = negativeAccounts;
+        }
+
+        /**
+         * Returns true when sum of balances did not change and no balance is negative
+         * @return true when invariants hold
+         */
+        public boolean isConsistent() {
+            return totalBefore.compareTo(totalAfter) == 0 && negativeAccounts == 0;
+        }
+
+        public long getCompleted() {
+            return completed;
+        }
+
+        public long getRefused() {
+            return refused;
+        }
+
+        public long getAborts() {
+            return aborts;
+        }
+
+        public long getRetries() {
+            return retries;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        public double getThroughput() {
+            return completed / seconds;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "%.0f payments/s, completed %d, refused %d, aborts %d, retries %d, failed %d, "
+                    + "latency p50 %d us, p99 %d us, p999 %d us, max %d us, "
+                    + "total before %s, after %s, negative accounts %d -> %s",
+                    getThroughput(), completed, refused, aborts, retries, failed,
+                    p50Micros, p99Micros, p999Micros, maxMicros,
+                    totalBefore, totalAfter, negativeAccounts, isConsistent() ? "OK" : "VIOLATED");
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package cz.muni.fi.pv168.benchmark;
+
+import cz.muni.fi.pv168.utils.DBUtils;
+import java.sql.SQLException;
+import javax.sql.DataSource;
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Short runs of PaymentTorture which check that concurrent payments
+ * conserve money
+ * @author Miroslav Kubus
+ */
+public class PaymentTortureTest {
+
+    private DataSource dataSource;
+
+    @Before
+    public void setUp() throws SQLException {
+        EmbeddedDataSource ds = new EmbeddedDataSource();
+        ds.setDatabaseName("memory:torture-test");
+        ds.setCreateDatabase("create");
+        DBUtils.migrate(ds);
+        dataSource = ds;
+    }
+
+    @Test
+    public void testConcurrentTransfers() throws Exception {
+        PaymentTorture.Result result = new PaymentTorture(dataSource, 5, 6, 1500, false).run();
+
+        assertTrue(result.toString(), result.isConsistent());
+        assertTrue(result.toString(), result.getCompleted() > 0);
+    }
+
+    @Test
+    public void testConcurrentTransfersWithLocks() throws Exception {
+        PaymentTorture.Result result = new PaymentTorture(dataSource, 5, 6, 1500, true).run();
+
+        assertTrue(result.toString(), result.isConsistent());
+        assertTrue(result.toString(), result.getCompleted() > 0);
+    }
+}
@@ -0,0 +1,125 @@
+package cz.muni.fi.pv168.benchmark;
+
+import cz.muni.fi.pv168.transactionmanager.Account;
+import cz.muni.fi.pv168.transactionmanager.AccountManagerImpl;
+import cz.muni.fi.pv168.transactionmanager.Payment;
+import cz.muni.fi.pv168.transactionmanager.PaymentManagerImpl;
+import cz.muni.fi.pv168.utils.DBUtils;
+import cz.muni.fi.pv168.utils.PooledDataSource;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Measures throughput of creating and reading payments for in memory database,
+ * persistent database with default settings and persistent database with tuned
+ * settings. Each mode should be run in its own JVM, because some Derby settings
+ * are read only when Derby engine boots. Managers log every call on level
+ * INFO, so logging of application is lowered to WARNING before measurement.
+ * Only committed payments count into throughput of creating, payments
+ * aborted by deadlock are reported separately.
+ * Usage: StorageModeBenchmark memory|disk|disk-tuned [payments] [threads]
+ *
+ * @author Miroslav Kubus
+ */
+public class StorageModeBenchmark {
+
+    private static final int ACCOUNTS = 100;
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : "memory";
+        int payments = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+
+        Logger.getLogger("cz.muni.fi.pv168").setLevel(Level.WARNING);
+        PooledDataSource dataSource = open(mode);
+        AccountManagerImpl accountManager = new AccountManagerImpl(dataSource);
+        PaymentManagerImpl paymentManager = new PaymentManagerImpl(dataSource);
+
+        List<Account> accounts = new ArrayList<>();
+        for (int i = 0; i < ACCOUNTS; i++) {
+            Account account = new Account("bench" + i, "holder" + i, new BigDecimal(1000000));
+            accountManager.createAccount(account);
+            accounts.add(account);
+        }
+
+        AtomicLong created = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        long writeNanos = createPayments(paymentManager, accounts, payments, threads, created, failed);
+
+        long readStart = System.nanoTime();
+        int read = 0;
+        for (Account account : accounts) {
+            read += paymentManager.getPaymentsFromAccount(account).size();
+        }
+        long readNanos = System.nanoTime() - readStart;
+
+        System.out.printf("%-10s threads: %d, created: %8.0f payments/s (%d committed, %d failed), "
+                + "read: %8.0f payments/s%n", mode, threads, created.get() / (writeNanos / 1e9),
+                created.get(), failed.get(), read / (readNanos / 1e9));
+        dataSource.close();
+    }
+
+    static PooledDataSource open(String mode) throws IOException, SQLException {
+        Properties properties = DBUtils.loadProperties(DBUtils.DATASOURCE_PROPERTIES);
+
+        if ("memory".equals(mode)) {
+            PooledDataSource dataSource = DBUtils.createDataSource("jdbc:derby:memory:benchmark;create=true", properties);
+            DBUtils.migrate(dataSource);
+            return dataSource;
+        }
+
+        properties.putAll(DBUtils.loadProperties("cz/muni/fi/pv168/transactionmanager/profiles/" + mode + ".properties"));
+        String directory = Files.createTempDirectory("benchmark").resolve("db").toString();
+        return DBUtils.createPersistentDatabase(directory, properties);
+    }
+
+    private static long createPayments(PaymentManagerImpl paymentManager, List<Account> accounts,
+                                       int payments, int threads, AtomicLong created,
+                                       AtomicLong failed) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> results = new ArrayList<>();
+        long start = System.nanoTime();
+
+        for (int t = 0; t < threads; t++) {
+            final int count = payments / threads;
+            results.add(executor.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < count; i++) {
+                    int from = random.nextInt(accounts.size());
+                    int to = (from + 1 + random.nextInt(accounts.size() - 1)) % accounts.size();
+                    Payment payment = new Payment();
+                    payment.setFrom(accounts.get(from));
+                    payment.setTo(accounts.get(to));
+                    payment.setAmount(BigDecimal.ONE);
+                    payment.setDate(LocalDate.now());
+                    try {
+                        paymentManager.createPayment(payment);
+                        created.incrementAndGet();
+                    } catch (RuntimeException ex) {
+                        failed.incrementAndGet();
+                    }
+                }
+            }));
+        }
+
+        for (Future<?> result : results) {
+            result.get();
+        }
+        executor.shutdown();
+
+        return System.nanoTime() - start;
+    }
+}
@@ -2,6 +2,7 @@ package cz.muni.fi.pv168.transactionmanager;
 
 import cz.muni.fi.pv168.utils.DBUtils;
 import cz.muni.fi.pv168.utils.EntityNotFoundException;
+import cz.muni.fi.pv168.utils.OptimisticLockException;
 import java.math.BigDecimal;
 import java.sql.SQLException;
 import java.util.Arrays;
@@ -25,19 +26,19 @@ import org.junit.rules.ExpectedException;
  */
 public class AccountManagerImplTest {
     
-    private AccountManagerImpl manager;
+    private AccountManager manager;
     private DataSource dataSource;
     
     @Before
     public void setUp() throws SQLException {
         dataSource = prepareDataSource();
-        DBUtils.executeSqlScript(dataSource, AccountManager.class.getResource("createAccountTable.sql"));
-        manager = new AccountManagerImpl(dataSource);
+        DBUtils.migrate(dataSource);
+        manager = createManager(dataSource);
     }
     
     @After
     public void tearDown() throws SQLException {
-        DBUtils.executeSqlScript(dataSource, AccountManager.class.getResource("dropAccountTable.sql"));
+        DBUtils.dropAll(dataSource);
     }
 
     private static DataSource prepareDataSource() throws SQLException {
@@ -47,6 +48,13 @@ public class AccountManagerImplTest {
         return ds;
     }
 
+    /**
+     * Creates tested manager, subclass overrides this to run the same tests
+     * against other implementation of AccountManager
+     */
+    protected AccountManager createManager(DataSource dataSource) {
+        return new AccountManagerImpl(dataSource);
+    }
     
     @Rule
     public ExpectedException expectedException = ExpectedException.none();
@@ -190,6 +198,27 @@ public class AccountManagerImplTest {
         assertDeepEquals(acc2, manager.getAccountById(acc2.getId()));
     }
     
+    @Test
+    public void testUpdateStaleAccount() {
+        Account account = newAccount("10", "asd", BigDecimal.ZERO);
+        manager.createAccount(account);
+        Account stale = manager.getAccountById(account.getId());
+        
+        account.setHolder("first");
+        manager.updateAccount(account);
+        assertEquals(1, account.getVersion());
+        
+        stale.setHolder("second");
+        try {
+            manager.updateAccount(stale);
+            fail("Stale account was updated");
+        } catch (OptimisticLockException ex) {
+            assertDeepEquals(account, (Account) ex.getCurrentState());
+        }
+        
+        assertEquals("first", manager.getAccountById(account.getId()).getHolder());
+    }
+    
     @Test(expected = IllegalArgumentException.class)
     public void testUpdateAccNullParam() {
         manager.updateAccount(null);
@@ -0,0 +1,129 @@
+package cz.muni.fi.pv168.transactionmanager;
+
+import cz.muni.fi.pv168.utils.DBUtils;
+import cz.muni.fi.pv168.utils.EntityNotFoundException;
+import cz.muni.fi.pv168.utils.ManagerExecutors;
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for classes AsyncPaymentManager and AsyncAccountManager
+ * @author Miroslav Kubus
+ */
+public class AsyncPaymentManagerTest {
+
+    private DataSource dataSource;
+    private ExecutorService executor;
+    private AccountManagerImpl accountManager;
+    private AsyncAccountManager asyncAccountManager;
+    private AsyncPaymentManager asyncPaymentManager;
+
+    @Before
+    public void setUp() throws SQLException {
+        dataSource = prepareDataSource();
+        DBUtils.migrate(dataSource);
+
+        executor = ManagerExecutors.create("async-test", 2, 10);
+        accountManager = new AccountManagerImpl(dataSource);
+        asyncAccountManager = new AsyncAccountManager(accountManager, executor);
+        asyncPaymentManager = new AsyncPaymentManager(new PaymentManagerImpl(dataSource),
+                asyncAccountManager, executor);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        executor.shutdownNow();
+        DBUtils.dropAll(dataSource);
+    }
+
+    private static DataSource prepareDataSource() throws SQLException {
+        EmbeddedDataSource ds = new EmbeddedDataSource();
+        ds.setDatabaseName("memory:asyncmanager-test");
+        ds.setCreateDatabase("create");
+        return ds;
+    }
+
+    @Test
+    public void testCreatePaymentByNumbers() throws Exception {
+        Account from = asyncAccountManager.createAccount(new Account("111", "from", new BigDecimal(1000))).get();
+        Account to = asyncAccountManager.createAccount(new Account("222", "to", new BigDecimal(100))).get();
+
+        Payment payment = asyncPaymentManager.createPayment("111", "222", new BigDecimal(300), LocalDate.now()).get();
+
+        assertNotNull(payment.getId());
+        assertEquals(payment.getId(), asyncPaymentManager.getPaymentByID(payment.getId()).get().getId());
+        assertEquals(0, new BigDecimal(700).compareTo(accountManager.getAccountById(from.getId()).getBalance()));
+        assertEquals(0, new BigDecimal(400).compareTo(accountManager.getAccountById(to.getId()).getBalance()));
+    }
+
+    @Test
+    public void testCreatePaymentWithUnknownNumber() throws Exception {
+        asyncAccountManager.createAccount(new Account("111", "from", new BigDecimal(1000))).get();
+
+        try {
+            asyncPaymentManager.createPayment("111", "999", BigDecimal.ONE, LocalDate.now()).get();
+            fail("Payment to non existing account was created");
+        } catch(ExecutionException ex) {
+            assertThat(ex.getCause(), instanceOf(EntityNotFoundException.class));
+        }
+
+        assertTrue(asyncPaymentManager.getAllPayments().get().isEmpty());
+    }
+
+    @Test
+    public void testInvalidArgumentCompletesExceptionally() throws Exception {
+        try {
+            asyncPaymentManager.createPayment(null).get();
+            fail("Null payment was created");
+        } catch(ExecutionException ex) {
+            assertThat(ex.getCause(), instanceOf(IllegalArgumentException.class));
+        }
+    }
+
+    @Test
+    public void testRejectedOperationCompletesExceptionally() throws Exception {
+        ExecutorService small = ManagerExecutors.create("async-test-small", 1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        try {
+            small.execute(() -> {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch(InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            small.execute(() -> { });
+
+            CompletableFuture<Account> rejected = new AsyncAccountManager(accountManager, small).getAccountById(1L);
+
+            try {
+                rejected.get();
+                fail("Operation over capacity of executor was not rejected");
+            } catch(ExecutionException ex) {
+                assertThat(ex.getCause(), instanceOf(RejectedExecutionException.class));
+            }
+        } finally {
+            release.countDown();
+            small.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package cz.muni.fi.pv168.transactionmanager;
+
+import cz.muni.fi.pv168.utils.CacheStatistics;
+import cz.muni.fi.pv168.utils.DBUtils;
+import cz.muni.fi.pv168.utils.MetricsRegistry;
+import cz.muni.fi.pv168.utils.OperationMetrics;
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import javax.sql.DataSource;
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for class CachingAccountManager
+ * @author Miroslav Kubus
+ */
+public class CachingAccountManagerTest {
+
+    private DataSource dataSource;
+    private CachingAccountManager manager;
+    private PaymentManagerImpl paymentManager;
+    private Account account;
+
+    @Before
+    public void setUp() throws SQLException {
+        dataSource = prepareDataSource();
+        DBUtils.migrate(dataSource);
+
+        manager = new CachingAccountManager(new AccountManagerImpl(dataSource), 2);
+        paymentManager = new PaymentManagerImpl(dataSource);
+        paymentManager.addBalanceChangeListener(manager);
+
+        account = new Account("111", "holder", new BigDecimal(1000));
+        manager.createAccount(account);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        DBUtils.dropAll(dataSource);
+    }
+
+    private static DataSource prepareDataSource() throws SQLException {
+        EmbeddedDataSource ds = new EmbeddedDataSource();
+        ds.setDatabaseName("memory:cachingmanager-test");
+        ds.setCreateDatabase("create");
+        return ds;
+    }
+
+    @Test
+    public void testRepeatedLookupsDoNotQueryDatabase() {
+        OperationMetrics byNumber = MetricsRegistry.getDefault().operation("sql.account.selectByNumber");
+        long queriesBefore = byNumber.getCount();
+
+        Account first = manager.getAccountByNumber("111");
+        Account second = manager.getAccountByNumber("111");
+        Account third = manager.getAccountById(account.getId());
+
+        assertEquals(1, byNumber.getCount() - queriesBefore);
+        assertEquals(account, second);
+        assertEquals(account, third);
+        assertNotSame(first, second);
+
+        CacheStatistics statistics = manager.getStatistics();
+        assertEquals(2, statistics.getHits());
+        assertEquals(1, statistics.getMisses());
+    }
+
+    @Test
+    public void testUpdateInvalidatesAccount() {
+        Account cached = manager.getAccountById(account.getId());
+        cached.setHolder("changed");
+
+        assertEquals("holder", manager.getAccountById(account.getId()).getHolder());
+
+        manager.updateAccount(cached);
+
+        assertEquals("changed", manager.getAccountByNumber("111").getHolder());
+        assertEquals(1, manager.getStatistics().getInvalidations());
+    }
+
+    @Test
+    public void testDeleteInvalidatesAccount() {
+        manager.getAccountByNumber("111");
+        manager.deleteAccount(account);
+
+        assertNull(manager.getAccountByNumber("111"));
+        assertNull(manager.getAccountById(account.getId()));
+    }
+
+    @Test
+    public void testPaymentInvalidatesAccounts() {
+        Account to = new Account("222", "to", new BigDecimal(100));
+        manager.createAccount(to);
+        manager.getAccountById(account.getId());
+        manager.getAccountById(to.getId());
+
+        Payment payment = new Payment();
+        payment.setFrom(account);
+        payment.setTo(to);
+        payment.setAmount(new BigDecimal(300));
+        payment.setDate(LocalDate.now());
+        paymentManager.createPayment(payment);
+
+        assertTrue(manager.getAccountById(account.getId()).getBalance().compareTo(new BigDecimal(700)) == 0);
+        assertTrue(manager.getAccountById(to.getId()).getBalance().compareTo(new BigDecimal(400)) == 0);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedAccountIsEvicted() {
+        Account second = new Account("222", "second", BigDecimal.ONE);
+        Account third = new Account("333", "third", BigDecimal.ONE);
+        manager.createAccount(second);
+        manager.createAccount(third);
+
+        manager.getAccountById(account.getId());
+        manager.getAccountById(second.getId());
+        manager.getAccountById(account.getId());
+        manager.getAccountById(third.getId());
+
+        CacheStatistics statistics = manager.getStatistics();
+        assertEquals(2, statistics.getSize());
+        assertEquals(1, statistics.getEvictions());
+
+        manager.getAccountById(account.getId());
+        assertEquals(2, manager.getStatistics().getHits());
+        manager.getAccountByNumber("222");
+        assertEquals(4, manager.getStatistics().getMisses());
+    }
+}
@@ -0,0 +1,229 @@
+package cz.muni.fi.pv168.transactionmanager;
+
+import cz.muni.fi.pv168.utils.CsvFormat;
+import cz.muni.fi.pv168.utils.DBUtils;
+import cz.muni.fi.pv168.utils.ServiceFailureException;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.sql.DataSource;
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for class CsvImporter
+ * @author Miroslav Kubus
+ */
+public class CsvImporterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DataSource dataSource;
+    private CsvImporter importer;
+    private AccountManagerImpl accountManager;
+    private PaymentManagerImpl paymentManager;
+    private Path rejects;
+    private String date;
+
+    @Before
+    public void setUp() throws SQLException, IOException {
+        dataSource = prepareDataSource();
+        DBUtils.migrate(dataSource);
+
+        rejects = folder.getRoot().toPath().resolve("rejects.csv");
+        importer = new CsvImporter(dataSource);
+        importer.setRejectsFile(rejects);
+        accountManager = new AccountManagerImpl(dataSource);
+        paymentManager = new PaymentManagerImpl(dataSource);
+        date = LocalDate.now().plusDays(1).toString();
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        DBUtils.dropAll(dataSource);
+    }
+
+    private static DataSource prepareDataSource() throws SQLException {
+        EmbeddedDataSource ds = new EmbeddedDataSource();
+        ds.setDatabaseName("memory:csvimporter-test");
+        ds.setCreateDatabase("create");
+        return ds;
+    }
+
+    @Test
+    public void testImportWithRejects() throws IOException {
+        Path accounts = write("accounts.csv", "number,holder,balance",
+                "111,\"Novak, Jan\",1000",
+                "222,Jana,100.5",
+                "111,Duplicate,10",
+                "333,Negative,-1",
+                "444,Missing");
+        Path payments = write("payments.csv", "from,to,amount,date",
+                "111,222,300," + date,
+                "222,111,0.5," + date,
+                "111,999,1," + date,
+                "111,222,abc," + date,
+                "111,222,1,2000-01-01");
+
+        List<ImportProgress> progress = importer.importAll("test", accounts, payments);
+
+        assertEquals(2, progress.get(0).getImported());
+        assertEquals(3, progress.get(0).getRejected());
+        assertEquals(2, progress.get(1).getImported());
+        assertEquals(3, progress.get(1).getRejected());
+
+        Account first = accountManager.getAccountByNumber("111");
+        assertEquals("Novak, Jan", first.getHolder());
+        assertEquals(0, new BigDecimal("700.5").compareTo(first.getBalance()));
+        assertEquals(0, new BigDecimal("400").compareTo(accountManager.getAccountByNumber("222").getBalance()));
+
+        AccountStatistics statistics = paymentManager.getAccountStatistics(first);
+        assertEquals(1, statistics.getCountOut());
+        assertEquals(1, statistics.getCountIn());
+        assertEquals(LocalDate.parse(date), statistics.getLastPaymentDate());
+
+        List<String> rejected = Files.readAllLines(rejects, StandardCharsets.UTF_8);
+        assertEquals(6, rejected.size());
+        assertTrue(rejected.get(0).startsWith("accounts.csv,4,"));
+        assertTrue(rejected.get(5).startsWith("payments.csv,6,Date of payment from past"));
+    }
+
+    @Test
+    public void testImportOfRecordsWithQuotedEndOfLine() throws IOException {
+        Path accounts = write("accounts.csv", "number,holder,balance",
+                CsvFormat.formatLine("111", "Novak\nJan", "1000"),
+                "222,Negative,-1",
+                "333,\"Jana",
+                "Nova\",100",
+                "444,\"unclosed,1");
+
+        ImportProgress progress = importer.importAccounts("test", accounts);
+
+        assertEquals(2, progress.getImported());
+        assertEquals(2, progress.getRejected());
+        assertEquals("Novak\nJan", accountManager.getAccountByNumber("111").getHolder());
+        assertEquals("Jana\nNova", accountManager.getAccountByNumber("333").getHolder());
+
+        List<String> rejected = Files.readAllLines(rejects, StandardCharsets.UTF_8);
+        assertTrue(rejected.get(0).startsWith("accounts.csv,4,"));
+        assertTrue(rejected.get(1).startsWith("accounts.csv,7,\"Unclosed quoted field"));
+    }
+
+    @Test
+    public void testChunkRefusedByDatabase() throws IOException {
+        Path accounts = write("accounts.csv", "number,holder,balance",
+                "111,first,1",
+                "222,too big,1000000000",
+                "333,third,3");
+
+        ImportProgress progress = importer.importAccounts("test", accounts);
+
+        assertEquals(2, progress.getImported());
+        assertEquals(1, progress.getRejected());
+        assertEquals(2, accountManager.getAllAccounts().size());
+        assertTrue(Files.readAllLines(rejects, StandardCharsets.UTF_8).get(0).startsWith("accounts.csv,3,"));
+    }
+
+    @Test
+    public void testParallelImportOfPayments() throws IOException {
+        List<String> accountLines = new ArrayList<>(Arrays.asList("number,holder,balance"));
+        List<String> paymentLines = new ArrayList<>(Arrays.asList("from,to,amount,date"));
+
+        for(int i = 0; i < 20; i++) {
+            accountLines.add("acc" + i + ",holder" + i + ",1000");
+        }
+
+        for(int i = 0; i < 500; i++) {
+            paymentLines.add("acc" + (i % 20) + ",acc" + ((i * 7 + 3) % 20) + "," + (1 + i % 10) + "," + date);
+        }
+
+        importer.setBatchSize(10);
+        importer.setLoaders(4);
+        importer.importAll("parallel", write("accounts.csv", accountLines.toArray(new String[0])),
+                write("payments.csv", paymentLines.toArray(new String[0])));
+
+        BigDecimal total = BigDecimal.ZERO;
+        Map<Long, AccountStatistics> statistics = new HashMap<>();
+
+        for(Account account : accountManager.getAllAccounts()) {
+            total = total.add(account.getBalance());
+            statistics.put(account.getId(), paymentManager.getAccountStatistics(account));
+        }
+
+        assertEquals(0, new BigDecimal(20000).compareTo(total));
+        assertEquals(500, paymentManager.getAllPayments().size());
+
+        paymentManager.rebuildAccountStatistics();
+
+        for(Account account : accountManager.getAllAccounts()) {
+            assertEquals(paymentManager.getAccountStatistics(account), statistics.get(account.getId()));
+        }
+    }
+
+    @Test
+    public void testResumeOfInterruptedImport() throws IOException {
+        List<String> lines = new ArrayList<>(Arrays.asList("number,holder,balance"));
+
+        for(int i = 0; i < 10; i++) {
+            lines.add("acc" + i + ",holder,1");
+        }
+
+        Path accounts = write("accounts.csv", lines.toArray(new String[0]));
+        AtomicInteger chunks = new AtomicInteger();
+        importer.setBatchSize(3);
+        importer.setLoaders(1);
+        importer.setProgressListener(progress -> {
+            if(chunks.incrementAndGet() == 2) {
+                throw new IllegalStateException("Interrupted");
+            }
+        });
+
+        try {
+            importer.importAccounts("resume", accounts);
+            fail("Import was not interrupted");
+        } catch (ServiceFailureException ex) {
+            // expected
+        }
+
+        assertEquals(6, accountManager.getAllAccounts().size());
+
+        importer.setProgressListener(progress -> { });
+        ImportProgress progress = importer.importAccounts("resume", accounts);
+
+        assertEquals(2, progress.getSkippedChunks());
+        assertEquals(4, progress.getImported());
+        assertEquals(0, progress.getRejected());
+        assertEquals(10, accountManager.getAllAccounts().size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testResumeWithDifferentBatchSize() throws IOException {
+        Path accounts = write("accounts.csv", "number,holder,balance", "111,first,1");
+        importer.importAccounts("test", accounts);
+
+        importer.setBatchSize(10);
+        importer.importAccounts("test", accounts);
+    }
+
+    private Path write(String name, String... lines) throws IOException {
+        return Files.write(folder.getRoot().toPath().resolve(name), Arrays.asList(lines), StandardCharsets.UTF_8);
+    }
+}
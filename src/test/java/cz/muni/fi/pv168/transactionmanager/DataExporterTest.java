@@ -0,0 +1,190 @@
+package cz.muni.fi.pv168.transactionmanager;
+
+import cz.muni.fi.pv168.utils.DBUtils;
+import cz.muni.fi.pv168.utils.ServiceFailureException;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import javax.sql.DataSource;
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import static org.junit.Assert.assertEquals;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for class DataExporter
+ * @author Miroslav Kubus
+ */
+public class DataExporterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DataSource dataSource;
+    private DataExporter exporter;
+    private Account first;
+    private Account second;
+    private Payment payment;
+
+    @Before
+    public void setUp() throws SQLException {
+        dataSource = prepareDataSource();
+        DBUtils.migrate(dataSource);
+
+        exporter = new DataExporter(dataSource);
+        AccountManagerImpl accountManager = new AccountManagerImpl(dataSource);
+        PaymentManagerImpl paymentManager = new PaymentManagerImpl(dataSource);
+
+        first = new Account("111", "Novak, Jan", new BigDecimal("1000.5"));
+        second = new Account("222", "Jana", new BigDecimal(100));
+        accountManager.createAccount(first);
+        accountManager.createAccount(second);
+
+        payment = new Payment();
+        payment.setFrom(first);
+        payment.setTo(second);
+        payment.setAmount(new BigDecimal("12.25"));
+        payment.setDate(LocalDate.now().plusDays(1));
+        paymentManager.createPayment(payment);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        DBUtils.dropAll(dataSource);
+    }
+
+    private static DataSource prepareDataSource() throws SQLException {
+        EmbeddedDataSource ds = new EmbeddedDataSource();
+        ds.setDatabaseName("memory:dataexporter-test");
+        ds.setCreateDatabase("create");
+        return ds;
+    }
+
+    @Test
+    public void testExportAccountsToCsv() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("accounts.csv");
+
+        assertEquals(2, exporter.exportAccounts(file, DataExporter.Format.CSV, false));
+
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        assertEquals(3, lines.size());
+        assertEquals("id,number,holder,balance,version", lines.get(0));
+        assertEquals(first.getId() + ",111,\"Novak, Jan\",988.2500,1", lines.get(1));
+        assertEquals(second.getId() + ",222,Jana,112.2500,1", lines.get(2));
+    }
+
+    @Test
+    public void testExportPaymentsToGzipCsv() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("payments.csv.gz");
+        exporter.setFetchSize(1);
+
+        assertEquals(1, exporter.exportPayments(file, DataExporter.Format.CSV, true));
+
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+            String[] lines = new String(readAll(in), StandardCharsets.UTF_8).split("\n");
+
+            assertEquals(2, lines.length);
+            assertEquals(payment.getId() + "," + first.getId() + ",111," + second.getId() + ",222,12.2500,"
+                    + payment.getDate(), lines[1]);
+        }
+    }
+
+    @Test
+    public void testExportPaymentsToBinary() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("payments.bin");
+
+        assertEquals(1, exporter.exportPayments(file, DataExporter.Format.BINARY, false));
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            assertEquals(DataExporter.MAGIC, in.readInt());
+            assertEquals(DataExporter.BINARY_VERSION, in.readByte());
+            assertEquals(DataExporter.PAYMENT_ROWS, in.readByte());
+            assertEquals(8 + 8 + 5 + 8 + 5 + 8 + 4, in.readInt());
+            assertEquals((long) payment.getId(), in.readLong());
+            assertEquals((long) first.getId(), in.readLong());
+            assertEquals("111", readString(in));
+            assertEquals((long) second.getId(), in.readLong());
+            assertEquals("222", readString(in));
+            assertEquals(122500, in.readLong());
+            assertEquals(payment.getDate().toEpochDay(), in.readInt());
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    public void testExportAccountsToBinary() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("accounts.bin.gz");
+
+        assertEquals(2, exporter.exportAccounts(file, DataExporter.Format.BINARY, true));
+
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(Files.newInputStream(file)))) {
+            assertEquals(DataExporter.MAGIC, in.readInt());
+            assertEquals(DataExporter.BINARY_VERSION, in.readByte());
+            assertEquals(DataExporter.ACCOUNT_ROWS, in.readByte());
+
+            in.readInt();
+            assertEquals((long) first.getId(), in.readLong());
+            assertEquals("111", readString(in));
+            assertEquals("Novak, Jan", readString(in));
+            assertEquals(9882500, in.readLong());
+            assertEquals(1, in.readLong());
+
+            in.readInt();
+            assertEquals((long) second.getId(), in.readLong());
+            assertEquals("222", readString(in));
+            assertEquals("Jana", readString(in));
+            assertEquals(1122500, in.readLong());
+            assertEquals(1, in.readLong());
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test(expected = ServiceFailureException.class)
+    public void testExportToMissingDirectory() {
+        exporter.exportAccounts(folder.getRoot().toPath().resolve("missing").resolve("accounts.csv"),
+                DataExporter.Format.CSV, false);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetZeroFetchSize() {
+        exporter.setFetchSize(0);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readUnsignedShort();
+
+        if(length == 0xFFFF) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+
+        while((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,204 @@
+package cz.muni.fi.pv168.transactionmanager;
+
+import cz.muni.fi.pv168.utils.DBUtils;
+import cz.muni.fi.pv168.utils.EntityNotFoundException;
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for class GroupCommitPaymentWriter
+ * @author Miroslav Kubus
+ */
+public class GroupCommitPaymentWriterTest {
+
+    private DataSource dataSource;
+    private AccountManagerImpl accountManager;
+    private PaymentManagerImpl paymentManager;
+    private GroupCommitPaymentWriter writer;
+    private Account from;
+    private Account to;
+
+    @Before
+    public void setUp() throws SQLException {
+        dataSource = prepareDataSource();
+        DBUtils.migrate(dataSource);
+
+        accountManager = new AccountManagerImpl(dataSource);
+        paymentManager = new PaymentManagerImpl(dataSource);
+        writer = new GroupCommitPaymentWriter(paymentManager, 20, 50, 1000);
+
+        from = new Account("111", "from", new BigDecimal(1000));
+        to = new Account("222", "to", new BigDecimal(1000));
+        accountManager.createAccount(from);
+        accountManager.createAccount(to);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        writer.close();
+        DBUtils.dropAll(dataSource);
+    }
+
+    private static DataSource prepareDataSource() throws SQLException {
+        EmbeddedDataSource ds = new EmbeddedDataSource();
+        ds.setDatabaseName("memory:groupcommit-test");
+        ds.setCreateDatabase("create");
+        return ds;
+    }
+
+    @Test
+    public void testPaymentsShareCommit() throws Exception {
+        List<CompletableFuture<Payment>> futures = new ArrayList<>();
+
+        for(int i = 0; i < 40; i++) {
+            futures.add(writer.submit(newPayment(from, to, BigDecimal.ONE)));
+        }
+
+        for(CompletableFuture<Payment> future : futures) {
+            assertNotNull(future.get(10, TimeUnit.SECONDS).getId());
+        }
+
+        assertEquals(40, paymentManager.getAllPayments().size());
+        assertEquals(0, new BigDecimal(960).compareTo(accountManager.getAccountById(from.getId()).getBalance()));
+        assertTrue(writer.getBatchSizes().getCount() < 40);
+        assertEquals(40, writer.getBatchSizes().getTotalNanos());
+        assertTrue(writer.getBatchSizes().getMaxNanos() <= 20);
+        assertEquals(40, writer.getWaitTimes().getCount());
+    }
+
+    @Test
+    public void testConcurrentSubmitters() throws Exception {
+        ExecutorService submitters = Executors.newFixedThreadPool(4);
+        List<Future<?>> results = new ArrayList<>();
+
+        for(int t = 0; t < 4; t++) {
+            final boolean forward = t % 2 == 0;
+            results.add(submitters.submit(() -> {
+                for(int i = 0; i < 25; i++) {
+                    Payment payment = forward ? newPayment(from, to, BigDecimal.ONE) : newPayment(to, from, BigDecimal.ONE);
+                    writer.submit(payment).get();
+                }
+                return null;
+            }));
+        }
+
+        for(Future<?> result : results) {
+            result.get();
+        }
+        submitters.shutdown();
+
+        BigDecimal total = accountManager.getAccountById(from.getId()).getBalance()
+                .add(accountManager.getAccountById(to.getId()).getBalance());
+
+        assertEquals(0, new BigDecimal(2000).compareTo(total));
+        assertEquals(100, paymentManager.getAllPayments().size());
+    }
+
+    @Test
+    public void testFailedPaymentDoesNotFailBatch() throws Exception {
+        Account missing = new Account("999", "missing", BigDecimal.ONE);
+        missing.setId(999L);
+
+        CompletableFuture<Payment> created = writer.submit(newPayment(from, to, BigDecimal.TEN));
+        CompletableFuture<Payment> failed = writer.submit(newPayment(from, missing, BigDecimal.ONE));
+        CompletableFuture<Payment> invalid = writer.submit(newPayment(from, to, BigDecimal.ZERO.subtract(BigDecimal.ONE)));
+
+        assertNotNull(created.get(10, TimeUnit.SECONDS).getId());
+        assertFailure(failed, EntityNotFoundException.class);
+        assertFailure(invalid, IllegalArgumentException.class);
+        assertEquals(0, new BigDecimal(990).compareTo(accountManager.getAccountById(from.getId()).getBalance()));
+    }
+
+    @Test
+    public void testSubmitAfterClose() throws Exception {
+        CompletableFuture<Payment> queued = writer.submit(newPayment(from, to, BigDecimal.ONE));
+        writer.close();
+
+        assertTrue(queued.isDone());
+        assertNotNull(queued.get().getId());
+        assertFailure(writer.submit(newPayment(from, to, BigDecimal.ONE)), RejectedExecutionException.class);
+    }
+
+    @Test
+    public void testInterruptedClose() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        PaymentManager blocking = new PaymentManagerImpl(dataSource) {
+            @Override
+            public PaymentBatchResult createPayments(Collection<Payment> payments) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.createPayments(payments);
+            }
+        };
+        GroupCommitPaymentWriter blocked = new GroupCommitPaymentWriter(blocking, 1, 0, 10);
+
+        CompletableFuture<Payment> committed = blocked.submit(newPayment(from, to, BigDecimal.ONE));
+        started.await();
+        CompletableFuture<Payment> queued = blocked.submit(newPayment(from, to, BigDecimal.ONE));
+
+        Thread.currentThread().interrupt();
+        blocked.close();
+
+        assertTrue(Thread.interrupted());
+        assertFailure(queued, RejectedExecutionException.class);
+        assertFalse(blocked.awaitTermination(10, TimeUnit.MILLISECONDS));
+
+        release.countDown();
+        assertTrue(blocked.awaitTermination(10, TimeUnit.SECONDS));
+        assertNotNull(committed.get().getId());
+        assertEquals(1, paymentManager.getAllPayments().size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCreateWriterWithZeroBatchSize() {
+        new GroupCommitPaymentWriter(paymentManager, 0, 1, 10);
+    }
+
+    private static void assertFailure(CompletableFuture<Payment> future, Class<?> expected) throws Exception {
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail("Payment was created");
+        } catch (ExecutionException ex) {
+            assertThat(ex.getCause(), instanceOf(expected));
+        }
+    }
+
+    private static Payment newPayment(Account from, Account to, BigDecimal amount) {
+        Payment payment = new Payment();
+        payment.setFrom(from);
+        payment.setTo(to);
+        payment.setAmount(amount);
+        payment.setDate(LocalDate.now());
+
+        return payment;
+    }
+}
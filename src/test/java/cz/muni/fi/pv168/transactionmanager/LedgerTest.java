@@ -0,0 +1,282 @@
+package cz.muni.fi.pv168.transactionmanager;
+
+import cz.muni.fi.pv168.utils.DBUtils;
+import cz.muni.fi.pv168.utils.EntityNotFoundException;
+import cz.muni.fi.pv168.utils.InsufficientFundsException;
+import cz.muni.fi.pv168.utils.OptimisticLockException;
+import cz.muni.fi.pv168.utils.ServiceFailureException;
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.sql.DataSource;
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for ledger backend - classes Ledger, LedgerAccountManager and
+ * LedgerPaymentManager
+ * @author Miroslav Kubus
+ */
+public class LedgerTest {
+
+    private DataSource dataSource;
+    private LedgerAccountManager accountManager;
+    private LedgerPaymentManager paymentManager;
+    private Account from;
+    private Account to;
+    private LocalDate date;
+
+    @Before
+    public void setUp() throws SQLException {
+        dataSource = prepareDataSource();
+        DBUtils.migrate(dataSource);
+        open(new Ledger(dataSource));
+
+        from = new Account("111", "from", new BigDecimal(1000));
+        to = new Account("222", "to", new BigDecimal(100));
+        accountManager.createAccount(from);
+        accountManager.createAccount(to);
+        date = LocalDate.now();
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        DBUtils.dropAll(dataSource);
+    }
+
+    private static DataSource prepareDataSource() throws SQLException {
+        EmbeddedDataSource ds = new EmbeddedDataSource();
+        ds.setDatabaseName("memory:ledger-test");
+        ds.setCreateDatabase("create");
+        return ds;
+    }
+
+    private void open(Ledger ledger) {
+        accountManager = new LedgerAccountManager(ledger);
+        paymentManager = new LedgerPaymentManager(ledger);
+    }
+
+    @Test
+    public void testCreatePayment() {
+        Payment payment = newPayment(from, to, new BigDecimal(300), date);
+        paymentManager.createPayment(payment);
+
+        Payment stored = paymentManager.getPaymentByID(payment.getId());
+
+        assertEquals(payment.getId(), stored.getId());
+        assertTrue(stored.getFrom().getBalance().compareTo(new BigDecimal(700)) == 0);
+        assertTrue(stored.getTo().getBalance().compareTo(new BigDecimal(400)) == 0);
+        assertEquals(1, accountManager.getAccountById(from.getId()).getVersion());
+        assertEquals(payment.getId(), paymentManager.getPaymentsFromAccount(from).get(0).getId());
+        assertEquals(payment.getId(), paymentManager.getPaymentsToAcoount(to).get(0).getId());
+        assertTrue(paymentManager.getPaymentsToAcoount(from).isEmpty());
+    }
+
+    @Test
+    public void testReplayRestoresState() {
+        Payment payment = newPayment(from, to, new BigDecimal(300), date);
+        Payment second = newPayment(to, from, new BigDecimal(50), date.plusDays(2));
+        paymentManager.createPayment(payment);
+        paymentManager.createPayment(second);
+
+        Payment stored = paymentManager.getPaymentByID(payment.getId());
+        stored.setAmount(new BigDecimal(400));
+        paymentManager.updatePayment(stored);
+        paymentManager.deletePayment(paymentManager.getPaymentByID(second.getId()));
+
+        Account renamed = accountManager.getAccountById(to.getId());
+        renamed.setHolder("renamed");
+        accountManager.updateAccount(renamed);
+
+        List<Account> accounts = accountManager.getAllAccounts();
+        AccountStatistics statistics = paymentManager.getAccountStatistics(from);
+
+        open(new Ledger(dataSource));
+
+        assertEquals(accounts, accountManager.getAllAccounts());
+        assertEquals(statistics, paymentManager.getAccountStatistics(from));
+        assertEquals(1, paymentManager.getAllPayments().size());
+        assertEquals(1, paymentManager.getPaymentByID(payment.getId()).getVersion());
+        assertEquals(renamed.getVersion(), accountManager.getAccountByNumber("222").getVersion());
+    }
+
+    @Test
+    public void testSnapshotBoundsReplay() throws Exception {
+        Ledger ledger = new Ledger(dataSource, false, 5);
+        open(ledger);
+
+        for(int i = 0; i < 12; i++) {
+            paymentManager.createPayment(newPayment(from, to, BigDecimal.ONE, date));
+        }
+
+        ledger.awaitSnapshot();
+
+        List<Account> accounts = accountManager.getAllAccounts();
+        Ledger restored = new Ledger(dataSource, false, 5);
+        open(restored);
+
+        assertTrue(restored.getReplayedEvents() < 5);
+        assertEquals(ledger.getLastSeq(), restored.getLastSeq());
+        assertEquals(accounts, accountManager.getAllAccounts());
+        assertEquals(12, paymentManager.getAccountStatistics(from).getCountOut());
+
+        paymentManager.createPayment(newPayment(from, to, BigDecimal.ONE, date));
+        assertEquals(14, paymentManager.getAllPayments().get(12).getId() + 1);
+    }
+
+    @Test
+    public void testUpdateAccountReadBeforePayment() {
+        Account stale = accountManager.getAccountById(from.getId());
+        paymentManager.createPayment(newPayment(from, to, new BigDecimal(300), date));
+        stale.setHolder("changed");
+
+        try {
+            accountManager.updateAccount(stale);
+            fail("Stale account was updated");
+        } catch (OptimisticLockException ex) {
+            Account current = (Account) ex.getCurrentState();
+            assertTrue(current.getBalance().compareTo(new BigDecimal(700)) == 0);
+        }
+    }
+
+    @Test
+    public void testPaymentWithInsufficientFunds() {
+        open(new Ledger(dataSource, true, Ledger.DEFAULT_SNAPSHOT_INTERVAL));
+
+        try {
+            paymentManager.createPayment(newPayment(to, from, new BigDecimal(101), date));
+            fail("Payment without funds was created");
+        } catch (InsufficientFundsException ex) {
+            // expected
+        }
+
+        assertTrue(paymentManager.getAllPayments().isEmpty());
+        assertTrue(accountManager.getAccountById(to.getId()).getBalance().compareTo(new BigDecimal(100)) == 0);
+    }
+
+    @Test
+    public void testLowerPaymentWithInsufficientFundsOfToAccount() {
+        open(new Ledger(dataSource, true, Ledger.DEFAULT_SNAPSHOT_INTERVAL));
+        Payment payment = newPayment(from, to, new BigDecimal(500), date);
+        paymentManager.createPayment(payment);
+        paymentManager.createPayment(newPayment(to, from, new BigDecimal(550), date));
+
+        Payment lowered = paymentManager.getPaymentByID(payment.getId());
+        lowered.setAmount(new BigDecimal(400));
+        try {
+            paymentManager.updatePayment(lowered);
+            fail("Lowering of payment took more money from to account than it has");
+        } catch (InsufficientFundsException ex) {
+            // expected
+        }
+
+        assertEquals(0, paymentManager.getPaymentByID(payment.getId()).getVersion());
+        assertTrue(accountManager.getAccountById(to.getId()).getBalance().compareTo(new BigDecimal(50)) == 0);
+    }
+
+    @Test
+    public void testAccountsWithSameNumberOrPayments() {
+        try {
+            accountManager.createAccount(new Account("111", "other", BigDecimal.ONE));
+            fail("Account with used number was created");
+        } catch (ServiceFailureException ex) {
+            // expected
+        }
+
+        paymentManager.createPayment(newPayment(from, to, BigDecimal.ONE, date));
+
+        try {
+            accountManager.deleteAccount(from);
+            fail("Account with payments was deleted");
+        } catch (ServiceFailureException ex) {
+            // expected
+        }
+
+        Account empty = new Account("333", "empty", BigDecimal.ZERO);
+        accountManager.createAccount(empty);
+        accountManager.deleteAccount(empty);
+
+        assertNull(accountManager.getAccountByNumber("333"));
+        assertEquals(2, accountManager.getAllAccounts().size());
+    }
+
+    @Test(expected = EntityNotFoundException.class)
+    public void testPaymentToNonExistingAccount() {
+        Account missing = new Account("999", "missing", BigDecimal.ONE);
+        missing.setId(999L);
+
+        paymentManager.createPayment(newPayment(from, missing, BigDecimal.ONE, date));
+    }
+
+    @Test
+    public void testFindPayments() {
+        Payment payment = newPayment(from, to, new BigDecimal(300), date);
+        Payment second = newPayment(to, from, new BigDecimal(50), date.plusDays(1));
+        paymentManager.createPayment(payment);
+        paymentManager.createPayment(second);
+
+        PaymentQuery query = new PaymentQuery();
+        query.setAccount(from);
+        query.setOrder(PaymentQuery.Order.DATE_DESC);
+
+        List<Payment> found = paymentManager.findPayments(query);
+
+        assertEquals(2, found.size());
+        assertEquals(second.getId(), found.get(0).getId());
+
+        query.setMinAmount(new BigDecimal(100));
+        assertEquals(payment.getId(), paymentManager.findPayments(query).get(0).getId());
+        assertEquals(second.getId(), paymentManager.getPaymentsAfter(payment.getId(), 5).get(0).getId());
+    }
+
+    @Test
+    public void testConcurrentPaymentsConserveTotalBalance() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> results = new ArrayList<>();
+
+        for(int t = 0; t < 4; t++) {
+            final boolean forward = t % 2 == 0;
+            results.add(executor.submit(() -> {
+                for(int i = 0; i < 50; i++) {
+                    paymentManager.createPayment(forward ? newPayment(from, to, BigDecimal.ONE, date)
+                                                         : newPayment(to, from, BigDecimal.ONE, date));
+                }
+            }));
+        }
+
+        for(Future<?> result : results) {
+            result.get();
+        }
+        executor.shutdown();
+
+        open(new Ledger(dataSource));
+
+        BigDecimal total = accountManager.getAccountById(from.getId()).getBalance()
+                .add(accountManager.getAccountById(to.getId()).getBalance());
+
+        assertTrue(total.compareTo(new BigDecimal(1100)) == 0);
+        assertEquals(200, paymentManager.getAllPayments().size());
+        assertEquals(200, accountManager.getAccountById(from.getId()).getVersion());
+    }
+
+    private static Payment newPayment(Account from, Account to, BigDecimal amount, LocalDate date) {
+        Payment payment = new Payment();
+        payment.setFrom(from);
+        payment.setTo(to);
+        payment.setAmount(amount);
+        payment.setDate(date);
+
+        return payment;
+    }
+}
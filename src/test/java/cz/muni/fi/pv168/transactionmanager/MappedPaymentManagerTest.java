@@ -0,0 +1,258 @@
+package cz.muni.fi.pv168.transactionmanager;
+
+import cz.muni.fi.pv168.utils.AccountLockManager;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import javax.sql.DataSource;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Runs tests of PaymentManagerImplTest against MappedPaymentManager and tests
+ * reopening and segments of its log. Segments are small, so tests roll over
+ * more of them.
+ * @author Miroslav Kubus
+ */
+public class MappedPaymentManagerTest extends PaymentManagerImplTest {
+
+    private static final int SEGMENT_RECORDS = 2;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DataSource dataSource;
+    private Path directory;
+    private PaymentLog log;
+
+    @Override
+    protected PaymentManager createManager(DataSource dataSource, boolean checkFunds) {
+        if(log == null) {
+            this.dataSource = dataSource;
+            directory = folder.getRoot().toPath().resolve("payments");
+            log = new PaymentLog(directory, SEGMENT_RECORDS);
+        }
+
+        return new MappedPaymentManager(dataSource, log, checkFunds);
+    }
+
+    @Override
+    protected void setChunkSize(PaymentManager manager, int chunkSize) {
+        ((MappedPaymentManager) manager).setChunkSize(chunkSize);
+    }
+
+    @Override
+    protected void setLockManager(PaymentManager manager, AccountLockManager lockManager) {
+        ((MappedPaymentManager) manager).setLockManager(lockManager);
+    }
+
+    @Override
+    protected void rebuildAccountStatistics(PaymentManager manager) {
+        ((MappedPaymentManager) manager).rebuildAccountStatistics();
+    }
+
+    @Override
+    protected void breakPaymentStorage() {
+        log.close();
+    }
+
+    @Override
+    protected void restorePaymentStorage() {
+    }
+
+    @After
+    public void closeLog() {
+        log.close();
+    }
+
+    @Test
+    public void testPaymentsSurviveReopenOfLog() {
+        Account first = createAccount("333", "first");
+        Account second = createAccount("444", "second");
+        MappedPaymentManager manager = new MappedPaymentManager(dataSource, log);
+        Payment payment = createPayment(manager, first, second, "12.3456");
+        Payment deleted = createPayment(manager, second, first, "2");
+        createPayment(manager, first, second, "3");
+        manager.deletePayment(deleted);
+        AccountStatistics statistics = manager.getAccountStatistics(first);
+
+        log.close();
+        log = new PaymentLog(directory, SEGMENT_RECORDS);
+        manager = new MappedPaymentManager(dataSource, log);
+
+        assertEquals(3, log.size());
+        assertEquals(0, new BigDecimal("12.3456").compareTo(manager.getPaymentByID(payment.getId()).getAmount()));
+        assertNull(manager.getPaymentByID(deleted.getId()));
+        assertEquals(2, manager.getPaymentsFromAccount(first).size());
+        assertEquals(0, manager.getPaymentsToAcoount(first).size());
+        assertEquals(statistics, manager.getAccountStatistics(first));
+        assertEquals(Long.valueOf(4), createPayment(manager, second, first, "1").getId());
+    }
+
+    @Test
+    public void testRollToNewSegment() {
+        Account first = createAccount("333", "first");
+        Account second = createAccount("444", "second");
+        MappedPaymentManager manager = new MappedPaymentManager(dataSource, log);
+
+        for(int i = 0; i < 5; i++) {
+            createPayment(manager, first, second, "1");
+        }
+
+        assertEquals(3, log.getSegmentCount());
+        assertEquals(5, manager.getPaymentsAfter(null, 10).size());
+        assertEquals(5, manager.getPaymentsToAcoount(second).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOpenLogWithOtherSegmentSize() throws IOException {
+        Account first = createAccount("333", "first");
+        Account second = createAccount("444", "second");
+        createPayment(new MappedPaymentManager(dataSource, log), first, second, "1");
+        log.close();
+
+        new PaymentLog(directory, SEGMENT_RECORDS + 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCreatePaymentWithTooPreciseAmount() {
+        createPayment(new MappedPaymentManager(dataSource, log), createAccount("333", "first"),
+                createAccount("444", "second"), "0.00001");
+    }
+
+    @Test
+    public void testPendingRecordsResolvedOnReopen() throws SQLException {
+        Account first = createAccount("333", "first");
+        Account second = createAccount("444", "second");
+        MappedPaymentManager manager = new MappedPaymentManager(dataSource, log);
+        Payment payment = createPayment(manager, first, second, "1");
+        int day = Math.toIntExact(LocalDate.now().plusDays(2).toEpochDay());
+        PaymentLog.Record committed = log.append(first.getId(), second.getId(), 20000, day);
+        PaymentLog.Record uncommitted = log.append(second.getId(), first.getId(), 30000, day);
+        long amendment = log.amend(payment.getId(), 0, 50000, day);
+        insertCommit(committed.id);
+        insertCommit(amendment);
+
+        assertNull(manager.getPaymentByID(committed.id));
+        assertEquals(-1, log.amend(payment.getId(), 0, 60000, day));
+
+        log.close();
+        log = new PaymentLog(directory, SEGMENT_RECORDS);
+        manager = new MappedPaymentManager(dataSource, log);
+
+        assertEquals(0, new BigDecimal(2).compareTo(manager.getPaymentByID(committed.id).getAmount()));
+        assertNull(manager.getPaymentByID(uncommitted.id));
+        assertEquals(0, new BigDecimal(5).compareTo(manager.getPaymentByID(payment.getId()).getAmount()));
+        assertEquals(1, manager.getPaymentByID(payment.getId()).getVersion());
+        assertEquals(2, manager.getAccountStatistics(first).getCountOut());
+        assertEquals(0, manager.getAccountStatistics(first).getCountIn());
+        assertEquals(0, countOfCommits());
+    }
+
+    @Test
+    public void testTornAmendmentAppliedOnReopen() throws SQLException, IOException {
+        Account first = createAccount("333", "first");
+        Account second = createAccount("444", "second");
+        MappedPaymentManager manager = new MappedPaymentManager(dataSource, log);
+        Payment payment = createPayment(manager, first, second, "1");
+        int day = Math.toIntExact(LocalDate.now().plusDays(2).toEpochDay());
+        long amendment = log.amend(payment.getId(), 0, 50000, day);
+        insertCommit(amendment);
+        log.close();
+
+        long position = payment.getId() - 1;
+        Path segment = directory.resolve(String.format("payments-%06d.seg", position / SEGMENT_RECORDS));
+        int offset = PaymentLog.HEADER_SIZE + (int) (position % SEGMENT_RECORDS) * PaymentLog.RECORD_SIZE;
+
+        try(FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(8).putLong(0, 50000), offset + 24);
+            channel.write(ByteBuffer.allocate(4).putInt(0, day), offset + 40);
+        }
+
+        log = new PaymentLog(directory, SEGMENT_RECORDS);
+        manager = new MappedPaymentManager(dataSource, log);
+        Payment stored = manager.getPaymentByID(payment.getId());
+
+        assertEquals(1, stored.getVersion());
+        assertEquals(0, new BigDecimal(5).compareTo(stored.getAmount()));
+        assertEquals(LocalDate.ofEpochDay(day), stored.getDate());
+        assertEquals(0, new BigDecimal(5).compareTo(manager.getAccountStatistics(first).getTotalOut()));
+        assertEquals(1, manager.getAccountStatistics(first).getCountOut());
+    }
+
+    @Test
+    public void testFailingListenerDoesNotRepeatChunk() {
+        Account first = createAccount("333", "first");
+        Account second = createAccount("444", "second");
+        MappedPaymentManager manager = new MappedPaymentManager(dataSource, log);
+        manager.addBalanceChangeListener(accountId -> {
+            throw new IllegalStateException("Failing listener");
+        });
+
+        try {
+            manager.createPayments(Arrays.asList(payment(first, second, "1"), payment(first, second, "2")));
+            fail("Failure of listener should be thrown");
+        } catch (IllegalStateException ex) {
+        }
+
+        assertEquals(2, log.size());
+        assertEquals(2, manager.getPaymentsFromAccount(first).size());
+        assertEquals(0, new BigDecimal(997).compareTo(
+                new AccountManagerImpl(dataSource).getAccountById(first.getId()).getBalance()));
+    }
+
+    private void insertCommit(long number) throws SQLException {
+        try(Connection connection = dataSource.getConnection();
+            PreparedStatement st = connection.prepareStatement("INSERT INTO payment_log_commit (logRecord) VALUES (?)")) {
+            st.setLong(1, number);
+            st.executeUpdate();
+        }
+    }
+
+    private int countOfCommits() throws SQLException {
+        try(Connection connection = dataSource.getConnection();
+            PreparedStatement st = connection.prepareStatement("SELECT COUNT(*) FROM payment_log_commit");
+            ResultSet rs = st.executeQuery()) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    private Account createAccount(String number, String holder) {
+        Account account = new Account(number, holder, new BigDecimal(1000));
+        new AccountManagerImpl(dataSource).createAccount(account);
+
+        return account;
+    }
+
+    private static Payment createPayment(PaymentManager manager, Account from, Account to, String amount) {
+        Payment payment = payment(from, to, amount);
+        manager.createPayment(payment);
+
+        return payment;
+    }
+
+    private static Payment payment(Account from, Account to, String amount) {
+        Payment payment = new Payment();
+        payment.setFrom(from);
+        payment.setTo(to);
+        payment.setAmount(new BigDecimal(amount));
+        payment.setDate(LocalDate.now().plusDays(1));
+
+        return payment;
+    }
+}
@@ -0,0 +1,36 @@
+package cz.muni.fi.pv168.transactionmanager;
+
+import java.math.BigDecimal;
+import javax.sql.DataSource;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.Test;
+
+/**
+ * Runs tests of AccountManagerImplTest against MemoryAccountManager and tests
+ * index of account numbers of MemoryStore
+ * @author Miroslav Kubus
+ */
+public class MemoryAccountManagerTest extends AccountManagerImplTest {
+
+    @Override
+    protected AccountManager createManager(DataSource dataSource) {
+        return new MemoryAccountManager(new MemoryStore());
+    }
+
+    @Test
+    public void testGetAccountByChangedNumber() {
+        MemoryAccountManager manager = new MemoryAccountManager(new MemoryStore());
+        Account account = new Account("111", "holder", new BigDecimal(100));
+        manager.createAccount(account);
+
+        account.setNumber("222");
+        manager.updateAccount(account);
+
+        assertNull(manager.getAccountByNumber("111"));
+        assertEquals(account, manager.getAccountByNumber("222"));
+
+        manager.createAccount(new Account("111", "other", BigDecimal.ONE));
+        assertEquals("other", manager.getAccountByNumber("111").getHolder());
+    }
+}
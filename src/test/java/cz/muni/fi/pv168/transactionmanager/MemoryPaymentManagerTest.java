@@ -0,0 +1,117 @@
+package cz.muni.fi.pv168.transactionmanager;
+
+import cz.muni.fi.pv168.utils.AccountLockManager;
+import cz.muni.fi.pv168.utils.ServiceFailureException;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import javax.sql.DataSource;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Runs tests of PaymentManagerImplTest against MemoryPaymentManager with
+ * accounts of MemoryAccountManager, both managers share one MemoryStore
+ * @author Miroslav Kubus
+ */
+public class MemoryPaymentManagerTest extends PaymentManagerImplTest {
+
+    private MemoryStore store;
+
+    @Override
+    protected AccountManager createAccountManager(DataSource dataSource) {
+        store = new MemoryStore();
+        return new MemoryAccountManager(store);
+    }
+
+    @Override
+    protected PaymentManager createManager(DataSource dataSource, boolean checkFunds) {
+        return new MemoryPaymentManager(store, checkFunds);
+    }
+
+    @Override
+    protected void setChunkSize(PaymentManager manager, int chunkSize) {
+    }
+
+    @Override
+    protected void setLockManager(PaymentManager manager, AccountLockManager lockManager) {
+        ((MemoryPaymentManager) manager).setLockManager(lockManager);
+    }
+
+    @Override
+    protected void rebuildAccountStatistics(PaymentManager manager) {
+        ((MemoryPaymentManager) manager).rebuildAccountStatistics();
+    }
+
+    @Override
+    protected void breakPaymentStorage() {
+        store.setMaxPayments(store.getPaymentCount());
+    }
+
+    @Override
+    protected void restorePaymentStorage() {
+        store.setMaxPayments(Long.MAX_VALUE);
+    }
+
+    @Test
+    public void testPaymentsOfAccountsInOneStripe() {
+        MemoryStore store = new MemoryStore(1);
+        MemoryAccountManager accountManager = new MemoryAccountManager(store);
+        MemoryPaymentManager manager = new MemoryPaymentManager(store, true);
+        List<Account> accounts = new ArrayList<>();
+
+        for(int i = 0; i < 3; i++) {
+            Account account = new Account("acc" + i, "holder" + i, new BigDecimal(100));
+            accountManager.createAccount(account);
+            accounts.add(account);
+        }
+
+        for(int i = 0; i < 30; i++) {
+            createPayment(manager, accounts.get(i % 3), accounts.get((i + 1) % 3));
+        }
+
+        assertEquals(30, store.getPaymentCount());
+        assertEquals(10, manager.getPaymentsFromAccount(accounts.get(0)).size());
+        assertEquals(10, manager.getPaymentsToAcoount(accounts.get(0)).size());
+
+        for(Account account : accountManager.getAllAccounts()) {
+            assertTrue(new BigDecimal(100).compareTo(account.getBalance()) == 0);
+        }
+    }
+
+    @Test
+    public void testDeleteAccountWithPayments() {
+        MemoryStore store = new MemoryStore();
+        MemoryAccountManager accountManager = new MemoryAccountManager(store);
+        Account from = new Account("111", "from", new BigDecimal(100));
+        Account to = new Account("222", "to", new BigDecimal(100));
+        accountManager.createAccount(from);
+        accountManager.createAccount(to);
+        Payment payment = createPayment(new MemoryPaymentManager(store), from, to);
+
+        try {
+            accountManager.deleteAccount(accountManager.getAccountById(to.getId()));
+            throw new AssertionError("Account with payment was deleted");
+        } catch (ServiceFailureException ex) {
+            // expected
+        }
+
+        new MemoryPaymentManager(store).deletePayment(payment);
+        accountManager.deleteAccount(accountManager.getAccountById(to.getId()));
+
+        assertEquals(1, accountManager.getAllAccounts().size());
+    }
+
+    private static Payment createPayment(PaymentManager manager, Account from, Account to) {
+        Payment payment = new Payment();
+        payment.setFrom(from);
+        payment.setTo(to);
+        payment.setAmount(BigDecimal.TEN);
+        payment.setDate(LocalDate.now().plusDays(1));
+        manager.createPayment(payment);
+
+        return payment;
+    }
+}
@@ -0,0 +1,94 @@
+package cz.muni.fi.pv168.transactionmanager;
+
+import cz.muni.fi.pv168.utils.DBUtils;
+import cz.muni.fi.pv168.utils.MetricsRegistry;
+import cz.muni.fi.pv168.utils.OperationMetrics;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import javax.management.MBeanServer;
+import javax.sql.DataSource;
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for classes MeteredAccountManager and MeteredPaymentManager
+ * @author Miroslav Kubus
+ */
+public class MeteredManagerTest {
+
+    private DataSource dataSource;
+    private MetricsRegistry registry;
+    private AccountManager accountManager;
+    private PaymentManager paymentManager;
+
+    @Before
+    public void setUp() throws SQLException {
+        dataSource = prepareDataSource();
+        DBUtils.migrate(dataSource);
+
+        registry = new MetricsRegistry("cz.muni.fi.pv168.test");
+        accountManager = new MeteredAccountManager(new AccountManagerImpl(dataSource), registry);
+        paymentManager = new MeteredPaymentManager(new PaymentManagerImpl(dataSource), registry);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        DBUtils.dropAll(dataSource);
+    }
+
+    private static DataSource prepareDataSource() throws SQLException {
+        EmbeddedDataSource ds = new EmbeddedDataSource();
+        ds.setDatabaseName("memory:meteredmanager-test");
+        ds.setCreateDatabase("create");
+        return ds;
+    }
+
+    @Test
+    public void testCallsAndErrorsAreRecorded() {
+        Account from = new Account("111", "from", new BigDecimal(1000));
+        Account to = new Account("222", "to", new BigDecimal(100));
+        accountManager.createAccount(from);
+        accountManager.createAccount(to);
+
+        Payment payment = new Payment();
+        payment.setFrom(from);
+        payment.setTo(to);
+        payment.setAmount(BigDecimal.TEN);
+        payment.setDate(LocalDate.now());
+        paymentManager.createPayment(payment);
+
+        try {
+            paymentManager.createPayment(null);
+            fail("Null payment was created");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+
+        OperationMetrics createAccount = registry.operation("AccountManager.createAccount");
+        OperationMetrics createPayment = registry.operation("PaymentManager.createPayment");
+        assertEquals(2, createAccount.getCount());
+        assertEquals(0, createAccount.getErrors());
+        assertEquals(2, createPayment.getCount());
+        assertEquals(1, createPayment.getErrors());
+        assertTrue(createPayment.getMaxMicros() > 0);
+        assertTrue(registry.dump().contains("PaymentManager.createPayment count=2 errors=1"));
+        assertTrue(MetricsRegistry.getDefault().operation("sql.payment.insert").getCount() > 0);
+    }
+
+    @Test
+    public void testMBeansAreRegistered() throws Exception {
+        registry.registerMBeans();
+        accountManager.getAllAccounts();
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertEquals(1L, server.getAttribute(registry.objectName("AccountManager.getAllAccounts"), "Count"));
+        assertEquals(0L, server.getAttribute(registry.objectName("AccountManager.getAllAccounts"), "Errors"));
+    }
+}
@@ -1,17 +1,29 @@
 package cz.muni.fi.pv168.transactionmanager;
 
+import cz.muni.fi.pv168.utils.AccountLockManager;
 import cz.muni.fi.pv168.utils.DBUtils;
 import cz.muni.fi.pv168.utils.EntityNotFoundException;
+import cz.muni.fi.pv168.utils.InsufficientFundsException;
+import cz.muni.fi.pv168.utils.OptimisticLockException;
 import cz.muni.fi.pv168.utils.ServiceFailureException;
+import cz.muni.fi.pv168.utils.StripeStatistics;
 import java.math.BigDecimal;
+import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.time.LocalDate;
 import java.time.Month;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.sql.DataSource;
+import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.CoreMatchers.sameInstance;
@@ -20,6 +32,7 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -33,8 +46,8 @@ import org.junit.After;
  */
 public class PaymentManagerImplTest {
     
-    private static PaymentManagerImpl manager;
-    private static AccountManagerImpl accountManager;
+    private static PaymentManager manager;
+    private static AccountManager accountManager;
     private Account from = null;
     private Account to = null;
     private static LocalDate date = null;
@@ -46,23 +59,21 @@ public class PaymentManagerImplTest {
     public void setUp() throws SQLException {
         dataSource = prepareDataSource();
         
-        DBUtils.executeSqlScript(dataSource, AccountManager.class.getResource("createAccountTable.sql"));        
-        accountManager = new AccountManagerImpl(dataSource);
+        DBUtils.migrate(dataSource);
+        accountManager = createAccountManager(dataSource);
         from = newAccount("111","from",new BigDecimal(1000));
         accountManager.createAccount(from);
         to = newAccount("222","to",new BigDecimal(100));
         accountManager.createAccount(to);
         
-        DBUtils.executeSqlScript(dataSource, PaymentManager.class.getResource("createPaymentTable.sql"));
-        manager = new PaymentManagerImpl(dataSource);
+        manager = createManager(dataSource, false);
         date = LocalDate.now();
         payment = newPayment(from,to,new BigDecimal(500),date);
     }
     
     @After
     public void tearDown() throws SQLException {
-        DBUtils.executeSqlScript(dataSource,PaymentManager.class.getResource("dropPaymentTable.sql"));
-        DBUtils.executeSqlScript(dataSource,AccountManager.class.getResource("dropAccountTable.sql"));
+        DBUtils.dropAll(dataSource);
     }
 
     
@@ -73,6 +84,49 @@ public class PaymentManagerImplTest {
         return ds;
     }
     
+    /**
+     * Creates tested manager, subclass overrides this and following methods
+     * to run the same tests against other implementation of PaymentManager
+     */
+    protected PaymentManager createManager(DataSource dataSource, boolean checkFunds) {
+        return new PaymentManagerImpl(dataSource, checkFunds);
+    }
+    
+    /**
+     * Creates manager of accounts of tested payments, it is called before createManager
+     */
+    protected AccountManager createAccountManager(DataSource dataSource) {
+        return new AccountManagerImpl(dataSource);
+    }
+    
+    protected void setChunkSize(PaymentManager manager, int chunkSize) {
+        ((PaymentManagerImpl) manager).setChunkSize(chunkSize);
+    }
+    
+    protected void setLockManager(PaymentManager manager, AccountLockManager lockManager) {
+        ((PaymentManagerImpl) manager).setLockManager(lockManager);
+    }
+    
+    protected void rebuildAccountStatistics(PaymentManager manager) {
+        ((PaymentManagerImpl) manager).rebuildAccountStatistics();
+    }
+    
+    /**
+     * Makes storage of payments fail on the next insert
+     */
+    protected void breakPaymentStorage() throws SQLException {
+        DBUtils.executeSqlScript(dataSource, PaymentManager.class.getResource("dropPaymentTable.sql"));
+    }
+    
+    /**
+     * Recreates schema of the latest version by migrations, rows of all
+     * tables are lost
+     */
+    protected void restorePaymentStorage() throws SQLException {
+        DBUtils.dropAll(dataSource);
+        DBUtils.migrate(dataSource);
+    }
+    
     @Rule
     public ExpectedException expectedException= ExpectedException.none();
     
@@ -256,6 +310,214 @@ public class PaymentManagerImplTest {
         assertTrue(manager.getPaymentsToAcoount(from).isEmpty());
     }
     
+    @Test
+    public void testForEachPaymentFromAccount() {
+        Payment paymentB = preparePaymentB();
+        manager.createPayment(payment);
+        manager.createPayment(paymentB);
+        payment = updateAmountsOfAccounts(payment);
+        
+        List<Payment> actual = new ArrayList<>();
+        manager.forEachPaymentFromAccount(from, actual::add);
+        
+        assertEquals(Arrays.asList(payment), actual);
+        assertDeepEquals(Arrays.asList(payment), actual);
+    }
+    
+    @Test
+    public void testGetPaymentsAfter() {
+        Payment paymentB = preparePaymentB();
+        Payment paymentC = newPayment(to, from, new BigDecimal(50), date);
+        manager.createPayment(payment);
+        manager.createPayment(paymentB);
+        manager.createPayment(paymentC);
+        
+        List<Payment> firstPage = manager.getPaymentsAfter(null, 2);
+        List<Payment> secondPage = manager.getPaymentsAfter(firstPage.get(1).getId(), 2);
+        
+        assertEquals(2, firstPage.size());
+        assertEquals(payment.getId(), firstPage.get(0).getId());
+        assertEquals(paymentB.getId(), firstPage.get(1).getId());
+        assertEquals(1, secondPage.size());
+        assertEquals(paymentC.getId(), secondPage.get(0).getId());
+        assertTrue(manager.getPaymentsAfter(paymentC.getId(), 2).isEmpty());
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetPaymentsAfterWithZeroLimit() {
+        manager.getPaymentsAfter(null, 0);
+    }
+    
+    @Test
+    public void testFindPaymentsOfAccount() {
+        Payment paymentB = preparePaymentB();
+        Payment paymentC = newPayment(to, from, new BigDecimal(50), date);
+        manager.createPayment(payment);
+        manager.createPayment(paymentB);
+        manager.createPayment(paymentC);
+        
+        PaymentQuery query = new PaymentQuery();
+        query.setAccount(from);
+        assertEquals(Arrays.asList(payment.getId(), paymentC.getId()), idsOf(manager.findPayments(query)));
+        
+        query.setOrder(PaymentQuery.Order.ID_DESC);
+        assertEquals(Arrays.asList(paymentC.getId(), payment.getId()), idsOf(manager.findPayments(query)));
+        
+        query.setDirection(PaymentQuery.Direction.FROM);
+        assertEquals(Arrays.asList(payment.getId()), idsOf(manager.findPayments(query)));
+        
+        query.setDirection(PaymentQuery.Direction.TO);
+        List<Payment> found = manager.findPayments(query);
+        assertEquals(Arrays.asList(paymentC.getId()), idsOf(found));
+        assertDeepEqualsOfAccounts(to, found.get(0).getFrom());
+        assertDeepEqualsOfAccounts(from, found.get(0).getTo());
+    }
+    
+    @Test
+    public void testFindPaymentsByDateAndAmount() {
+        Payment paymentB = preparePaymentB();
+        paymentB.setDate(date.plusDays(3));
+        Payment paymentC = newPayment(to, from, new BigDecimal(50), date.plusDays(5));
+        manager.createPayment(payment);
+        manager.createPayment(paymentB);
+        manager.createPayment(paymentC);
+        
+        PaymentQuery query = new PaymentQuery();
+        query.setDateFrom(date.plusDays(1));
+        query.setDateTo(date.plusDays(5));
+        query.setOrder(PaymentQuery.Order.DATE_DESC);
+        assertEquals(Arrays.asList(paymentC.getId(), paymentB.getId()), idsOf(manager.findPayments(query)));
+        
+        query.setMinAmount(new BigDecimal(100));
+        assertEquals(Arrays.asList(paymentB.getId()), idsOf(manager.findPayments(query)));
+        
+        query = new PaymentQuery();
+        query.setMinAmount(new BigDecimal(50));
+        query.setMaxAmount(new BigDecimal(500));
+        query.setOrder(PaymentQuery.Order.AMOUNT_ASC);
+        assertEquals(Arrays.asList(paymentC.getId(), payment.getId()), idsOf(manager.findPayments(query)));
+    }
+    
+    @Test
+    public void testFindPaymentsPaged() {
+        Payment paymentB = preparePaymentB();
+        Payment paymentC = newPayment(to, from, new BigDecimal(50), date);
+        manager.createPayment(payment);
+        manager.createPayment(paymentB);
+        manager.createPayment(paymentC);
+        
+        PaymentQuery query = new PaymentQuery();
+        query.setOrder(PaymentQuery.Order.AMOUNT_DESC);
+        query.setLimit(1);
+        query.setOffset(1);
+        assertEquals(Arrays.asList(payment.getId()), idsOf(manager.findPayments(query)));
+        
+        query = new PaymentQuery();
+        query.setAccount(from);
+        query.setLimit(1);
+        List<Payment> firstPage = manager.findPayments(query);
+        query.setAfterId(firstPage.get(0).getId());
+        List<Payment> secondPage = manager.findPayments(query);
+        query.setAfterId(secondPage.get(0).getId());
+        
+        assertEquals(Arrays.asList(payment.getId()), idsOf(firstPage));
+        assertEquals(Arrays.asList(paymentC.getId()), idsOf(secondPage));
+        assertTrue(manager.findPayments(query).isEmpty());
+    }
+    
+    @Test
+    public void testFindPaymentsWithAfterIdAndOrderByDate() {
+        PaymentQuery query = new PaymentQuery();
+        query.setAfterId(1L);
+        query.setOrder(PaymentQuery.Order.DATE_ASC);
+        
+        expectedException.expect(IllegalArgumentException.class);
+        manager.findPayments(query);
+    }
+    
+    @Test
+    public void testFindPaymentsWithZeroLimit() {
+        PaymentQuery query = new PaymentQuery();
+        query.setLimit(0);
+        
+        expectedException.expect(IllegalArgumentException.class);
+        manager.findPayments(query);
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testFindPaymentsWithNullQuery() {
+        manager.findPayments(null);
+    }
+    
+    @Test
+    public void testAccountStatisticsOfAccountWithoutPayments() {
+        AccountStatistics statistics = manager.getAccountStatistics(from);
+        
+        assertEquals(new AccountStatistics(from.getId(), BigDecimal.ZERO, BigDecimal.ZERO, 0, 0, null), statistics);
+    }
+    
+    @Test
+    public void testAccountStatisticsAfterChangesOfPayments() {
+        Payment paymentC = newPayment(to, from, new BigDecimal(50), date.plusDays(2));
+        manager.createPayment(payment);
+        manager.createPayment(paymentC);
+        
+        assertEquals(new AccountStatistics(from.getId(), new BigDecimal(50), new BigDecimal(500), 1, 1, date.plusDays(2)),
+                manager.getAccountStatistics(from));
+        assertEquals(new AccountStatistics(to.getId(), new BigDecimal(500), new BigDecimal(50), 1, 1, date.plusDays(2)),
+                manager.getAccountStatistics(to));
+        
+        Payment stored = manager.getPaymentByID(payment.getId());
+        stored.setAmount(new BigDecimal(700));
+        stored.setDate(date.plusDays(3));
+        manager.updatePayment(stored);
+        
+        assertEquals(new AccountStatistics(from.getId(), new BigDecimal(50), new BigDecimal(700), 1, 1, date.plusDays(3)),
+                manager.getAccountStatistics(from));
+        
+        manager.deletePayment(stored);
+        
+        assertEquals(new AccountStatistics(from.getId(), new BigDecimal(50), BigDecimal.ZERO, 1, 0, date.plusDays(2)),
+                manager.getAccountStatistics(from));
+        assertEquals(new AccountStatistics(to.getId(), BigDecimal.ZERO, new BigDecimal(50), 0, 1, date.plusDays(2)),
+                manager.getAccountStatistics(to));
+    }
+    
+    @Test
+    public void testAccountStatisticsOfBatch() {
+        Payment paymentC = newPayment(to, from, new BigDecimal(50), date.plusDays(1));
+        manager.createPayments(Arrays.asList(payment, paymentC));
+        
+        assertEquals(new AccountStatistics(from.getId(), new BigDecimal(50), new BigDecimal(500), 1, 1, date.plusDays(1)),
+                manager.getAccountStatistics(from));
+    }
+    
+    @Test
+    public void testRebuildAccountStatistics() throws SQLException {
+        Payment paymentB = preparePaymentB();
+        manager.createPayment(payment);
+        manager.createPayment(paymentB);
+        manager.createPayment(newPayment(to, from, new BigDecimal(50), date.plusDays(1)));
+        
+        AccountStatistics statisticsOfFrom = manager.getAccountStatistics(from);
+        AccountStatistics statisticsOfToB = manager.getAccountStatistics(paymentB.getTo());
+        
+        try (Connection connection = dataSource.getConnection();
+             Statement st = connection.createStatement()) {
+            st.executeUpdate("UPDATE account_stats SET totalIn = 1, countOut = 42, lastPaymentDate = NULL");
+        }
+        
+        rebuildAccountStatistics(manager);
+        
+        assertEquals(statisticsOfFrom, manager.getAccountStatistics(from));
+        assertEquals(statisticsOfToB, manager.getAccountStatistics(paymentB.getTo()));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testAccountStatisticsOfNullAccount() {
+        manager.getAccountStatistics(null);
+    }
+    
     @Test
     public void testDeletePayment() {
         Payment paymentB = newPayment(to,from,new BigDecimal(1000),date);
@@ -294,6 +556,82 @@ public class PaymentManagerImplTest {
        manager.deletePayment(payment);
     }
     
+    @Test
+    public void testConcurrentDeletesOfPayment() throws Exception {
+        manager.createPayment(payment);
+        
+        int threads = 4;
+        List<Payment> copies = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            copies.add(manager.getPaymentByID(payment.getId()));
+        }
+        
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Boolean>> results = new ArrayList<>();
+        
+        for (Payment copy : copies) {
+            results.add(executor.submit(() -> {
+                try {
+                    manager.deletePayment(copy);
+                    return true;
+                } catch (EntityNotFoundException ex) {
+                    return false;
+                }
+            }));
+        }
+        
+        int deleted = 0;
+        for (Future<Boolean> result : results) {
+            deleted += result.get() ? 1 : 0;
+        }
+        executor.shutdown();
+        
+        assertEquals(1, deleted);
+        assertNull(manager.getPaymentByID(payment.getId()));
+        assertEquals(0, manager.getAccountStatistics(from).getCountOut());
+        assertTrue(manager.getAccountStatistics(from).getTotalOut().signum() == 0);
+    }
+    
+    @Test
+    public void testDeleteOfPaymentUpdatedConcurrently() throws Exception {
+        manager.createPayment(payment);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        
+        Future<?> updates = executor.submit(() -> {
+            for (int i = 1; i <= 50; i++) {
+                Payment current = manager.getPaymentByID(payment.getId());
+                
+                if (current == null) {
+                    return;
+                }
+                
+                current.setAmount(BigDecimal.valueOf(i));
+                try {
+                    manager.updatePayment(current);
+                } catch (OptimisticLockException | EntityNotFoundException | ServiceFailureException ex) {
+                }
+            }
+        });
+        Future<?> delete = executor.submit(() -> {
+            while (true) {
+                try {
+                    manager.deletePayment(manager.getPaymentByID(payment.getId()));
+                    return;
+                } catch (OptimisticLockException ex) {
+                }
+            }
+        });
+        
+        delete.get();
+        updates.get();
+        executor.shutdown();
+        
+        assertNull(manager.getPaymentByID(payment.getId()));
+        assertEquals(0, manager.getAccountStatistics(from).getCountOut());
+        assertTrue(manager.getAccountStatistics(from).getTotalOut().signum() == 0);
+        assertTrue(manager.getAccountStatistics(to).getTotalIn().signum() == 0);
+    }
+    
     @Test
     public void testUpdateAmountOfPayment() {
         Payment paymentB = preparePaymentB();        
@@ -352,6 +690,200 @@ public class PaymentManagerImplTest {
         assertDeepEqualsOfPayment(paymentB,manager.getPaymentByID(paymentB.getId()));
     }
     
+    @Test
+    public void testCreatePaymentWithInsufficientFunds() {
+        PaymentManager checkingManager = createManager(dataSource, true);
+        payment.setAmount(new BigDecimal(5000));
+        
+        expectedException.expect(InsufficientFundsException.class);
+        checkingManager.createPayment(payment);
+    }
+    
+    @Test
+    public void testLowerAmountOfPaymentWithInsufficientFundsOfToAccount() {
+        PaymentManager checkingManager = createManager(dataSource, true);
+        checkingManager.createPayment(payment);
+        checkingManager.createPayment(newPayment(to, from, new BigDecimal(550), date));
+        
+        Payment lowered = checkingManager.getPaymentByID(payment.getId());
+        lowered.setAmount(new BigDecimal(400));
+        try {
+            checkingManager.updatePayment(lowered);
+            fail("Lowering of payment took more money from to account than it has");
+        } catch (InsufficientFundsException ex) {
+            // expected
+        }
+        
+        assertTrue(checkingManager.getPaymentByID(payment.getId()).getAmount().compareTo(new BigDecimal(500)) == 0);
+        assertTrue(accountManager.getAccountById(from.getId()).getBalance().compareTo(new BigDecimal(1050)) == 0);
+        assertTrue(accountManager.getAccountById(to.getId()).getBalance().compareTo(new BigDecimal(50)) == 0);
+        
+        lowered.setAmount(new BigDecimal(460));
+        checkingManager.updatePayment(lowered);
+        assertTrue(accountManager.getAccountById(from.getId()).getBalance().compareTo(new BigDecimal(1090)) == 0);
+        assertTrue(accountManager.getAccountById(to.getId()).getBalance().compareTo(new BigDecimal(10)) == 0);
+    }
+    
+    @Test
+    public void testCreatePaymentWithStaleBalanceOfAccounts() {
+        manager.createPayment(payment);
+        Payment second = newPayment(from, to, new BigDecimal(100), date);
+        manager.createPayment(second);
+        
+        assertTrue(accountManager.getAccountById(from.getId()).getBalance().compareTo(new BigDecimal(400)) == 0);
+        assertTrue(accountManager.getAccountById(to.getId()).getBalance().compareTo(new BigDecimal(700)) == 0);
+    }
+    
+    @Test
+    public void testCreatePaymentRollbackWhenInsertFails() throws SQLException {
+        breakPaymentStorage();
+        
+        try {
+            try {
+                manager.createPayment(payment);
+                fail("Payment was created without payment table");
+            } catch (ServiceFailureException ex) {
+                // expected
+            }
+            
+            assertNull(payment.getId());
+            assertTrue(accountManager.getAccountById(from.getId()).getBalance().compareTo(new BigDecimal(1000)) == 0);
+            assertTrue(accountManager.getAccountById(to.getId()).getBalance().compareTo(new BigDecimal(100)) == 0);
+        } finally {
+            restorePaymentStorage();
+        }
+    }
+    
+    @Test
+    public void testCreatePayments() {
+        Payment paymentB = preparePaymentB();
+        Payment paymentC = newPayment(to, from, new BigDecimal(50), date);
+        setChunkSize(manager, 2);
+        
+        PaymentBatchResult result = manager.createPayments(Arrays.asList(payment, paymentB, paymentC));
+        
+        assertTrue(!result.hasFailures());
+        assertEquals(Arrays.asList(payment.getId(), paymentB.getId(), paymentC.getId()), result.getIds());
+        assertTrue(payment.getId() < paymentB.getId() && paymentB.getId() < paymentC.getId());
+        
+        payment = updateAmountsOfAccounts(payment);
+        paymentB = updateAmountsOfAccounts(paymentB);
+        paymentC = updateAmountsOfAccounts(paymentC);
+        
+        assertDeepEqualsOfPayment(paymentB, manager.getPaymentByID(paymentB.getId()));
+        assertTrue(accountManager.getAccountById(from.getId()).getBalance().compareTo(new BigDecimal(550)) == 0);
+        assertTrue(accountManager.getAccountById(to.getId()).getBalance().compareTo(new BigDecimal(550)) == 0);
+    }
+    
+    @Test
+    public void testCreatePaymentsWithFailingPayments() {
+        PaymentManager checkingManager = createManager(dataSource, true);
+        Payment invalid = newPayment(from, from, new BigDecimal(10), date);
+        Payment tooExpensive = newPayment(to, from, new BigDecimal(5000), date);
+        Account missing = newAccount("999", "missing", BigDecimal.ZERO);
+        missing.setId(to.getId() + 100);
+        Payment toMissing = newPayment(from, missing, new BigDecimal(10), date);
+        
+        PaymentBatchResult result = checkingManager.createPayments(
+                Arrays.asList(invalid, payment, tooExpensive, toMissing));
+        
+        assertEquals(3, result.getFailures().size());
+        assertThat(result.getFailures().get(0), is(instanceOf(IllegalArgumentException.class)));
+        assertThat(result.getFailures().get(2), is(instanceOf(InsufficientFundsException.class)));
+        assertThat(result.getFailures().get(3), is(instanceOf(EntityNotFoundException.class)));
+        assertEquals(Arrays.asList(null, payment.getId(), null, null), result.getIds());
+        assertEquals(1, manager.getAllPayments().size());
+        
+        assertTrue(accountManager.getAccountById(from.getId()).getBalance().compareTo(new BigDecimal(500)) == 0);
+        assertTrue(accountManager.getAccountById(to.getId()).getBalance().compareTo(new BigDecimal(600)) == 0);
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testCreatePaymentsWithNull() {
+        manager.createPayments(null);
+    }
+    
+    @Test
+    public void testConcurrentPaymentsConserveTotalBalance() throws Exception {
+        final PaymentManager checkingManager = createManager(dataSource, true);
+        final List<Account> accounts = Arrays.asList(from, to, 
+                newAccount("333", "third", new BigDecimal(50)), newAccount("444", "fourth", new BigDecimal(10)));
+        accountManager.createAccount(accounts.get(2));
+        accountManager.createAccount(accounts.get(3));
+        BigDecimal totalBefore = sumOfBalances(accounts);
+        
+        int threads = 8;
+        final int paymentsPerThread = 25;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> results = new ArrayList<>();
+        
+        for (int i = 0; i < threads; i++) {
+            final Random random = new Random(i);
+            results.add(executor.submit(() -> {
+                for (int j = 0; j < paymentsPerThread; j++) {
+                    int fromIndex = random.nextInt(accounts.size());
+                    int toIndex = (fromIndex + 1 + random.nextInt(accounts.size() - 1)) % accounts.size();
+                    Payment transfer = newPayment(accounts.get(fromIndex), accounts.get(toIndex),
+                            new BigDecimal(1 + random.nextInt(200)), date);
+                    try {
+                        checkingManager.createPayment(transfer);
+                    } catch (InsufficientFundsException | ServiceFailureException ex) {
+                        // refused or aborted payment must not change any balance
+                    }
+                }
+            }));
+        }
+        
+        for (Future<?> result : results) {
+            result.get();
+        }
+        executor.shutdown();
+        
+        assertTrue(!manager.getAllPayments().isEmpty());
+        assertTrue(totalBefore.compareTo(sumOfBalances(accounts)) == 0);
+        for (Account account : accounts) {
+            assertTrue(accountManager.getAccountById(account.getId()).getBalance().signum() >= 0);
+        }
+    }
+    
+    @Test
+    public void testOppositePaymentsWithLockManager() throws Exception {
+        final AccountLockManager lockManager = new AccountLockManager(16);
+        setLockManager(manager, lockManager);
+        BigDecimal fromBefore = from.getBalance();
+        BigDecimal toBefore = to.getBalance();
+        
+        int threads = 4;
+        final int paymentsPerThread = 25;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> results = new ArrayList<>();
+        
+        for (int i = 0; i < threads; i++) {
+            final boolean forward = i % 2 == 0;
+            results.add(executor.submit(() -> {
+                for (int j = 0; j < paymentsPerThread; j++) {
+                    manager.createPayment(forward ? newPayment(from, to, BigDecimal.ONE, date)
+                                                  : newPayment(to, from, BigDecimal.ONE, date));
+                }
+            }));
+        }
+        
+        for (Future<?> result : results) {
+            result.get();
+        }
+        executor.shutdown();
+        
+        assertEquals(threads * paymentsPerThread, manager.getAllPayments().size());
+        assertTrue(fromBefore.compareTo(accountManager.getAccountById(from.getId()).getBalance()) == 0);
+        assertTrue(toBefore.compareTo(accountManager.getAccountById(to.getId()).getBalance()) == 0);
+        
+        long acquisitions = 0;
+        for (StripeStatistics stripe : lockManager.getStatistics()) {
+            acquisitions += stripe.getAcquisitions();
+        }
+        assertEquals(2 * threads * paymentsPerThread, acquisitions);
+    }
+    
     @Test (expected = IllegalArgumentException.class)
     public void testUpdateOfNullPayment() {
         manager.updatePayment(null);
@@ -375,6 +907,87 @@ public class PaymentManagerImplTest {
         manager.updatePayment(payment);
     }
     
+    @Test
+    public void testUpdateOfStalePayment() {
+        manager.createPayment(payment);
+        Payment first = manager.getPaymentByID(payment.getId());
+        Payment second = manager.getPaymentByID(payment.getId());
+        
+        first.setAmount(BigDecimal.valueOf(600));
+        manager.updatePayment(first);
+        assertEquals(1, first.getVersion());
+        
+        second.setAmount(BigDecimal.valueOf(700));
+        try {
+            manager.updatePayment(second);
+            fail("Stale payment was updated");
+        } catch (OptimisticLockException ex) {
+            Payment current = (Payment) ex.getCurrentState();
+            assertEquals(1, current.getVersion());
+            assertTrue(current.getAmount().compareTo(BigDecimal.valueOf(600)) == 0);
+        }
+        
+        assertTrue(manager.getPaymentByID(payment.getId()).getAmount().compareTo(BigDecimal.valueOf(600)) == 0);
+        assertTrue(accountManager.getAccountById(from.getId()).getBalance().compareTo(BigDecimal.valueOf(400)) == 0);
+    }
+    
+    @Test
+    public void testUpdateOfPaymentReadBeforeOtherPayment() {
+        manager.createPayment(payment);
+        Payment stale = manager.getPaymentByID(payment.getId());
+        manager.createPayment(newPayment(from, to, BigDecimal.TEN, date));
+        
+        stale.setAmount(BigDecimal.valueOf(77));
+        manager.updatePayment(stale);
+        assertEquals(1, stale.getVersion());
+        
+        Payment stored = manager.getPaymentByID(payment.getId());
+        assertEquals(1, stored.getVersion());
+        assertTrue(stored.getAmount().compareTo(BigDecimal.valueOf(77)) == 0);
+        assertTrue(accountManager.getAccountById(from.getId()).getBalance().compareTo(BigDecimal.valueOf(913)) == 0);
+        assertTrue(accountManager.getAccountById(to.getId()).getBalance().compareTo(BigDecimal.valueOf(187)) == 0);
+    }
+    
+    @Test
+    public void testUpdateOfAccountsOfPayment() {
+        Account other = newAccount("333", "other", new BigDecimal(100));
+        accountManager.createAccount(other);
+        manager.createPayment(payment);
+        Payment changed = manager.getPaymentByID(payment.getId());
+        
+        changed.setTo(other);
+        changed.setAmount(BigDecimal.valueOf(77));
+        try {
+            manager.updatePayment(changed);
+            fail("Accounts of payment were changed");
+        } catch (IllegalArgumentException ex) {
+        }
+        
+        Payment stored = manager.getPaymentByID(payment.getId());
+        assertEquals(0, stored.getVersion());
+        assertEquals(to.getId(), stored.getTo().getId());
+        assertTrue(stored.getAmount().compareTo(BigDecimal.valueOf(500)) == 0);
+        assertTrue(accountManager.getAccountById(other.getId()).getBalance().compareTo(BigDecimal.valueOf(100)) == 0);
+    }
+    
+    @Test
+    public void testUpdateOfAccountReadBeforePayment() {
+        Account staleFrom = accountManager.getAccountById(from.getId());
+        manager.createPayment(payment);
+        
+        staleFrom.setHolder("new holder");
+        try {
+            accountManager.updateAccount(staleFrom);
+            fail("Account with balance from before payment was updated");
+        } catch (OptimisticLockException ex) {
+            Account current = (Account) ex.getCurrentState();
+            assertEquals("from", current.getHolder());
+            assertTrue(current.getBalance().compareTo(new BigDecimal(500)) == 0);
+        }
+        
+        assertTrue(accountManager.getAccountById(from.getId()).getBalance().compareTo(new BigDecimal(500)) == 0);
+    }
+    
     @Test
     public void testUpdateOfPaymentWithNegativeAmount() {
         manager.createPayment(payment);
@@ -499,5 +1112,25 @@ public class PaymentManagerImplTest {
         return paymentB;
     }
     
+    private static BigDecimal sumOfBalances(List<Account> accounts) {
+        BigDecimal sum = BigDecimal.ZERO;
+        
+        for (Account account : accounts) {
+            sum = sum.add(accountManager.getAccountById(account.getId()).getBalance());
+        }
+        
+        return sum;
+    }
+    
+    private static List<Long> idsOf(List<Payment> payments) {
+        List<Long> ids = new ArrayList<>();
+        
+        for (Payment found : payments) {
+            ids.add(found.getId());
+        }
+        
+        return ids;
+    }
+    
     private static final Comparator<Payment> idComparator = (Payment o1, Payment o2) -> o1.getId().compareTo(o2.getId());
 }
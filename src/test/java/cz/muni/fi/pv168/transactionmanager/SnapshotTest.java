@@ -0,0 +1,232 @@
+package cz.muni.fi.pv168.transactionmanager;
+
+import cz.muni.fi.pv168.utils.DBUtils;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.sql.DataSource;
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import static org.junit.Assert.assertEquals;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for class Snapshot
+ * @author Miroslav Kubus
+ */
+public class SnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DataSource source;
+    private DataSource target;
+    private AccountManagerImpl accountManager;
+    private PaymentManagerImpl paymentManager;
+    private Path file;
+
+    @Before
+    public void setUp() throws SQLException {
+        source = prepareDataSource("memory:snapshot-source-test");
+        target = prepareDataSource("memory:snapshot-target-test");
+        DBUtils.migrate(source);
+        DBUtils.migrate(target);
+
+        accountManager = new AccountManagerImpl(source);
+        paymentManager = new PaymentManagerImpl(source);
+        file = folder.getRoot().toPath().resolve("snapshot.bin");
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        for(DataSource dataSource : Arrays.asList(source, target)) {
+            DBUtils.dropAll(dataSource);
+        }
+    }
+
+    private static DataSource prepareDataSource(String name) throws SQLException {
+        EmbeddedDataSource ds = new EmbeddedDataSource();
+        ds.setDatabaseName(name);
+        ds.setCreateDatabase("create");
+        return ds;
+    }
+
+    @Test
+    public void testWriteAndRestore() {
+        Account deleted = createAccount("000", "deleted", "1");
+        Account first = createAccount("111", "Novák", "1000.5");
+        Account second = createAccount("222", "Jana", "100");
+        accountManager.deleteAccount(deleted);
+        createPayment(first, second, "12.25");
+        createPayment(second, first, "2");
+        createPayment(first, second, "0.0001");
+
+        Snapshot snapshot = new Snapshot(source);
+        snapshot.setBlockSize(2);
+
+        assertEquals(5, snapshot.write(file));
+        assertEquals(5, new Snapshot(target).restore(file));
+
+        AccountManagerImpl restoredAccounts = new AccountManagerImpl(target);
+        PaymentManagerImpl restoredPayments = new PaymentManagerImpl(target);
+        Account restoredFirst = restoredAccounts.getAccountByNumber("111");
+        Account restoredSecond = restoredAccounts.getAccountByNumber("222");
+
+        assertEquals("Novák", restoredFirst.getHolder());
+        assertEquals("Jana", restoredSecond.getHolder());
+        assertEquals(0, accountManager.getAccountById(first.getId()).getBalance().compareTo(restoredFirst.getBalance()));
+        assertEquals(accountManager.getAccountById(first.getId()).getVersion(), restoredFirst.getVersion());
+
+        List<Payment> payments = restoredPayments.getAllPayments();
+        assertEquals(3, payments.size());
+        assertEquals(2, restoredPayments.getPaymentsFromAccount(restoredFirst).size());
+
+        AccountStatistics expected = paymentManager.getAccountStatistics(accountManager.getAccountById(first.getId()));
+        AccountStatistics restored = restoredPayments.getAccountStatistics(restoredFirst);
+        assertEquals(restoredFirst.getId(), restored.getAccountId());
+        assertEquals(expected.getCountIn(), restored.getCountIn());
+        assertEquals(expected.getCountOut(), restored.getCountOut());
+        assertEquals(0, expected.getTotalOut().compareTo(restored.getTotalOut()));
+        assertEquals(expected.getLastPaymentDate(), restored.getLastPaymentDate());
+    }
+
+    @Test
+    public void testBlocksFilledExactly() {
+        Account first = createAccount("111", "first", "100");
+        Account second = createAccount("222", "second", "100");
+        createPayment(first, second, "1");
+        createPayment(second, first, "1");
+
+        Snapshot snapshot = new Snapshot(source);
+        snapshot.setBlockSize(2);
+
+        assertEquals(4, snapshot.write(file));
+        assertEquals(4, new Snapshot(target).restore(file));
+        assertEquals(2, new PaymentManagerImpl(target).getAllPayments().size());
+    }
+
+    @Test
+    public void testWriteAndRestoreEmptyDatabase() {
+        assertEquals(0, new Snapshot(source).write(file));
+        assertEquals(0, new Snapshot(target).restore(file));
+    }
+
+    @Test
+    public void testRestoreIntoMemoryStore() {
+        Account deleted = createAccount("000", "deleted", "1");
+        Account first = createAccount("111", "Novák", "1000.5");
+        Account second = createAccount("222", "Jana", "100");
+        accountManager.deleteAccount(deleted);
+        createPayment(first, second, "12.25");
+        createPayment(second, first, "2");
+
+        assertEquals(4, new Snapshot(source).write(file));
+
+        MemoryStore store = new MemoryStore(4);
+        assertEquals(4, Snapshot.restore(file, store));
+
+        MemoryAccountManager restoredAccounts = new MemoryAccountManager(store);
+        MemoryPaymentManager restoredPayments = new MemoryPaymentManager(store);
+        Account expectedFirst = accountManager.getAccountById(first.getId());
+        Account restoredFirst = restoredAccounts.getAccountById(first.getId());
+
+        assertEquals("Novák", restoredFirst.getHolder());
+        assertEquals(0, expectedFirst.getBalance().compareTo(restoredFirst.getBalance()));
+        assertEquals(expectedFirst.getVersion(), restoredFirst.getVersion());
+        assertEquals(paymentManager.getAllPayments().get(1).getId(), restoredPayments.getAllPayments().get(1).getId());
+
+        AccountStatistics expected = paymentManager.getAccountStatistics(expectedFirst);
+        AccountStatistics restored = restoredPayments.getAccountStatistics(restoredFirst);
+        assertEquals(expected.getCountIn(), restored.getCountIn());
+        assertEquals(expected.getCountOut(), restored.getCountOut());
+        assertEquals(0, expected.getTotalOut().compareTo(restored.getTotalOut()));
+        assertEquals(expected.getLastPaymentDate(), restored.getLastPaymentDate());
+
+        Account created = new Account("333", "third", BigDecimal.ONE);
+        restoredAccounts.createAccount(created);
+        assertEquals(second.getId() + 1, (long) created.getId());
+    }
+
+    @Test
+    public void testWriteWhilePaymentsAreCreated() throws Exception {
+        Account first = createAccount("111", "first", "1000000");
+        for(int i = 0; i < 500; i++) {
+            createAccount("empty-" + i, "empty", "0");
+        }
+
+        AtomicBoolean stopped = new AtomicBoolean();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        Future<?> payments = executor.submit(() -> {
+            for(int i = 0; !stopped.get(); i++) {
+                Account created = createAccount("created-" + i, "created", "0");
+                createPayment(first, created, "1");
+            }
+        });
+
+        try {
+            Snapshot snapshot = new Snapshot(source);
+            snapshot.setBlockSize(1);
+
+            for(int i = 0; i < 5; i++) {
+                snapshot.write(file);
+                MemoryStore store = new MemoryStore(4);
+                Snapshot.restore(file, store);
+
+                BigDecimal total = BigDecimal.ZERO;
+                for(Account account : new MemoryAccountManager(store).getAllAccounts()) {
+                    total = total.add(account.getBalance());
+                }
+                assertEquals(0, new BigDecimal(1000000).compareTo(total));
+            }
+        } finally {
+            stopped.set(true);
+            executor.shutdown();
+        }
+
+        payments.get();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRestoreIntoNonEmptyDatabase() {
+        createAccount("111", "first", "100");
+        new Snapshot(source).write(file);
+
+        new Snapshot(source).restore(file);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRestoreFileWhichIsNotSnapshot() throws IOException {
+        Files.write(file, new byte[]{1, 2, 3, 4, 5, 6});
+
+        new Snapshot(target).restore(file);
+    }
+
+    private Account createAccount(String number, String holder, String balance) {
+        Account account = new Account(number, holder, new BigDecimal(balance));
+        accountManager.createAccount(account);
+
+        return account;
+    }
+
+    private void createPayment(Account from, Account to, String amount) {
+        Payment payment = new Payment();
+        payment.setFrom(accountManager.getAccountById(from.getId()));
+        payment.setTo(accountManager.getAccountById(to.getId()));
+        payment.setAmount(new BigDecimal(amount));
+        payment.setDate(LocalDate.now().plusDays(1));
+        paymentManager.createPayment(payment);
+    }
+}
@@ -0,0 +1,91 @@
+package cz.muni.fi.pv168.utils;
+
+import cz.muni.fi.pv168.utils.AccountLockManager.LockedAccounts;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests for class AccountLockManager
+ * @author Miroslav Kubus
+ */
+public class AccountLockManagerTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroStripes() {
+        new AccountLockManager(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLockNullId() {
+        new AccountLockManager(4).lock(1L, null);
+    }
+
+    @Test
+    public void testAccountsOfSameStripeAreLockedOnce() {
+        AccountLockManager manager = new AccountLockManager(4);
+
+        try (LockedAccounts locked = manager.lock(1L, 5L, 9L)) {
+            assertEquals(1, manager.getStatistics().get(1).getAcquisitions());
+        }
+
+        assertEquals(0, manager.getStatistics().get(0).getAcquisitions());
+    }
+
+    @Test
+    public void testUnrelatedAccountsDoNotWait() throws Exception {
+        AccountLockManager manager = new AccountLockManager(4);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try (LockedAccounts locked = manager.lock(1L, 2L)) {
+            Future<Boolean> other = executor.submit(() -> {
+                try (LockedAccounts otherLocked = manager.lock(3L, 4L)) {
+                    return true;
+                }
+            });
+
+            assertTrue(other.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+
+        for (StripeStatistics stripe : manager.getStatistics()) {
+            assertEquals(0, stripe.getContended());
+        }
+    }
+
+    @Test
+    public void testOppositeTransfersWaitAndAreMeasured() throws Exception {
+        AccountLockManager manager = new AccountLockManager(4);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CountDownLatch started = new CountDownLatch(1);
+        Future<?> other;
+
+        try (LockedAccounts locked = manager.lock(1L, 2L)) {
+            other = executor.submit(() -> {
+                started.countDown();
+                try (LockedAccounts otherLocked = manager.lock(2L, 1L)) {
+                    return null;
+                }
+            });
+
+            started.await();
+            Thread.sleep(50);
+            assertFalse(other.isDone());
+        }
+
+        other.get(5, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        StripeStatistics first = manager.getStatistics().get(1);
+        assertEquals(2, first.getAcquisitions());
+        assertEquals(1, first.getContended());
+        assertTrue(first.getMaxWaitNanos() > 0);
+    }
+}
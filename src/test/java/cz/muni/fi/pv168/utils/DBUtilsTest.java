@@ -0,0 +1,188 @@
+package cz.muni.fi.pv168.utils;
+
+import cz.muni.fi.pv168.transactionmanager.Account;
+import cz.muni.fi.pv168.transactionmanager.AccountManager;
+import cz.muni.fi.pv168.transactionmanager.AccountManagerImpl;
+import cz.muni.fi.pv168.transactionmanager.PaymentManager;
+import java.io.File;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import javax.sql.DataSource;
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for migrations of database schema in class DBUtils
+ * @author Miroslav Kubus
+ */
+public class DBUtilsTest {
+
+    private static final int LATEST_VERSION = 9;
+    private DataSource dataSource;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws SQLException {
+        dataSource = prepareDataSource();
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        DBUtils.dropAll(dataSource);
+    }
+
+    private static DataSource prepareDataSource() throws SQLException {
+        EmbeddedDataSource ds = new EmbeddedDataSource();
+        ds.setDatabaseName("memory:dbutils-test");
+        ds.setCreateDatabase("create");
+        return ds;
+    }
+
+    @Test
+    public void testMigrateEmptyDatabase() throws SQLException {
+        assertEquals(LATEST_VERSION, DBUtils.migrate(dataSource));
+
+        Set<String> indexes = indexesOfPayment();
+        assertTrue(indexes.contains("PAYMENT_FROM_DATE"));
+        assertTrue(indexes.contains("PAYMENT_TO_DATE"));
+        assertTrue(indexes.contains("PAYMENT_DATE"));
+    }
+
+    @Test
+    public void testMigrateTwice() throws SQLException {
+        DBUtils.migrate(dataSource);
+
+        assertEquals(LATEST_VERSION, DBUtils.migrate(dataSource));
+        assertEquals(LATEST_VERSION, countOfMigrations());
+    }
+
+    @Test
+    public void testMigrateDatabaseCreatedWithoutMigrations() throws SQLException {
+        DBUtils.executeSqlScript(dataSource, AccountManager.class.getResource("createAccountTable.sql"));
+        DBUtils.executeSqlScript(dataSource, PaymentManager.class.getResource("createPaymentTable.sql"));
+
+        assertEquals(LATEST_VERSION, DBUtils.migrate(dataSource));
+        assertTrue(indexesOfPayment().contains("PAYMENT_DATE"));
+    }
+
+    @Test
+    public void testCreateDataSourceFromProperties() throws SQLException {
+        Properties properties = DBUtils.loadProperties(DBUtils.DATASOURCE_PROPERTIES);
+        properties.setProperty("pool.maxTotal", "3");
+        properties.setProperty("pool.trackLeaks", "true");
+        properties.setProperty("pool.leakSuspectMillis", "0");
+        PooledDataSource pooled = DBUtils.createDataSource("jdbc:derby:memory:dbutils-test", properties);
+
+        try (Connection connection = pooled.getConnection()) {
+            PoolStatistics statistics = pooled.getStatistics();
+
+            assertTrue(pooled.isPoolPreparedStatements());
+            assertEquals(3, statistics.getMaxTotal());
+            assertEquals(1, statistics.getActive());
+            assertEquals(1, statistics.getLeakSuspects().size());
+            assertTrue(statistics.getLeakSuspects().get(0).contains("testCreateDataSourceFromProperties"));
+        } finally {
+            pooled.close();
+        }
+
+        assertEquals(0, pooled.getStatistics().getActive());
+    }
+
+    @Test
+    public void testConnectionClosedAsAbandonedIsNotLeakSuspect() throws Exception {
+        Properties properties = DBUtils.loadProperties(DBUtils.DATASOURCE_PROPERTIES);
+        properties.setProperty("pool.trackLeaks", "true");
+        properties.setProperty("pool.leakSuspectMillis", "0");
+        properties.setProperty("pool.removeAbandonedTimeout", "1");
+        properties.setProperty("pool.timeBetweenEvictionRunsMillis", "100");
+        PooledDataSource pooled = DBUtils.createDataSource("jdbc:derby:memory:dbutils-test", properties);
+
+        try {
+            Connection abandoned = pooled.getConnection();
+            assertEquals(1, pooled.getStatistics().getLeakSuspects().size());
+
+            Thread.sleep(2500);
+
+            assertTrue(abandoned.isClosed());
+            assertTrue(pooled.getStatistics().getLeakSuspects().isEmpty());
+        } finally {
+            pooled.close();
+        }
+    }
+
+    @Test
+    public void testCreatePersistentDatabase() throws Exception {
+        String directory = new File(folder.getRoot(), "db").getPath();
+        Properties properties = DBUtils.loadProperties(DBUtils.DATASOURCE_PROPERTIES);
+
+        PooledDataSource first = DBUtils.createPersistentDatabase(directory, properties);
+        Account account = new Account("1", "holder", BigDecimal.TEN);
+        new AccountManagerImpl(first).createAccount(account);
+        first.close();
+        DBUtils.shutdownDatabase(directory);
+
+        PooledDataSource second = DBUtils.createPersistentDatabase(directory, properties);
+        try {
+            assertEquals(account, new AccountManagerImpl(second).getAccountById(account.getId()));
+        } finally {
+            second.close();
+            DBUtils.shutdownDatabase(directory);
+        }
+    }
+
+    @Test
+    public void testDerbyPropertiesStoredInDatabase() throws Exception {
+        String directory = new File(folder.getRoot(), "db").getPath();
+        Properties properties = DBUtils.loadProperties(DBUtils.DATASOURCE_PROPERTIES);
+        properties.setProperty("derby.storage.checkpointInterval", "67108864");
+
+        PooledDataSource pooled = DBUtils.createPersistentDatabase(directory, properties);
+        try (Connection connection = pooled.getConnection();
+             ResultSet rs = connection.createStatement().executeQuery(
+                     "VALUES SYSCS_UTIL.SYSCS_GET_DATABASE_PROPERTY('derby.storage.checkpointInterval')")) {
+            assertTrue(rs.next());
+            assertEquals("67108864", rs.getString(1));
+            assertNull(System.getProperty("derby.storage.checkpointInterval"));
+        } finally {
+            pooled.close();
+            DBUtils.shutdownDatabase(directory);
+        }
+    }
+
+    private Set<String> indexesOfPayment() throws SQLException {
+        Set<String> indexes = new HashSet<>();
+
+        try (Connection connection = dataSource.getConnection();
+             ResultSet rs = connection.getMetaData().getIndexInfo(null, null, "PAYMENT", false, false)) {
+            while (rs.next()) {
+                indexes.add(rs.getString("INDEX_NAME"));
+            }
+        }
+
+        return indexes;
+    }
+
+    private int countOfMigrations() throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             Statement st = connection.createStatement();
+             ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM schema_version")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package cz.muni.fi.pv168.utils;
+
+import java.lang.management.ManagementFactory;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Tests for class LatencyHistogram
+ * @author Miroslav Kubus
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void testEmptyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMeanNanos());
+        assertEquals(0, histogram.getValueAtQuantile(0.99));
+    }
+
+    @Test
+    public void testBucketsCoverAllValues() {
+        for (long value = 0; value < 100000; value++) {
+            int index = LatencyHistogram.bucketIndex(value);
+            assertTrue(value <= LatencyHistogram.highestValueInBucket(index));
+            assertTrue(index == 0 || value > LatencyHistogram.highestValueInBucket(index - 1));
+        }
+    }
+
+    @Test
+    public void testQuantiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        for (long micros = 1; micros <= 1000; micros++) {
+            histogram.record(micros * 1000);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000000, histogram.getMaxNanos());
+        assertWithinError(500000, histogram.getValueAtQuantile(0.5));
+        assertWithinError(990000, histogram.getValueAtQuantile(0.99));
+        assertWithinError(999000, histogram.getValueAtQuantile(0.999));
+        assertEquals(1000000, histogram.getValueAtQuantile(1));
+    }
+
+    @Test
+    public void testValuesOverMaximum() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE);
+        histogram.record(-5);
+
+        assertEquals(2, histogram.getCount());
+        assertEquals(0, histogram.getValueAtQuantile(0.5));
+        assertEquals(Long.MAX_VALUE, histogram.getMaxNanos());
+    }
+
+    @Test
+    public void testRecordingDoesNotAllocate() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported());
+
+        OperationMetrics metrics = new OperationMetrics("test");
+        long thread = Thread.currentThread().getId();
+
+        for (int i = 0; i < 100000; i++) {
+            metrics.record(System.nanoTime() - i);
+        }
+
+        long before = allocations.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 100000; i++) {
+            metrics.record(System.nanoTime() - i);
+            metrics.recordError(System.nanoTime() - i);
+        }
+        long allocated = allocations.getThreadAllocatedBytes(thread) - before;
+
+        assertTrue("Recording allocated " + allocated + " bytes", allocated < 1024);
+        assertEquals(300000, metrics.getCount());
+        assertEquals(100000, metrics.getErrors());
+    }
+
+    private static void assertWithinError(long expected, long actual) {
+        assertTrue("Expected about " + expected + " but was " + actual,
+                actual >= expected && actual <= expected * 1.04);
+    }
+}
@@ -0,0 +1,92 @@
+package cz.muni.fi.pv168.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests for classes LongHashMap and LongList
+ * @author Miroslav Kubus
+ */
+public class LongHashMapTest {
+
+    @Test
+    public void testPutGetRemove() {
+        LongHashMap<String> map = new LongHashMap<>();
+
+        assertNull(map.put(1, "a"));
+        assertNull(map.put(-1, "b"));
+        assertEquals("a", map.put(1, "c"));
+
+        assertEquals(2, map.size());
+        assertEquals("c", map.get(1));
+        assertEquals("b", map.get(-1));
+        assertNull(map.get(2));
+
+        assertEquals("c", map.remove(1));
+        assertNull(map.remove(1));
+        assertFalse(map.containsKey(1));
+        assertEquals(1, map.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPutNullValue() {
+        new LongHashMap<String>().put(1, null);
+    }
+
+    @Test
+    public void testRandomOperationsMatchHashMap() {
+        LongHashMap<Long> map = new LongHashMap<>();
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 100000; i++) {
+            long key = random.nextInt(2000);
+
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                assertEquals(expected.put(key, (long) i), map.put(key, (long) i));
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+
+        for (long key = 0; key < 2000; key++) {
+            assertEquals(expected.get(key), map.get(key));
+        }
+
+        assertEquals(expected.size(), map.values().size());
+        assertTrue(map.values().containsAll(expected.values()));
+    }
+
+    @Test
+    public void testLongList() {
+        LongList list = new LongList(0);
+
+        for (long value = 0; value < 10; value++) {
+            list.add(value);
+        }
+
+        assertTrue(list.remove(3));
+        assertFalse(list.remove(3));
+        assertTrue(list.remove(9));
+
+        assertEquals(8, list.size());
+        assertEquals(4, list.get(3));
+        assertEquals(8, list.get(7));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testLongListIndexOutOfBounds() {
+        LongList list = new LongList();
+        list.add(1);
+
+        list.get(1);
+    }
+}
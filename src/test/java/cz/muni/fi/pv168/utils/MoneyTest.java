@@ -0,0 +1,56 @@
+package cz.muni.fi.pv168.utils;
+
+import java.math.BigDecimal;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests for class Money
+ * @author Miroslav Kubus
+ */
+public class MoneyTest {
+
+    @Test
+    public void testConversionOfBigDecimal() {
+        assertEquals(123456, Money.of(new BigDecimal("12.3456")).getUnits());
+        assertEquals(5000000, Money.of(new BigDecimal(500)).getUnits());
+        assertEquals(-10000, Money.of(new BigDecimal("-1.00000")).getUnits());
+        assertEquals(0, new BigDecimal("12.3456").compareTo(Money.ofUnits(123456).toBigDecimal()));
+        assertEquals(Money.of(new BigDecimal("1.5")), Money.of(new BigDecimal("1.5000")));
+        assertEquals("1.5000", Money.of(new BigDecimal("1.5")).toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooPreciseAmount() {
+        Money.of(new BigDecimal("0.00001"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAmountOutOfRange() {
+        Money.of(BigDecimal.valueOf(Long.MAX_VALUE));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullAmount() {
+        Money.of(null);
+    }
+
+    @Test
+    public void testArithmetic() {
+        Money ten = Money.of(BigDecimal.TEN);
+        Money one = Money.of(BigDecimal.ONE);
+
+        assertEquals(Money.of(new BigDecimal(11)), ten.add(one));
+        assertEquals(Money.of(new BigDecimal(-9)), one.subtract(ten));
+        assertEquals(-1, one.negate().signum());
+        assertTrue(one.isLessThan(ten));
+        assertTrue(ten.compareTo(one) > 0);
+        assertEquals(Money.ZERO, one.subtract(one));
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testOverflow() {
+        Money.ofUnits(Long.MAX_VALUE).add(Money.ofUnits(1));
+    }
+}